@@ -1,13 +1,15 @@
 package org.moriano.locones;
 
 
-import org.moriano.locones.memory.Memory;
+import org.moriano.locones.memory.Bus;
 import org.moriano.locones.util.ByteUtil;
-import org.moriano.locones.util.LogReader;
+import org.moriano.locones.util.GoldenLog;
 import org.moriano.locones.util.LogStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
+
 
 /**
  * Created with IntelliJ IDEA.
@@ -58,11 +60,14 @@ public class CPU {
     private int cycles;
     private int ppuCycles;
 
-    private Memory memory;
+    private Bus memory;
     private PPU ppu;
 
 
     private int lastCode = 0;
+    private int lastOperandLength = 0; // Bytes after the opcode, 0 to 2
+    private int lastOperand0 = 0;
+    private int lastOperand1 = 0;
 
     private transient String firstInstructionArg =  "";
     private transient String secondInstructionArg = "";
@@ -70,8 +75,6 @@ public class CPU {
 
     private int iteration = 0;
 
-    private LogReader logReader = new LogReader();
-
     int fragmentPPUCycles = 0;
 
     public CPU(int initialPC) {
@@ -115,7 +118,7 @@ public class CPU {
     }
 
 
-    public void setMemory(Memory memory) {
+    public void setMemory(Bus memory) {
         this.memory = memory;
     }
 
@@ -233,6 +236,7 @@ public class CPU {
 
         this.firstInstructionArg ="";
         this.secondInstructionArg ="";
+        this.lastOperandLength = 0;
 
         if(oldXHex.length() == 1) {
             oldXHex = "0"+oldXHex;
@@ -1944,7 +1948,7 @@ public class CPU {
     }
 
     private boolean checkIterationSanity(String instruction, int programCounter, int iteration, int oldA, int oldX, int oldY, int oldSP, int oldP, int cycles) {
-        LogStatus status = this.logReader.getLogStatus(iteration);
+        LogStatus status = GoldenLog.nestest().getLogStatus(iteration);
 
         if(status.getAddress() == programCounter &&
                 status.getInstruction().equals(instruction) &&
@@ -2001,6 +2005,8 @@ public class CPU {
         if(totalBytes == 1) {
             int arg = this.memory.read(this.programCounter + 1);
             this.programCounter += 1;
+            this.lastOperandLength = 1;
+            this.lastOperand0 = arg;
             this.firstInstructionArg = Integer.toHexString(arg).toUpperCase();
             if(this.firstInstructionArg.length() == 1) {
                 this.firstInstructionArg = "0"+this.firstInstructionArg;
@@ -2011,6 +2017,9 @@ public class CPU {
         else if(totalBytes == 2) {
             int second = this.memory.read(this.programCounter + 1);
             int first = this.memory.read(this.programCounter + 2);
+            this.lastOperandLength = 2;
+            this.lastOperand0 = second;
+            this.lastOperand1 = first;
 
             this.firstInstructionArg = Integer.toHexString(first).toUpperCase();
             if(this.firstInstructionArg.length() == 1) {
@@ -3460,6 +3469,23 @@ public class CPU {
     }
 
 
+    /**
+     * @return How many bytes of operand the last instruction had, 0 to 2
+     */
+    public int getLastOperandLength() {
+        return lastOperandLength;
+    }
+
+    /**
+     * The operand bytes of the last instruction, as they are in memory (so for a 2 byte address, the low byte first).
+     * Unlike {@link #getFirstInstructionArg()} and {@link #getSecondInstructionArg()} no strings are involved.
+     * @param index 0 for the byte right after the opcode, 1 for the next one
+     * @return
+     */
+    public int getLastOperand(int index) {
+        return index == 0 ? this.lastOperand0 : this.lastOperand1;
+    }
+
     public String getFirstInstructionArg() {
         return firstInstructionArg;
     }
@@ -3492,6 +3518,32 @@ public class CPU {
         return programCounter;
     }
 
+    /**
+     * Puts the CPU right before any instruction, the cycles are left as they are. Meant for tests that do not start
+     * from a reset, like the single step ones.
+     * @param programCounter
+     * @param registerA
+     * @param registerX
+     * @param registerY
+     * @param registerS
+     * @param registerP Same bits as {@link #calculateRegisterP()}
+     */
+    public void setRegisters(int programCounter, int registerA, int registerX, int registerY, int registerS,
+                             int registerP) {
+        this.programCounter = programCounter & 0xFFFF;
+        this.registerA = registerA & 0xFF;
+        this.registerX = registerX & 0xFF;
+        this.registerY = registerY & 0xFF;
+        this.registerS = registerS & 0xFF;
+        this.carryFlag = (registerP & 0x01) != 0;
+        this.zeroFlag = (registerP & 0x02) != 0;
+        this.interruptDisable = (registerP & 0x04) != 0;
+        this.decimalMode = (registerP & 0x08) != 0;
+        this.breakCommand = (registerP & 0x10) != 0;
+        this.overflowFlag = (registerP & 0x40) != 0;
+        this.negativeFlag = (registerP & 0x80) != 0;
+    }
+
     public boolean isCarryFlag() {
         return carryFlag;
     }
@@ -3520,6 +3572,51 @@ public class CPU {
         return negativeFlag;
     }
 
+    /**
+     * Writes the registers, flags and cycle counters, see {@link org.moriano.locones.state.SaveState}
+     * @param state
+     */
+    public void save(ByteBuffer state) {
+        state.put((byte) this.registerA);
+        state.put((byte) this.registerX);
+        state.put((byte) this.registerY);
+        state.put((byte) this.registerS);
+        state.putShort((short) this.programCounter);
+        int flags = 0;
+        flags |= this.carryFlag ? 0x01 : 0;
+        flags |= this.zeroFlag ? 0x02 : 0;
+        flags |= this.interruptDisable ? 0x04 : 0;
+        flags |= this.decimalMode ? 0x08 : 0;
+        flags |= this.breakCommand ? 0x10 : 0;
+        flags |= this.overflowFlag ? 0x40 : 0;
+        flags |= this.negativeFlag ? 0x80 : 0;
+        state.put((byte) flags);
+        state.putInt(this.cycles);
+        state.putInt(this.ppuCycles);
+        state.putInt(this.fragmentPPUCycles);
+        state.putInt(this.iteration);
+    }
+
+    public void load(ByteBuffer state) {
+        this.registerA = state.get() & 0xFF;
+        this.registerX = state.get() & 0xFF;
+        this.registerY = state.get() & 0xFF;
+        this.registerS = state.get() & 0xFF;
+        this.programCounter = state.getShort() & 0xFFFF;
+        int flags = state.get();
+        this.carryFlag = (flags & 0x01) != 0;
+        this.zeroFlag = (flags & 0x02) != 0;
+        this.interruptDisable = (flags & 0x04) != 0;
+        this.decimalMode = (flags & 0x08) != 0;
+        this.breakCommand = (flags & 0x10) != 0;
+        this.overflowFlag = (flags & 0x40) != 0;
+        this.negativeFlag = (flags & 0x80) != 0;
+        this.cycles = state.getInt();
+        this.ppuCycles = state.getInt();
+        this.fragmentPPUCycles = state.getInt();
+        this.iteration = state.getInt();
+    }
+
 
     private int addressingModeImplicit(int argument) {
         return argument;
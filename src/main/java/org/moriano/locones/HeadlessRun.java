@@ -0,0 +1,88 @@
+package org.moriano.locones;
+
+import org.moriano.locones.apu.APU;
+import org.moriano.locones.audio.AudioSink;
+import org.moriano.locones.audio.WavFileSink;
+import org.moriano.locones.cartridge.Cartridge;
+import org.moriano.locones.screen.HeadlessFrameSink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs a cartridge with no display at all, as fast as possible, and reports how many frames per second we
+ * are able to emulate.
+ *
+ * Nothing in here (or in the core) touches Swing/AWT, run it with -verbose:class to double check that no java.awt
+ * class gets loaded.
+ *
+ * Usage: HeadlessRun [romPath, nestest by default] [frames] [initialPC in hex, C004 by default]
+ *                    [wav file to write the audio to]
+ *
+ * The emulator is far from complete, so most programs will eventually run into something that we do not support
+ * yet: an UnsupportedOperationException, or an IllegalArgumentException for an address it cannot map. Started at
+ * $C004 nestest does so right after its first full frame, reading the save RAM at $6000. When that happens the NES is
+ * powered off and on again and we carry on, the number of restarts is reported too. Anything else is a bug in the
+ * core and stops the run, and so does a ROM that keeps failing before it completes a single full frame.
+ *
+ * Watch out, the PPU powers on at scanline 241, so the first frame of every NES is little more than a vblank. Only
+ * the full frames are counted and timed, otherwise a run with many restarts would be measuring how fast we power on.
+ */
+public class HeadlessRun {
+
+    private static final Logger log = LoggerFactory.getLogger(HeadlessRun.class);
+
+    private static final int MAX_RESTARTS_IN_A_ROW = 10; // With no full frame completed in between
+
+    public static void main(String[] args) {
+        int totalFrames = args.length > 1 ? Integer.parseInt(args[1]) : 600;
+        int initialPC = args.length > 2 ? Integer.parseInt(args[2], 16) : 0xC004;
+        WavFileSink audioSink = args.length > 3 ? new WavFileSink(args[3], APU.DEFAULT_SAMPLE_RATE) : null;
+
+        Cartridge cartridge = args.length > 0 ? Cartridge.loadFromFile(args[0]) : Cartridge.nestest();
+        HeadlessFrameSink frameSink = new HeadlessFrameSink();
+        NES nes = newNES(cartridge, initialPC, frameSink, audioSink);
+        int restarts = 0;
+        int restartsInARow = 0;
+        int fullFrames = 0;
+        long emulationNanos = 0;
+
+        long start = System.nanoTime();
+        while (fullFrames < totalFrames) {
+            try {
+                long frameStart = System.nanoTime();
+                nes.runFrame();
+                if (nes.getFrameNumber() > 1) {
+                    emulationNanos += System.nanoTime() - frameStart;
+                    fullFrames++;
+                    restartsInARow = 0;
+                }
+            } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                log.warn("Restarting after " + fullFrames + " full frames: " + e.getMessage());
+                restarts++;
+                restartsInARow++;
+                if (restartsInARow >= MAX_RESTARTS_IN_A_ROW) {
+                    throw new IllegalStateException("Giving up, restarted " + restartsInARow
+                            + " times in a row without completing a single full frame", e);
+                }
+                nes = newNES(cartridge, initialPC, frameSink, audioSink);
+            }
+        }
+        long end = System.nanoTime();
+        if (audioSink != null) {
+            audioSink.close();
+            log.info("Wrote " + audioSink.getTotalSamples() + " samples to " + args[3]);
+        }
+
+        double seconds = emulationNanos / 1_000_000_000d;
+        log.info("We have run " + fullFrames + " full frames in " + seconds + " seconds, which is " +
+                fullFrames / seconds + " frames per second (" + restarts + " restarts, "
+                + (end - start) / 1_000_000 + "ms in total)");
+    }
+
+    private static NES newNES(Cartridge cartridge, int initialPC, HeadlessFrameSink frameSink, AudioSink audioSink) {
+        NES nes = new NES(cartridge, initialPC, false, frameSink);
+        nes.setPrintTrace(false);
+        nes.setAudioSink(audioSink);
+        return nes;
+    }
+}
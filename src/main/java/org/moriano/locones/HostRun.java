@@ -0,0 +1,34 @@
+package org.moriano.locones;
+
+import org.moriano.locones.cartridge.Cartridge;
+import org.moriano.locones.host.EmulatorHost;
+import org.moriano.locones.screen.HeadlessFrameSink;
+
+/**
+ * Runs many headless sessions of the same cartridge at the same time through an {@link EmulatorHost}, and reports
+ * how many frames per second each of them (and all of them together) got.
+ *
+ * Usage: HostRun [romPath, nestest by default] [sessions] [frames per session] [threads] [initialPC in hex]
+ */
+public class HostRun {
+
+    public static void main(String[] args) {
+        int sessions = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int frames = args.length > 2 ? Integer.parseInt(args[2]) : 60;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        int initialPC = args.length > 4 ? Integer.parseInt(args[4], 16) : 0xC004;
+
+        Cartridge cartridge = args.length > 0 ? Cartridge.loadFromFile(args[0]) : Cartridge.nestest();
+        try (EmulatorHost host = new EmulatorHost(threads, EmulatorHost.DEFAULT_FRAMES_PER_SLICE)) {
+            for (int i = 0; i < sessions; i++) {
+                host.start("session-" + i, () -> {
+                    NES nes = new NES(cartridge, initialPC, false, new HeadlessFrameSink());
+                    nes.setPrintTrace(false);
+                    return nes;
+                }, frames);
+            }
+            host.awaitAll();
+            host.logReport();
+        }
+    }
+}
@@ -1,15 +1,27 @@
 package org.moriano.locones;
 
+import org.moriano.locones.apu.APU;
+import org.moriano.locones.audio.AudioPump;
+import org.moriano.locones.audio.AudioSink;
 import org.moriano.locones.cartridge.Cartridge;
+import org.moriano.locones.input.InputSource;
 import org.moriano.locones.memory.Memory;
-import org.moriano.locones.screen.Screen;
-import org.moriano.locones.util.LogReader;
+import org.moriano.locones.screen.FrameSink;
+import org.moriano.locones.state.RewindBuffer;
+import org.moriano.locones.state.SaveState;
+import org.moriano.locones.state.StateHash;
+import org.moriano.locones.timing.FramePacer;
+import org.moriano.locones.trace.TraceWriter;
+import org.moriano.locones.util.GoldenLog;
 import org.moriano.locones.util.LogStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import java.util.concurrent.TimeUnit;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 
 /**
  * Created with IntelliJ IDEA.
@@ -24,77 +36,422 @@ public class NES {
     private CPU cpu;
     private Memory memory;
     private PPU ppu;
-    private final LogReader logReader = new LogReader();
+    private GoldenLog goldenLog; // Only needed (and only loaded) when checking against nestest.log
     private int totalMemoryErrors = 0;
-    private final Screen screen = new Screen();
     private final boolean checkNestTestLog;
-
-    public NES(Cartridge cartridge, int initialPC, boolean checkNestTestLog) {
+    private boolean printTrace = false; // See setPrintTrace
+    private FramePacer framePacer; // No pacer means we run as fast as we can
+    private AudioPump audioPump; // No pump means the samples are just thrown away
+    private RewindBuffer rewindBuffer; // No buffer means no rewind
+    private BooleanSupplier rewinding;
+    private int runAheadFrames = 0;
+    private boolean runningAhead = false; // In the frames that load() is about to undo, nothing gets traced
+    private ByteBuffer runAheadState; // Only allocated when running ahead
+    private boolean skipRendering = false; // What the pacer asked for the next frame
+    private ByteBuffer scratch; // For forking and hashing, only allocated when needed
+    private TraceWriter traceWriter; // No writer means no binary trace
+    private volatile boolean stopRequested = false;
+    private final CountDownLatch stopped = new CountDownLatch(1); // Released once run() is out of its loop
+    private int cpuIterations = 0;
+
+    /**
+     * @param cartridge
+     * @param initialPC
+     * @param checkNestTestLog
+     * @param frameSink Where the frames produced by the PPU go. The core itself knows nothing about Swing, see
+     *                  {@link org.moriano.locones.screen.HeadlessFrameSink} to run with no display at all
+     */
+    public NES(Cartridge cartridge, int initialPC, boolean checkNestTestLog, FrameSink frameSink) {
         this.checkNestTestLog = checkNestTestLog;
+        if (checkNestTestLog) {
+            this.goldenLog = GoldenLog.nestest();
+        }
         this.cpu = new CPU(initialPC);
         log.info("Emulating with cart ==> " + cartridge);
-        long paletteStart = System.currentTimeMillis();
-        this.screen.showSystemPalette();
-        long paletteEnd = System.currentTimeMillis();
-        log.info("Palette generated in " + (paletteEnd-paletteStart) + "ms");
         this.memory = new Memory(cartridge);
-        this.ppu = new PPU(memory, 241); // Initialize SL to 241 as per nestest.log
+        this.memory.setRecordOperations(checkNestTestLog);
+        this.ppu = new PPU(memory, 241, frameSink); // Initialize SL to 241 as per nestest.log
         this.cpu.setMemory(memory);
         this.cpu.setPpu(ppu);
-        long start = System.currentTimeMillis();
-        int totalFrames = 200;
-        for(int i = 0; i<=totalFrames; i++) {
-            this.screen.generateRandomFrame();
-        }
-        long end = System.currentTimeMillis();
+        this.memory.getApu().setCpuClock(this.cpu::getCycles);
+    }
+
+    /**
+     * See {@link #fork(FrameSink)}
+     */
+    private NES(NES parent, FrameSink frameSink) {
+        this.checkNestTestLog = false;
+        this.printTrace = parent.printTrace;
+        ByteBuffer scratch = parent.getScratch();
+        this.cpu = new CPU(0);
+        scratch.clear();
+        parent.cpu.save(scratch);
+        this.cpu.load(scratch.flip()); // Before anything else, the APU takes the CPU clock as it is when plugged in
+
+        this.memory = parent.memory.fork(scratch);
+        this.ppu = new PPU(this.memory, 0, frameSink);
+        this.cpu.setMemory(this.memory);
+        this.cpu.setPpu(this.ppu);
+        this.memory.getApu().setCpuClock(this.cpu::getCycles);
+
+        scratch.clear();
+        parent.ppu.save(scratch);
+        this.ppu.load(scratch.flip());
+    }
+
+    /**
+     * A new NES exactly where this one is, that goes its own way from now on. Meant for exploring many branches of
+     * input from the same point (tree search): it is a save and load without the state in between. The cartridge is
+     * shared, the rest is copied (see {@link Memory#fork(ByteBuffer)}). Watch out, most of what a fork costs is
+     * building the new machine (frame buffer, APU...), a search that keeps its branches around should fork into NES it
+     * already has instead, see {@link #forkInto(NES)}.
+     *
+     * Only the machine is forked, not what is plugged into it: the copy has no input sources (see
+     * {@link #setInputSource(int, InputSource)}), no audio sink, no pacer, no rewind and no run ahead. Just like
+     * {@link #save(ByteBuffer)}, meant to be called between frames.
+     * @param frameSink Where the frames of the copy go
+     * @return
+     */
+    public NES fork(FrameSink frameSink) {
+        return new NES(this, frameSink);
+    }
 
-        double seconds = (end-start)/1000f;
-        log.info("We have run " + totalFrames + "frames in " + seconds + " seconds, which is " + totalFrames/seconds + "Frames per second");
+    /**
+     * Same as {@link #fork(FrameSink)}, but into an NES that exists already, so nothing is allocated: the RAM and VRAM
+     * are copied straight over (see {@link Memory#copyInto(Memory, ByteBuffer)}) rather than written into a state and
+     * read back, see {@link org.moriano.locones.benchmark.ForkBenchmark}. Whatever is plugged into spare stays, and
+     * its input sources are told just like on {@link #load(ByteBuffer)}.
+     * @param spare Has to be running the very same cartridge
+     */
+    public void forkInto(NES spare) {
+        ByteBuffer scratch = this.getScratch();
+        scratch.clear();
+        this.cpu.save(scratch);
+        this.ppu.save(scratch);
+        scratch.flip();
+        spare.cpu.load(scratch);
+        spare.ppu.load(scratch);
+        this.memory.copyInto(spare.memory, scratch);
+        spare.stateLoaded();
+    }
 
-        int a = 1;
+    /**
+     * Printing the trace of every single instruction is what we want when debugging, but it is way too slow
+     * for anything else, so it is off unless asked for (Run does with --print-trace)
+     * @param printTrace
+     */
+    public void setPrintTrace(boolean printTrace) {
+        this.printTrace = printTrace;
     }
 
+    /**
+     * Traces every instruction into a binary file instead, which is cheap enough to leave on while playing. While
+     * there is a trace writer, nothing is printed. See {@link org.moriano.locones.trace.TraceDump} to read it.
+     *
+     * Every so often (see {@link TraceWriter#wantsSnapshot()}) the whole state goes into the trace too. That
+     * happens between two instructions rather than between frames, the machine carries on exactly from there but the
+     * part of the picture already drawn in that frame is not in the state.
+     * @param traceWriter null to stop tracing. When the NES is driven by {@link #run()}, it closes the writer itself
+     *                    once it stops (see {@link #stop(long)}), otherwise closing it is up to the caller, from the
+     *                    emulation thread, after the last step.
+     */
+    public void setTraceWriter(TraceWriter traceWriter) {
+        this.traceWriter = traceWriter;
+    }
 
+    /**
+     * @param framePacer Keeps the emulation at the speed of the real console, null to run as fast as possible
+     */
+    public void setFramePacer(FramePacer framePacer) {
+        this.framePacer = framePacer;
+    }
 
-    public void run() {
-        int iterations = 0;
-        int cpuIterations = 0;
-        int oldPPUCycles = 0;
-        int ppuCycles = 0;
-        int fragmentPPUCycles = 0;
-        while(true) {
-
-            iterations++;
-            this.ppu.cycle(this.cpu.getCycles());
+    /**
+     * @param audioSink Where the audio samples go, null for no sound at all
+     */
+    public void setAudioSink(AudioSink audioSink) {
+        this.audioPump = audioSink == null ? null : new AudioPump(this.memory.getApu(), audioSink);
+    }
 
-            if (iterations % 3 == 0) { // The CPU has a cycle every 3 cycles of the PPU
+    /**
+     * @param port 1 or 2
+     * @param inputSource Who is holding that controller, null for nobody
+     */
+    public void setInputSource(int port, InputSource inputSource) {
+        this.memory.getController(port).setInputSource(inputSource);
+    }
 
-                ppuCycles = fragmentPPUCycles + (this.cpu.getCycles() * 3);
-                if(ppuCycles >= 341) {
-                    ppuCycles = ppuCycles - 341;
-                    fragmentPPUCycles = ppuCycles;
-                }
+    /**
+     * @param rewindBuffer Keeps the last frames, null for no rewind at all
+     * @param rewinding Tells whether the player wants to go back in time right now
+     */
+    public void setRewindBuffer(RewindBuffer rewindBuffer, BooleanSupplier rewinding) {
+        this.rewindBuffer = rewindBuffer;
+        this.rewinding = rewinding;
+    }
 
-                oldPPUCycles = ppuCycles;
-                cpuIterations++;
-                LogStatus expected = logReader.getLogStatus(cpuIterations);
+    /**
+     * Many games only react to the controller a frame or two after reading it, that lag is built into the game and is
+     * felt on top of the lag of the display. Running ahead hides it: each frame is emulated for real but not shown,
+     * then the state is saved, that many more frames are emulated with the current input (silently, and only the last one
+     * is drawn), and the state is loaded back. What is shown is what the game will look like a few frames from now,
+     * should the player keep the same buttons pressed.
+     *
+     * Each frame of run ahead costs a whole extra frame of emulation plus a save and a load, see
+     * {@link org.moriano.locones.benchmark.RunAheadBenchmark}.
+     *
+     * Going further than the lag of the game itself shows things before they happen, 1 or 2 is usually enough. The
+     * input read while running ahead is forgotten by the load (see {@link InputSource#stateLoaded(long)}), a movie
+     * being recorded only keeps what the real frames got.
+     * @param frames 0 to disable it
+     */
+    public void setRunAheadFrames(int frames) {
+        if (frames < 0) {
+            throw new IllegalArgumentException("Watch out, can not run " + frames + " frames ahead");
+        }
+        this.runAheadFrames = frames;
+        if (frames > 0 && this.runAheadState == null) {
+            this.runAheadState = SaveState.allocate();
+        }
+    }
 
-                if (this.checkNestTestLog && expected == null) {
-                    System.out.println("Tests passed!!!");
-                    System.exit(0);
+    public void run() {
+        try {
+            this.runFrames();
+        } finally {
+            /*
+            Only here, on the emulation thread, nothing can be appending to the trace anymore
+             */
+            if (this.traceWriter != null) {
+                try {
+                    this.traceWriter.close();
+                } catch (RuntimeException e) {
+                    log.error("Could not close the trace", e); // Not to hide whatever stopped the loop, if anything
                 }
+            }
+            this.stopped.countDown();
+        }
+    }
 
-                LogStatus status = this.cpu.cycle();
+    /**
+     * Asks {@link #run()} to stop after the frame it is in, and waits for it (and for the trace, if any, to be
+     * closed). Meant for shutdown hooks: the emulation thread is still going when they run.
+     * @param timeoutMillis How long to wait at most
+     * @return false if run() did not stop in time (or was never called), nothing was closed then
+     */
+    public boolean stop(long timeoutMillis) {
+        this.stopRequested = true;
+        try {
+            return this.stopped.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
 
-                if (this.checkNestTestLog) {
-                    this.checkIterationSanity(status, expected, cpuIterations);
-                } else {
-                    this.printTrace(status, cpuIterations);
-                    int a = 1;
+    private void runFrames() {
+        while(!this.stopRequested) {
+            if (this.rewindBuffer != null) {
+                /*
+                Going back means loading the state at the start of the previous frame and running (and showing) that
+                frame again, one frame back per displayed frame
+                 */
+                if (!this.rewinding.getAsBoolean() || !this.rewindBuffer.stepBack(this)) {
+                    this.rewindBuffer.push(this);
                 }
-                int b = 2;
             }
+            if (this.runAheadFrames > 0) {
+                this.runFrameAhead();
+            } else {
+                this.runFrame();
+            }
+            if (this.framePacer != null) {
+                this.skipRendering = !this.framePacer.waitForNextFrame();
+                this.ppu.setSkipRendering(this.skipRendering);
+            }
+        }
+    }
+
+    /**
+     * Runs instructions until the PPU completes a frame, by then the audio samples of the frame are ready too
+     */
+    public void runFrame() {
+        this.runUntilFrameCompletes();
+        this.memory.getApu().endFrame();
+        if (this.audioPump != null) {
+            this.audioPump.frameCompleted();
+        }
+    }
+
+    /**
+     * Runs a single frame the way {@link #setRunAheadFrames(int)} explains. The frame that is heard is the real one,
+     * the frame that is shown (unless rendering is skipped) is the last one ahead, and by the time this returns the
+     * machine is right after the real frame, as if {@link #runFrame()} had been called.
+     */
+    public void runFrameAhead() {
+        this.ppu.setSkipRendering(true);
+        this.runFrame();
+
+        this.runAheadState.clear();
+        this.save(this.runAheadState);
+        this.runAheadState.flip();
+
+        int iterations = this.cpuIterations;
+        APU apu = this.memory.getApu();
+        apu.setMuted(true);
+        this.runningAhead = true;
+        try {
+            for (int frame = 1; frame <= this.runAheadFrames; frame++) {
+                this.ppu.setSkipRendering(this.skipRendering || frame < this.runAheadFrames);
+                this.runUntilFrameCompletes();
+                apu.endFrame();
+            }
+        } finally {
+            this.runningAhead = false;
+            apu.setMuted(false);
+            this.ppu.setSkipRendering(this.skipRendering);
+        }
+        this.load(this.runAheadState);
+        this.cpuIterations = iterations;
+    }
+
+    public APU getApu() {
+        return this.memory.getApu();
+    }
+
+    /**
+     * Runs instructions, catching the PPU up with the CPU after each one, and stops right as the PPU completes the
+     * frame: the first instruction of the next frame belongs to the next call. Whatever is saved, loaded or latched
+     * between two calls is then in the frame it seems to be in, a recorded movie (see
+     * {@link org.moriano.locones.movie.MovieRecorder}) depends on that.
+     */
+    private void runUntilFrameCompletes() {
+        long frameNumber = this.ppu.getFrameNumber();
+        this.ppu.cycle(this.cpu.getCycles()); // Only catches up on power on, otherwise the last call already did
+        while (this.ppu.getFrameNumber() == frameNumber) {
+            this.step();
+            this.ppu.cycle(this.cpu.getCycles());
+        }
+    }
+
+    /**
+     * Runs a single instruction, catching the PPU up first just like {@link #runUntilFrameCompletes()} does. Only for
+     * the tests that check every instruction, see NestestTest.
+     * @return What the CPU looked like before running it
+     */
+    LogStatus runInstruction() {
+        this.ppu.cycle(this.cpu.getCycles());
+        return this.step();
+    }
+
+    /**
+     * Runs a single CPU instruction, the PPU has to be caught up with the CPU already
+     * @return What the CPU looked like before running it
+     */
+    private LogStatus step() {
+        this.cpuIterations++;
+        LogStatus expected = null;
+        if (this.checkNestTestLog) {
+            expected = this.goldenLog.getLogStatus(cpuIterations);
+            if (expected == null) {
+                System.out.println("Tests passed!!!");
+                System.exit(0);
+            }
+        }
+
+        /*
+        Same condition as the record below: a snapshot without its record would leave the writer waiting for it, and
+        the frames run ahead are undone by load(), they never happened as far as the trace is concerned
+         */
+        boolean writeTrace = this.traceWriter != null && !this.checkNestTestLog && !this.runningAhead;
+        if (writeTrace && this.traceWriter.wantsSnapshot()) {
+            ByteBuffer scratch = this.getScratch();
+            scratch.clear();
+            this.save(scratch);
+            this.traceWriter.addSnapshot(scratch.flip());
+        }
+        LogStatus status = this.cpu.cycle();
+
+        if (this.checkNestTestLog) {
+            this.checkIterationSanity(status, expected, cpuIterations);
+        } else if (writeTrace) {
+            this.writeTrace(status);
+        } else if (this.printTrace && this.traceWriter == null && !this.runningAhead) {
+            this.printTrace(status, cpuIterations);
+        }
+        return status;
+    }
+
+    /**
+     * Snapshots the whole machine into state, from its current position onwards. Meant to be called between frames
+     * (the CPU is always between two instructions then).
+     * @param state See {@link SaveState#allocate()}
+     */
+    public void save(ByteBuffer state) {
+        SaveState.writeHeader(state);
+        this.cpu.save(state);
+        this.ppu.save(state);
+        this.memory.save(state);
+    }
+
+    /**
+     * Puts the machine back exactly where it was when state was saved, and tells the input sources about it (see
+     * {@link InputSource#stateLoaded(long)})
+     * @param state Read from its current position onwards
+     */
+    public void load(ByteBuffer state) {
+        SaveState.readHeader(state);
+        this.cpu.load(state);
+        this.ppu.load(state);
+        this.memory.load(state);
+        this.stateLoaded();
+    }
+
+    private void stateLoaded() {
+        for (int port = 1; port <= 2; port++) {
+            this.memory.getController(port).getInputSource().stateLoaded(this.ppu.getFrameNumber());
+        }
+    }
+
+    /**
+     * A 64 bit hash of the whole state of the machine, the same things {@link #save(ByteBuffer)} writes: two NES with
+     * the same hash are in the same state. Cheap enough to be asked for after every frame, see
+     * {@link StateHash}. Just like saving, meant to be called between frames.
+     * @return
+     */
+    public long getStateHash() {
+        ByteBuffer scratch = this.getScratch();
+        scratch.clear();
+        this.cpu.save(scratch);
+        this.ppu.save(scratch);
+        long hash = StateHash.add(StateHash.SEED, scratch.flip());
+        return StateHash.finish(this.memory.hash(hash, scratch));
+    }
+
+    public Memory getMemory() {
+        return memory;
+    }
+
+    CPU getCpu() {
+        return this.cpu;
+    }
+
+    public long getFrameNumber() {
+        return this.ppu.getFrameNumber();
+    }
+
+    private ByteBuffer getScratch() {
+        if (this.scratch == null) {
+            this.scratch = ByteBuffer.allocate(SaveState.MAX_SIZE);
         }
+        return this.scratch;
+    }
+
+    private void writeTrace(LogStatus current) {
+        this.traceWriter.append(current.getCycles(), current.getAddress(), this.cpu.getLastCode(),
+                this.cpu.getLastOperandLength(), this.cpu.getLastOperand(0), this.cpu.getLastOperand(1),
+                current.getRegisterA(), current.getRegisterX(), current.getRegisterY(), current.getRegisterP(),
+                current.getRegisterSP(), current.getInstruction());
     }
 
     private void printTrace(LogStatus current, int iteration) {
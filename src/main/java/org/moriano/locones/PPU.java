@@ -1,6 +1,9 @@
 package org.moriano.locones;
 
 import org.moriano.locones.memory.Memory;
+import org.moriano.locones.screen.FrameSink;
+
+import java.nio.ByteBuffer;
 
 /**
  * The PPU exposes eight memory-mapped registers to the CPU.
@@ -8,40 +11,110 @@ import org.moriano.locones.memory.Memory;
  * These nominally sit at $2000 through $2007 in the CPU's address space, but because they're incompletely decoded,
  * they're mirrored in every 8 bytes from $2008 through $3FFF, so a write to $3456 is the same as a write to $2006.
  *
+ * Timing wise, the PPU runs 3 cycles (dots) per CPU cycle, each scanline is 341 dots and each frame is 262
+ * scanlines (-1 to 260). Every time a frame is completed it is handed over to the {@link FrameSink}.
+ *
  * Created by moriano on 19/09/15.
  */
 public class PPU {
 
     private int[] registers = new int[8];
     private int internalCycles = 0; // DO NOT expose this outside, it does not represent the number of cycles
+    private int lastCPUCycle = 0;
     private int scanLine = 0;
     private boolean frameComplete = false;
+    private long frameNumber = 0;
+    private boolean skipRendering = false;
     private Memory memory;
+    private final FrameSink frameSink;
+    private ByteBuffer frameBuffer = FrameSink.allocateFrame(); // This is where we draw, see FrameSink for format
 
-    public PPU(Memory memory, int initialScanLine) {
+    public PPU(Memory memory, int initialScanLine, FrameSink frameSink) {
         this.memory = memory;
         this.scanLine = initialScanLine;
+        this.frameSink = frameSink;
     }
 
     public void cycle(int currentCPUCycle) {
         this.frameComplete = false;
 
-        this.internalCycles = currentCPUCycle * 3;
+        this.internalCycles += (currentCPUCycle - this.lastCPUCycle) * 3;
+        this.lastCPUCycle = currentCPUCycle;
 
-        if (this.internalCycles >= 341) {
-            this.internalCycles = 0;
+        while (this.internalCycles >= 341) {
+            this.internalCycles -= 341;
             this.scanLine++;
             if (this.scanLine >= 261) {
                 this.scanLine = -1;
-                this.frameComplete = true;
+                this.completeFrame();
             }
         }
     }
 
+    /**
+     * TODO Background and sprites are not rendered yet, so the frame is just whatever is in the buffer (the
+     * backdrop color, 0x00)
+     */
+    private void completeFrame() {
+        this.frameComplete = true;
+        this.frameNumber++;
+        if (!this.skipRendering) {
+            this.frameBuffer = this.frameSink.frameCompleted(this.frameBuffer);
+        }
+    }
 
+    /**
+     * When rendering is skipped the PPU keeps its timing exactly as usual (scanlines, frames, and everything the
+     * CPU can see), but the frames are neither drawn nor handed over to the FrameSink.
+     * @param skipRendering
+     */
+    public void setSkipRendering(boolean skipRendering) {
+        this.skipRendering = skipRendering;
+    }
 
     public int getScanLine() {
         return this.scanLine;
     }
 
+    /**
+     * @return true if the last call to cycle completed a frame
+     */
+    public boolean isFrameComplete() {
+        return frameComplete;
+    }
+
+    /**
+     * @return The number of frames completed so far
+     */
+    public long getFrameNumber() {
+        return frameNumber;
+    }
+
+    /**
+     * Writes the timing state, see {@link org.moriano.locones.state.SaveState}. The frame being drawn is not part
+     * of it, it is output rather than state.
+     * @param state
+     */
+    public void save(ByteBuffer state) {
+        for (int register : this.registers) {
+            state.put((byte) register);
+        }
+        state.putInt(this.internalCycles);
+        state.putInt(this.lastCPUCycle);
+        state.putShort((short) this.scanLine);
+        state.put((byte) (this.frameComplete ? 1 : 0));
+        state.putLong(this.frameNumber);
+    }
+
+    public void load(ByteBuffer state) {
+        for (int i = 0; i < this.registers.length; i++) {
+            this.registers[i] = state.get() & 0xFF;
+        }
+        this.internalCycles = state.getInt();
+        this.lastCPUCycle = state.getInt();
+        this.scanLine = state.getShort();
+        this.frameComplete = state.get() != 0;
+        this.frameNumber = state.getLong();
+    }
+
 }
@@ -1,25 +1,209 @@
 package org.moriano.locones;
 
+import org.moriano.locones.audio.AudioSink;
+import org.moriano.locones.audio.SourceDataLineSink;
 import org.moriano.locones.cartridge.Cartridge;
+import org.moriano.locones.input.KeyboardInputSource;
 import org.moriano.locones.memory.PatternTables;
+import org.moriano.locones.movie.Movie;
+import org.moriano.locones.movie.MovieRecorder;
 import org.moriano.locones.screen.PatternTableUI;
+import org.moriano.locones.screen.Screen;
+import org.moriano.locones.screen.SwingFrameSink;
+import org.moriano.locones.screen.filter.FilterStage;
+import org.moriano.locones.screen.filter.ScaleFilter;
+import org.moriano.locones.state.RewindBuffer;
+import org.moriano.locones.timing.FramePacer;
+import org.moriano.locones.trace.TraceWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 
 /**
  * Created by moriano on 15/11/14.
+ *
+ * Starts the emulator. By default we go straight into emulation, the debugging windows and the screen
+ * benchmark are opt in through these flags
+ *
+ *   --palette              Shows the system palette window
+ *   --pattern-tables       Shows the pattern tables window
+ *   --screen-benchmark     Draws 200 frames of random noise and reports how long it took
+ *   --filter=name          Upscales the picture, name is one of nearest2, nearest3, nearest4, scale2x or scale3x
+ *   --mute                 No sound
+ *   --record=path          Records the first controller into a movie, saved when the emulator is closed
+ *   --play=path            Plays a movie instead of reading the keyboard
+ *   --rewind[=MB]          Keeps the last frames (64MB worth by default) to go back in time holding backspace
+ *   --run-ahead=frames     Shows the game that many frames ahead, to hide the input lag of the game itself
+ *   --trace=path           Traces every instruction into a binary file, see TraceDump
+ *   --print-trace          Prints every instruction, the way nestest.log has them (way too slow to play)
+ *
+ * Any other argument is taken as the path of the .nes file to run, nestest when there is none.
  */
 
 public class Run {
 
+    private static final Logger log = LoggerFactory.getLogger(Run.class);
+    private static final int AUDIO_LATENCY_MILLIS = 50;
+    private static final int DEFAULT_REWIND_MB = 64;
+    private static final int REWIND_KEYFRAME_INTERVAL = 60;
+    private static final int REWIND_MAX_FRAMES = 60 * 60 * 10; // 10 minutes
+    private static final int STOP_TIMEOUT_MILLIS = 5000;
+    private static final int INITIAL_PC = 0xC004; // Where i suspect the nestest program starts, this matches fceux debugger and log
+
     public static void main(String[] args) throws  Exception {
+        long startupStart = System.nanoTime();
+        List<String> arguments = Arrays.asList(args);
+        String romPath = null; // nestest, from the classpath
+        FilterStage filterStage = null;
+        for (String argument : arguments) {
+            if (!argument.startsWith("--")) {
+                romPath = argument;
+            } else if (argument.startsWith("--filter=")) {
+                ScaleFilter filter = ScaleFilter.fromName(argument.substring("--filter=".length()));
+                filterStage = new FilterStage(filter, ForkJoinPool.commonPool());
+            }
+        }
 
-        Cartridge cartridge = Cartridge.loadFromFile("/home/moriano/dev/code/locones/src/main/resources/nestest.nes");
-        PatternTables patternTables = PatternTables.fromCHRRom(cartridge.getChrROM());
-        PatternTableUI patternTableUI = new PatternTableUI(patternTables);
+        long phaseStart = System.nanoTime();
+        Cartridge cartridge = romPath == null ? Cartridge.nestest() : Cartridge.loadFromFile(romPath);
+        phaseStart = logPhase("Cartridge loaded", phaseStart);
+
+        if (arguments.contains("--pattern-tables")) {
+            PatternTables patternTables = PatternTables.fromCHRRom(cartridge.getChrROM());
+            PatternTableUI patternTableUI = new PatternTableUI(patternTables);
+            phaseStart = logPhase("Pattern tables window shown", phaseStart);
+        }
 
         //Thread.sleep(1000);
         //NES myNes = new NES(cartridge, 0xC000, true); // 0xC004 is where i suspect the nestest program starts, this matches fceux debugger and log
-        NES myNes = new NES(cartridge, 0xC004, false);
+        SwingFrameSink frameSink = new SwingFrameSink(filterStage);
+        NES myNes = new NES(cartridge, INITIAL_PC, false, frameSink);
+        myNes.setPrintTrace(arguments.contains("--print-trace"));
+        KeyboardInputSource keyboard = new KeyboardInputSource();
+        frameSink.setKeyListener(keyboard);
+        myNes.setInputSource(1, keyboard);
+        MovieRecorder recorder = null;
+        String moviePath = null;
+        for (String argument : arguments) {
+            if (argument.startsWith("--record=")) {
+                moviePath = argument.substring("--record=".length());
+                recorder = new MovieRecorder(myNes::getFrameNumber, keyboard);
+                myNes.setInputSource(1, recorder);
+            } else if (argument.startsWith("--rewind")) {
+                int budgetMB = argument.startsWith("--rewind=") ?
+                        Integer.parseInt(argument.substring("--rewind=".length())) : DEFAULT_REWIND_MB;
+                long budgetBytes = budgetMB * 1024L * 1024L;
+                if (budgetBytes > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("Watch out, the rewind buffer can not take more than 2047MB, "
+                            + "not " + budgetMB + "MB");
+                }
+                RewindBuffer rewindBuffer = new RewindBuffer((int) budgetBytes, REWIND_KEYFRAME_INTERVAL,
+                        REWIND_MAX_FRAMES);
+                myNes.setRewindBuffer(rewindBuffer, keyboard::isRewindPressed);
+            } else if (argument.startsWith("--run-ahead=")) {
+                myNes.setRunAheadFrames(Integer.parseInt(argument.substring("--run-ahead=".length())));
+            } else if (argument.startsWith("--trace=")) {
+                TraceWriter traceWriter = new TraceWriter(argument.substring("--trace=".length()));
+                myNes.setTraceWriter(traceWriter);
+            } else if (argument.startsWith("--play=")) {
+                Movie movie = Movie.load(argument.substring("--play=".length()));
+                if (movie.getRomChecksum() != cartridge.getRomChecksum()) {
+                    log.warn("The movie was recorded with a different ROM (" + Long.toHexString(movie.getRomChecksum())
+                            + " vs " + Long.toHexString(cartridge.getRomChecksum())
+                            + "), it will most likely go off the rails");
+                }
+                if (movie.getInitialPC() != INITIAL_PC) {
+                    log.warn("The movie was recorded starting at " + Integer.toHexString(movie.getInitialPC())
+                            + " rather than " + Integer.toHexString(INITIAL_PC)
+                            + ", it will most likely go off the rails");
+                }
+                for (int port = 1; port <= 2; port++) {
+                    myNes.setInputSource(port, movie.createPlayer(port, myNes::getFrameNumber));
+                }
+            }
+        }
+        myNes.setFramePacer(new FramePacer(cartridge.getCartrigdeHeader().isPal()));
+        phaseStart = logPhase("NES created", phaseStart);
+
+        AudioSink audioSink = null;
+        if (!arguments.contains("--mute")) {
+            try {
+                audioSink = new SourceDataLineSink(myNes.getApu().getSampleRate(), AUDIO_LATENCY_MILLIS);
+                myNes.setAudioSink(audioSink);
+            } catch (RuntimeException e) {
+                log.warn("No sound, " + e.getMessage());
+            }
+            phaseStart = logPhase("Audio output opened", phaseStart);
+        }
+
+        if (arguments.contains("--palette")) {
+            frameSink.getScreen().showSystemPalette();
+            phaseStart = logPhase("Palette window shown", phaseStart);
+        }
+
+        if (arguments.contains("--screen-benchmark")) {
+            runScreenBenchmark(frameSink.getScreen(), 200);
+            phaseStart = logPhase("Screen benchmark", phaseStart);
+        }
+
+        stopOnShutdown(myNes, cartridge, recorder, moviePath, audioSink);
+        log.info("Startup completed in " + (System.nanoTime() - startupStart) / 1_000_000 + "ms, starting emulation");
         myNes.startEmulation();
     }
+
+    /**
+     * The emulation thread is still going when the shutdown hooks run, and it is the one writing into the movie, the
+     * trace and the sound card. It is stopped first, once, and only then is the movie saved and the sound card closed
+     * (the trace is closed by the emulation thread itself, on its way out). If it does not stop in time neither of
+     * them is touched, the emulation thread could still be using them.
+     * @param nes
+     * @param cartridge
+     * @param recorder null if nothing is being recorded
+     * @param moviePath
+     * @param audioSink null if muted
+     */
+    private static void stopOnShutdown(NES nes, Cartridge cartridge, MovieRecorder recorder, String moviePath,
+                                       AudioSink audioSink) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (!nes.stop(STOP_TIMEOUT_MILLIS)) {
+                log.warn("Emulation did not stop in time, the trace is left without its index, the movie is not "
+                        + "saved and the sound card is not closed");
+                return;
+            }
+            if (recorder != null) {
+                recorder.toMovie(cartridge, INITIAL_PC).save(moviePath);
+                log.info("Movie saved to " + moviePath);
+            }
+            if (audioSink != null) {
+                audioSink.close();
+            }
+        }));
+    }
+
+    /**
+     * Draws a number of frames of random noise into the screen, just to get an idea of how fast we can push
+     * pixels into it.
+     * @param screen
+     * @param totalFrames
+     */
+    private static void runScreenBenchmark(Screen screen, int totalFrames) {
+        long start = System.currentTimeMillis();
+        for(int i = 0; i<=totalFrames; i++) {
+            screen.generateRandomFrame();
+        }
+        long end = System.currentTimeMillis();
+
+        double seconds = (end-start)/1000f;
+        log.info("We have run " + totalFrames + "frames in " + seconds + " seconds, which is " + totalFrames/seconds + "Frames per second");
+    }
+
+    private static long logPhase(String phase, long phaseStart) {
+        long now = System.nanoTime();
+        log.info(phase + " in " + (now - phaseStart) / 1_000_000 + "ms");
+        return now;
+    }
 }
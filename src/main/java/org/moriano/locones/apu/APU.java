@@ -0,0 +1,415 @@
+package org.moriano.locones.apu;
+
+import java.nio.ByteBuffer;
+import java.util.function.IntSupplier;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * The NES APU (Audio Processing Unit), see https://www.nesdev.org/wiki/APU
+ *
+ * It has 5 channels: two pulse (square) waves, a triangle wave, noise and delta modulation (DMC, samples), plus a
+ * frame counter that clocks envelopes, sweeps and length counters at ~240Hz.
+ *
+ * <pre>
+ * $4000-$4003   Pulse 1
+ * $4004-$4007   Pulse 2
+ * $4008-$400B   Triangle
+ * $400C-$400F   Noise
+ * $4010-$4013   DMC
+ * $4015         Channel enable (write), status (read)
+ * $4017         Frame counter
+ * </pre>
+ *
+ * The APU is lazy, it does NOT run along with the CPU. It only catches up with the CPU when it has to: when a
+ * register is written or read, and when a frame ends (so that the samples of that frame can be read). Catching up
+ * does not go cycle by cycle either, it jumps from event to event (timer of a channel firing, frame counter step)
+ * and only does work when the output changes, which then goes to a {@link BlipBuffer}.
+ *
+ * The BlipBuffer runs at an intermediate rate, an exact fraction of the CPU clock (1/32, ~56KHz NTSC and ~52KHz
+ * PAL, both above what any sound card wants), and a {@link PolyphaseResampler} takes it from there to the actual
+ * sample rate. That keeps the band limiting of the steps simple and exact, and leaves the odd ratios (and the
+ * small adjustments of the dynamic rate control) to a proper filter.
+ *
+ * All times in here are absolute CPU cycles since power on.
+ *
+ * TODO The IRQs (frame counter and DMC) are flagged in $4015 but not delivered to the CPU, it has no IRQ line yet.
+ */
+public class APU {
+
+    public static final int NTSC_CLOCK_RATE = 1789773;
+    public static final int PAL_CLOCK_RATE = 1662607;
+    public static final int DEFAULT_SAMPLE_RATE = 44100;
+    private static final int INTERMEDIATE_RATE_DIVIDER = 32;
+
+    /*
+    Frame counter steps, in CPU cycles since the start of the sequence. The last value is the length of the sequence
+     */
+    private static final int[] NTSC_FOUR_STEPS = {7457, 14913, 22371, 29829, 29830};
+    private static final int[] NTSC_FIVE_STEPS = {7457, 14913, 22371, 37281, 37282};
+    private static final int[] PAL_FOUR_STEPS = {8313, 16627, 24939, 33253, 33254};
+    private static final int[] PAL_FIVE_STEPS = {8313, 16627, 24939, 41565, 41566};
+
+    private final boolean pal;
+    private final int clockRate;
+    private final int sampleRate;
+    private final PulseChannel pulse1 = new PulseChannel(true);
+    private final PulseChannel pulse2 = new PulseChannel(false);
+    private final TriangleChannel triangle = new TriangleChannel();
+    private final NoiseChannel noise;
+    private final DMCChannel dmc;
+    private final Channel[] channels;
+    private final BlipBuffer blipBuffer;
+    private final PolyphaseResampler resampler;
+    private final short[] intermediateSamples = new short[2048];
+    private final short[] samples; // Already at the final sample rate, waiting to be read
+    private int samplesCount = 0;
+
+    private IntSupplier cpuClock = () -> 0;
+    private int lastCPUCycle = 0;
+    private long time = 0;
+    private long frameStart = 0; // Where the current BlipBuffer frame started
+    private int lastLevel = 0;
+    private boolean muted = false;
+
+    private boolean fiveStepMode = false;
+    private boolean irqInhibit = false;
+    private boolean frameIrq = false;
+    private int frameCounterStep = 0;
+    private long frameCounterStart = 0;
+    private long nextFrameCounterEvent;
+
+    public APU(boolean pal) {
+        this(pal, DEFAULT_SAMPLE_RATE);
+    }
+
+    public APU(boolean pal, int sampleRate) {
+        this.pal = pal;
+        this.clockRate = pal ? PAL_CLOCK_RATE : NTSC_CLOCK_RATE;
+        this.sampleRate = sampleRate;
+        this.noise = new NoiseChannel(pal);
+        this.dmc = new DMCChannel(pal);
+        this.channels = new Channel[]{this.pulse1, this.pulse2, this.triangle, this.noise, this.dmc};
+        double intermediateRate = getIntermediateRate(this.clockRate);
+        this.blipBuffer = new BlipBuffer(intermediateRate, this.clockRate, (int) intermediateRate / 4);
+        this.resampler = new PolyphaseResampler(intermediateRate, sampleRate);
+        this.samples = new short[sampleRate / 4];
+        this.nextFrameCounterEvent = this.getFrameCounterSteps()[0];
+    }
+
+    /**
+     * @param clockRate {@link #NTSC_CLOCK_RATE} or {@link #PAL_CLOCK_RATE}
+     * @return The rate the BlipBuffer produces samples at, which is what the resampler takes in
+     */
+    public static double getIntermediateRate(int clockRate) {
+        return clockRate / (double) INTERMEDIATE_RATE_DIVIDER;
+    }
+
+    /**
+     * @param cpuClock Tells the current CPU cycle, this is what the APU catches up to
+     */
+    public void setCpuClock(IntSupplier cpuClock) {
+        this.cpuClock = cpuClock;
+        this.lastCPUCycle = cpuClock.getAsInt();
+    }
+
+    /**
+     * @param memoryReader Reads a byte from the CPU address space, used by the DMC to fetch its samples
+     */
+    public void setMemoryReader(IntUnaryOperator memoryReader) {
+        this.dmc.setMemoryReader(memoryReader);
+    }
+
+    public void write(int address, int value) {
+        this.catchUp();
+        if (address <= 0x4003) {
+            this.pulse1.write(address - 0x4000, value);
+        } else if (address <= 0x4007) {
+            this.pulse2.write(address - 0x4004, value);
+        } else if (address <= 0x400B) {
+            this.triangle.write(address - 0x4008, value);
+        } else if (address <= 0x400F) {
+            this.noise.write(address - 0x400C, value);
+        } else if (address <= 0x4013) {
+            this.dmc.write(address - 0x4010, value);
+        } else if (address == 0x4015) {
+            this.pulse1.setEnabled((value & 0x01) != 0);
+            this.pulse2.setEnabled((value & 0x02) != 0);
+            this.triangle.setEnabled((value & 0x04) != 0);
+            this.noise.setEnabled((value & 0x08) != 0);
+            this.dmc.setEnabled((value & 0x10) != 0);
+        } else if (address == 0x4017) {
+            this.writeFrameCounter(value);
+        } else {
+            throw new IllegalArgumentException("Watch out, " + Integer.toHexString(address) + " is not an APU register");
+        }
+        this.channelsChanged();
+    }
+
+    /**
+     * $4015 read
+     * <pre>
+     * IF-D NT21   DMC interrupt (I), frame interrupt (F), DMC active (D), length counter > 0 (N, T, 2, 1)
+     * </pre>
+     * Reading it clears the frame interrupt flag
+     * @return
+     */
+    public int readStatus() {
+        this.catchUp();
+        int status = 0;
+        status |= this.pulse1.lengthCounter > 0 ? 0x01 : 0;
+        status |= this.pulse2.lengthCounter > 0 ? 0x02 : 0;
+        status |= this.triangle.lengthCounter > 0 ? 0x04 : 0;
+        status |= this.noise.lengthCounter > 0 ? 0x08 : 0;
+        status |= this.dmc.getBytesRemaining() > 0 ? 0x10 : 0;
+        status |= this.frameIrq ? 0x40 : 0;
+        status |= this.dmc.isIrqFlag() ? 0x80 : 0;
+        this.frameIrq = false;
+        return status;
+    }
+
+    /**
+     * Catches up with the CPU and makes all the samples up to this point available. Meant to be called once per
+     * video frame.
+     */
+    public void endFrame() {
+        this.catchUp();
+        if (this.muted) {
+            this.frameStart = this.time;
+            return;
+        }
+        this.blipBuffer.endFrame(this.time - this.frameStart);
+        this.frameStart = this.time;
+
+        int count;
+        while ((count = this.blipBuffer.readSamples(this.intermediateSamples, 0, this.intermediateSamples.length)) > 0) {
+            this.dropSamples(this.samplesCount + this.resampler.maxOutputFor(count) - this.samples.length);
+            this.samplesCount += this.resampler.process(this.intermediateSamples, 0, count, this.samples,
+                    this.samplesCount);
+        }
+        /*
+        If nobody is reading the samples, throw away the oldest ones rather than running out of space
+         */
+        this.dropSamples(this.samplesCount - this.sampleRate / 8);
+    }
+
+    /**
+     * Produces slightly more (adjustment > 1) or fewer (adjustment < 1) samples per emulated second than the sample
+     * rate says, this is how the audio output keeps its buffer from running dry or overflowing, see
+     * {@link org.moriano.locones.audio.DynamicRateControl}.
+     * @param adjustment 1.0 means no adjustment
+     */
+    public void setRateAdjustment(double adjustment) {
+        this.resampler.setAdjustment(adjustment);
+    }
+
+    public int samplesAvailable() {
+        return this.samplesCount;
+    }
+
+    /**
+     * @param target 16 bit signed PCM, mono
+     * @param offset
+     * @param maxSamples
+     * @return How many samples were read
+     */
+    public int readSamples(short[] target, int offset, int maxSamples) {
+        int count = Math.min(maxSamples, this.samplesCount);
+        System.arraycopy(this.samples, 0, target, offset, count);
+        this.dropSamples(count);
+        return count;
+    }
+
+    /**
+     * Writes the state of the channels and the frame counter, see {@link org.moriano.locones.state.SaveState}.
+     *
+     * The samples already produced are not part of the state, on load they just carry on from where they were
+     * (which at most means a tiny click when jumping around).
+     * @param state
+     */
+    public void save(ByteBuffer state) {
+        this.catchUp();
+        state.putInt(this.lastCPUCycle);
+        state.putLong(this.time);
+        state.put((byte) ((this.fiveStepMode ? 0x01 : 0) | (this.irqInhibit ? 0x02 : 0) | (this.frameIrq ? 0x04 : 0)));
+        state.put((byte) this.frameCounterStep);
+        state.putLong(this.frameCounterStart);
+        state.putLong(this.nextFrameCounterEvent);
+        for (Channel channel : this.channels) {
+            channel.save(state);
+        }
+    }
+
+    public void load(ByteBuffer state) {
+        this.lastCPUCycle = state.getInt();
+        long loadedTime = state.getLong();
+        int flags = state.get();
+        this.fiveStepMode = (flags & 0x01) != 0;
+        this.irqInhibit = (flags & 0x02) != 0;
+        this.frameIrq = (flags & 0x04) != 0;
+        this.frameCounterStep = state.get();
+        this.frameCounterStart = state.getLong();
+        this.nextFrameCounterEvent = state.getLong();
+        for (Channel channel : this.channels) {
+            channel.load(state);
+        }
+        /*
+        The BlipBuffer frame started at frameStart, keep the part of the frame that was already done the same
+        length, so that the deltas keep landing in the right place
+         */
+        this.frameStart = loadedTime - (this.time - this.frameStart);
+        this.time = loadedTime;
+        this.updateLevel(this.time);
+    }
+
+    /**
+     * While muted the APU keeps running exactly as usual (timers, length counters, IRQs...) but the frames produce no
+     * samples at all, and the BlipBuffer is not touched. Meant for frames that are emulated but never heard (see
+     * {@link org.moriano.locones.NES#setRunAheadFrames(int)}), which are then undone by loading a state.
+     *
+     * Watch out, the level that the BlipBuffer knows about is kept as it was, so after unmuting there will be a step
+     * to the current level with the first change.
+     * @param muted
+     */
+    public void setMuted(boolean muted) {
+        this.muted = muted;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getClockRate() {
+        return clockRate;
+    }
+
+    private void dropSamples(int count) {
+        if (count > 0) {
+            this.samplesCount -= count;
+            System.arraycopy(this.samples, count, this.samples, 0, this.samplesCount);
+        }
+    }
+
+    private void catchUp() {
+        int cpuCycle = this.cpuClock.getAsInt();
+        long until = this.time + (cpuCycle - this.lastCPUCycle); // int arithmetic, survives the CPU counter wrapping
+        this.lastCPUCycle = cpuCycle;
+        this.runUntil(until);
+    }
+
+    private void runUntil(long until) {
+        while (this.time < until) {
+            long stop = Math.min(until, this.nextFrameCounterEvent);
+            this.runChannels(stop);
+            this.time = stop;
+            if (this.time == this.nextFrameCounterEvent) {
+                this.clockFrameCounter();
+            }
+        }
+    }
+
+    /**
+     * Fires the timers of the channels in order, until stop (exclusive). The channels have to go in lock step (rather
+     * than one after the other), because the mixer needs all the outputs at the moment any of them changes.
+     * @param stop
+     */
+    private void runChannels(long stop) {
+        while (true) {
+            Channel earliest = null;
+            long when = stop;
+            for (Channel channel : this.channels) {
+                if (channel.nextClock < when) {
+                    when = channel.nextClock;
+                    earliest = channel;
+                }
+            }
+            if (earliest == null) {
+                return;
+            }
+            if (earliest.clockTimer()) {
+                this.updateLevel(when);
+            }
+        }
+    }
+
+    private void clockFrameCounter() {
+        int[] steps = this.getFrameCounterSteps();
+        int step = this.frameCounterStep;
+        this.quarterFrame();
+        if (step == 1 || step == 3) {
+            this.halfFrame();
+        }
+        if (step == 3 && !this.fiveStepMode && !this.irqInhibit) {
+            this.frameIrq = true;
+        }
+
+        this.frameCounterStep++;
+        if (this.frameCounterStep == 4) {
+            this.frameCounterStep = 0;
+            this.frameCounterStart += steps[4];
+        }
+        this.nextFrameCounterEvent = this.frameCounterStart + steps[this.frameCounterStep];
+        this.channelsChanged();
+    }
+
+    /**
+     * $4017
+     * <pre>
+     * MI-- ----   Mode (M, 0 = 4 step, 1 = 5 step), IRQ inhibit (I)
+     * </pre>
+     * Writing it restarts the sequence, in 5 step mode it also clocks everything right away.
+     * @param value
+     */
+    private void writeFrameCounter(int value) {
+        this.fiveStepMode = (value & 0x80) != 0;
+        this.irqInhibit = (value & 0x40) != 0;
+        if (this.irqInhibit) {
+            this.frameIrq = false;
+        }
+        this.frameCounterStep = 0;
+        this.frameCounterStart = this.time;
+        this.nextFrameCounterEvent = this.time + this.getFrameCounterSteps()[0];
+        if (this.fiveStepMode) {
+            this.quarterFrame();
+            this.halfFrame();
+        }
+    }
+
+    private void quarterFrame() {
+        for (Channel channel : this.channels) {
+            channel.clockQuarterFrame();
+        }
+    }
+
+    private void halfFrame() {
+        for (Channel channel : this.channels) {
+            channel.clockHalfFrame();
+        }
+    }
+
+    /**
+     * After a register write or a frame counter step, any channel may have gone to sleep, woken up or changed its
+     * output
+     */
+    private void channelsChanged() {
+        for (Channel channel : this.channels) {
+            channel.reschedule(this.time);
+        }
+        this.updateLevel(this.time);
+    }
+
+    private void updateLevel(long when) {
+        int level = Mixer.mix(this.pulse1.getOutput(), this.pulse2.getOutput(), this.triangle.getOutput(),
+                this.noise.getOutput(), this.dmc.getOutput());
+        if (level != this.lastLevel && !this.muted) {
+            this.blipBuffer.addDelta(when - this.frameStart, level - this.lastLevel);
+            this.lastLevel = level;
+        }
+    }
+
+    private int[] getFrameCounterSteps() {
+        if (this.pal) {
+            return this.fiveStepMode ? PAL_FIVE_STEPS : PAL_FOUR_STEPS;
+        }
+        return this.fiveStepMode ? NTSC_FIVE_STEPS : NTSC_FOUR_STEPS;
+    }
+}
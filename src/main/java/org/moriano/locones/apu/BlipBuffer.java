@@ -0,0 +1,149 @@
+package org.moriano.locones.apu;
+
+import java.util.Arrays;
+
+/**
+ * Turns the output of the APU (a level that changes every now and then, at CPU clock precision) into samples at the
+ * sample rate of the sound card, without aliasing. The idea comes from Shay Green's (blargg) Blip_Buffer.
+ *
+ * Sampling the APU output once per sample (or worse, computing it for each of the ~1.8 million CPU cycles per
+ * second and then averaging) is either noisy or very slow. Instead, we only care about the moments at which the
+ * output CHANGES: each change is a step, and a band limited step is a known shape. So, for each change we add the
+ * (precomputed) shape of a band limited step of that height, at that exact (fractional) sample position, into a
+ * buffer of differences. Reading samples is then just a running sum over that buffer.
+ *
+ * The cost is proportional to the number of changes in the output, not to the number of CPU cycles.
+ *
+ * Positions are kept in 32.32 fixed point (samples), so that the fraction of a sample at which a change happens is
+ * not lost. The step shape is precomputed for PHASES different fractions.
+ *
+ * The running sum also removes the DC offset (the mixer output goes from 0 to 32767, we want it centered on 0).
+ */
+public class BlipBuffer {
+
+    private static final int PHASE_BITS = 6;
+    private static final int PHASES = 1 << PHASE_BITS;
+    private static final int HALF_WIDTH = 8;
+    static final int WIDTH = HALF_WIDTH * 2;
+    private static final int KERNEL_BITS = 15;
+    private static final int HIGH_PASS_SHIFT = 9; // How fast the DC offset is removed, bigger is slower
+    private static final int[][] KERNEL = buildKernel();
+
+    private final long[] deltas;
+    private final long clocksToSamples; // 32.32 fixed point
+    private long offset = 0; // 32.32 fixed point, position of the start of the current frame
+    private long integrator = 0;
+    private long dcLevel = 0; // 16 fractional bits
+
+    /**
+     * @param sampleRate Samples per second we want to produce
+     * @param clockRate Clocks per second of the times we get
+     * @param capacity Maximum number of samples we can hold before they are read
+     */
+    public BlipBuffer(double sampleRate, double clockRate, int capacity) {
+        this.deltas = new long[capacity + WIDTH];
+        this.clocksToSamples = Math.round(sampleRate / clockRate * (1L << 32));
+    }
+
+    /**
+     * @param clockTime When the change happened, in clocks since the start of the current frame
+     * @param delta How much the output changed
+     */
+    public void addDelta(long clockTime, int delta) {
+        long position = this.offset + clockTime * this.clocksToSamples;
+        int index = (int) (position >>> 32);
+        int phase = (int) (position >>> (32 - PHASE_BITS)) & (PHASES - 1);
+        int[] kernel = KERNEL[phase];
+        for (int i = 0; i < WIDTH; i++) {
+            this.deltas[index + i] += (long) delta * kernel[i];
+        }
+    }
+
+    /**
+     * Closes the current frame, all the samples before its end can be read.
+     * @param clockDuration Length of the frame, in clocks
+     */
+    public void endFrame(long clockDuration) {
+        this.offset += clockDuration * this.clocksToSamples;
+        if (this.samplesAvailable() > this.deltas.length - WIDTH) {
+            throw new IllegalStateException("Watch out, the BlipBuffer is full, samples have to be read more often");
+        }
+    }
+
+    public int samplesAvailable() {
+        return (int) (this.offset >>> 32);
+    }
+
+    /**
+     * @param target Where the samples go
+     * @param targetOffset
+     * @param maxSamples
+     * @return How many samples were read
+     */
+    public int readSamples(short[] target, int targetOffset, int maxSamples) {
+        int count = Math.min(maxSamples, this.samplesAvailable());
+        for (int i = 0; i < count; i++) {
+            this.integrator += this.deltas[i];
+            int level = (int) (this.integrator >> KERNEL_BITS);
+            this.dcLevel += (((long) level << 16) - this.dcLevel) >> HIGH_PASS_SHIFT;
+            int sample = level - (int) (this.dcLevel >> 16);
+            target[targetOffset + i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+        }
+        this.removeSamples(count);
+        return count;
+    }
+
+    /**
+     * Throws away samples without reading them (while keeping the running sum right)
+     * @param count
+     */
+    public void skipSamples(int count) {
+        count = Math.min(count, this.samplesAvailable());
+        for (int i = 0; i < count; i++) {
+            this.integrator += this.deltas[i];
+        }
+        this.removeSamples(count);
+    }
+
+    private void removeSamples(int count) {
+        int remaining = this.samplesAvailable() - count + WIDTH;
+        System.arraycopy(this.deltas, count, this.deltas, 0, remaining);
+        Arrays.fill(this.deltas, remaining, remaining + count, 0);
+        this.offset -= (long) count << 32;
+    }
+
+    /**
+     * For each phase, the differences of a band limited step (a windowed sinc), so that the WIDTH values add up to
+     * exactly 1 << KERNEL_BITS. Otherwise each step would leave a tiny error behind that would add up over time.
+     * @return
+     */
+    private static int[][] buildKernel() {
+        int[][] kernel = new int[PHASES][WIDTH];
+        double cutoff = 0.9; // A bit below Nyquist, the window is not perfect
+        for (int phase = 0; phase < PHASES; phase++) {
+            double fraction = phase / (double) PHASES;
+            double[] impulse = new double[WIDTH];
+            double total = 0;
+            for (int i = 0; i < WIDTH; i++) {
+                double distance = i - HALF_WIDTH - fraction + 1;
+                double x = Math.PI * cutoff * distance;
+                double sinc = distance == 0 ? 1 : Math.sin(x) / x;
+                double window = 0.42 + 0.5 * Math.cos(Math.PI * distance / (HALF_WIDTH + 1))
+                        + 0.08 * Math.cos(2 * Math.PI * distance / (HALF_WIDTH + 1));
+                impulse[i] = sinc * window;
+                total += impulse[i];
+            }
+            int sum = 0;
+            int biggest = 0;
+            for (int i = 0; i < WIDTH; i++) {
+                kernel[phase][i] = (int) Math.round(impulse[i] / total * (1 << KERNEL_BITS));
+                sum += kernel[phase][i];
+                if (kernel[phase][i] > kernel[phase][biggest]) {
+                    biggest = i;
+                }
+            }
+            kernel[phase][biggest] += (1 << KERNEL_BITS) - sum;
+        }
+        return kernel;
+    }
+}
@@ -0,0 +1,105 @@
+package org.moriano.locones.apu;
+
+import java.nio.ByteBuffer;
+
+/**
+ * What all the APU channels have in common.
+ *
+ * Every channel has a timer that, every so many CPU cycles, clocks whatever makes the channel produce its
+ * waveform. Rather than counting down the timer cycle by cycle, each channel remembers the (absolute) CPU cycle at
+ * which its timer will fire next (nextClock), this way the APU can jump from event to event instead of stepping
+ * through every single cycle, see {@link APU}.
+ *
+ * Channels that cannot change their output (silenced, not enabled...) park their timer (nextClock = NEVER) so that
+ * they cost nothing at all until a register write or the frame counter wakes them up.
+ */
+abstract class Channel {
+
+    static final long NEVER = Long.MAX_VALUE;
+
+    /**
+     * Indexed by the upper 5 bits of the 4th register of each channel, see https://www.nesdev.org/wiki/APU_Length_Counter
+     */
+    static final int[] LENGTH_TABLE = {
+            10, 254, 20, 2, 40, 4, 80, 6, 160, 8, 60, 10, 14, 12, 26, 14,
+            12, 16, 24, 18, 48, 20, 96, 22, 192, 24, 72, 26, 16, 28, 32, 30
+    };
+
+    long nextClock = NEVER;
+    boolean enabled = false;
+    boolean lengthHalt = false;
+    int lengthCounter = 0;
+
+    /**
+     * Runs the timer event scheduled at nextClock, and schedules the next one
+     * @return true if the output of the channel changed
+     */
+    abstract boolean clockTimer();
+
+    /**
+     * @return How many CPU cycles there are between two timer events
+     */
+    abstract int getTimerCycles();
+
+    /**
+     * @return Whether the timer can change the output at all, otherwise it is parked
+     */
+    abstract boolean isActive();
+
+    /**
+     * @return Current output, 0 to 15 (0 to 127 for the DMC)
+     */
+    abstract int getOutput();
+
+    void clockQuarterFrame() {
+    }
+
+    void clockHalfFrame() {
+        if (!this.lengthHalt && this.lengthCounter > 0) {
+            this.lengthCounter--;
+        }
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            this.lengthCounter = 0;
+        }
+    }
+
+    void loadLength(int registerValue) {
+        if (this.enabled) {
+            this.lengthCounter = LENGTH_TABLE[registerValue >> 3];
+        }
+    }
+
+    /**
+     * Subclasses add their own state after this
+     * @param state
+     */
+    void save(ByteBuffer state) {
+        state.putLong(this.nextClock);
+        state.put((byte) ((this.enabled ? 0x01 : 0) | (this.lengthHalt ? 0x02 : 0)));
+        state.put((byte) this.lengthCounter);
+    }
+
+    void load(ByteBuffer state) {
+        this.nextClock = state.getLong();
+        int flags = state.get();
+        this.enabled = (flags & 0x01) != 0;
+        this.lengthHalt = (flags & 0x02) != 0;
+        this.lengthCounter = state.get() & 0xFF;
+    }
+
+    /**
+     * To be called after anything that may have woken the channel up or put it to sleep
+     * @param now Current APU time
+     */
+    void reschedule(long now) {
+        if (!this.isActive()) {
+            this.nextClock = NEVER;
+        } else if (this.nextClock == NEVER) {
+            this.nextClock = now + this.getTimerCycles();
+        }
+    }
+}
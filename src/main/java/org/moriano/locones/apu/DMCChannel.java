@@ -0,0 +1,197 @@
+package org.moriano.locones.apu;
+
+import java.nio.ByteBuffer;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * The delta modulation channel, plays 1 bit delta encoded samples straight from the cartridge, see
+ * https://www.nesdev.org/wiki/APU_DMC
+ *
+ * <pre>
+ * $4010   IL-- RRRR   IRQ enabled (I), loop (L), rate index (R)
+ * $4011   -DDD DDDD   Direct load of the output level (D)
+ * $4012   AAAA AAAA   Sample address, $C000 + A * 64
+ * $4013   LLLL LLLL   Sample length, L * 16 + 1 bytes
+ * </pre>
+ *
+ * Every timer event one bit of the current byte is consumed: 1 means the output level goes up by 2, 0 means it
+ * goes down by 2. Bytes are fetched from memory one at a time, as they are needed.
+ *
+ * TODO The real DMC stalls the CPU for a few cycles on each fetch, we do not do that.
+ */
+class DMCChannel extends Channel {
+
+    private static final int[] NTSC_RATES = {428, 380, 340, 320, 286, 254, 226, 214, 190, 160, 142, 128, 106, 84, 72, 54};
+    private static final int[] PAL_RATES = {398, 354, 316, 298, 276, 236, 210, 198, 176, 148, 132, 118, 98, 78, 66, 50};
+
+    private final int[] rates;
+    private IntUnaryOperator memoryReader = address -> 0;
+    private boolean irqEnabled = false;
+    private boolean irqFlag = false;
+    private boolean loop = false;
+    private int rate;
+    private int outputLevel = 0;
+    private int sampleAddress = 0xC000;
+    private int sampleLength = 1;
+    private int currentAddress = 0xC000;
+    private int bytesRemaining = 0;
+    private int sampleBuffer = -1; // -1 means empty
+    private int shiftRegister = 0;
+    private int bitsRemaining = 8;
+    private boolean silence = true;
+
+    DMCChannel(boolean pal) {
+        this.rates = pal ? PAL_RATES : NTSC_RATES;
+        this.rate = this.rates[0];
+    }
+
+    void setMemoryReader(IntUnaryOperator memoryReader) {
+        this.memoryReader = memoryReader;
+    }
+
+    /**
+     * @param register 0 to 3
+     * @param value
+     */
+    void write(int register, int value) {
+        if (register == 0) {
+            this.irqEnabled = (value & 0x80) != 0;
+            if (!this.irqEnabled) {
+                this.irqFlag = false;
+            }
+            this.loop = (value & 0x40) != 0;
+            this.rate = this.rates[value & 0x0F];
+        } else if (register == 1) {
+            this.outputLevel = value & 0x7F;
+        } else if (register == 2) {
+            this.sampleAddress = 0xC000 + value * 64;
+        } else {
+            this.sampleLength = value * 16 + 1;
+        }
+    }
+
+    @Override
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        this.irqFlag = false;
+        if (!enabled) {
+            this.bytesRemaining = 0;
+        } else if (this.bytesRemaining == 0) {
+            this.restart();
+            this.fillSampleBuffer();
+        }
+    }
+
+    @Override
+    boolean clockTimer() {
+        int oldOutput = this.outputLevel;
+        if (!this.silence) {
+            if ((this.shiftRegister & 0x01) != 0) {
+                if (this.outputLevel <= 125) {
+                    this.outputLevel += 2;
+                }
+            } else if (this.outputLevel >= 2) {
+                this.outputLevel -= 2;
+            }
+        }
+        this.shiftRegister >>= 1;
+        this.bitsRemaining--;
+        if (this.bitsRemaining == 0) {
+            this.bitsRemaining = 8;
+            if (this.sampleBuffer < 0) {
+                this.silence = true;
+            } else {
+                this.silence = false;
+                this.shiftRegister = this.sampleBuffer;
+                this.sampleBuffer = -1;
+                this.fillSampleBuffer();
+            }
+        }
+        this.nextClock = this.isActive() ? this.nextClock + this.rate : NEVER;
+        return oldOutput != this.outputLevel;
+    }
+
+    private void fillSampleBuffer() {
+        if (this.sampleBuffer >= 0 || this.bytesRemaining == 0) {
+            return;
+        }
+        this.sampleBuffer = this.memoryReader.applyAsInt(this.currentAddress);
+        this.currentAddress = this.currentAddress == 0xFFFF ? 0x8000 : this.currentAddress + 1;
+        this.bytesRemaining--;
+        if (this.bytesRemaining == 0) {
+            if (this.loop) {
+                this.restart();
+            } else if (this.irqEnabled) {
+                this.irqFlag = true;
+            }
+        }
+    }
+
+    private void restart() {
+        this.currentAddress = this.sampleAddress;
+        this.bytesRemaining = this.sampleLength;
+    }
+
+    @Override
+    int getTimerCycles() {
+        return this.rate;
+    }
+
+    @Override
+    boolean isActive() {
+        return !this.silence || this.sampleBuffer >= 0 || this.bytesRemaining > 0;
+    }
+
+    @Override
+    int getOutput() {
+        return this.outputLevel;
+    }
+
+    @Override
+    void clockHalfFrame() {
+        // No length counter on the DMC
+    }
+
+    int getBytesRemaining() {
+        return bytesRemaining;
+    }
+
+    boolean isIrqFlag() {
+        return irqFlag;
+    }
+
+    @Override
+    void save(ByteBuffer state) {
+        super.save(state);
+        state.put((byte) ((this.irqEnabled ? 0x01 : 0) | (this.irqFlag ? 0x02 : 0) | (this.loop ? 0x04 : 0)
+                | (this.silence ? 0x08 : 0)));
+        state.putShort((short) this.rate);
+        state.put((byte) this.outputLevel);
+        state.putShort((short) this.sampleAddress);
+        state.putShort((short) this.sampleLength);
+        state.putShort((short) this.currentAddress);
+        state.putShort((short) this.bytesRemaining);
+        state.putShort((short) this.sampleBuffer);
+        state.put((byte) this.shiftRegister);
+        state.put((byte) this.bitsRemaining);
+    }
+
+    @Override
+    void load(ByteBuffer state) {
+        super.load(state);
+        int flags = state.get();
+        this.irqEnabled = (flags & 0x01) != 0;
+        this.irqFlag = (flags & 0x02) != 0;
+        this.loop = (flags & 0x04) != 0;
+        this.silence = (flags & 0x08) != 0;
+        this.rate = state.getShort();
+        this.outputLevel = state.get();
+        this.sampleAddress = state.getShort() & 0xFFFF;
+        this.sampleLength = state.getShort();
+        this.currentAddress = state.getShort() & 0xFFFF;
+        this.bytesRemaining = state.getShort();
+        this.sampleBuffer = state.getShort(); // -1 (empty) survives the trip
+        this.shiftRegister = state.get() & 0xFF;
+        this.bitsRemaining = state.get();
+    }
+}
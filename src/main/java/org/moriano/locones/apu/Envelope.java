@@ -0,0 +1,73 @@
+package org.moriano.locones.apu;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Volume envelope used by the pulse and noise channels, see https://www.nesdev.org/wiki/APU_Envelope
+ *
+ * Either outputs a constant volume, or a decay level that goes from 15 down to 0 (and optionally loops), one step
+ * every (volume + 1) quarter frames.
+ */
+class Envelope {
+
+    boolean start = false;
+    boolean loop = false;
+    boolean constantVolume = false;
+    int volume = 0; // Also the period of the divider
+    private int divider = 0;
+    private int decayLevel = 0;
+
+    /**
+     * Bits 0-5 of the first register of the channel
+     * <pre>
+     * --LC VVVV
+     * </pre>
+     * @param value
+     */
+    void write(int value) {
+        this.loop = (value & 0x20) != 0;
+        this.constantVolume = (value & 0x10) != 0;
+        this.volume = value & 0x0F;
+    }
+
+    /**
+     * Clocked every quarter frame
+     */
+    void clock() {
+        if (this.start) {
+            this.start = false;
+            this.decayLevel = 15;
+            this.divider = this.volume;
+        } else if (this.divider == 0) {
+            this.divider = this.volume;
+            if (this.decayLevel > 0) {
+                this.decayLevel--;
+            } else if (this.loop) {
+                this.decayLevel = 15;
+            }
+        } else {
+            this.divider--;
+        }
+    }
+
+    int getOutput() {
+        return this.constantVolume ? this.volume : this.decayLevel;
+    }
+
+    void save(ByteBuffer state) {
+        state.put((byte) ((this.start ? 0x01 : 0) | (this.loop ? 0x02 : 0) | (this.constantVolume ? 0x04 : 0)));
+        state.put((byte) this.volume);
+        state.put((byte) this.divider);
+        state.put((byte) this.decayLevel);
+    }
+
+    void load(ByteBuffer state) {
+        int flags = state.get();
+        this.start = (flags & 0x01) != 0;
+        this.loop = (flags & 0x02) != 0;
+        this.constantVolume = (flags & 0x04) != 0;
+        this.volume = state.get();
+        this.divider = state.get();
+        this.decayLevel = state.get();
+    }
+}
@@ -0,0 +1,64 @@
+package org.moriano.locones.apu;
+
+/**
+ * Mixes the output of the 5 channels into a single 16 bit PCM level, see https://www.nesdev.org/wiki/APU_Mixer
+ *
+ * The NES does not just add the channels up, the mixing is non linear and it happens in two groups
+ *
+ * <pre>
+ *   pulse_out = 95.52 / (8128.0 / (pulse1 + pulse2) + 100)
+ *   tnd_out   = 163.67 / (24329.0 / (3 * triangle + 2 * noise + dmc) + 100)
+ *   output    = pulse_out + tnd_out
+ * </pre>
+ *
+ * output goes from 0.0 to ~1.0, which we scale to 0 to 32767.
+ *
+ * Each group only depends on the sum of its channels, pulse1 + pulse2 can only be 0 to 30 and
+ * 3 * triangle + 2 * noise + dmc only 0 to 202, so both groups are precomputed into tables when the class is loaded,
+ * no divisions left when mixing. The tables keep the doubles (not the final ints) so that the result is exactly the
+ * same as the formula, see {@link #mixWithFormula(int, int, int, int, int)}.
+ */
+public class Mixer {
+
+    public static final int MAX_LEVEL = 32767;
+
+    private static final double[] PULSE_TABLE = new double[31];
+    private static final double[] TND_TABLE = new double[203];
+
+    static {
+        for (int pulse = 0; pulse < PULSE_TABLE.length; pulse++) {
+            PULSE_TABLE[pulse] = pulseOut(pulse);
+        }
+        for (int tnd = 0; tnd < TND_TABLE.length; tnd++) {
+            TND_TABLE[tnd] = tndOut(tnd);
+        }
+    }
+
+    /**
+     * @param pulse1 0 to 15
+     * @param pulse2 0 to 15
+     * @param triangle 0 to 15
+     * @param noise 0 to 15
+     * @param dmc 0 to 127
+     * @return 0 to MAX_LEVEL
+     */
+    public static int mix(int pulse1, int pulse2, int triangle, int noise, int dmc) {
+        return (int) ((PULSE_TABLE[pulse1 + pulse2] + TND_TABLE[3 * triangle + 2 * noise + dmc]) * MAX_LEVEL);
+    }
+
+    /**
+     * Same as {@link #mix(int, int, int, int, int)} but doing the actual maths, only here to check (and measure)
+     * the tables against it.
+     */
+    public static int mixWithFormula(int pulse1, int pulse2, int triangle, int noise, int dmc) {
+        return (int) ((pulseOut(pulse1 + pulse2) + tndOut(3 * triangle + 2 * noise + dmc)) * MAX_LEVEL);
+    }
+
+    private static double pulseOut(int pulse) {
+        return pulse == 0 ? 0 : 95.52 / (8128.0 / pulse + 100);
+    }
+
+    private static double tndOut(int tnd) {
+        return tnd == 0 ? 0 : 163.67 / (24329.0 / tnd + 100);
+    }
+}
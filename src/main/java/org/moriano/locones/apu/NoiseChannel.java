@@ -0,0 +1,99 @@
+package org.moriano.locones.apu;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The noise channel, see https://www.nesdev.org/wiki/APU_Noise
+ *
+ * <pre>
+ * $400C   --LC VVVV   Envelope loop / length counter halt (L), constant volume (C), volume/envelope (V)
+ * $400E   M--- PPPP   Mode (M), period index (P)
+ * $400F   LLLL L---   Length counter load (L)
+ * </pre>
+ *
+ * The noise comes from a 15 bit linear feedback shift register, the channel outputs the envelope volume when bit 0
+ * of the shift register is clear.
+ */
+class NoiseChannel extends Channel {
+
+    private static final int[] NTSC_PERIODS = {4, 8, 16, 32, 64, 96, 128, 160, 202, 254, 380, 508, 762, 1016, 2034, 4068};
+    private static final int[] PAL_PERIODS = {4, 8, 14, 30, 60, 88, 118, 148, 188, 236, 354, 472, 708, 944, 1890, 3778};
+
+    private final int[] periods;
+    private final Envelope envelope = new Envelope();
+    private boolean shortMode = false;
+    private int timerPeriod;
+    private int shiftRegister = 1;
+
+    NoiseChannel(boolean pal) {
+        this.periods = pal ? PAL_PERIODS : NTSC_PERIODS;
+        this.timerPeriod = this.periods[0];
+    }
+
+    /**
+     * @param register 0 to 3 (1 is unused)
+     * @param value
+     */
+    void write(int register, int value) {
+        if (register == 0) {
+            this.lengthHalt = (value & 0x20) != 0;
+            this.envelope.write(value);
+        } else if (register == 2) {
+            this.shortMode = (value & 0x80) != 0;
+            this.timerPeriod = this.periods[value & 0x0F];
+        } else if (register == 3) {
+            this.loadLength(value);
+            this.envelope.start = true;
+        }
+    }
+
+    @Override
+    boolean clockTimer() {
+        int oldOutput = this.getOutput();
+        int feedback = (this.shiftRegister ^ (this.shiftRegister >> (this.shortMode ? 6 : 1))) & 0x01;
+        this.shiftRegister = (this.shiftRegister >> 1) | (feedback << 14);
+        this.nextClock = this.isActive() ? this.nextClock + this.timerPeriod : NEVER;
+        return oldOutput != this.getOutput();
+    }
+
+    @Override
+    int getTimerCycles() {
+        return this.timerPeriod;
+    }
+
+    @Override
+    boolean isActive() {
+        return this.lengthCounter > 0;
+    }
+
+    @Override
+    int getOutput() {
+        if (this.lengthCounter == 0 || (this.shiftRegister & 0x01) != 0) {
+            return 0;
+        }
+        return this.envelope.getOutput();
+    }
+
+    @Override
+    void clockQuarterFrame() {
+        this.envelope.clock();
+    }
+
+    @Override
+    void save(ByteBuffer state) {
+        super.save(state);
+        this.envelope.save(state);
+        state.put((byte) (this.shortMode ? 1 : 0));
+        state.putShort((short) this.timerPeriod);
+        state.putShort((short) this.shiftRegister);
+    }
+
+    @Override
+    void load(ByteBuffer state) {
+        super.load(state);
+        this.envelope.load(state);
+        this.shortMode = state.get() != 0;
+        this.timerPeriod = state.getShort();
+        this.shiftRegister = state.getShort() & 0x7FFF;
+    }
+}
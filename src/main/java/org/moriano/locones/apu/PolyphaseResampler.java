@@ -0,0 +1,148 @@
+package org.moriano.locones.apu;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Converts a stream of 16 bit samples from one sample rate to another with a polyphase FIR filter, all in fixed
+ * point.
+ *
+ * Each output sample falls somewhere between two input samples. The fraction of the way it falls at is rounded to
+ * one of PHASES positions, and for each of those there is a precomputed low pass filter (a windowed sinc) of TAPS
+ * coefficients, in Q15 (1.0 is 1 << 15). Every output sample is then just the dot product of TAPS input samples
+ * and the coefficients of its phase.
+ *
+ * The positions are kept in 32.32 fixed point (input samples), the step between two output samples is
+ * inputRate / outputRate, and it can be nudged a little at any time (see {@link #setAdjustment(double)}).
+ *
+ * When going down in rate the cut off frequency follows the output rate, otherwise whatever is above the new
+ * Nyquist frequency would come back as aliasing.
+ */
+public class PolyphaseResampler {
+
+    private static final int PHASE_BITS = 8;
+    private static final int PHASES = 1 << PHASE_BITS;
+    static final int TAPS = 16;
+    private static final int COEFFICIENT_BITS = 15;
+    /*
+    Computing the coefficients takes thousands of sines and cosines, and every NES has a resampler, they are the same
+    for the same rates and never change once built, so they are built only once
+     */
+    private static final Map<Double, int[][]> COEFFICIENTS = new ConcurrentHashMap<>();
+
+    private final double inputRate;
+    private final double outputRate;
+    private final int[][] coefficients;
+    private long step; // 32.32 fixed point, input samples per output sample
+    private long position = 0; // 32.32 fixed point, relative to the start of the buffer
+    private short[] buffer = new short[4096];
+    private int buffered = 0;
+
+    public PolyphaseResampler(double inputRate, double outputRate) {
+        this.inputRate = inputRate;
+        this.outputRate = outputRate;
+        this.coefficients = COEFFICIENTS.computeIfAbsent(Math.min(1.0, outputRate / inputRate),
+                PolyphaseResampler::buildCoefficients);
+        this.setAdjustment(1.0);
+        this.buffered = TAPS - 1; // Start with silence so that the first output sample has all its inputs
+    }
+
+    /**
+     * @param adjustment Produce this many times more samples than the output rate says, 1.0 means no adjustment
+     */
+    public void setAdjustment(double adjustment) {
+        this.step = Math.round(this.inputRate / (this.outputRate * adjustment) * (1L << 32));
+    }
+
+    /**
+     * @param inputCount
+     * @return The most samples that {@link #process(short[], int, int, short[], int)} can produce from inputCount
+     * samples, the output array needs at least this much room
+     */
+    public int maxOutputFor(int inputCount) {
+        return (int) ((inputCount + TAPS) * ((1L << 32) / (double) this.step)) + 2;
+    }
+
+    /**
+     * @param input
+     * @param inputOffset
+     * @param inputCount
+     * @param output Needs room for {@link #maxOutputFor(int)} samples
+     * @param outputOffset
+     * @return How many samples were produced
+     */
+    public int process(short[] input, int inputOffset, int inputCount, short[] output, int outputOffset) {
+        if (this.buffered + inputCount > this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, Integer.highestOneBit(this.buffered + inputCount) << 1);
+        }
+        System.arraycopy(input, inputOffset, this.buffer, this.buffered, inputCount);
+        this.buffered += inputCount;
+
+        short[] samples = this.buffer;
+        int produced = 0;
+        long position = this.position;
+        int lastStart = this.buffered - TAPS;
+        while ((int) (position >>> 32) <= lastStart) {
+            int start = (int) (position >>> 32);
+            int[] phase = this.coefficients[(int) (position >>> (32 - PHASE_BITS)) & (PHASES - 1)];
+            int sum = 0;
+            for (int i = 0; i < TAPS; i++) {
+                sum += samples[start + i] * phase[i];
+            }
+            sum = (sum + (1 << (COEFFICIENT_BITS - 1))) >> COEFFICIENT_BITS;
+            output[outputOffset + produced++] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sum));
+            position += this.step;
+        }
+
+        int consumed = (int) (position >>> 32);
+        System.arraycopy(samples, consumed, samples, 0, this.buffered - consumed);
+        this.buffered -= consumed;
+        this.position = position - ((long) consumed << 32);
+        return produced;
+    }
+
+    public double getInputRate() {
+        return inputRate;
+    }
+
+    public double getOutputRate() {
+        return outputRate;
+    }
+
+    /**
+     * A Blackman windowed sinc for each phase, each of them adding up to exactly 1 << COEFFICIENT_BITS so that a
+     * constant input gives the very same constant output.
+     * @param bandwidth Cut off frequency, as a fraction of the input Nyquist frequency
+     * @return
+     */
+    private static int[][] buildCoefficients(double bandwidth) {
+        double cutoff = bandwidth * 0.9; // Leave some room for the transition band, the filter is short
+        int[][] coefficients = new int[PHASES][TAPS];
+        for (int phase = 0; phase < PHASES; phase++) {
+            double fraction = phase / (double) PHASES;
+            double[] impulse = new double[TAPS];
+            double total = 0;
+            for (int i = 0; i < TAPS; i++) {
+                double distance = i - (TAPS / 2 - 1) - fraction;
+                double x = Math.PI * cutoff * distance;
+                double sinc = distance == 0 ? 1 : Math.sin(x) / x;
+                double window = 0.42 + 0.5 * Math.cos(Math.PI * distance / (TAPS / 2))
+                        + 0.08 * Math.cos(2 * Math.PI * distance / (TAPS / 2));
+                impulse[i] = sinc * window;
+                total += impulse[i];
+            }
+            int sum = 0;
+            int biggest = 0;
+            for (int i = 0; i < TAPS; i++) {
+                coefficients[phase][i] = (int) Math.round(impulse[i] / total * (1 << COEFFICIENT_BITS));
+                sum += coefficients[phase][i];
+                if (coefficients[phase][i] > coefficients[phase][biggest]) {
+                    biggest = i;
+                }
+            }
+            coefficients[phase][biggest] += (1 << COEFFICIENT_BITS) - sum;
+        }
+        return coefficients;
+    }
+}
@@ -0,0 +1,158 @@
+package org.moriano.locones.apu;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The two square wave channels, see https://www.nesdev.org/wiki/APU_Pulse
+ *
+ * <pre>
+ * $4000 / $4004   DDLC VVVV   Duty (D), envelope loop / length counter halt (L), constant volume (C), volume/envelope (V)
+ * $4001 / $4005   EPPP NSSS   Sweep unit: enabled (E), period (P), negate (N), shift (S)
+ * $4002 / $4006   TTTT TTTT   Timer low (T)
+ * $4003 / $4007   LLLL LTTT   Length counter load (L), timer high (T)
+ * </pre>
+ *
+ * The timer runs every other CPU cycle, so the waveform advances one of its 8 steps every (timer + 1) * 2 CPU cycles.
+ */
+class PulseChannel extends Channel {
+
+    private static final int[][] DUTY_SEQUENCES = {
+            {0, 1, 0, 0, 0, 0, 0, 0}, // 12.5%
+            {0, 1, 1, 0, 0, 0, 0, 0}, // 25%
+            {0, 1, 1, 1, 1, 0, 0, 0}, // 50%
+            {1, 0, 0, 1, 1, 1, 1, 1}  // 25% negated
+    };
+
+    private final boolean firstChannel; // They negate the sweep slightly differently
+    private final Envelope envelope = new Envelope();
+    private int duty = 0;
+    private int dutyStep = 0;
+    private int timerPeriod = 0;
+
+    private boolean sweepEnabled = false;
+    private int sweepPeriod = 0;
+    private boolean sweepNegate = false;
+    private int sweepShift = 0;
+    private int sweepDivider = 0;
+    private boolean sweepReload = false;
+
+    PulseChannel(boolean firstChannel) {
+        this.firstChannel = firstChannel;
+    }
+
+    /**
+     * @param register 0 to 3
+     * @param value
+     */
+    void write(int register, int value) {
+        if (register == 0) {
+            this.duty = value >> 6;
+            this.lengthHalt = (value & 0x20) != 0;
+            this.envelope.write(value);
+        } else if (register == 1) {
+            this.sweepEnabled = (value & 0x80) != 0;
+            this.sweepPeriod = (value >> 4) & 0x07;
+            this.sweepNegate = (value & 0x08) != 0;
+            this.sweepShift = value & 0x07;
+            this.sweepReload = true;
+        } else if (register == 2) {
+            this.timerPeriod = (this.timerPeriod & 0x700) | value;
+        } else {
+            this.timerPeriod = (this.timerPeriod & 0xFF) | ((value & 0x07) << 8);
+            this.loadLength(value);
+            this.dutyStep = 0;
+            this.envelope.start = true;
+        }
+    }
+
+    @Override
+    boolean clockTimer() {
+        int oldOutput = this.getOutput();
+        this.dutyStep = (this.dutyStep + 1) & 0x07;
+        this.nextClock = this.isActive() ? this.nextClock + this.getTimerCycles() : NEVER;
+        return oldOutput != this.getOutput();
+    }
+
+    @Override
+    int getTimerCycles() {
+        return (this.timerPeriod + 1) * 2;
+    }
+
+    @Override
+    boolean isActive() {
+        return this.lengthCounter > 0 && !this.isMuted();
+    }
+
+    @Override
+    int getOutput() {
+        if (this.lengthCounter == 0 || this.isMuted() || DUTY_SEQUENCES[this.duty][this.dutyStep] == 0) {
+            return 0;
+        }
+        return this.envelope.getOutput();
+    }
+
+    @Override
+    void clockQuarterFrame() {
+        this.envelope.clock();
+    }
+
+    @Override
+    void clockHalfFrame() {
+        super.clockHalfFrame();
+        if (this.sweepDivider == 0 && this.sweepEnabled && this.sweepShift > 0 && !this.isMuted()) {
+            this.timerPeriod = this.getSweepTargetPeriod();
+        }
+        if (this.sweepDivider == 0 || this.sweepReload) {
+            this.sweepDivider = this.sweepPeriod;
+            this.sweepReload = false;
+        } else {
+            this.sweepDivider--;
+        }
+    }
+
+    @Override
+    void save(ByteBuffer state) {
+        super.save(state);
+        this.envelope.save(state);
+        state.put((byte) this.duty);
+        state.put((byte) this.dutyStep);
+        state.putShort((short) this.timerPeriod);
+        state.put((byte) ((this.sweepEnabled ? 0x01 : 0) | (this.sweepNegate ? 0x02 : 0) | (this.sweepReload ? 0x04 : 0)));
+        state.put((byte) this.sweepPeriod);
+        state.put((byte) this.sweepShift);
+        state.put((byte) this.sweepDivider);
+    }
+
+    @Override
+    void load(ByteBuffer state) {
+        super.load(state);
+        this.envelope.load(state);
+        this.duty = state.get();
+        this.dutyStep = state.get();
+        this.timerPeriod = state.getShort();
+        int flags = state.get();
+        this.sweepEnabled = (flags & 0x01) != 0;
+        this.sweepNegate = (flags & 0x02) != 0;
+        this.sweepReload = (flags & 0x04) != 0;
+        this.sweepPeriod = state.get();
+        this.sweepShift = state.get();
+        this.sweepDivider = state.get();
+    }
+
+    /**
+     * The sweep unit mutes the channel when the period is too small, or when the period it would sweep to is too big,
+     * even if the sweep unit is disabled
+     * @return
+     */
+    private boolean isMuted() {
+        return this.timerPeriod < 8 || this.getSweepTargetPeriod() > 0x7FF;
+    }
+
+    private int getSweepTargetPeriod() {
+        int change = this.timerPeriod >> this.sweepShift;
+        if (this.sweepNegate) {
+            return this.timerPeriod - change - (this.firstChannel ? 1 : 0);
+        }
+        return this.timerPeriod + change;
+    }
+}
@@ -0,0 +1,113 @@
+package org.moriano.locones.apu;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The triangle channel, see https://www.nesdev.org/wiki/APU_Triangle
+ *
+ * <pre>
+ * $4008   CRRR RRRR   Length counter halt / linear counter control (C), linear counter load (R)
+ * $400A   TTTT TTTT   Timer low (T)
+ * $400B   LLLL LTTT   Length counter load (L), timer high (T)
+ * </pre>
+ *
+ * It has no volume control, it just goes through a 32 step sequence (15 down to 0 and back up to 15). The sequence
+ * only advances while both the length counter and the linear counter are non zero, otherwise the channel keeps
+ * outputting whatever step it stopped at.
+ *
+ * Unlike the pulse channels, the timer runs every CPU cycle.
+ */
+class TriangleChannel extends Channel {
+
+    private static final int[] SEQUENCE = {
+            15, 14, 13, 12, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1, 0,
+            0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15
+    };
+
+    private int step = 0;
+    private int timerPeriod = 0;
+    private boolean control = false;
+    private int linearReloadValue = 0;
+    private int linearCounter = 0;
+    private boolean linearReload = false;
+
+    /**
+     * @param register 0 to 3 (1 is unused)
+     * @param value
+     */
+    void write(int register, int value) {
+        if (register == 0) {
+            this.control = (value & 0x80) != 0;
+            this.lengthHalt = this.control;
+            this.linearReloadValue = value & 0x7F;
+        } else if (register == 2) {
+            this.timerPeriod = (this.timerPeriod & 0x700) | value;
+        } else if (register == 3) {
+            this.timerPeriod = (this.timerPeriod & 0xFF) | ((value & 0x07) << 8);
+            this.loadLength(value);
+            this.linearReload = true;
+        }
+    }
+
+    @Override
+    boolean clockTimer() {
+        int oldOutput = this.getOutput();
+        this.step = (this.step + 1) & 0x1F;
+        this.nextClock = this.isActive() ? this.nextClock + this.getTimerCycles() : NEVER;
+        return oldOutput != this.getOutput();
+    }
+
+    @Override
+    int getTimerCycles() {
+        return this.timerPeriod + 1;
+    }
+
+    /**
+     * Periods below 2 produce ultrasonic frequencies that games use to silence the channel, we just stop the
+     * sequence there rather than emulate a 50KHz+ wave nobody can hear.
+     * @return
+     */
+    @Override
+    boolean isActive() {
+        return this.lengthCounter > 0 && this.linearCounter > 0 && this.timerPeriod >= 2;
+    }
+
+    @Override
+    int getOutput() {
+        return SEQUENCE[this.step];
+    }
+
+    @Override
+    void clockQuarterFrame() {
+        if (this.linearReload) {
+            this.linearCounter = this.linearReloadValue;
+        } else if (this.linearCounter > 0) {
+            this.linearCounter--;
+        }
+        if (!this.control) {
+            this.linearReload = false;
+        }
+    }
+
+    @Override
+    void save(ByteBuffer state) {
+        super.save(state);
+        state.put((byte) this.step);
+        state.putShort((short) this.timerPeriod);
+        state.put((byte) ((this.control ? 0x01 : 0) | (this.linearReload ? 0x02 : 0)));
+        state.put((byte) this.linearReloadValue);
+        state.put((byte) this.linearCounter);
+    }
+
+    @Override
+    void load(ByteBuffer state) {
+        super.load(state);
+        this.step = state.get();
+        this.timerPeriod = state.getShort();
+        int flags = state.get();
+        this.control = (flags & 0x01) != 0;
+        this.linearReload = (flags & 0x02) != 0;
+        this.linearReloadValue = state.get();
+        this.linearCounter = state.get();
+    }
+}
@@ -0,0 +1,39 @@
+package org.moriano.locones.audio;
+
+import org.moriano.locones.apu.APU;
+
+/**
+ * Moves the samples of each frame from the APU to an {@link AudioSink}, and keeps adjusting the rate at which the
+ * APU produces them so that the sink buffer stays around half full, see {@link DynamicRateControl}.
+ *
+ * Runs on the emulation thread, right after each frame. Nothing in here blocks or allocates.
+ */
+public class AudioPump {
+
+    private final APU apu;
+    private final AudioSink audioSink;
+    private final DynamicRateControl rateControl = new DynamicRateControl();
+    private final short[] samples;
+
+    public AudioPump(APU apu, AudioSink audioSink) {
+        if (apu.getSampleRate() != audioSink.getSampleRate()) {
+            throw new IllegalArgumentException("Watch out, the APU produces " + apu.getSampleRate() +
+                    "Hz but the audio sink wants " + audioSink.getSampleRate() + "Hz");
+        }
+        this.apu = apu;
+        this.audioSink = audioSink;
+        this.samples = new short[apu.getSampleRate() / 10];
+    }
+
+    public void frameCompleted() {
+        int count;
+        while ((count = this.apu.readSamples(this.samples, 0, this.samples.length)) > 0) {
+            this.audioSink.write(this.samples, 0, count);
+        }
+        this.apu.setRateAdjustment(this.rateControl.update(this.audioSink.getFillLevel()));
+    }
+
+    public DynamicRateControl getRateControl() {
+        return rateControl;
+    }
+}
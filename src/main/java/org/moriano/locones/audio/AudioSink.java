@@ -0,0 +1,33 @@
+package org.moriano.locones.audio;
+
+/**
+ * Where the samples produced by the APU go, 16 bit signed mono PCM.
+ *
+ * Just like {@link org.moriano.locones.screen.FrameSink} this is what keeps the core away from the actual
+ * hardware: the sound card ({@link SourceDataLineSink}), a file ({@link WavFileSink}) or nothing at all.
+ */
+public interface AudioSink {
+
+    int getSampleRate();
+
+    /**
+     * Called from the emulation thread once per frame. Watch out, a sink that plays in real time must never block,
+     * if the samples do not fit they are dropped. Sinks that do not play in real time ({@link WavFileSink}) are the
+     * exception: nothing is paced by them, they may block on their own I/O.
+     * @param samples
+     * @param offset
+     * @param count
+     */
+    void write(short[] samples, int offset, int count);
+
+    /**
+     * @return How full the buffer between the emulation and the output is, 0.0 to 1.0. Sinks that do not play in
+     * real time return {@link DynamicRateControl#TARGET_FILL_LEVEL}, so that the rate is left alone.
+     */
+    double getFillLevel();
+
+    /**
+     * Plays (or writes) whatever is left and lets go of the output. Only once the emulation thread is done writing.
+     */
+    void close();
+}
@@ -0,0 +1,36 @@
+package org.moriano.locones.audio;
+
+/**
+ * The emulation and the sound card run on two different clocks (the frame pacer and the sound card crystal), no
+ * matter how close they are, sooner or later the audio buffer would run dry (clicks) or overflow (dropped samples
+ * and growing latency).
+ *
+ * Rather than making one of them wait for the other, we keep adjusting how many samples we produce per emulated
+ * second: a bit more when the buffer is below its target, a bit less when it is above. Half a percent at most,
+ * which nobody can hear as a change of pitch. See https://docs.libretro.com/development/cores/dynamic-rate-control/
+ */
+public class DynamicRateControl {
+
+    public static final double TARGET_FILL_LEVEL = 0.5;
+    public static final double MAX_ADJUSTMENT = 0.005;
+    private static final double SMOOTHING = 0.1; // The fill level jumps around as the writer drains it in chunks
+
+    private double averageFillLevel = TARGET_FILL_LEVEL;
+    private double adjustment = 1.0;
+
+    /**
+     * @param fillLevel Current fill level of the audio buffer, 0.0 to 1.0
+     * @return The new rate adjustment, from 1 - MAX_ADJUSTMENT to 1 + MAX_ADJUSTMENT
+     */
+    public double update(double fillLevel) {
+        this.averageFillLevel += (fillLevel - this.averageFillLevel) * SMOOTHING;
+        double error = (TARGET_FILL_LEVEL - this.averageFillLevel) / TARGET_FILL_LEVEL;
+        error = Math.max(-1, Math.min(1, error));
+        this.adjustment = 1 + error * MAX_ADJUSTMENT;
+        return this.adjustment;
+    }
+
+    public double getAdjustment() {
+        return adjustment;
+    }
+}
@@ -0,0 +1,97 @@
+package org.moriano.locones.audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock free ring buffer of 16 bit samples, for exactly one producer thread (the emulation) and one consumer
+ * thread (whoever feeds the sound card).
+ *
+ * Both positions only ever grow, the index in the array is the position modulo the capacity (a power of two, so
+ * that it is just a mask). Each position is only written by its own thread, the other one only reads it, that is
+ * all the synchronization needed: the producer publishes the samples with the lazySet of the write position, the
+ * consumer gives the space back with the lazySet of the read position.
+ *
+ * Neither side ever blocks or waits: the producer drops whatever does not fit (and counts it), the consumer just
+ * gets fewer samples than it asked for.
+ */
+public class SampleRingBuffer {
+
+    private final short[] samples;
+    private final int mask;
+    private final AtomicLong writePosition = new AtomicLong();
+    private final AtomicLong readPosition = new AtomicLong();
+    private long droppedSamples = 0; // Only touched by the producer
+
+    /**
+     * @param capacity Rounded up to the next power of two
+     */
+    public SampleRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Watch out, the capacity has to be positive, it is " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.samples = new short[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Producer side
+     * @param source
+     * @param offset
+     * @param count
+     * @return How many samples were actually stored, the rest are dropped
+     */
+    public int offer(short[] source, int offset, int count) {
+        long write = this.writePosition.get();
+        int free = this.samples.length - (int) (write - this.readPosition.get());
+        int toWrite = Math.min(count, free);
+        int index = (int) write & this.mask;
+        int firstPart = Math.min(toWrite, this.samples.length - index);
+        System.arraycopy(source, offset, this.samples, index, firstPart);
+        System.arraycopy(source, offset + firstPart, this.samples, 0, toWrite - firstPart);
+        this.writePosition.lazySet(write + toWrite);
+        this.droppedSamples += count - toWrite;
+        return toWrite;
+    }
+
+    /**
+     * Consumer side
+     * @param target
+     * @param offset
+     * @param maxSamples
+     * @return How many samples were read, 0 if there were none
+     */
+    public int poll(short[] target, int offset, int maxSamples) {
+        long read = this.readPosition.get();
+        int available = (int) (this.writePosition.get() - read);
+        int toRead = Math.min(maxSamples, available);
+        int index = (int) read & this.mask;
+        int firstPart = Math.min(toRead, this.samples.length - index);
+        System.arraycopy(this.samples, index, target, offset, firstPart);
+        System.arraycopy(this.samples, 0, target, offset + firstPart, toRead - firstPart);
+        this.readPosition.lazySet(read + toRead);
+        return toRead;
+    }
+
+    /**
+     * Can be called from any thread, but from the other side it is only an approximation
+     * @return
+     */
+    public int size() {
+        return (int) (this.writePosition.get() - this.readPosition.get());
+    }
+
+    public int capacity() {
+        return this.samples.length;
+    }
+
+    /**
+     * @return How many samples did not fit, only accurate when called from the producer
+     */
+    public long getDroppedSamples() {
+        return droppedSamples;
+    }
+}
@@ -0,0 +1,140 @@
+package org.moriano.locones.audio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays the samples on the sound card.
+ *
+ * SourceDataLine.write blocks until there is room in the line, so it can never be called from the emulation
+ * thread. Instead the emulation drops the samples in a {@link SampleRingBuffer} and a writer thread moves them from
+ * there to the line, in small chunks so that the latency stays low.
+ *
+ * The ring buffer holds twice the requested latency, the {@link DynamicRateControl} keeps it around half full.
+ */
+public class SourceDataLineSink implements AudioSink {
+
+    private static final Logger log = LoggerFactory.getLogger(SourceDataLineSink.class);
+
+    private static final int CHUNK_SAMPLES = 256;
+    private static final long IDLE_PARK_NANOS = 1_000_000;
+
+    private final int sampleRate;
+    private final SampleRingBuffer ringBuffer;
+    private final SourceDataLine line;
+    private final Thread writerThread;
+    private volatile boolean running = true;
+    private volatile long underruns = 0; // Only written by the writer thread
+
+    /**
+     * @param sampleRate
+     * @param latencyMillis How much audio we want buffered (and therefore how late the sound is)
+     */
+    public SourceDataLineSink(int sampleRate, int latencyMillis) {
+        this.sampleRate = sampleRate;
+        int latencySamples = sampleRate * latencyMillis / 1000;
+        this.ringBuffer = new SampleRingBuffer(latencySamples * 2);
+        AudioFormat format = new AudioFormat(sampleRate, 16, 1, true, false);
+        try {
+            this.line = AudioSystem.getSourceDataLine(format);
+            this.line.open(format, CHUNK_SAMPLES * 2 * 4); // A few chunks, the real buffering is in the ring buffer
+        } catch (LineUnavailableException | IllegalArgumentException e) {
+            throw new RuntimeException("Watch out, cannot open the sound card for " + format, e);
+        }
+        this.line.start();
+        this.writerThread = new Thread(this::writeLoop, "audio-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+        log.info("Audio output at " + sampleRate + "Hz, " + latencyMillis + "ms of latency, line buffer of " +
+                this.line.getBufferSize() + " bytes");
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public void write(short[] samples, int offset, int count) {
+        this.ringBuffer.offer(samples, offset, count);
+    }
+
+    @Override
+    public double getFillLevel() {
+        return this.ringBuffer.size() / (double) this.ringBuffer.capacity();
+    }
+
+    /**
+     * Waits for the writer thread to move whatever is left in the ring buffer to the line, and only once it is gone
+     * plays out the line and closes it. If the writer does not finish in time the line is left alone, it could still
+     * be writing into it.
+     */
+    @Override
+    public void close() {
+        this.running = false;
+        LockSupport.unpark(this.writerThread);
+        long timeoutMillis = 1000 + this.ringBuffer.capacity() * 1000L / this.sampleRate; // Playing a full ring
+        try {
+            this.writerThread.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (this.writerThread.isAlive()) {
+            log.warn("The audio writer did not finish in " + timeoutMillis + "ms, leaving the line open");
+            return;
+        }
+        this.line.drain();
+        this.line.close();
+        log.info("Audio output closed, " + this.underruns + " underruns, " + this.ringBuffer.getDroppedSamples() +
+                " samples dropped");
+    }
+
+    public long getUnderruns() {
+        return underruns;
+    }
+
+    public long getDroppedSamples() {
+        return this.ringBuffer.getDroppedSamples();
+    }
+
+    private void writeLoop() {
+        short[] chunk = new short[CHUNK_SAMPLES];
+        byte[] bytes = new byte[CHUNK_SAMPLES * 2];
+        boolean starving = false;
+        while (true) {
+            /*
+            Watch out, read before polling: close() is only called once the emulation is done writing, so if we were
+            closing already then an empty ring buffer means everything has made it to the line
+             */
+            boolean closing = !this.running;
+            int count = this.ringBuffer.poll(chunk, 0, CHUNK_SAMPLES);
+            if (count == 0) {
+                if (closing) {
+                    return;
+                }
+                /*
+                Nothing to play. If the line has run out too, that is an underrun (an audible click), count it
+                once rather than once per wait.
+                 */
+                if (!starving && this.line.available() == this.line.getBufferSize()) {
+                    starving = true;
+                    this.underruns++;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            starving = false;
+            for (int i = 0; i < count; i++) {
+                bytes[i * 2] = (byte) chunk[i];
+                bytes[i * 2 + 1] = (byte) (chunk[i] >> 8);
+            }
+            this.line.write(bytes, 0, count * 2); // Blocks until there is room, that is the whole point of the thread
+        }
+    }
+}
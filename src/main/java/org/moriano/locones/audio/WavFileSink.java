@@ -0,0 +1,121 @@
+package org.moriano.locones.audio;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * Writes the samples to a .wav file (16 bit signed mono PCM), for running with no sound card at all (tests, CI,
+ * comparing the output of two versions of the APU...).
+ *
+ * It does not play in real time, so it never asks for a rate adjustment and the file gets exactly what the APU
+ * produced. For the same reason {@link #write} writes to the file right there, on the emulation thread (through a
+ * 64KB buffer): it can block on the disk, which only slows the emulation down, see {@link AudioSink#write}.
+ *
+ * The header needs the total size, which we only know at the end, so it is written with zeroes first and fixed on
+ * {@link #close()}.
+ */
+public class WavFileSink implements AudioSink {
+
+    private static final int HEADER_SIZE = 44;
+
+    private final String path;
+    private final int sampleRate;
+    private final OutputStream output;
+    private final byte[] bytes = new byte[8192];
+    private long totalSamples = 0;
+
+    public WavFileSink(String path, int sampleRate) {
+        this.path = path;
+        this.sampleRate = sampleRate;
+        try {
+            this.output = new BufferedOutputStream(new FileOutputStream(path), 1 << 16);
+            this.output.write(new byte[HEADER_SIZE]);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot create " + path, e);
+        }
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public void write(short[] samples, int offset, int count) {
+        try {
+            while (count > 0) {
+                int chunk = Math.min(count, this.bytes.length / 2);
+                for (int i = 0; i < chunk; i++) {
+                    short sample = samples[offset + i];
+                    this.bytes[i * 2] = (byte) sample;
+                    this.bytes[i * 2 + 1] = (byte) (sample >> 8);
+                }
+                this.output.write(this.bytes, 0, chunk * 2);
+                this.totalSamples += chunk;
+                offset += chunk;
+                count -= chunk;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot write to " + this.path, e);
+        }
+    }
+
+    @Override
+    public double getFillLevel() {
+        return DynamicRateControl.TARGET_FILL_LEVEL;
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.output.close();
+            try (RandomAccessFile file = new RandomAccessFile(this.path, "rw")) {
+                file.write(this.buildHeader());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot close " + this.path, e);
+        }
+    }
+
+    public long getTotalSamples() {
+        return totalSamples;
+    }
+
+    private byte[] buildHeader() {
+        int dataSize = (int) (this.totalSamples * 2);
+        byte[] header = new byte[HEADER_SIZE];
+        putAscii(header, 0, "RIFF");
+        putInt(header, 4, 36 + dataSize);
+        putAscii(header, 8, "WAVE");
+        putAscii(header, 12, "fmt ");
+        putInt(header, 16, 16);                     // Size of the fmt chunk
+        putShort(header, 20, 1);                    // PCM
+        putShort(header, 22, 1);                    // Mono
+        putInt(header, 24, this.sampleRate);
+        putInt(header, 28, this.sampleRate * 2);    // Bytes per second
+        putShort(header, 32, 2);                    // Bytes per sample frame
+        putShort(header, 34, 16);                   // Bits per sample
+        putAscii(header, 36, "data");
+        putInt(header, 40, dataSize);
+        return header;
+    }
+
+    private static void putAscii(byte[] target, int offset, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            target[offset + i] = (byte) value.charAt(i);
+        }
+    }
+
+    private static void putShort(byte[] target, int offset, int value) {
+        target[offset] = (byte) value;
+        target[offset + 1] = (byte) (value >> 8);
+    }
+
+    private static void putInt(byte[] target, int offset, int value) {
+        putShort(target, offset, value);
+        putShort(target, offset + 2, value >> 16);
+    }
+}
@@ -0,0 +1,70 @@
+package org.moriano.locones.benchmark;
+
+import org.moriano.locones.apu.APU;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures how long it takes the APU to produce one second of audio, with every channel busy (the worst case for
+ * the event driven design, as every timer fires all the time) and with every channel silent (the best case, nothing
+ * to do at all).
+ *
+ * The APU is driven by a fake CPU clock, one video frame worth of cycles at a time, same as {@link org.moriano.locones.NES}
+ * does.
+ */
+public class ApuBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger(ApuBenchmark.class);
+
+    private static final int CYCLES_PER_FRAME = 29781; // NTSC, 1789773 / 60.0988
+    private static final int FRAMES_PER_SECOND = 60;
+
+    private static int cpuCycle = 0;
+
+    public static void main(String[] args) {
+        APU busy = newApu();
+        busy.write(0x4015, 0x1F); // Everything enabled
+        busy.write(0x4000, 0xBF); // Pulse 1: 50% duty, halt length, constant volume 15
+        busy.write(0x4002, 0x40);
+        busy.write(0x4003, 0x01);
+        busy.write(0x4004, 0x7F); // Pulse 2: 25% duty
+        busy.write(0x4006, 0x80);
+        busy.write(0x4007, 0x00);
+        busy.write(0x4008, 0xFF); // Triangle: linear counter always reloaded
+        busy.write(0x400A, 0x30);
+        busy.write(0x400B, 0x00);
+        busy.write(0x400C, 0x3F); // Noise: constant volume 15, short period
+        busy.write(0x400E, 0x03);
+        busy.write(0x400F, 0x00);
+        busy.write(0x4010, 0x4F); // DMC: looping, fastest rate
+        busy.write(0x4012, 0x00);
+        busy.write(0x4013, 0xFF);
+        busy.write(0x4015, 0x1F); // Restart the DMC now that it has a sample
+        measure("apu all channels busy", busy);
+
+        APU silent = newApu();
+        measure("apu all channels silent", silent);
+    }
+
+    private static APU newApu() {
+        APU apu = new APU(false);
+        apu.setCpuClock(() -> cpuCycle);
+        apu.setMemoryReader(address -> address * 31 & 0xFF); // Any old garbage will do for the DMC samples
+        return apu;
+    }
+
+    private static void measure(String name, APU apu) {
+        short[] samples = new short[apu.getSampleRate()];
+        double nanos = Benchmark.measure(name + " (1 emulated second)", 20, 100, () -> {
+            long sum = 0;
+            for (int frame = 0; frame < FRAMES_PER_SECOND; frame++) {
+                cpuCycle += CYCLES_PER_FRAME;
+                apu.endFrame();
+                int read = apu.readSamples(samples, 0, samples.length);
+                sum += read + samples[read / 2];
+            }
+            return sum;
+        });
+        log.info(String.format("%-40s %12.3f %% of real time", name, nanos / 1_000_000_000d * 100));
+    }
+}
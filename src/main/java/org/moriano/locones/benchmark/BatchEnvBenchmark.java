@@ -0,0 +1,54 @@
+package org.moriano.locones.benchmark;
+
+import org.moriano.locones.cartridge.Cartridge;
+import org.moriano.locones.gym.BatchEnv;
+import org.moriano.locones.input.InputSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how many steps per second (one frame per instance per step) a {@link BatchEnv} gets with 1, 2, 4... up
+ * to MAX_THREADS threads, and how that scales compared to a single thread. The actions are random buttons.
+ *
+ * Watch out, going past the number of cores of the machine only shows the cost of the extra threads, the number of
+ * cores is logged too.
+ *
+ * Usage: BatchEnvBenchmark [romPath, nestest by default] [instances]
+ */
+public class BatchEnvBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchEnvBenchmark.class);
+    private static final int MAX_THREADS = 32;
+
+    public static void main(String[] args) {
+        int instances = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        Cartridge cartridge = args.length > 0 ? Cartridge.loadFromFile(args[0]) : Cartridge.nestest();
+        log.info(Runtime.getRuntime().availableProcessors() + " cores available, " + instances + " instances");
+
+        Random random = new Random(42);
+        int[] actions = new int[instances];
+        double single = 0;
+        for (int threads = 1; threads <= MAX_THREADS; threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            BatchEnv env = new BatchEnv(cartridge, 0xC004, instances, 1, pool);
+            double nanos = Benchmark.measure(threads + " threads, step", 20, 100, () -> {
+                for (int i = 0; i < actions.length; i++) {
+                    actions[i] = random.nextInt(InputSource.BUTTON_RIGHT << 1);
+                }
+                env.step(actions);
+                return env.getRam(0).get(0);
+            });
+            pool.shutdown();
+
+            double stepsPerSecond = instances * 1_000_000_000d / nanos;
+            if (threads == 1) {
+                single = stepsPerSecond;
+            }
+            log.info(String.format("%d threads: %.0f steps per second, %.2fx a single thread", threads, stepsPerSecond,
+                    stepsPerSecond / single));
+        }
+    }
+}
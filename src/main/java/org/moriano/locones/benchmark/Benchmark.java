@@ -0,0 +1,78 @@
+package org.moriano.locones.benchmark;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A very small harness for the benchmarks in this package: runs an operation a number of times to let the JIT do
+ * its thing, then measures how long another number of runs take and logs the average.
+ *
+ * It is no JMH, but it is good enough to compare two ways of doing the same thing on the same machine.
+ */
+public class Benchmark {
+
+    private static final Logger log = LoggerFactory.getLogger(Benchmark.class);
+
+    /**
+     * Something worth measuring. It returns a value so that the JIT cannot get rid of the work done.
+     */
+    public interface Operation {
+        long run();
+    }
+
+    private static volatile long blackhole;
+
+    /**
+     * @param name What we are measuring, for the log
+     * @param warmupIterations Runs that are not measured
+     * @param iterations Runs that are measured
+     * @param operation
+     * @return Average nanoseconds per run
+     */
+    public static double measure(String name, int warmupIterations, int iterations, Operation operation) {
+        long sink = 0;
+        for (int i = 0; i < warmupIterations; i++) {
+            sink += operation.run();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += operation.run();
+        }
+        long end = System.nanoTime();
+        blackhole = sink;
+
+        double nanosPerOperation = (end - start) / (double) iterations;
+        log.info(String.format("%-40s %12.1f ns/op (%d iterations)", name, nanosPerOperation, iterations));
+        return nanosPerOperation;
+    }
+
+    /**
+     * Same as {@link #measure(String, int, int, Operation)}, but for operations that need some setting up every time
+     * they run (building objects, resetting state...) that should not be measured: the operation times the part that
+     * counts itself, and returns how many nanoseconds it took.
+     *
+     * @param name What we are measuring, for the log
+     * @param warmupIterations Runs that are not measured
+     * @param iterations Runs that are measured
+     * @param operation Returns the nanoseconds taken by the part worth measuring
+     * @return Average nanoseconds per run, of the part worth measuring
+     */
+    public static double measureTimed(String name, int warmupIterations, int iterations, Operation operation) {
+        long sink = 0;
+        for (int i = 0; i < warmupIterations; i++) {
+            sink += operation.run();
+        }
+
+        long nanos = 0;
+        for (int i = 0; i < iterations; i++) {
+            nanos += operation.run();
+        }
+        blackhole = sink;
+
+        double nanosPerOperation = nanos / (double) iterations;
+        log.info(String.format("%-40s %12.1f ns/op (%d iterations, timed by the operation)", name, nanosPerOperation,
+                iterations));
+        return nanosPerOperation;
+    }
+}
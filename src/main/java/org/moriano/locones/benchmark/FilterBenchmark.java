@@ -0,0 +1,53 @@
+package org.moriano.locones.benchmark;
+
+import org.moriano.locones.screen.FrameSink;
+import org.moriano.locones.screen.filter.FilterStage;
+import org.moriano.locones.screen.filter.ScaleFilter;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how long it takes to upscale a frame with each filter, both on a single thread and split in stripes
+ * on the common ForkJoinPool.
+ *
+ * The frame is made of 4x4 blocks of random colors, that gives the smart filters edges to work on, plain random
+ * noise would make them take the easy (no edges) path most of the time.
+ */
+public class FilterBenchmark {
+
+    private static final String[] FILTERS = {"nearest2", "nearest3", "nearest4", "scale2x", "scale3x"};
+
+    public static void main(String[] args) {
+        ByteBuffer frame = FrameSink.allocateFrame();
+        Random random = new Random(42);
+        for (int row = 0; row < FrameSink.FRAME_HEIGHT; row += 4) {
+            for (int col = 0; col < FrameSink.FRAME_WIDTH; col += 4) {
+                byte color = (byte) random.nextInt(0x40);
+                for (int i = 0; i < 16; i++) {
+                    frame.put((row + i / 4) * FrameSink.FRAME_WIDTH + col + i % 4, color);
+                }
+            }
+        }
+
+        for (String filterName : FILTERS) {
+            ScaleFilter filter = ScaleFilter.fromName(filterName);
+            int scale = filter.getScale();
+            int[] target = new int[FrameSink.FRAME_WIDTH * scale * FilterStage.VISIBLE_HEIGHT * scale];
+
+            FilterStage singleThread = new FilterStage(filter, null);
+            Benchmark.measure(filterName + " single thread", 500, 2000, () -> {
+                singleThread.apply(frame, target);
+                return target[target.length / 2];
+            });
+
+            FilterStage forkJoin = new FilterStage(filter, ForkJoinPool.commonPool());
+            Benchmark.measure(filterName + " fork join (" + ForkJoinPool.commonPool().getParallelism() + ")",
+                    500, 2000, () -> {
+                forkJoin.apply(frame, target);
+                return target[target.length / 2];
+            });
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.moriano.locones.benchmark;
+
+import org.moriano.locones.NES;
+import org.moriano.locones.cartridge.Cartridge;
+import org.moriano.locones.screen.HeadlessFrameSink;
+import org.moriano.locones.state.SaveState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compares the ways of branching from the same point, for tree search:
+ * {@link NES#fork(org.moriano.locones.screen.FrameSink)} (a new NES every time), {@link NES#forkInto(NES)} (an NES
+ * that exists already) and saving a state and loading it into an NES that exists already. All of them on their own
+ * and followed by running a frame, which is what a branch does next.
+ *
+ * Before measuring it checks that both forks are right: they save to the very same state as their parent, and after
+ * all of them run a frame they still do.
+ *
+ * The core still runs into things it does not support a few frames after power on, so everything happens right
+ * after the first frame.
+ *
+ * Usage: ForkBenchmark [romPath, nestest by default]
+ */
+public class ForkBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger(ForkBenchmark.class);
+
+    public static void main(String[] args) {
+        Cartridge cartridge = args.length > 0 ? Cartridge.loadFromFile(args[0]) : Cartridge.nestest();
+        NES parent = new NES(cartridge, 0xC004, false, new HeadlessFrameSink());
+        parent.setPrintTrace(false);
+        parent.runFrame();
+        HeadlessFrameSink frameSink = new HeadlessFrameSink();
+
+        ByteBuffer state = SaveState.allocate();
+        parent.save(state);
+        state.flip();
+        NES branch = new NES(cartridge, 0xC004, false, new HeadlessFrameSink());
+        branch.setPrintTrace(false);
+        NES child = parent.fork(frameSink);
+        parent.forkInto(branch);
+        checkSameState(parent, child, "right after forking");
+        checkSameState(parent, branch, "right after forking into another NES");
+        parent.runFrame();
+        child.runFrame();
+        branch.runFrame();
+        checkSameState(parent, child, "after a frame");
+        checkSameState(parent, branch, "after a frame, forked into another NES");
+        parent.load(state);
+        log.info("Forks are consistent");
+
+        Benchmark.measure("fork into", 2000, 10000, () -> {
+            parent.forkInto(branch);
+            return branch.getFrameNumber();
+        });
+        Benchmark.measure("load", 2000, 10000, () -> {
+            state.rewind();
+            branch.load(state);
+            return branch.getFrameNumber();
+        });
+        Benchmark.measure("save + load", 2000, 10000, () -> {
+            state.clear();
+            parent.save(state);
+            state.flip();
+            branch.load(state);
+            return branch.getFrameNumber();
+        });
+        Benchmark.measure("fork", 2000, 10000, () -> parent.fork(frameSink).getFrameNumber());
+        Benchmark.measure("fork into + frame", 50, 200, () -> {
+            parent.forkInto(branch);
+            branch.runFrame();
+            return branch.getFrameNumber();
+        });
+        Benchmark.measure("fork + frame", 50, 200, () -> {
+            NES forked = parent.fork(frameSink);
+            forked.runFrame();
+            return forked.getFrameNumber();
+        });
+        Benchmark.measure("load + frame", 50, 200, () -> {
+            state.rewind();
+            branch.load(state);
+            branch.runFrame();
+            return branch.getFrameNumber();
+        });
+    }
+
+    private static void checkSameState(NES parent, NES child, String when) {
+        ByteBuffer parentState = SaveState.allocate();
+        ByteBuffer childState = SaveState.allocate();
+        parent.save(parentState);
+        child.save(childState);
+        if (!parentState.flip().equals(childState.flip())) {
+            throw new RuntimeException("Watch out, a fork is not in the same state as its parent " + when);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package org.moriano.locones.benchmark;
+
+import org.moriano.locones.CPU;
+import org.moriano.locones.PPU;
+import org.moriano.locones.cartridge.Cartridge;
+import org.moriano.locones.lockstep.LockstepInterpreter;
+import org.moriano.locones.memory.Memory;
+import org.moriano.locones.screen.HeadlessFrameSink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+
+/**
+ * Measures the (experimental) {@link LockstepInterpreter} against running the same number of independent
+ * {@link CPU} objects, each with its own Memory and PPU, which is what running many copies of a game costs today.
+ *
+ * Before measuring it runs nestest from $C000 instruction by instruction on both, checking that every register and
+ * the cycles of lane 0 match the real CPU, up to the first unofficial opcode (the interpreter only knows the
+ * official ones).
+ *
+ * Then, for 1 to 64 lanes, it measures how long running STEPS instructions on every lane takes. The CPUs and
+ * interpreters are built before the clock starts, only the steps are timed (see {@link Benchmark#measureTimed}).
+ *
+ * - With N CPU objects, one after the other, which is what running many copies of a game costs today.
+ * - With the interpreter, grouping off: same data layout, but every lane decodes on its own. This is the baseline
+ *   the lock step is reported against, so that the speedup is only about grouping.
+ * - With the interpreter, lanes in lock step, all of them with the same input. Every lane runs the same code here,
+ *   so there is always one group per instruction: this is the best case, not what to expect.
+ * - Grouping off and on again, with lanes that diverge: every POKE_INTERVAL steps every lane but the first gets a
+ *   different byte of its zero page overwritten (the same pokes for both runs). nestest then takes different
+ *   branches on different lanes (it reports the errors it finds and moves on), so lanes split into groups and come
+ *   back together, and the average group size is logged with the speedup.
+ *
+ * Usage: LockstepBenchmark [romPath, nestest by default]
+ */
+public class LockstepBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger(LockstepBenchmark.class);
+    private static final int NESTEST_START = 0xC000;
+    private static final int STEPS = 2000; // Official opcodes only until well past this
+    private static final int POKE_INTERVAL = 50; // Around 20 lanes per group with 64 lanes
+    private static final int WARMUP = 20;
+    private static final int ITERATIONS = 50;
+
+    private static volatile long blackhole;
+
+    public static void main(String[] args) {
+        Cartridge cartridge = args.length > 0 ? Cartridge.loadFromFile(args[0]) : Cartridge.nestest();
+        int checked = checkAgainstCPU(cartridge);
+        log.info("Lane 0 matches the CPU for " + checked + " instructions");
+
+        for (int lanes = 1; lanes <= 64; lanes *= 4) {
+            int count = lanes;
+            int[][] pokes = pokes(count);
+            int[][] noPokes = new int[STEPS / POKE_INTERVAL][0];
+
+            Benchmark.measureTimed(count + " CPU objects", WARMUP, ITERATIONS, () -> {
+                CPU[] all = new CPU[count];
+                for (int i = 0; i < count; i++) {
+                    all[i] = newCPU(cartridge);
+                }
+                long start = System.nanoTime();
+                for (int step = 0; step < STEPS; step++) {
+                    for (CPU cpu : all) {
+                        cpu.cycle();
+                    }
+                }
+                long nanos = System.nanoTime() - start;
+                blackhole = all[count - 1].getRegisterA();
+                return nanos;
+            });
+
+            double[] sameGroupSize = new double[1];
+            double alone = measureInterpreter(count + " lanes, no grouping", cartridge, count, false, noPokes, null);
+            double together = measureInterpreter(count + " lanes in lock step", cartridge, count, true, noPokes,
+                    sameGroupSize);
+            log.info(String.format("%d lanes, same input: lock step %.2fx faster than no grouping, %.1f lanes per"
+                    + " group", count, alone / together, sameGroupSize[0]));
+
+            double[] groupSize = new double[1];
+            double divergingAlone = measureInterpreter(count + " lanes diverging, no grouping", cartridge, count,
+                    false, pokes, null);
+            double divergingTogether = measureInterpreter(count + " lanes diverging, lock step", cartridge, count,
+                    true, pokes, groupSize);
+            log.info(String.format("%d lanes, diverging: lock step %.2fx faster than no grouping, %.1f lanes per group",
+                    count, divergingAlone / divergingTogether, groupSize[0]));
+        }
+    }
+
+    /**
+     * @param name For the log
+     * @param cartridge
+     * @param lanes
+     * @param grouping
+     * @param pokes What to write before every POKE_INTERVAL steps, see {@link #pokes(int)}
+     * @param groupSize If not null, gets the average group size of the last run
+     * @return Average nanoseconds per run of STEPS steps
+     */
+    private static double measureInterpreter(String name, Cartridge cartridge, int lanes, boolean grouping,
+                                             int[][] pokes, double[] groupSize) {
+        return Benchmark.measureTimed(name, WARMUP, ITERATIONS, () -> {
+            LockstepInterpreter interpreter = new LockstepInterpreter(cartridge, lanes, NESTEST_START);
+            interpreter.setGrouping(grouping);
+            long start = System.nanoTime();
+            for (int step = 0; step < STEPS; step++) {
+                if (step % POKE_INTERVAL == 0) {
+                    int[] poke = pokes[step / POKE_INTERVAL];
+                    for (int i = 0; i < poke.length; i += 3) {
+                        interpreter.writeRam(poke[i], poke[i + 1], poke[i + 2]);
+                    }
+                }
+                interpreter.step();
+            }
+            long nanos = System.nanoTime() - start;
+            if (groupSize != null) {
+                groupSize[0] = interpreter.getAverageGroupSize();
+            }
+            blackhole = interpreter.getA(lanes - 1);
+            return nanos;
+        });
+    }
+
+    /**
+     * Lane 0 is left alone, every other lane gets a random byte of its zero page set to a random value, every
+     * POKE_INTERVAL steps. Always the same ones, so that every run of the same number of lanes does the same work.
+     *
+     * @param lanes
+     * @return For every POKE_INTERVAL steps, lane, address and value of each poke, one after the other
+     */
+    private static int[][] pokes(int lanes) {
+        Random random = new Random(lanes);
+        int[][] pokes = new int[STEPS / POKE_INTERVAL][];
+        for (int i = 0; i < pokes.length; i++) {
+            pokes[i] = new int[(lanes - 1) * 3];
+            for (int lane = 1; lane < lanes; lane++) {
+                pokes[i][(lane - 1) * 3] = lane;
+                pokes[i][(lane - 1) * 3 + 1] = random.nextInt(0x100);
+                pokes[i][(lane - 1) * 3 + 2] = random.nextInt(0x100);
+            }
+        }
+        return pokes;
+    }
+
+    /**
+     * @param cartridge
+     * @return How many instructions were checked
+     */
+    private static int checkAgainstCPU(Cartridge cartridge) {
+        CPU cpu = newCPU(cartridge);
+        LockstepInterpreter interpreter = new LockstepInterpreter(cartridge, 1, NESTEST_START);
+        int startCycles = cpu.getCycles();
+        int checked = 0;
+        while (true) {
+            String where = "after " + checked + " instructions, PC " + Integer.toHexString(interpreter.getPC(0));
+            check("A", cpu.getRegisterA(), interpreter.getA(0), where);
+            check("X", cpu.getRegisterX(), interpreter.getX(0), where);
+            check("Y", cpu.getRegisterY(), interpreter.getY(0), where);
+            check("S", cpu.getRegisterS(), interpreter.getS(0), where);
+            check("PC", cpu.getProgramCounter(), interpreter.getPC(0), where);
+            check("P", cpu.calculateRegisterP() & 0xCF, interpreter.getP(0) & 0xCF, where); // B and bit 5 are not real
+            check("cycles", cpu.getCycles() - startCycles, (int) interpreter.getCycles(0), where);
+            interpreter.step();
+            if (interpreter.isHalted(0)) {
+                return checked;
+            }
+            cpu.cycle();
+            checked++;
+        }
+    }
+
+    private static void check(String what, int expected, int actual, String where) {
+        if (expected != actual) {
+            throw new RuntimeException("Watch out, " + what + " is " + Integer.toHexString(actual) + " instead of "
+                    + Integer.toHexString(expected) + " " + where);
+        }
+    }
+
+    private static CPU newCPU(Cartridge cartridge) {
+        CPU cpu = new CPU(NESTEST_START);
+        Memory memory = new Memory(cartridge);
+        cpu.setMemory(memory);
+        cpu.setPpu(new PPU(memory, 241, new HeadlessFrameSink()));
+        return cpu;
+    }
+}
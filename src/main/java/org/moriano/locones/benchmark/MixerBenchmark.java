@@ -0,0 +1,64 @@
+package org.moriano.locones.benchmark;
+
+import org.moriano.locones.apu.Mixer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks that the table based mixer gives exactly the same levels as the formula for every possible combination
+ * of channel outputs, then measures both.
+ *
+ * The inputs come from a precomputed pseudo random sequence, so that neither the JIT nor the branch predictor
+ * can guess them.
+ */
+public class MixerBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger(MixerBenchmark.class);
+
+    private static final int SAMPLES = 4096;
+
+    public static void main(String[] args) {
+        long combinations = 0;
+        for (int pulse1 = 0; pulse1 < 16; pulse1++) {
+            for (int pulse2 = 0; pulse2 < 16; pulse2++) {
+                for (int triangle = 0; triangle < 16; triangle++) {
+                    for (int noise = 0; noise < 16; noise++) {
+                        for (int dmc = 0; dmc < 128; dmc++) {
+                            int table = Mixer.mix(pulse1, pulse2, triangle, noise, dmc);
+                            int formula = Mixer.mixWithFormula(pulse1, pulse2, triangle, noise, dmc);
+                            if (table != formula) {
+                                throw new RuntimeException("Watch out, the mixer tables are wrong for " + pulse1 + ", "
+                                        + pulse2 + ", " + triangle + ", " + noise + ", " + dmc + ": " + table
+                                        + " vs " + formula);
+                            }
+                            combinations++;
+                        }
+                    }
+                }
+            }
+        }
+        log.info("Tables and formula agree on all " + combinations + " combinations");
+
+        int[] inputs = new int[SAMPLES * 5];
+        long seed = 42;
+        for (int i = 0; i < inputs.length; i++) {
+            seed = seed * 6364136223846793005L + 1442695040888963407L;
+            inputs[i] = (int) (seed >>> 33) & (i % 5 == 4 ? 0x7F : 0x0F);
+        }
+
+        Benchmark.measure("mixer tables (" + SAMPLES + " samples)", 2000, 10000, () -> {
+            long sum = 0;
+            for (int i = 0; i < inputs.length; i += 5) {
+                sum += Mixer.mix(inputs[i], inputs[i + 1], inputs[i + 2], inputs[i + 3], inputs[i + 4]);
+            }
+            return sum;
+        });
+        Benchmark.measure("mixer formula (" + SAMPLES + " samples)", 2000, 10000, () -> {
+            long sum = 0;
+            for (int i = 0; i < inputs.length; i += 5) {
+                sum += Mixer.mixWithFormula(inputs[i], inputs[i + 1], inputs[i + 2], inputs[i + 3], inputs[i + 4]);
+            }
+            return sum;
+        });
+    }
+}
@@ -0,0 +1,47 @@
+package org.moriano.locones.benchmark;
+
+import org.moriano.locones.apu.APU;
+import org.moriano.locones.apu.PolyphaseResampler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures how long it takes to resample one second of audio from the intermediate rate of the APU (see
+ * {@link APU#getIntermediateRate(int)}) to the usual sound card rates, for both NTSC and PAL.
+ *
+ * The input goes in frame sized chunks, the same way the APU feeds it.
+ */
+public class ResamplerBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger(ResamplerBenchmark.class);
+
+    private static final int[] CLOCK_RATES = {APU.NTSC_CLOCK_RATE, APU.PAL_CLOCK_RATE};
+    private static final int[] SAMPLE_RATES = {44100, 48000};
+
+    public static void main(String[] args) {
+        for (int clockRate : CLOCK_RATES) {
+            for (int sampleRate : SAMPLE_RATES) {
+                double inputRate = APU.getIntermediateRate(clockRate);
+                PolyphaseResampler resampler = new PolyphaseResampler(inputRate, sampleRate);
+                int frames = clockRate == APU.NTSC_CLOCK_RATE ? 60 : 50;
+                short[] input = new short[(int) inputRate];
+                for (int i = 0; i < input.length; i++) {
+                    input[i] = (short) ((i / 64 % 2 == 0 ? 8000 : -8000) + (i * 7919 % 2000)); // Square + noise
+                }
+                int chunk = input.length / frames;
+                short[] output = new short[resampler.maxOutputFor(chunk)];
+
+                String name = (clockRate == APU.NTSC_CLOCK_RATE ? "NTSC" : "PAL") + " to " + sampleRate + "Hz";
+                double nanos = Benchmark.measure(name + " (1 emulated second)", 50, 300, () -> {
+                    long sum = 0;
+                    for (int frame = 0; frame < frames; frame++) {
+                        int produced = resampler.process(input, frame * chunk, chunk, output, 0);
+                        sum += produced + output[produced / 2];
+                    }
+                    return sum;
+                });
+                log.info(String.format("%-40s %12.3f %% of real time", name, nanos / 1_000_000_000d * 100));
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.moriano.locones.benchmark;
+
+import org.moriano.locones.NES;
+import org.moriano.locones.cartridge.Cartridge;
+import org.moriano.locones.screen.HeadlessFrameSink;
+import org.moriano.locones.state.RewindBuffer;
+import org.moriano.locones.state.SaveState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Runs a few minutes of frames pushing each of them into a {@link RewindBuffer}, then goes all the way back, and
+ * reports what it costs per frame and how much memory a minute takes.
+ *
+ * Going back is checked too: the state we step back to must be byte for byte the one that was pushed.
+ *
+ * Like {@link org.moriano.locones.HeadlessRun}, when the core runs into something it does not support the NES is
+ * powered off and on again.
+ *
+ * Usage: RewindBenchmark [romPath, nestest by default] [minutes] [budget in MB]
+ */
+public class RewindBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger(RewindBenchmark.class);
+
+    public static void main(String[] args) {
+        int minutes = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        int budgetMB = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        Cartridge cartridge = args.length > 0 ? Cartridge.loadFromFile(args[0]) : Cartridge.nestest();
+        int frames = minutes * 60 * 60;
+        RewindBuffer rewindBuffer = new RewindBuffer(budgetMB * 1024 * 1024, 60, frames);
+
+        NES nes = newNES(cartridge);
+        ByteBuffer[] checks = new ByteBuffer[frames]; // Every 97th state, kept as it is for the check
+        for (int frame = 0; frame < frames; frame++) {
+            if (frame % 97 == 0) {
+                checks[frame] = SaveState.allocate();
+                nes.save(checks[frame]);
+                checks[frame].flip();
+            }
+            rewindBuffer.push(nes);
+            try {
+                nes.runFrame();
+            } catch (RuntimeException e) {
+                nes = newNES(cartridge);
+            }
+        }
+        log.info("Pushed " + frames + " frames: " + rewindBuffer);
+        log.info(String.format("Push costs %.1fus per frame, a minute takes %.1fMB", rewindBuffer.getAveragePushNanos() / 1000d,
+                rewindBuffer.getBytesPerMinute(60) / (1024d * 1024d)));
+
+        ByteBuffer state = SaveState.allocate();
+        int frame = rewindBuffer.getFrames() - 1;
+        int firstFrame = frames - rewindBuffer.getFrames();
+        while (rewindBuffer.stepBack(nes)) {
+            int current = firstFrame + frame--;
+            if (checks[current] != null) {
+                state.clear();
+                nes.save(state);
+                state.flip();
+                if (!state.equals(checks[current])) {
+                    throw new RuntimeException("Watch out, stepping back to frame " + current + " gave a different state");
+                }
+            }
+        }
+        log.info(String.format("Stepping back costs %.1fus per frame, all checks passed", rewindBuffer.getAverageStepBackNanos() / 1000d));
+    }
+
+    private static NES newNES(Cartridge cartridge) {
+        NES nes = new NES(cartridge, 0xC004, false, new HeadlessFrameSink());
+        nes.setPrintTrace(false);
+        return nes;
+    }
+}
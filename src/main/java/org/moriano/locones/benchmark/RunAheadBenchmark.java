@@ -0,0 +1,85 @@
+package org.moriano.locones.benchmark;
+
+import org.moriano.locones.NES;
+import org.moriano.locones.cartridge.Cartridge;
+import org.moriano.locones.screen.HeadlessFrameSink;
+import org.moriano.locones.state.SaveState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Measures what running ahead costs, see {@link NES#setRunAheadFrames(int)}: how much longer a displayed frame takes
+ * with 1 to MAX_FRAMES_AHEAD frames ahead than without running ahead, per frame ahead, also as a percentage of the
+ * 16.6ms that a frame lasts on the real console. A frame ahead should cost about as much as emulating the next frame
+ * normally (which is measured too), whatever is on top of that is the price of saving and loading.
+ *
+ * The core still runs into things it does not support a few frames after power on (and HeadlessRun just starts over
+ * then), so every run starts from a state saved at power on, the same for both sides of the comparison. When the
+ * core can not get that many frames ahead of power on for a ROM, that is logged and we move on to the next ROM.
+ *
+ * Usage: RunAheadBenchmark [romPath..., nestest by default]
+ */
+public class RunAheadBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger(RunAheadBenchmark.class);
+    private static final int MAX_FRAMES_AHEAD = 3;
+    private static final double NTSC_FRAME_NANOS = 1_000_000_000d / 60.0988;
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            measure("nestest", Cartridge.nestest());
+        }
+        for (String romPath : args) {
+            measure(romPath, Cartridge.loadFromFile(romPath));
+        }
+    }
+
+    private static void measure(String name, Cartridge cartridge) {
+        NES nes = new NES(cartridge, 0xC004, false, new HeadlessFrameSink());
+        nes.setPrintTrace(false);
+        ByteBuffer powerOn = SaveState.allocate();
+        nes.save(powerOn);
+        powerOn.flip();
+
+        double plain = Benchmark.measure(name + " frame", 100, 300, () -> {
+            powerOn.rewind();
+            nes.load(powerOn);
+            nes.runFrame();
+            return nes.getFrameNumber();
+        });
+        ByteBuffer afterFirstFrame = SaveState.allocate();
+        powerOn.rewind();
+        nes.load(powerOn);
+        nes.runFrame();
+        nes.save(afterFirstFrame);
+        afterFirstFrame.flip();
+        double next = Benchmark.measure(name + " next frame", 100, 300, () -> {
+            afterFirstFrame.rewind();
+            nes.load(afterFirstFrame);
+            nes.runFrame();
+            return nes.getFrameNumber();
+        });
+
+        for (int framesAhead = 1; framesAhead <= MAX_FRAMES_AHEAD; framesAhead++) {
+            nes.setRunAheadFrames(framesAhead);
+            double nanos;
+            try {
+                nanos = Benchmark.measure(name + " frame, " + framesAhead + " ahead", 100, 300, () -> {
+                    powerOn.rewind();
+                    nes.load(powerOn);
+                    nes.runFrameAhead();
+                    return nes.getFrameNumber();
+                });
+            } catch (RuntimeException e) {
+                log.info(name + ": the core can not run " + framesAhead + " frames ahead of power on yet, " + e.getMessage());
+                break;
+            }
+            double extra = (nanos - plain) / framesAhead;
+            log.info(String.format("%s: %d ahead costs %.1fus more per frame, %.1fus (%.2f%% of a frame) per frame ahead, "
+                    + "%.1fus over emulating the next frame normally", name, framesAhead, (nanos - plain) / 1000,
+                    extra / 1000, extra / NTSC_FRAME_NANOS * 100, (extra - next) / 1000));
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.moriano.locones.benchmark;
+
+import org.moriano.locones.NES;
+import org.moriano.locones.cartridge.Cartridge;
+import org.moriano.locones.screen.HeadlessFrameSink;
+import org.moriano.locones.state.SaveState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Measures how long it takes to save and to load a state, the target is well under 100us for each, as we want to
+ * snapshot every frame.
+ *
+ * Before measuring it checks that the states are right
+ *
+ * - Saving, loading and saving again gives the very same bytes.
+ * - Saving, running a frame, loading and running that frame again ends up in the very same state.
+ *
+ * Usage: SaveStateBenchmark [romPath, nestest by default]
+ */
+public class SaveStateBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger(SaveStateBenchmark.class);
+
+    public static void main(String[] args) {
+        Cartridge cartridge = args.length > 0 ? Cartridge.loadFromFile(args[0]) : Cartridge.nestest();
+        NES nes = new NES(cartridge, 0xC004, false, new HeadlessFrameSink());
+        nes.setPrintTrace(false);
+        nes.runFrame();
+
+        ByteBuffer state = SaveState.allocate();
+        ByteBuffer again = SaveState.allocate();
+        nes.save(state);
+        state.flip();
+        log.info("A save state takes " + state.remaining() + " bytes");
+
+        nes.load(state);
+        nes.save(again);
+        again.flip();
+        state.rewind();
+        if (!state.equals(again)) {
+            throw new RuntimeException("Watch out, saving after loading does not give the same state");
+        }
+
+        nes.runFrame();
+        ByteBuffer afterFrame = SaveState.allocate();
+        nes.save(afterFrame);
+        afterFrame.flip();
+        nes.load(state);
+        state.rewind();
+        nes.runFrame();
+        again.clear();
+        nes.save(again);
+        again.flip();
+        if (!afterFrame.equals(again)) {
+            throw new RuntimeException("Watch out, running the same frame twice from a state does not give the same state");
+        }
+        log.info("States are consistent");
+
+        nes.load(state);
+        Benchmark.measure("save state", 20000, 100000, () -> {
+            state.clear();
+            nes.save(state);
+            return state.position();
+        });
+        int size = state.position();
+        state.flip();
+        Benchmark.measure("load state", 20000, 100000, () -> {
+            state.rewind();
+            nes.load(state);
+            return state.position();
+        });
+        log.info("State size " + size + " bytes");
+    }
+}
@@ -0,0 +1,97 @@
+package org.moriano.locones.benchmark;
+
+import org.moriano.locones.NES;
+import org.moriano.locones.cartridge.Cartridge;
+import org.moriano.locones.screen.HeadlessFrameSink;
+import org.moriano.locones.state.SaveState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Measures what {@link NES#getStateHash()} costs after a frame (only the pages the frame wrote are hashed again)
+ * and when every page is dirty (right after loading a state), against what the frame itself costs. The target is
+ * well under 1% of a frame.
+ *
+ * Before measuring it checks that the hash is right
+ *
+ * - The hash kept up to date page by page is the same as hashing everything from scratch (another NES loading the
+ *   same state).
+ * - A fork has the same hash as its parent.
+ * - Running a frame changes the hash.
+ *
+ * The core still runs into things it does not support a few frames after power on, so everything happens around
+ * the first two frames.
+ *
+ * Usage: StateHashBenchmark [romPath, nestest by default]
+ */
+public class StateHashBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger(StateHashBenchmark.class);
+    private static final int FRAMES = 400;
+
+    public static void main(String[] args) {
+        Cartridge cartridge = args.length > 0 ? Cartridge.loadFromFile(args[0]) : Cartridge.nestest();
+        NES nes = new NES(cartridge, 0xC004, false, new HeadlessFrameSink());
+        nes.setPrintTrace(false);
+        NES other = new NES(cartridge, 0xC004, false, new HeadlessFrameSink());
+        other.setPrintTrace(false);
+        ByteBuffer afterFirstFrame = SaveState.allocate();
+        ByteBuffer afterSecondFrame = SaveState.allocate();
+
+        nes.runFrame();
+        long firstHash = nes.getStateHash();
+        nes.save(afterFirstFrame);
+        afterFirstFrame.flip();
+        if (nes.fork(new HeadlessFrameSink()).getStateHash() != firstHash) {
+            throw new RuntimeException("Watch out, a fork does not have the same hash as its parent");
+        }
+        nes.runFrame();
+        long secondHash = nes.getStateHash();
+        nes.save(afterSecondFrame);
+        afterSecondFrame.flip();
+        other.load(afterSecondFrame);
+        if (other.getStateHash() != secondHash) {
+            throw new RuntimeException("Watch out, the hash kept page by page is not the hash of the whole state");
+        }
+        if (firstHash == secondHash) {
+            throw new RuntimeException("Watch out, running a frame did not change the hash");
+        }
+        log.info("Hashes are consistent");
+
+        /*
+        A frame takes milliseconds and varies more than the hash takes, so the hash after each frame is timed on its
+        own rather than as the difference between two runs
+         */
+        long frameNanos = 0;
+        long hashNanos = 0;
+        for (int i = 0; i < FRAMES; i++) {
+            afterFirstFrame.rewind();
+            nes.load(afterFirstFrame);
+            nes.getStateHash(); // Leave nothing dirty behind the load, only what the frame writes
+            long start = System.nanoTime();
+            nes.runFrame();
+            long middle = System.nanoTime();
+            nes.getStateHash();
+            long end = System.nanoTime();
+            if (i >= FRAMES / 2) { // The first half is warm up
+                frameNanos += middle - start;
+                hashNanos += end - middle;
+            }
+        }
+        double frame = frameNanos / (FRAMES / 2d);
+        double afterFrame = hashNanos / (FRAMES / 2d);
+        double everything = Benchmark.measure("load + hash", 2000, 10000, () -> {
+            afterSecondFrame.rewind();
+            other.load(afterSecondFrame);
+            return other.getStateHash();
+        }) - Benchmark.measure("load", 2000, 10000, () -> {
+            afterSecondFrame.rewind();
+            other.load(afterSecondFrame);
+            return other.getFrameNumber();
+        });
+        log.info(String.format("Hash after a frame %.1fus (%.3f%% of the frame), with every page dirty %.1fus",
+                afterFrame / 1000, afterFrame / frame * 100, everything / 1000));
+    }
+}
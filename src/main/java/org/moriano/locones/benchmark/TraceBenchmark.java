@@ -0,0 +1,74 @@
+package org.moriano.locones.benchmark;
+
+import org.moriano.locones.NES;
+import org.moriano.locones.cartridge.Cartridge;
+import org.moriano.locones.screen.HeadlessFrameSink;
+import org.moriano.locones.state.SaveState;
+import org.moriano.locones.trace.TraceWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Measures what tracing every instruction costs: the first frame of nestest with no trace at all, with the text
+ * trace (into a file, not a terminal, which would only make it slower) and with the binary trace of
+ * {@link TraceWriter}.
+ *
+ * Every run starts from the state saved at power on, the core does not get much further than a frame.
+ *
+ * Usage: TraceBenchmark [romPath, nestest by default]
+ */
+public class TraceBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger(TraceBenchmark.class);
+
+    public static void main(String[] args) throws IOException {
+        Cartridge cartridge = args.length > 0 ? Cartridge.loadFromFile(args[0]) : Cartridge.nestest();
+        NES nes = new NES(cartridge, 0xC004, false, new HeadlessFrameSink());
+        nes.setPrintTrace(false);
+        ByteBuffer powerOn = SaveState.allocate();
+        nes.save(powerOn);
+        powerOn.flip();
+        Benchmark.Operation frame = () -> {
+            powerOn.rewind();
+            nes.load(powerOn);
+            nes.runFrame();
+            return nes.getFrameNumber();
+        };
+
+        Benchmark.measure("warm up", 500, 1, frame);
+        double plain = Benchmark.measure("no trace", 50, 500, frame);
+
+        File textFile = File.createTempFile("trace", ".txt");
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(new BufferedOutputStream(new FileOutputStream(textFile), 1 << 16)));
+        nes.setPrintTrace(true);
+        double text;
+        try {
+            text = Benchmark.measure("text trace", 50, 500, frame);
+        } finally {
+            System.out.close();
+            System.setOut(stdout);
+            nes.setPrintTrace(false);
+        }
+
+        File binaryFile = File.createTempFile("trace", ".bin");
+        TraceWriter traceWriter = new TraceWriter(binaryFile.getPath());
+        nes.setTraceWriter(traceWriter);
+        double binary = Benchmark.measure("binary trace", 50, 500, frame);
+        nes.setTraceWriter(null);
+        traceWriter.close();
+
+        log.info("Tracing costs " + String.format("%.1f", (text - plain) / plain * 100) + "% as text and "
+                + String.format("%.1f", (binary - plain) / plain * 100) + "% as binary ("
+                + textFile.length() / 1024 + "KB of text, " + binaryFile.length() / 1024 + "KB binary)");
+        textFile.delete();
+        binaryFile.delete();
+    }
+}
@@ -0,0 +1,105 @@
+package org.moriano.locones.benchmark;
+
+import org.moriano.locones.trace.TraceDiff;
+import org.moriano.locones.trace.TraceFile;
+import org.moriano.locones.trace.TraceFormat;
+import org.moriano.locones.trace.TraceWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures {@link TraceDiff} on two long traces (a billion instructions by default, 24GB each) that only differ in
+ * a single instruction, 70% of the way in: once using the checkpoints of the index and once comparing every record,
+ * with 1 thread and then with as many threads as there are processors.
+ *
+ * The core can not run anywhere near that long yet, so the traces are made up: a random walk of registers and
+ * cycles, the same for both traces (same seed) except for that one instruction. They are written with
+ * {@link TraceWriter}, which also gives an idea of how long writing a trace of that size takes. Both files are
+ * deleted at the end.
+ *
+ * Each comparison is run once, the traces are way bigger than the page cache, so a second run would not be any
+ * warmer than the first. Smaller traces do fit though, and then whatever runs second finds them in the page cache:
+ * which of the two ways goes first alternates from one number of threads to the next, and it is logged.
+ *
+ * Usage: TraceDiffBenchmark [instructions] [directory for the traces]
+ */
+public class TraceDiffBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger(TraceDiffBenchmark.class);
+    private static final long DEFAULT_INSTRUCTIONS = 1_000_000_000L;
+
+    public static void main(String[] args) {
+        long instructions = args.length > 0 ? Long.parseLong(args[0]) : DEFAULT_INSTRUCTIONS;
+        String directory = args.length > 1 ? args[1] : System.getProperty("java.io.tmpdir");
+        long divergence = instructions / 10 * 7;
+        File firstFile = new File(directory, "first.trace");
+        File secondFile = new File(directory, "second.trace");
+        try {
+            writeTrace(firstFile, instructions, -1);
+            writeTrace(secondFile, instructions, divergence);
+            try (TraceFile first = new TraceFile(firstFile.getPath());
+                 TraceFile second = new TraceFile(secondFile.getPath())) {
+                int processors = Runtime.getRuntime().availableProcessors();
+                boolean checkpointsFirst = true;
+                for (int threads : processors > 1 ? new int[]{1, processors} : new int[]{1}) {
+                    ForkJoinPool pool = new ForkJoinPool(threads);
+                    for (int run = 0; run < 2; run++) {
+                        boolean useCheckpoints = (run == 0) == checkpointsFirst;
+                        String name = (useCheckpoints ? "checkpoints, " : "every record, ") + threads + " threads, "
+                                + (run == 0 ? "first" : "second");
+                        measure(name, first, second, pool, useCheckpoints, divergence);
+                    }
+                    checkpointsFirst = !checkpointsFirst;
+                    pool.shutdown();
+                }
+                TraceDiff.printDifference(first, second, divergence);
+            }
+        } finally {
+            firstFile.delete();
+            secondFile.delete();
+        }
+    }
+
+    private static void measure(String name, TraceFile first, TraceFile second, ForkJoinPool pool,
+                                boolean useCheckpoints, long expected) {
+        long start = System.nanoTime();
+        long difference = TraceDiff.findFirstDifference(first, second, pool, useCheckpoints);
+        long nanos = System.nanoTime() - start;
+        if (difference != expected) {
+            throw new RuntimeException("Watch out, found a difference at " + difference + " instead of " + expected);
+        }
+        double gigabytes = difference * 2.0 * TraceFormat.RECORD_SIZE / (1 << 30);
+        log.info(String.format("%-40s %10.1f ms, %8.2f GB/s (of trace up to the difference)", name,
+                nanos / 1_000_000d, gigabytes / (nanos / 1e9)));
+    }
+
+    /**
+     * @param file
+     * @param instructions
+     * @param divergence The one instruction that gets a different A, -1 for none
+     */
+    private static void writeTrace(File file, long instructions, long divergence) {
+        long start = System.nanoTime();
+        TraceWriter writer = new TraceWriter(file.getPath());
+        long random = 0x9E3779B97F4A7C15L;
+        long cycles = 7;
+        for (long i = 0; i < instructions; i++) {
+            random ^= random << 13;
+            random ^= random >>> 7;
+            random ^= random << 17;
+            int value = (int) random;
+            int a = i == divergence ? ~value & 0xFF : value & 0xFF;
+            writer.append(cycles, 0x8000 | (value >>> 8 & 0x7FFF), value >>> 24 & 0xFF, 2, value & 0xFF,
+                    value >>> 16 & 0xFF, a, value >>> 4 & 0xFF, value >>> 12 & 0xFF, 0x24 | (value & 0xC3),
+                    value >>> 20 & 0xFF, "LDA");
+            cycles += 2 + (value & 0x03);
+        }
+        writer.close();
+        long nanos = System.nanoTime() - start;
+        log.info("Wrote " + instructions + " instructions to " + file + " in " + nanos / 1_000_000 + "ms, "
+                + String.format("%.1f", instructions / (nanos / 1e9) / 1e6) + " million per second");
+    }
+}
@@ -4,9 +4,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.zip.CRC32;
 
 /**
  * Created with IntelliJ IDEA.
@@ -20,13 +22,20 @@ import java.nio.file.Paths;
 public class Cartridge {
 
     private static final Logger log = LoggerFactory.getLogger(Cartridge.class);
+    private static final String NESTEST_RESOURCE = "/nestest.nes";
 
     private CartrigdeHeader cartrigdeHeader;
     private int[] prgROM;
     private int[] chrROM;
+    private final long romChecksum; // CRC32 of the whole file, tells two dumps apart
 
     private Cartridge(int[] rawBytes) {
         this.cartrigdeHeader = new CartrigdeHeader(rawBytes);
+        CRC32 crc = new CRC32();
+        for (int rawByte : rawBytes) {
+            crc.update(rawByte);
+        }
+        this.romChecksum = crc.getValue();
         log.info("Cartridge header " + this.cartrigdeHeader);
 
         int startPosition = 16; //Header is 16 bytes
@@ -68,11 +77,7 @@ public class Cartridge {
         int[] cleanData = null;
         try {
             data = Files.readAllBytes(path);
-            cleanData = new int[data.length];
-
-            for(int i = 0; i<data.length; i++) {
-                cleanData[i] = data[i]  & 0xff; //Convert int into bytes
-            }
+            cleanData = toUnsigned(data);
         } catch(IOException e) {
             e.printStackTrace();
         }
@@ -80,6 +85,41 @@ public class Cartridge {
         return new Cartridge(cleanData);
     }
 
+    /**
+     * @param resource Path of the .nes file in the classpath
+     * @return
+     */
+    public static Cartridge loadFromClasspath(String resource) {
+        InputStream input = Cartridge.class.getResourceAsStream(resource);
+        if (input == null) {
+            throw new IllegalArgumentException("Watch out, there is no " + resource + " in the classpath");
+        }
+        try (InputStream stream = input) {
+            return new Cartridge(toUnsigned(stream.readAllBytes()));
+        } catch (IOException e) {
+            throw new RuntimeException("Problems while reading " + resource, e);
+        }
+    }
+
+    /**
+     * @return nestest, which is always in the classpath. What the tools and benchmarks run when not given a ROM.
+     */
+    public static Cartridge nestest() {
+        return loadFromClasspath(NESTEST_RESOURCE);
+    }
+
+    private static int[] toUnsigned(byte[] data) {
+        int[] cleanData = new int[data.length];
+        for(int i = 0; i<data.length; i++) {
+            cleanData[i] = data[i]  & 0xff; //Convert int into bytes
+        }
+        return cleanData;
+    }
+
+    public long getRomChecksum() {
+        return romChecksum;
+    }
+
     public CartrigdeHeader getCartrigdeHeader() {
         return cartrigdeHeader;
     }
@@ -30,6 +30,7 @@ public class CartrigdeHeader {
     private int prgRamSize;
     private boolean horizontalMirroring = false;
     private boolean verticalMirroring = false;
+    private boolean fourScreen = false;
     private int mapperNumber;
     private boolean pal = false;
     private boolean trainer = false;
@@ -56,6 +57,7 @@ public class CartrigdeHeader {
         this.horizontalMirroring = ByteUtil.getBit(flags6, 0) == 1 ? true : false;
         this.verticalMirroring = ByteUtil.getBit(flags6, 1) == 1 ? true : false;
         this.trainer = ByteUtil.getBit(flags6, 2) == 1 ? true : false;
+        this.fourScreen = ByteUtil.getBit(flags6, 3) == 1;
 
         String lowerRawMapper = Integer.toString(ByteUtil.getBit(flags6, 7)) + Integer.toString(ByteUtil.getBit(flags6, 6)) + Integer.toString(ByteUtil.getBit(flags6, 5)) + Integer.toString(ByteUtil.getBit(flags6, 4));
 
@@ -82,7 +84,7 @@ public class CartrigdeHeader {
         |||||||+- TV system (0: NTSC; 1: PAL)
         +++++++-- Reserved, set to zero
          */
-        this.pal = ByteUtil.getBit(flags9, 0) == 1 ? false : true;
+        this.pal = ByteUtil.getBit(flags9, 0) == 1 ? true : false;
 
     }
 
@@ -102,6 +104,13 @@ public class CartrigdeHeader {
         return verticalMirroring;
     }
 
+    /**
+     * @return true if the cartridge brings 2KB of VRAM of its own, so that the four name tables are all different
+     */
+    public boolean isFourScreen() {
+        return fourScreen;
+    }
+
     public int getPrgRomSize() {
         return prgRomSize;
     }
@@ -114,6 +123,13 @@ public class CartrigdeHeader {
         return prgRamSize;
     }
 
+    /**
+     * @return true for PAL games (50Hz), false for NTSC ones (60Hz)
+     */
+    public boolean isPal() {
+        return pal;
+    }
+
     @Override
     public String toString() {
         return "CartrigdeHeader{" +
@@ -122,6 +138,7 @@ public class CartrigdeHeader {
                 ", prgRamSize=" + prgRamSize +
                 ", horizontalMirroring=" + horizontalMirroring +
                 ", verticalMirroring=" + verticalMirroring +
+                ", fourScreen=" + fourScreen +
                 ", mapperNumber=" + mapperNumber +
                 ", pal=" + pal +
                 '}';
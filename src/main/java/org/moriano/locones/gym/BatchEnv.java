@@ -0,0 +1,216 @@
+package org.moriano.locones.gym;
+
+import org.moriano.locones.NES;
+import org.moriano.locones.cartridge.Cartridge;
+import org.moriano.locones.input.InputSource;
+import org.moriano.locones.screen.FrameSink;
+import org.moriano.locones.state.SaveState;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A batch of headless NES instances running the same cartridge, stepped all together the way reinforcement learning
+ * environments (think OpenAI gym) are: each step takes one action per instance (the buttons held on the first
+ * controller), runs actionRepeat frames with it, and then the observations can be looked at.
+ *
+ * The observations are read only views of the memory of each instance, nothing is copied, ever
+ *
+ * - {@link #getFrame(int)} is the last frame of the PPU, see {@link FrameSink} for its format
+ * - {@link #getRam(int)} is the 2KB of RAM
+ *
+ * The views are always the same buffers (resets included), so they can be asked for once and kept. Watch out, they
+ * are only meaningful between steps, during a step they are being written to.
+ *
+ * The instances are stepped in parallel on a {@link ForkJoinPool}: the batch is split in halves until the shards are
+ * small enough. Every instance only touches its own memory, so there is no synchronization other than waiting for
+ * the whole step to finish.
+ *
+ * When the core runs into something it does not support (an UnsupportedOperationException, or an
+ * IllegalArgumentException for an address it cannot map) the instance goes back to power on (loading a state saved
+ * then, so it is cheap) and {@link #isDone(int)} tells so until the next step, that is the end of the episode.
+ * Anything else is a bug in the core, and it is thrown out of {@link #step(int[])} rather than ending an episode.
+ */
+public class BatchEnv {
+
+    private final Env[] envs;
+    private final int actionRepeat;
+    private final ForkJoinPool pool;
+    private final int shardSize;
+    private int[] actions;
+
+    /**
+     * @param cartridge What every instance runs, shared (the ROM is never written)
+     * @param initialPC Where every instance starts
+     * @param size How many instances
+     * @param actionRepeat How many frames each step runs
+     * @param pool Where to run the steps, null to step the instances one after the other on the calling thread
+     */
+    public BatchEnv(Cartridge cartridge, int initialPC, int size, int actionRepeat, ForkJoinPool pool) {
+        if (size < 1 || actionRepeat < 1) {
+            throw new IllegalArgumentException("Watch out, need at least an instance and a frame per step, not " +
+                    size + " and " + actionRepeat);
+        }
+        this.envs = new Env[size];
+        for (int i = 0; i < size; i++) {
+            this.envs[i] = new Env(cartridge, initialPC);
+        }
+        this.actionRepeat = actionRepeat;
+        this.pool = pool;
+        int parallelism = pool == null ? 1 : pool.getParallelism();
+        this.shardSize = Math.max(1, size / (parallelism * 4)); // A few shards per thread, to even things out
+    }
+
+    /**
+     * Runs actionRepeat frames on every instance
+     * @param actions For each instance, the buttons held on the first controller, see {@link InputSource}
+     */
+    public void step(int[] actions) {
+        if (actions.length != this.envs.length) {
+            throw new IllegalArgumentException("Watch out, got " + actions.length + " actions for " +
+                    this.envs.length + " instances");
+        }
+        this.actions = actions;
+        if (this.pool == null) {
+            this.stepRange(0, this.envs.length);
+        } else {
+            this.pool.invoke(new Shard(0, this.envs.length));
+        }
+    }
+
+    /**
+     * Puts every instance back to power on
+     */
+    public void reset() {
+        for (Env env : this.envs) {
+            env.reset();
+        }
+    }
+
+    public void reset(int instance) {
+        this.envs[instance].reset();
+    }
+
+    public ByteBuffer getFrame(int instance) {
+        return this.envs[instance].frameView;
+    }
+
+    public ByteBuffer getRam(int instance) {
+        return this.envs[instance].ramView;
+    }
+
+    /**
+     * @param instance
+     * @return true if the instance had to go back to power on during the last step
+     */
+    public boolean isDone(int instance) {
+        return this.envs[instance].done;
+    }
+
+    /**
+     * @param instance
+     * @return See {@link NES#getStateHash()}, two instances with the same hash are in the same state, no need to
+     * explore both
+     */
+    public long getStateHash(int instance) {
+        return this.envs[instance].nes.getStateHash();
+    }
+
+    public int size() {
+        return this.envs.length;
+    }
+
+    public int getActionRepeat() {
+        return actionRepeat;
+    }
+
+    private void stepRange(int from, int to) {
+        for (int i = from; i < to; i++) {
+            this.envs[i].step(this.actions[i], this.actionRepeat);
+        }
+    }
+
+    /**
+     * Keeps splitting the instances in halves until there are few enough to step in one go
+     */
+    private class Shard extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from;
+        private final int to;
+
+        Shard(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= shardSize) {
+                stepRange(this.from, this.to);
+            } else {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(new Shard(this.from, middle), new Shard(middle, this.to));
+            }
+        }
+    }
+
+    /**
+     * A single instance, along with what it needs to be stepped and observed
+     */
+    private static class Env implements InputSource, FrameSink {
+        private final NES nes;
+        private final ByteBuffer powerOn = SaveState.allocate();
+        private final ByteBuffer frame = FrameSink.allocateFrame();
+        private final ByteBuffer frameView = this.frame.asReadOnlyBuffer();
+        private final ByteBuffer ramView;
+        private int buttons = 0;
+        private boolean done = false;
+
+        Env(Cartridge cartridge, int initialPC) {
+            this.nes = new NES(cartridge, initialPC, false, this);
+            this.nes.setPrintTrace(false);
+            this.nes.setInputSource(1, this);
+            this.nes.save(this.powerOn);
+            this.powerOn.flip();
+            this.ramView = this.nes.getMemory().getRamView();
+        }
+
+        void step(int buttons, int frames) {
+            this.buttons = buttons;
+            this.done = false;
+            for (int i = 0; i < frames; i++) {
+                try {
+                    this.nes.runFrame();
+                } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                    this.reset();
+                    this.done = true;
+                    return;
+                }
+            }
+        }
+
+        void reset() {
+            this.powerOn.rewind();
+            this.nes.load(this.powerOn);
+            this.buttons = 0;
+        }
+
+        @Override
+        public int readButtons() {
+            return this.buttons;
+        }
+
+        /**
+         * The PPU starts drawing into a buffer of its own, from the first frame on it draws into ours instead, so
+         * that the view of it never changes. That first frame is the only copy we ever make.
+         */
+        @Override
+        public ByteBuffer frameCompleted(ByteBuffer frame) {
+            if (frame != this.frame) {
+                this.frame.put(0, frame, 0, FRAME_SIZE);
+            }
+            return this.frame;
+        }
+    }
+}
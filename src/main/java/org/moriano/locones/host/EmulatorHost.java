@@ -0,0 +1,147 @@
+package org.moriano.locones.host;
+
+import org.moriano.locones.NES;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs many headless NES instances at the same time, think thousands of short sessions of automated tests.
+ *
+ * There are far more sessions than cores, so each session does not get a thread of its own. Instead the sessions
+ * are run by a bounded pool of threads (one per core by default), a few frames at a time: after each slice the
+ * session goes to the back of the queue of the pool, so every session keeps moving and none of them hogs a thread
+ * until it is done. Java 17 has no virtual threads, this is pretty much what they would do for us, with the yield
+ * points being the end of each slice.
+ *
+ * Instances share nothing mutable: each session builds its own NES from its factory (with its own memory, PPU, APU
+ * and frame sink). Sharing the {@link org.moriano.locones.cartridge.Cartridge} is fine, the ROM is never written.
+ * Watch out, the NES built by the factory should be headless (see {@link org.moriano.locones.screen.HeadlessFrameSink})
+ * and should not be checking against nestest.log.
+ */
+public class EmulatorHost implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(EmulatorHost.class);
+    public static final int DEFAULT_FRAMES_PER_SLICE = 10;
+
+    private final ExecutorService executor;
+    private final int framesPerSlice;
+    private final List<Session> sessions = new CopyOnWriteArrayList<>();
+    private long startNanos = 0;
+
+    public EmulatorHost() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_FRAMES_PER_SLICE);
+    }
+
+    /**
+     * @param threads How many sessions can run at the same time
+     * @param framesPerSlice How many frames a session runs before letting the others run
+     */
+    public EmulatorHost(int threads, int framesPerSlice) {
+        if (threads < 1 || framesPerSlice < 1) {
+            throw new IllegalArgumentException("Watch out, need at least a thread and a frame per slice, not " +
+                    threads + " and " + framesPerSlice);
+        }
+        this.framesPerSlice = framesPerSlice;
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "emulator-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.executor = Executors.newFixedThreadPool(threads, threadFactory);
+    }
+
+    /**
+     * Starts a new session right away
+     * @param name To tell it apart in the reports
+     * @param factory Builds the NES to run, once at the start and once more after every restart
+     * @param frames How many frames to run
+     * @return
+     */
+    public Session start(String name, Supplier<NES> factory, long frames) {
+        Session session = new Session(name, factory, frames);
+        synchronized (this) {
+            if (this.startNanos == 0) {
+                this.startNanos = System.nanoTime();
+            }
+        }
+        this.sessions.add(session);
+        this.schedule(session);
+        return session;
+    }
+
+    /**
+     * Waits until all the sessions started so far are done
+     */
+    public void awaitAll() {
+        CompletableFuture.allOf(this.sessions.stream().map(Session::getCompletion).toArray(CompletableFuture[]::new))
+                .join();
+    }
+
+    public List<Session> getSessions() {
+        return sessions;
+    }
+
+    /**
+     * @return Frames run by all the sessions together, since the first one started
+     */
+    public double getAggregateFramesPerSecond() {
+        if (this.startNanos == 0) {
+            return 0;
+        }
+        long frames = 0;
+        long end;
+        boolean allDone = true;
+        for (Session session : this.sessions) {
+            frames += session.getFrames();
+            allDone &= session.isDone();
+        }
+        if (allDone) {
+            /*
+            Once everything is done the time has to stop at the last session, not at whenever we are asked
+             */
+            end = this.sessions.stream().mapToLong(Session::getEndNanos).max().orElse(System.nanoTime());
+        } else {
+            end = System.nanoTime();
+        }
+        return frames / ((end - this.startNanos) / 1_000_000_000d);
+    }
+
+    /**
+     * Logs every session and the aggregate
+     */
+    public void logReport() {
+        for (Session session : this.sessions) {
+            log.info(session.toString());
+        }
+        log.info(String.format("%d sessions, %.1f frames per second in total", this.sessions.size(),
+                this.getAggregateFramesPerSecond()));
+    }
+
+    @Override
+    public void close() {
+        this.executor.shutdownNow();
+    }
+
+    private void schedule(Session session) {
+        this.executor.execute(() -> {
+            try {
+                if (session.runSlice(this.framesPerSlice)) {
+                    this.schedule(session);
+                }
+            } catch (Throwable e) {
+                log.error("Session " + session.getName() + " failed", e);
+                session.fail(e);
+            }
+        });
+    }
+}
@@ -0,0 +1,135 @@
+package org.moriano.locones.host;
+
+import org.moriano.locones.NES;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * A single emulated NES running inside an {@link EmulatorHost}, for a given number of frames.
+ *
+ * The NES (and everything it owns) is only ever touched by the slice of work that is running it, and there is only
+ * one of those at a time (the next one is submitted by the previous one), so nothing in here needs locks. The
+ * counters are volatile so that they can be read from any thread while the session runs.
+ *
+ * When the core runs into something it does not support (an UnsupportedOperationException, or an
+ * IllegalArgumentException for an address it cannot map) the NES is replaced by a new one from the factory and the
+ * session carries on, like {@link org.moriano.locones.HeadlessRun} does. Each restart is logged and counted (see
+ * {@link #getRestarts()}). Anything else is a bug in the core, the session fails with it (see
+ * {@link EmulatorHost}).
+ */
+public class Session {
+
+    private static final Logger log = LoggerFactory.getLogger(Session.class);
+
+    private final String name;
+    private final Supplier<NES> factory;
+    private final long totalFrames;
+    private final CompletableFuture<Session> completion = new CompletableFuture<>();
+    private NES nes;
+    private volatile long frames = 0;
+    private volatile int restarts = 0;
+    private volatile long startNanos = 0;
+    private volatile long endNanos = 0;
+
+    Session(String name, Supplier<NES> factory, long totalFrames) {
+        this.name = name;
+        this.factory = factory;
+        this.totalFrames = totalFrames;
+    }
+
+    /**
+     * Runs up to maxFrames frames
+     * @param maxFrames
+     * @return true if the session is not done yet
+     */
+    boolean runSlice(int maxFrames) {
+        if (this.nes == null) {
+            this.startNanos = System.nanoTime();
+            this.nes = this.factory.get();
+        }
+        long frames = this.frames;
+        long sliceEnd = Math.min(this.totalFrames, frames + maxFrames);
+        while (frames < sliceEnd) {
+            try {
+                this.nes.runFrame();
+            } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                log.warn("Session " + this.name + " restarting at frame " + frames + ": " + e.getMessage());
+                this.restarts++;
+                this.nes = this.factory.get();
+            }
+            frames++;
+        }
+        this.frames = frames;
+        if (frames < this.totalFrames) {
+            return true;
+        }
+        this.endNanos = System.nanoTime();
+        this.nes = null; // Done with it, whatever it holds can go away now
+        this.completion.complete(this);
+        return false;
+    }
+
+    void fail(Throwable cause) {
+        this.endNanos = System.nanoTime();
+        this.nes = null;
+        this.completion.completeExceptionally(cause);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Frames run so far, a frame that ended up in a restart counts too (the work was done)
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    public long getTotalFrames() {
+        return totalFrames;
+    }
+
+    /**
+     * @return How many times the NES ran into something the core does not support and was replaced by a new one
+     */
+    public int getRestarts() {
+        return restarts;
+    }
+
+    long getEndNanos() {
+        return endNanos;
+    }
+
+    public boolean isDone() {
+        return this.completion.isDone();
+    }
+
+    /**
+     * @return Completes with the session itself once all its frames are run
+     */
+    public CompletableFuture<Session> getCompletion() {
+        return completion;
+    }
+
+    /**
+     * @return From the first frame to the last one (or to now, if still running)
+     */
+    public double getFramesPerSecond() {
+        long start = this.startNanos;
+        if (start == 0) {
+            return 0;
+        }
+        long end = this.endNanos == 0 ? System.nanoTime() : this.endNanos;
+        return this.frames / ((end - start) / 1_000_000_000d);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Session{name=%s, frames=%d/%d, restarts=%d, fps=%.1f}", this.name, this.frames,
+                this.totalFrames, this.restarts, this.getFramesPerSecond());
+    }
+}
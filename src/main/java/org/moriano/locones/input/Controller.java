@@ -0,0 +1,87 @@
+package org.moriano.locones.input;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A standard NES controller, see https://www.nesdev.org/wiki/Standard_controller
+ *
+ * Inside there is an 8 bit shift register. While the strobe ($4016 bit 0) is 1 the register keeps reloading with the
+ * buttons being pressed, when it goes back to 0 the buttons are latched and each read of the port ($4016 for the
+ * first controller, $4017 for the second) returns the next one, in this order: A, B, Select, Start, Up, Down, Left,
+ * Right. After that, an official controller returns 1 forever.
+ *
+ * The buttons are asked for to the {@link InputSource} exactly at the moment the game latches them, rather than once
+ * at the start of the frame. Games usually read the controller a good while into the frame (or even in the next
+ * vblank), whatever the player pressed in between is not lost until the next frame.
+ */
+public class Controller {
+
+    private static final int OPEN_BUS = 0x40; // The upper bits are not driven, they usually read as the high byte of $4016
+
+    private InputSource inputSource = InputSource.NONE;
+    private boolean strobe = false;
+    private int shiftRegister = 0;
+    private long latches = 0;
+
+    public void setInputSource(InputSource inputSource) {
+        this.inputSource = inputSource == null ? InputSource.NONE : inputSource;
+    }
+
+    public InputSource getInputSource() {
+        return inputSource;
+    }
+
+    /**
+     * $4016 write
+     * @param value Only bit 0 (the strobe) matters
+     */
+    public void write(int value) {
+        boolean newStrobe = (value & 0x01) != 0;
+        if (this.strobe && !newStrobe) {
+            this.latch();
+        }
+        this.strobe = newStrobe;
+    }
+
+    /**
+     * $4016 / $4017 read
+     * @return The next button in bit 0
+     */
+    public int read() {
+        if (this.strobe) {
+            // Still reloading, all we ever get is A
+            return OPEN_BUS | (this.inputSource.readButtons() & 0x01);
+        }
+        int value = this.shiftRegister & 0x01;
+        this.shiftRegister = (this.shiftRegister >> 1) | 0x80; // Once the 8 buttons are out, only 1s are left
+        return OPEN_BUS | value;
+    }
+
+    /**
+     * The input source is not part of the state, whoever is holding the controller keeps holding it
+     * @param state
+     */
+    public void save(ByteBuffer state) {
+        state.put((byte) (this.strobe ? 1 : 0));
+        state.put((byte) this.shiftRegister);
+        state.putLong(this.latches);
+    }
+
+    public void load(ByteBuffer state) {
+        this.strobe = state.get() != 0;
+        this.shiftRegister = state.get() & 0xFF;
+        this.latches = state.getLong();
+    }
+
+    /**
+     * @return How many times the game has latched the buttons
+     */
+    public long getLatches() {
+        return latches;
+    }
+
+    private void latch() {
+        this.shiftRegister = this.inputSource.readButtons() & 0xFF;
+        this.latches++;
+    }
+}
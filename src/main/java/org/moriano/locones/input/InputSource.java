@@ -0,0 +1,38 @@
+package org.moriano.locones.input;
+
+/**
+ * Whatever is holding a controller: the keyboard, a script, a recording...
+ *
+ * The state is asked for when the game latches the controller (writes 1 and then 0 to $4016), not once per frame,
+ * so it has to be cheap and it must never block.
+ */
+public interface InputSource {
+
+    int BUTTON_A = 0x01;
+    int BUTTON_B = 0x02;
+    int BUTTON_SELECT = 0x04;
+    int BUTTON_START = 0x08;
+    int BUTTON_UP = 0x10;
+    int BUTTON_DOWN = 0x20;
+    int BUTTON_LEFT = 0x40;
+    int BUTTON_RIGHT = 0x80;
+
+    /**
+     * Nobody holding the controller
+     */
+    InputSource NONE = () -> 0;
+
+    /**
+     * @return The buttons being pressed right now, see the BUTTON_ constants. The bits are in the same order the
+     * controller sends them in.
+     */
+    int readButtons();
+
+    /**
+     * The machine has just been put back at frameNumber, by a save state, a rewind or the end of a run ahead. Nothing
+     * to do for most sources, but whatever they gave for the frames from there on never happened.
+     * @param frameNumber The frame the machine is at now
+     */
+    default void stateLoaded(long frameNumber) {
+    }
+}
@@ -0,0 +1,111 @@
+package org.moriano.locones.input;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+
+/**
+ * The keyboard as the first controller. Attach it to the {@link org.moriano.locones.screen.Screen} and the key
+ * events (on the Swing thread) update a volatile field that the emulation thread reads when the game latches.
+ *
+ * <pre>
+ *   Arrows     D-pad
+ *   X          A
+ *   Z          B
+ *   Enter      Start
+ *   Shift      Select
+ *
+ *   Backspace  Rewind (held), not a controller button, see {@link #isRewindPressed()}
+ * </pre>
+ *
+ * It also measures how long it takes since a key changes until the game gets to see it (the latch), which is the
+ * part of the input lag the emulator is responsible for.
+ */
+public class KeyboardInputSource extends KeyAdapter implements InputSource {
+
+    private static final Logger log = LoggerFactory.getLogger(KeyboardInputSource.class);
+    private static final int LOG_EVERY = 100; // Changes
+
+    private volatile int buttons = 0;
+    private volatile boolean rewindPressed = false;
+    private volatile long lastChangeNanos = 0;
+    private long lastSeenChangeNanos = 0; // Only touched by the emulation thread from here on
+    private long totalLatencyNanos = 0;
+    private long maxLatencyNanos = 0;
+    private long changesSeen = 0;
+
+    @Override
+    public void keyPressed(KeyEvent e) {
+        this.update(e.getKeyCode(), true);
+    }
+
+    @Override
+    public void keyReleased(KeyEvent e) {
+        this.update(e.getKeyCode(), false);
+    }
+
+    @Override
+    public int readButtons() {
+        long changeNanos = this.lastChangeNanos;
+        int buttons = this.buttons;
+        if (changeNanos != this.lastSeenChangeNanos) {
+            this.lastSeenChangeNanos = changeNanos;
+            long latency = System.nanoTime() - changeNanos;
+            this.totalLatencyNanos += latency;
+            this.maxLatencyNanos = Math.max(this.maxLatencyNanos, latency);
+            this.changesSeen++;
+            if (this.changesSeen % LOG_EVERY == 0) {
+                log.debug("Input latency over " + this.changesSeen + " changes: average " +
+                        this.getAverageLatencyNanos() / 1000 + "us, max " + this.maxLatencyNanos / 1000 + "us");
+            }
+        }
+        return buttons;
+    }
+
+    /**
+     * @return Average time between a key changing and the game latching it
+     */
+    public long getAverageLatencyNanos() {
+        return this.changesSeen == 0 ? 0 : this.totalLatencyNanos / this.changesSeen;
+    }
+
+    public long getMaxLatencyNanos() {
+        return maxLatencyNanos;
+    }
+
+    public boolean isRewindPressed() {
+        return rewindPressed;
+    }
+
+    private void update(int keyCode, boolean pressed) {
+        if (keyCode == KeyEvent.VK_BACK_SPACE) {
+            this.rewindPressed = pressed;
+            return;
+        }
+        int button = toButton(keyCode);
+        if (button == 0) {
+            return;
+        }
+        int newButtons = pressed ? this.buttons | button : this.buttons & ~button;
+        if (newButtons != this.buttons) {
+            this.buttons = newButtons;
+            this.lastChangeNanos = System.nanoTime();
+        }
+    }
+
+    private static int toButton(int keyCode) {
+        switch (keyCode) {
+            case KeyEvent.VK_X: return BUTTON_A;
+            case KeyEvent.VK_Z: return BUTTON_B;
+            case KeyEvent.VK_SHIFT: return BUTTON_SELECT;
+            case KeyEvent.VK_ENTER: return BUTTON_START;
+            case KeyEvent.VK_UP: return BUTTON_UP;
+            case KeyEvent.VK_DOWN: return BUTTON_DOWN;
+            case KeyEvent.VK_LEFT: return BUTTON_LEFT;
+            case KeyEvent.VK_RIGHT: return BUTTON_RIGHT;
+            default: return 0;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package org.moriano.locones.input;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Plays back the buttons recorded for each frame, frame 0 being the first one. Once the recording is over nothing
+ * is pressed.
+ */
+public class RecordedInputSource implements InputSource {
+
+    private final LongSupplier frameNumber;
+    private final byte[] buttonsPerFrame;
+
+    /**
+     * @param frameNumber Tells the current frame
+     * @param buttonsPerFrame
+     */
+    public RecordedInputSource(LongSupplier frameNumber, byte[] buttonsPerFrame) {
+        this.frameNumber = frameNumber;
+        this.buttonsPerFrame = buttonsPerFrame;
+    }
+
+    @Override
+    public int readButtons() {
+        long frame = this.frameNumber.getAsLong();
+        if (frame < 0 || frame >= this.buttonsPerFrame.length) {
+            return 0;
+        }
+        return this.buttonsPerFrame[(int) frame] & 0xFF;
+    }
+
+    public int getTotalFrames() {
+        return this.buttonsPerFrame.length;
+    }
+}
@@ -0,0 +1,51 @@
+package org.moriano.locones.input;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * Presses buttons on given frames, for driving a game with no human around (benchmarks, tests, getting past a
+ * title screen...).
+ *
+ * <pre>
+ *   new ScriptedInputSource(nes::getFrameNumber)
+ *       .press(InputSource.BUTTON_START, 120, 5)
+ *       .press(InputSource.BUTTON_RIGHT | InputSource.BUTTON_A, 300, 60);
+ * </pre>
+ */
+public class ScriptedInputSource implements InputSource {
+
+    private final LongSupplier frameNumber;
+    private final List<long[]> presses = new ArrayList<>(); // {buttons, first frame, last frame (exclusive)}
+
+    /**
+     * @param frameNumber Tells the current frame
+     */
+    public ScriptedInputSource(LongSupplier frameNumber) {
+        this.frameNumber = frameNumber;
+    }
+
+    /**
+     * @param buttons See the BUTTON_ constants in {@link InputSource}
+     * @param fromFrame
+     * @param frames How many frames to hold them for
+     * @return this, so that the calls can be chained
+     */
+    public ScriptedInputSource press(int buttons, long fromFrame, int frames) {
+        this.presses.add(new long[]{buttons, fromFrame, fromFrame + frames});
+        return this;
+    }
+
+    @Override
+    public int readButtons() {
+        long frame = this.frameNumber.getAsLong();
+        int buttons = 0;
+        for (long[] press : this.presses) {
+            if (frame >= press[1] && frame < press[2]) {
+                buttons |= (int) press[0];
+            }
+        }
+        return buttons;
+    }
+}
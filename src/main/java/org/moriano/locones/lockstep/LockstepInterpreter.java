@@ -0,0 +1,770 @@
+package org.moriano.locones.lockstep;
+
+import org.moriano.locones.cartridge.Cartridge;
+
+/**
+ * EXPERIMENTAL. Interprets the CPU of many instances (lanes) of the same cartridge at once, the way a GPU would:
+ * lanes that are at the same PC run the instruction together.
+ *
+ * When 64 copies of a game run with different inputs, they spend most of their time running exactly the same code,
+ * and every {@link org.moriano.locones.CPU} decodes exactly the same opcodes on its own. Here the registers of all
+ * the lanes live in arrays (structure of arrays, a[lane] rather than lane.a) and so does the RAM, interleaved so that
+ * the same address of all the lanes is contiguous (ram[address * lanes + lane]). Each step
+ *
+ * - Takes the first lane that has not run yet, and groups it with every other lane at the same PC (only for code
+ *   in the PRG-ROM, code in RAM can be different in every lane, those lanes run on their own).
+ * - Decodes the instruction once, then runs it for the whole group: the addressing mode is worked out lane after
+ *   lane, and then the operation lane after lane, a tight loop over primitive arrays.
+ * - Repeats with whatever lanes are left, so lanes that diverge are simply split into groups of their own, and they
+ *   come back together as soon as they are at the same PC again.
+ *
+ * Only the CPU, its 2KB of RAM and the PRG-ROM (as mapper 0 maps it, see {@link org.moriano.locones.memory.Memory})
+ * are there: reads from anything else ($2000-$7FFF, the PPU, APU, controllers and SRAM) give 0 and writes are
+ * ignored, there is no PPU, no APU and no interrupts. Only the official opcodes are supported, a lane that runs into
+ * any other is halted (see {@link #isHalted(int)}). Decimal mode is ignored, like on the NES.
+ */
+public class LockstepInterpreter {
+
+    /*
+    Addressing modes
+     */
+    private static final int IMPLIED = 0;
+    private static final int ACCUMULATOR = 1;
+    private static final int IMMEDIATE = 2;
+    private static final int ZERO_PAGE = 3;
+    private static final int ZERO_PAGE_X = 4;
+    private static final int ZERO_PAGE_Y = 5;
+    private static final int ABSOLUTE = 6;
+    private static final int ABSOLUTE_X = 7;
+    private static final int ABSOLUTE_Y = 8;
+    private static final int INDIRECT = 9;
+    private static final int INDEXED_INDIRECT = 10;
+    private static final int INDIRECT_INDEXED = 11;
+    private static final int RELATIVE = 12;
+    private static final int[] LENGTHS = {1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 2, 2, 2};
+
+    /*
+    Operations
+     */
+    private static final int UNSUPPORTED = 0;
+    private static final int ADC = 1, AND = 2, ASL = 3, BCC = 4, BCS = 5, BEQ = 6, BIT = 7, BMI = 8, BNE = 9, BPL = 10,
+            BRK = 11, BVC = 12, BVS = 13, CLC = 14, CLD = 15, CLI = 16, CLV = 17, CMP = 18, CPX = 19, CPY = 20,
+            DEC = 21, DEX = 22, DEY = 23, EOR = 24, INC = 25, INX = 26, INY = 27, JMP = 28, JSR = 29, LDA = 30,
+            LDX = 31, LDY = 32, LSR = 33, NOP = 34, ORA = 35, PHA = 36, PHP = 37, PLA = 38, PLP = 39, ROL = 40,
+            ROR = 41, RTI = 42, RTS = 43, SBC = 44, SEC = 45, SED = 46, SEI = 47, STA = 48, STX = 49, STY = 50,
+            TAX = 51, TAY = 52, TSX = 53, TXA = 54, TXS = 55, TYA = 56;
+
+    private static final int CARRY = 0x01;
+    private static final int ZERO = 0x02;
+    private static final int INTERRUPT_DISABLE = 0x04;
+    private static final int DECIMAL = 0x08;
+    private static final int BREAK = 0x10;
+    private static final int UNUSED = 0x20;
+    private static final int OVERFLOW = 0x40;
+    private static final int NEGATIVE = 0x80;
+
+    private static final int[] OPERATIONS = new int[256];
+    private static final int[] MODES = new int[256];
+    private static final int[] CYCLES = new int[256];
+    private static final boolean[] PAGE_CROSS_PENALTY = new boolean[256]; // Reads take a cycle more when crossing
+
+    static {
+        opcodes(ADC, 0x69, 0x65, 0x75, 0x6D, 0x7D, 0x79, 0x61, 0x71);
+        opcodes(AND, 0x29, 0x25, 0x35, 0x2D, 0x3D, 0x39, 0x21, 0x31);
+        opcodes(CMP, 0xC9, 0xC5, 0xD5, 0xCD, 0xDD, 0xD9, 0xC1, 0xD1);
+        opcodes(EOR, 0x49, 0x45, 0x55, 0x4D, 0x5D, 0x59, 0x41, 0x51);
+        opcodes(LDA, 0xA9, 0xA5, 0xB5, 0xAD, 0xBD, 0xB9, 0xA1, 0xB1);
+        opcodes(ORA, 0x09, 0x05, 0x15, 0x0D, 0x1D, 0x19, 0x01, 0x11);
+        opcodes(SBC, 0xE9, 0xE5, 0xF5, 0xED, 0xFD, 0xF9, 0xE1, 0xF1);
+        opcode(0x85, STA, ZERO_PAGE, 3);
+        opcode(0x95, STA, ZERO_PAGE_X, 4);
+        opcode(0x8D, STA, ABSOLUTE, 4);
+        opcode(0x9D, STA, ABSOLUTE_X, 5);
+        opcode(0x99, STA, ABSOLUTE_Y, 5);
+        opcode(0x81, STA, INDEXED_INDIRECT, 6);
+        opcode(0x91, STA, INDIRECT_INDEXED, 6);
+
+        shifts(ASL, 0x0A, 0x06, 0x16, 0x0E, 0x1E);
+        shifts(LSR, 0x4A, 0x46, 0x56, 0x4E, 0x5E);
+        shifts(ROL, 0x2A, 0x26, 0x36, 0x2E, 0x3E);
+        shifts(ROR, 0x6A, 0x66, 0x76, 0x6E, 0x7E);
+        opcode(0xC6, DEC, ZERO_PAGE, 5);
+        opcode(0xD6, DEC, ZERO_PAGE_X, 6);
+        opcode(0xCE, DEC, ABSOLUTE, 6);
+        opcode(0xDE, DEC, ABSOLUTE_X, 7);
+        opcode(0xE6, INC, ZERO_PAGE, 5);
+        opcode(0xF6, INC, ZERO_PAGE_X, 6);
+        opcode(0xEE, INC, ABSOLUTE, 6);
+        opcode(0xFE, INC, ABSOLUTE_X, 7);
+
+        int[] branches = {0x90, BCC, 0xB0, BCS, 0xF0, BEQ, 0x30, BMI, 0xD0, BNE, 0x10, BPL, 0x50, BVC, 0x70, BVS};
+        for (int i = 0; i < branches.length; i += 2) {
+            opcode(branches[i], branches[i + 1], RELATIVE, 2);
+        }
+
+        opcode(0x24, BIT, ZERO_PAGE, 3);
+        opcode(0x2C, BIT, ABSOLUTE, 4);
+        opcode(0xE0, CPX, IMMEDIATE, 2);
+        opcode(0xE4, CPX, ZERO_PAGE, 3);
+        opcode(0xEC, CPX, ABSOLUTE, 4);
+        opcode(0xC0, CPY, IMMEDIATE, 2);
+        opcode(0xC4, CPY, ZERO_PAGE, 3);
+        opcode(0xCC, CPY, ABSOLUTE, 4);
+        opcode(0xA2, LDX, IMMEDIATE, 2);
+        opcode(0xA6, LDX, ZERO_PAGE, 3);
+        opcode(0xB6, LDX, ZERO_PAGE_Y, 4);
+        opcode(0xAE, LDX, ABSOLUTE, 4);
+        opcode(0xBE, LDX, ABSOLUTE_Y, 4);
+        PAGE_CROSS_PENALTY[0xBE] = true;
+        opcode(0xA0, LDY, IMMEDIATE, 2);
+        opcode(0xA4, LDY, ZERO_PAGE, 3);
+        opcode(0xB4, LDY, ZERO_PAGE_X, 4);
+        opcode(0xAC, LDY, ABSOLUTE, 4);
+        opcode(0xBC, LDY, ABSOLUTE_X, 4);
+        PAGE_CROSS_PENALTY[0xBC] = true;
+        opcode(0x86, STX, ZERO_PAGE, 3);
+        opcode(0x96, STX, ZERO_PAGE_Y, 4);
+        opcode(0x8E, STX, ABSOLUTE, 4);
+        opcode(0x84, STY, ZERO_PAGE, 3);
+        opcode(0x94, STY, ZERO_PAGE_X, 4);
+        opcode(0x8C, STY, ABSOLUTE, 4);
+
+        opcode(0x4C, JMP, ABSOLUTE, 3);
+        opcode(0x6C, JMP, INDIRECT, 5);
+        opcode(0x20, JSR, ABSOLUTE, 6);
+        opcode(0x60, RTS, IMPLIED, 6);
+        opcode(0x40, RTI, IMPLIED, 6);
+        opcode(0x00, BRK, IMPLIED, 7);
+        opcode(0x48, PHA, IMPLIED, 3);
+        opcode(0x08, PHP, IMPLIED, 3);
+        opcode(0x68, PLA, IMPLIED, 4);
+        opcode(0x28, PLP, IMPLIED, 4);
+
+        int[] implied = {0x18, CLC, 0xD8, CLD, 0x58, CLI, 0xB8, CLV, 0x38, SEC, 0xF8, SED, 0x78, SEI, 0xCA, DEX,
+                0x88, DEY, 0xE8, INX, 0xC8, INY, 0xEA, NOP, 0xAA, TAX, 0xA8, TAY, 0xBA, TSX, 0x8A, TXA, 0x9A, TXS,
+                0x98, TYA};
+        for (int i = 0; i < implied.length; i += 2) {
+            opcode(implied[i], implied[i + 1], IMPLIED, 2);
+        }
+    }
+
+    private final int lanes;
+    private final int[] a;
+    private final int[] x;
+    private final int[] y;
+    private final int[] s;
+    private final int[] p;
+    private final int[] pc;
+    private final long[] cycles;
+    private final boolean[] halted;
+    private final byte[] ram; // ram[address * lanes + lane]
+    private final int[] prg = new int[0x8000]; // $8000-$FFFF, as mapper 0 (Memory) maps it
+
+    private final int[] group; // The lanes running the current instruction
+    private final int[] addresses; // The effective address of each lane of the group
+    private final boolean[] pending;
+    private boolean grouping = true;
+
+    private long instructions = 0;
+    private long groups = 0;
+
+    /**
+     * @param cartridge Mapper 0 only
+     * @param lanes How many instances
+     * @param initialPC Where all of them start, with the registers and RAM as the NES has them at power on
+     */
+    public LockstepInterpreter(Cartridge cartridge, int lanes, int initialPC) {
+        if (lanes < 1) {
+            throw new IllegalArgumentException("Watch out, need at least a lane, not " + lanes);
+        }
+        this.lanes = lanes;
+        this.a = new int[lanes];
+        this.x = new int[lanes];
+        this.y = new int[lanes];
+        this.s = new int[lanes];
+        this.p = new int[lanes];
+        this.pc = new int[lanes];
+        this.cycles = new long[lanes];
+        this.halted = new boolean[lanes];
+        this.ram = new byte[2048 * lanes];
+        this.group = new int[lanes];
+        this.addresses = new int[lanes];
+        this.pending = new boolean[lanes];
+        for (int i = 0; i < this.prg.length; i++) {
+            this.prg[i] = cartridge.readPRG(i < 0x4000 ? i : i - 0x4000);
+        }
+        for (int lane = 0; lane < lanes; lane++) {
+            this.s[lane] = 0xFD;
+            this.p[lane] = INTERRUPT_DISABLE | UNUSED;
+            this.pc[lane] = initialPC;
+        }
+        java.util.Arrays.fill(this.ram, (byte) 0xFF); // Same power on values as CPUMemory
+        int[][] exceptions = {{0x08, 0xF7}, {0x09, 0xEF}, {0x0A, 0xDF}, {0x0F, 0xBF}};
+        for (int[] exception : exceptions) {
+            for (int lane = 0; lane < lanes; lane++) {
+                this.writeRam(lane, exception[0], exception[1]);
+            }
+        }
+    }
+
+    /**
+     * Every lane that is not halted runs exactly one instruction
+     */
+    public void step() {
+        int remaining = 0;
+        for (int lane = 0; lane < this.lanes; lane++) {
+            this.pending[lane] = !this.halted[lane];
+            remaining += this.pending[lane] ? 1 : 0;
+        }
+        int first = 0;
+        while (remaining > 0) {
+            while (!this.pending[first]) {
+                first++;
+            }
+            int leaderPC = this.pc[first];
+            int count = 0;
+            if (this.grouping && leaderPC >= 0x8000) {
+                for (int lane = first; lane < this.lanes; lane++) {
+                    if (this.pending[lane] && this.pc[lane] == leaderPC) {
+                        this.group[count++] = lane;
+                        this.pending[lane] = false;
+                    }
+                }
+            } else {
+                this.group[count++] = first;
+                this.pending[first] = false;
+            }
+            remaining -= count;
+            this.execute(this.read(first, leaderPC), count);
+            this.instructions += count;
+            this.groups++;
+        }
+    }
+
+    /**
+     * @param grouping false to run every lane on its own, as if there were no lock step at all (to compare)
+     */
+    public void setGrouping(boolean grouping) {
+        this.grouping = grouping;
+    }
+
+    public int getLanes() {
+        return lanes;
+    }
+
+    public int getA(int lane) {
+        return this.a[lane];
+    }
+
+    public int getX(int lane) {
+        return this.x[lane];
+    }
+
+    public int getY(int lane) {
+        return this.y[lane];
+    }
+
+    public int getS(int lane) {
+        return this.s[lane];
+    }
+
+    /**
+     * @param lane
+     * @return The status register, bit 5 always set and the break bit never (it only exists on the stack)
+     */
+    public int getP(int lane) {
+        return this.p[lane];
+    }
+
+    public int getPC(int lane) {
+        return this.pc[lane];
+    }
+
+    public long getCycles(int lane) {
+        return this.cycles[lane];
+    }
+
+    /**
+     * @param lane
+     * @return true if the lane ran into an opcode that is not supported, it does not run anymore
+     */
+    public boolean isHalted(int lane) {
+        return this.halted[lane];
+    }
+
+    public int readRam(int lane, int address) {
+        return this.ram[(address & 0x07FF) * this.lanes + lane] & 0xFF;
+    }
+
+    /**
+     * This is how lanes get different inputs
+     */
+    public void writeRam(int lane, int address, int value) {
+        this.ram[(address & 0x07FF) * this.lanes + lane] = (byte) value;
+    }
+
+    /**
+     * @return Instructions run by all lanes together
+     */
+    public long getInstructions() {
+        return instructions;
+    }
+
+    /**
+     * @return How many lanes ran each decoded instruction, on average. The number of lanes means perfect lock step.
+     */
+    public double getAverageGroupSize() {
+        return this.groups == 0 ? 0 : this.instructions / (double) this.groups;
+    }
+
+    private int read(int lane, int address) {
+        if (address < 0x2000) {
+            return this.ram[(address & 0x07FF) * this.lanes + lane] & 0xFF;
+        } else if (address >= 0x8000) {
+            return this.prg[address & 0x7FFF];
+        }
+        return 0;
+    }
+
+    private void write(int lane, int address, int value) {
+        if (address < 0x2000) {
+            this.ram[(address & 0x07FF) * this.lanes + lane] = (byte) value;
+        }
+    }
+
+    private void push(int lane, int value) {
+        this.ram[(0x100 | this.s[lane]) * this.lanes + lane] = (byte) value;
+        this.s[lane] = (this.s[lane] - 1) & 0xFF;
+    }
+
+    private int pop(int lane) {
+        this.s[lane] = (this.s[lane] + 1) & 0xFF;
+        return this.ram[(0x100 | this.s[lane]) * this.lanes + lane] & 0xFF;
+    }
+
+    private void setNZ(int lane, int value) {
+        this.p[lane] = (this.p[lane] & ~(ZERO | NEGATIVE)) | (value == 0 ? ZERO : 0) | (value & NEGATIVE);
+    }
+
+    private void setFlag(int lane, int flag, boolean set) {
+        this.p[lane] = set ? this.p[lane] | flag : this.p[lane] & ~flag;
+    }
+
+    /**
+     * Runs a single instruction for every lane in the group, they are all at the same PC
+     * @param opcode
+     * @param count Lanes in the group
+     */
+    private void execute(int opcode, int count) {
+        int operation = OPERATIONS[opcode];
+        if (operation == UNSUPPORTED) {
+            for (int k = 0; k < count; k++) {
+                this.halted[this.group[k]] = true;
+            }
+            return;
+        }
+        int mode = MODES[opcode];
+        int baseCycles = CYCLES[opcode];
+        boolean penalty = PAGE_CROSS_PENALTY[opcode];
+        for (int k = 0; k < count; k++) {
+            int lane = this.group[k];
+            int pc = this.pc[lane];
+            int address = this.address(lane, mode, pc);
+            this.addresses[k] = address & 0xFFFF;
+            this.cycles[lane] += baseCycles + (penalty && (address & 0x10000) != 0 ? 1 : 0);
+            this.pc[lane] = (pc + LENGTHS[mode]) & 0xFFFF;
+        }
+
+        switch (operation) {
+            case ADC:
+                for (int k = 0; k < count; k++) {
+                    int lane = this.group[k];
+                    this.addWithCarry(lane, this.read(lane, this.addresses[k]));
+                }
+                break;
+            case SBC:
+                for (int k = 0; k < count; k++) {
+                    int lane = this.group[k];
+                    this.addWithCarry(lane, this.read(lane, this.addresses[k]) ^ 0xFF);
+                }
+                break;
+            case AND:
+                for (int k = 0; k < count; k++) {
+                    int lane = this.group[k];
+                    this.a[lane] &= this.read(lane, this.addresses[k]);
+                    this.setNZ(lane, this.a[lane]);
+                }
+                break;
+            case ORA:
+                for (int k = 0; k < count; k++) {
+                    int lane = this.group[k];
+                    this.a[lane] |= this.read(lane, this.addresses[k]);
+                    this.setNZ(lane, this.a[lane]);
+                }
+                break;
+            case EOR:
+                for (int k = 0; k < count; k++) {
+                    int lane = this.group[k];
+                    this.a[lane] ^= this.read(lane, this.addresses[k]);
+                    this.setNZ(lane, this.a[lane]);
+                }
+                break;
+            case CMP:
+                for (int k = 0; k < count; k++) {
+                    int lane = this.group[k];
+                    this.compare(lane, this.a[lane], this.read(lane, this.addresses[k]));
+                }
+                break;
+            case CPX:
+                for (int k = 0; k < count; k++) {
+                    int lane = this.group[k];
+                    this.compare(lane, this.x[lane], this.read(lane, this.addresses[k]));
+                }
+                break;
+            case CPY:
+                for (int k = 0; k < count; k++) {
+                    int lane = this.group[k];
+                    this.compare(lane, this.y[lane], this.read(lane, this.addresses[k]));
+                }
+                break;
+            case BIT:
+                for (int k = 0; k < count; k++) {
+                    int lane = this.group[k];
+                    int value = this.read(lane, this.addresses[k]);
+                    this.p[lane] = (this.p[lane] & ~(ZERO | OVERFLOW | NEGATIVE)) | (value & (OVERFLOW | NEGATIVE))
+                            | ((this.a[lane] & value) == 0 ? ZERO : 0);
+                }
+                break;
+            case LDA:
+                for (int k = 0; k < count; k++) {
+                    int lane = this.group[k];
+                    this.a[lane] = this.read(lane, this.addresses[k]);
+                    this.setNZ(lane, this.a[lane]);
+                }
+                break;
+            case LDX:
+                for (int k = 0; k < count; k++) {
+                    int lane = this.group[k];
+                    this.x[lane] = this.read(lane, this.addresses[k]);
+                    this.setNZ(lane, this.x[lane]);
+                }
+                break;
+            case LDY:
+                for (int k = 0; k < count; k++) {
+                    int lane = this.group[k];
+                    this.y[lane] = this.read(lane, this.addresses[k]);
+                    this.setNZ(lane, this.y[lane]);
+                }
+                break;
+            case STA:
+                for (int k = 0; k < count; k++) {
+                    int lane = this.group[k];
+                    this.write(lane, this.addresses[k], this.a[lane]);
+                }
+                break;
+            case STX:
+                for (int k = 0; k < count; k++) {
+                    int lane = this.group[k];
+                    this.write(lane, this.addresses[k], this.x[lane]);
+                }
+                break;
+            case STY:
+                for (int k = 0; k < count; k++) {
+                    int lane = this.group[k];
+                    this.write(lane, this.addresses[k], this.y[lane]);
+                }
+                break;
+            case ASL:
+            case LSR:
+            case ROL:
+            case ROR:
+                for (int k = 0; k < count; k++) {
+                    int lane = this.group[k];
+                    int value = mode == ACCUMULATOR ? this.a[lane] : this.read(lane, this.addresses[k]);
+                    int carryIn = this.p[lane] & CARRY;
+                    int result;
+                    if (operation == ASL || operation == ROL) {
+                        this.setFlag(lane, CARRY, (value & 0x80) != 0);
+                        result = ((value << 1) | (operation == ROL ? carryIn : 0)) & 0xFF;
+                    } else {
+                        this.setFlag(lane, CARRY, (value & 0x01) != 0);
+                        result = (value >> 1) | (operation == ROR ? carryIn << 7 : 0);
+                    }
+                    this.setNZ(lane, result);
+                    if (mode == ACCUMULATOR) {
+                        this.a[lane] = result;
+                    } else {
+                        this.write(lane, this.addresses[k], result);
+                    }
+                }
+                break;
+            case INC:
+            case DEC:
+                for (int k = 0; k < count; k++) {
+                    int lane = this.group[k];
+                    int result = (this.read(lane, this.addresses[k]) + (operation == INC ? 1 : -1)) & 0xFF;
+                    this.setNZ(lane, result);
+                    this.write(lane, this.addresses[k], result);
+                }
+                break;
+            case INX:
+            case DEX:
+                for (int k = 0; k < count; k++) {
+                    int lane = this.group[k];
+                    this.x[lane] = (this.x[lane] + (operation == INX ? 1 : -1)) & 0xFF;
+                    this.setNZ(lane, this.x[lane]);
+                }
+                break;
+            case INY:
+            case DEY:
+                for (int k = 0; k < count; k++) {
+                    int lane = this.group[k];
+                    this.y[lane] = (this.y[lane] + (operation == INY ? 1 : -1)) & 0xFF;
+                    this.setNZ(lane, this.y[lane]);
+                }
+                break;
+            case BCC:
+            case BCS:
+            case BEQ:
+            case BMI:
+            case BNE:
+            case BPL:
+            case BVC:
+            case BVS:
+                int flag = operation == BCC || operation == BCS ? CARRY : operation == BEQ || operation == BNE ? ZERO
+                        : operation == BMI || operation == BPL ? NEGATIVE : OVERFLOW;
+                boolean whenSet = operation == BCS || operation == BEQ || operation == BMI || operation == BVS;
+                for (int k = 0; k < count; k++) {
+                    int lane = this.group[k];
+                    if (((this.p[lane] & flag) != 0) == whenSet) {
+                        int target = this.addresses[k];
+                        this.cycles[lane] += (target & 0xFF00) != (this.pc[lane] & 0xFF00) ? 2 : 1;
+                        this.pc[lane] = target;
+                    }
+                }
+                break;
+            case JMP:
+                for (int k = 0; k < count; k++) {
+                    this.pc[this.group[k]] = this.addresses[k];
+                }
+                break;
+            case JSR:
+                for (int k = 0; k < count; k++) {
+                    int lane = this.group[k];
+                    int returnAddress = (this.pc[lane] - 1) & 0xFFFF;
+                    this.push(lane, returnAddress >> 8);
+                    this.push(lane, returnAddress & 0xFF);
+                    this.pc[lane] = this.addresses[k];
+                }
+                break;
+            case RTS:
+                for (int k = 0; k < count; k++) {
+                    int lane = this.group[k];
+                    int low = this.pop(lane);
+                    this.pc[lane] = ((this.pop(lane) << 8 | low) + 1) & 0xFFFF;
+                }
+                break;
+            case RTI:
+                for (int k = 0; k < count; k++) {
+                    int lane = this.group[k];
+                    this.p[lane] = (this.pop(lane) & ~BREAK) | UNUSED;
+                    int low = this.pop(lane);
+                    this.pc[lane] = this.pop(lane) << 8 | low;
+                }
+                break;
+            case BRK:
+                for (int k = 0; k < count; k++) {
+                    int lane = this.group[k];
+                    int returnAddress = (this.pc[lane] + 1) & 0xFFFF; // BRK skips a padding byte
+                    this.push(lane, returnAddress >> 8);
+                    this.push(lane, returnAddress & 0xFF);
+                    this.push(lane, this.p[lane] | BREAK | UNUSED);
+                    this.p[lane] |= INTERRUPT_DISABLE;
+                    this.pc[lane] = this.read(lane, 0xFFFE) | this.read(lane, 0xFFFF) << 8;
+                }
+                break;
+            case PHA:
+                for (int k = 0; k < count; k++) {
+                    int lane = this.group[k];
+                    this.push(lane, this.a[lane]);
+                }
+                break;
+            case PHP:
+                for (int k = 0; k < count; k++) {
+                    int lane = this.group[k];
+                    this.push(lane, this.p[lane] | BREAK | UNUSED);
+                }
+                break;
+            case PLA:
+                for (int k = 0; k < count; k++) {
+                    int lane = this.group[k];
+                    this.a[lane] = this.pop(lane);
+                    this.setNZ(lane, this.a[lane]);
+                }
+                break;
+            case PLP:
+                for (int k = 0; k < count; k++) {
+                    int lane = this.group[k];
+                    this.p[lane] = (this.pop(lane) & ~BREAK) | UNUSED;
+                }
+                break;
+            case CLC:
+            case CLD:
+            case CLI:
+            case CLV:
+            case SEC:
+            case SED:
+            case SEI:
+                int mask = operation == CLC || operation == SEC ? CARRY : operation == CLD || operation == SED ? DECIMAL
+                        : operation == CLI || operation == SEI ? INTERRUPT_DISABLE : OVERFLOW;
+                boolean set = operation == SEC || operation == SED || operation == SEI;
+                for (int k = 0; k < count; k++) {
+                    this.setFlag(this.group[k], mask, set);
+                }
+                break;
+            case TAX:
+                for (int k = 0; k < count; k++) {
+                    int lane = this.group[k];
+                    this.x[lane] = this.a[lane];
+                    this.setNZ(lane, this.x[lane]);
+                }
+                break;
+            case TAY:
+                for (int k = 0; k < count; k++) {
+                    int lane = this.group[k];
+                    this.y[lane] = this.a[lane];
+                    this.setNZ(lane, this.y[lane]);
+                }
+                break;
+            case TSX:
+                for (int k = 0; k < count; k++) {
+                    int lane = this.group[k];
+                    this.x[lane] = this.s[lane];
+                    this.setNZ(lane, this.x[lane]);
+                }
+                break;
+            case TXA:
+                for (int k = 0; k < count; k++) {
+                    int lane = this.group[k];
+                    this.a[lane] = this.x[lane];
+                    this.setNZ(lane, this.a[lane]);
+                }
+                break;
+            case TXS:
+                for (int k = 0; k < count; k++) {
+                    int lane = this.group[k];
+                    this.s[lane] = this.x[lane];
+                }
+                break;
+            case TYA:
+                for (int k = 0; k < count; k++) {
+                    int lane = this.group[k];
+                    this.a[lane] = this.y[lane];
+                    this.setNZ(lane, this.a[lane]);
+                }
+                break;
+            case NOP:
+                break;
+            default:
+                throw new IllegalStateException("Watch out, operation " + operation + " is not implemented");
+        }
+    }
+
+    /**
+     * @param lane
+     * @param mode
+     * @param pc Where the instruction is
+     * @return The effective address (for IMMEDIATE, the address of the operand), with bit 16 set when indexing
+     * crossed a page
+     */
+    private int address(int lane, int mode, int pc) {
+        int operand = this.read(lane, (pc + 1) & 0xFFFF);
+        switch (mode) {
+            case IMPLIED:
+            case ACCUMULATOR:
+                return 0;
+            case IMMEDIATE:
+                return (pc + 1) & 0xFFFF;
+            case ZERO_PAGE:
+                return operand;
+            case ZERO_PAGE_X:
+                return (operand + this.x[lane]) & 0xFF;
+            case ZERO_PAGE_Y:
+                return (operand + this.y[lane]) & 0xFF;
+            case ABSOLUTE:
+                return operand | this.read(lane, (pc + 2) & 0xFFFF) << 8;
+            case ABSOLUTE_X:
+                return indexed(operand | this.read(lane, (pc + 2) & 0xFFFF) << 8, this.x[lane]);
+            case ABSOLUTE_Y:
+                return indexed(operand | this.read(lane, (pc + 2) & 0xFFFF) << 8, this.y[lane]);
+            case INDIRECT:
+                int pointer = operand | this.read(lane, (pc + 2) & 0xFFFF) << 8;
+                int high = (pointer & 0xFF00) | ((pointer + 1) & 0xFF); // The famous bug, it never crosses a page
+                return this.read(lane, pointer) | this.read(lane, high) << 8;
+            case INDEXED_INDIRECT:
+                int zeroPage = (operand + this.x[lane]) & 0xFF;
+                return this.read(lane, zeroPage) | this.read(lane, (zeroPage + 1) & 0xFF) << 8;
+            case INDIRECT_INDEXED:
+                int base = this.read(lane, operand) | this.read(lane, (operand + 1) & 0xFF) << 8;
+                return indexed(base, this.y[lane]);
+            case RELATIVE:
+                return (pc + 2 + (byte) operand) & 0xFFFF;
+            default:
+                throw new IllegalStateException("Watch out, addressing mode " + mode + " is not implemented");
+        }
+    }
+
+    private void addWithCarry(int lane, int value) {
+        int a = this.a[lane];
+        int result = a + value + (this.p[lane] & CARRY);
+        this.setFlag(lane, CARRY, result > 0xFF);
+        this.setFlag(lane, OVERFLOW, ((a ^ result) & (value ^ result) & 0x80) != 0);
+        this.a[lane] = result & 0xFF;
+        this.setNZ(lane, this.a[lane]);
+    }
+
+    private void compare(int lane, int register, int value) {
+        int result = register - value;
+        this.setFlag(lane, CARRY, result >= 0);
+        this.setNZ(lane, result & 0xFF);
+    }
+
+    /**
+     * @return base + index, with bit 16 set if that crossed a page
+     */
+    private static int indexed(int base, int index) {
+        int address = (base + index) & 0xFFFF;
+        return (address & 0xFF00) != (base & 0xFF00) ? address | 0x10000 : address;
+    }
+
+    private static void opcode(int opcode, int operation, int mode, int cycles) {
+        OPERATIONS[opcode] = operation;
+        MODES[opcode] = mode;
+        CYCLES[opcode] = cycles;
+    }
+
+    /**
+     * The 8 opcodes of the reads that have every addressing mode, in the usual order: immediate, zero page,
+     * zero page X, absolute, absolute X, absolute Y, (indirect, X), (indirect), Y
+     */
+    private static void opcodes(int operation, int... opcodes) {
+        int[] modes = {IMMEDIATE, ZERO_PAGE, ZERO_PAGE_X, ABSOLUTE, ABSOLUTE_X, ABSOLUTE_Y, INDEXED_INDIRECT,
+                INDIRECT_INDEXED};
+        int[] cycles = {2, 3, 4, 4, 4, 4, 6, 5};
+        for (int i = 0; i < opcodes.length; i++) {
+            opcode(opcodes[i], operation, modes[i], cycles[i]);
+            PAGE_CROSS_PENALTY[opcodes[i]] = modes[i] == ABSOLUTE_X || modes[i] == ABSOLUTE_Y || modes[i] == INDIRECT_INDEXED;
+        }
+    }
+
+    /**
+     * Accumulator, zero page, zero page X, absolute, absolute X
+     */
+    private static void shifts(int operation, int... opcodes) {
+        int[] modes = {ACCUMULATOR, ZERO_PAGE, ZERO_PAGE_X, ABSOLUTE, ABSOLUTE_X};
+        int[] cycles = {2, 5, 6, 6, 7};
+        for (int i = 0; i < opcodes.length; i++) {
+            opcode(opcodes[i], operation, modes[i], cycles[i]);
+        }
+    }
+}
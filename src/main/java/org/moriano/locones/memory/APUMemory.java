@@ -1,24 +1,60 @@
 package org.moriano.locones.memory;
 
+import org.moriano.locones.apu.APU;
+
+import java.nio.ByteBuffer;
+
 /**
  * The NES APU is the audio processing unit in the NES console which generates sound for games.
  * It is implemented in the RP2A03 (NTSC) and RP2A07 (PAL) chips.
  *
- * Its registers are mapped in the range $4000-$4013, $4015 and $4017.
+ * Its registers are mapped in the range $4000-$4013, $4015 and $4017, those go straight to the {@link APU}. The
+ * rest of the values in the range are just stored.
  *
  * TODO No idea what on earth would be at 0x4014
  */
 public class APUMemory {
 
     private int[] memory = new int[24]; // 0x18 elements
+    private final APU apu;
+
+    public APUMemory(APU apu) {
+        this.apu = apu;
+    }
 
     public void set(int address, int value) {
         int target = address - 0x4000;
         this.memory[target] = value;
+        if (address <= 0x4013 || address == 0x4015 || address == 0x4017) {
+            this.apu.write(address, value);
+        }
     }
 
     public int getFromAddress(int address) {
+        if (address == 0x4015) {
+            return this.apu.readStatus();
+        }
         int target = address - 0x4000;
         return this.memory[target];
     }
+
+    /**
+     * Only the raw values, the APU saves itself
+     * @param state
+     */
+    public void save(ByteBuffer state) {
+        for (int value : this.memory) {
+            state.put((byte) value);
+        }
+    }
+
+    public void load(ByteBuffer state) {
+        for (int i = 0; i < this.memory.length; i++) {
+            this.memory[i] = state.get() & 0xFF;
+        }
+    }
+
+    public APU getApu() {
+        return apu;
+    }
 }
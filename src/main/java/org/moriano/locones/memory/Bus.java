@@ -0,0 +1,14 @@
+package org.moriano.locones.memory;
+
+/**
+ * What the CPU sees of the rest of the machine, a byte at a time from $0000 to $FFFF.
+ *
+ * {@link Memory} is the real one, with its mirrors, PPU and APU registers and the cartridge. Anything else (like the
+ * flat 64KB bus of {@link org.moriano.locones.singlestep.SingleStepRunner}) only needs these two.
+ */
+public interface Bus {
+
+    int read(int address);
+
+    void write(int address, int value);
+}
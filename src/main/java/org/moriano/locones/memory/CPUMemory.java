@@ -1,5 +1,9 @@
 package org.moriano.locones.memory;
 
+import org.moriano.locones.state.StateHash;
+
+import java.nio.ByteBuffer;
+
 /**
  * Created by moriano on 15/11/14.
  * Represents the CPU memory of the NES.
@@ -38,25 +42,95 @@ package org.moriano.locones.memory;
  *
  */
 class CPUMemory {
-    private int[] memory = new int[2048];
+    /*
+    Kept off heap (rather than in an int[]) so that it can be handed out as it is, with no copies, see
+    getReadOnlyView. Watch out, the values are bytes, they have to go through & 0xFF when read.
+     */
+    private final ByteBuffer memory = ByteBuffer.allocateDirect(2048);
+    private static final int PAGE_SHIFT = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private final long[] pageHashes = new long[2048 / PAGE_SIZE];
+    private int dirtyPages = 0xFF; // One bit per page written since its hash was computed
 
 
     public CPUMemory() {
-        for(int i =0; i<memory.length; i++) {
-            this.memory[i] = 0xFF;
+        for(int i =0; i<memory.capacity(); i++) {
+            this.memory.put(i, (byte) 0xFF);
         }
 
-        this.memory[0x08] = 0xF7;
-        this.memory[0x09] = 0xEF;
-        this.memory[0x0A] = 0xDF;
-        this.memory[0x0F] = 0xBF;
+        this.memory.put(0x08, (byte) 0xF7);
+        this.memory.put(0x09, (byte) 0xEF);
+        this.memory.put(0x0A, (byte) 0xDF);
+        this.memory.put(0x0F, (byte) 0xBF);
+    }
+
+    /**
+     * A copy of parent, 2KB are cheaper to copy right away than to keep track of which pages are shared (and the CPU
+     * writes to most of them every frame anyway: zero page, stack, sprites...)
+     * @param parent
+     */
+    CPUMemory(CPUMemory parent) {
+        parent.copyInto(this);
+    }
+
+    /**
+     * Makes target the same as this one, hashes included
+     * @param target
+     */
+    void copyInto(CPUMemory target) {
+        target.memory.put(0, this.memory, 0, this.memory.capacity());
+        System.arraycopy(this.pageHashes, 0, target.pageHashes, 0, this.pageHashes.length);
+        target.dirtyPages = this.dirtyPages;
     }
 
     public void set(int address, int value) {
-        this.memory[address & 0x07FF] = value;
+        this.memory.put(address & 0x07FF, (byte) value);
+        this.dirtyPages |= 1 << ((address & 0x07FF) >> PAGE_SHIFT);
     }
 
     public int getFromAddress(int address) {
-        return this.memory[address & 0x07FF];
+        return this.memory.get(address & 0x07FF) & 0xFF;
+    }
+
+    public void save(ByteBuffer state) {
+        state.put(state.position(), this.memory, 0, this.memory.capacity());
+        state.position(state.position() + this.memory.capacity());
+    }
+
+    public void load(ByteBuffer state) {
+        this.memory.put(0, state, state.position(), this.memory.capacity());
+        state.position(state.position() + this.memory.capacity());
+        this.dirtyPages = 0xFF;
+    }
+
+    /**
+     * @param hash So far
+     * @return hash with the whole RAM mixed in, only the pages written since the last call are actually hashed
+     * again, see {@link StateHash}
+     */
+    public long hash(long hash) {
+        for (int page = 0; page < this.pageHashes.length; page++) {
+            if ((this.dirtyPages & (1 << page)) != 0) {
+                long pageHash = StateHash.SEED;
+                for (int i = page * PAGE_SIZE; i < (page + 1) * PAGE_SIZE; i += 8) {
+                    pageHash = StateHash.add(pageHash, this.memory.getLong(i));
+                }
+                this.pageHashes[page] = pageHash;
+            }
+            hash = StateHash.add(hash, this.pageHashes[page]);
+        }
+        this.dirtyPages = 0;
+        return hash;
+    }
+
+    public void copyTo(byte[] target) {
+        this.memory.get(0, target, 0, this.memory.capacity());
+    }
+
+    /**
+     * @return The RAM itself (not a copy), it changes as the CPU writes to it
+     */
+    public ByteBuffer getReadOnlyView() {
+        return this.memory.asReadOnlyBuffer();
     }
 }
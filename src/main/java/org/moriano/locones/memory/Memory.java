@@ -1,7 +1,11 @@
 package org.moriano.locones.memory;
 
+import org.moriano.locones.apu.APU;
 import org.moriano.locones.cartridge.Cartridge;
+import org.moriano.locones.input.Controller;
+import org.moriano.locones.state.StateHash;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -48,7 +52,7 @@ import java.util.List;
  *   $FFFE - $FFFF       2 bytes             Address of Break (BRK instruction) handler routine
  *
  */
-public class Memory {
+public class Memory implements Bus {
 
     /*
     Represents really up to address 0x800 (2048).
@@ -56,22 +60,87 @@ public class Memory {
     read from address 0x801, internally we will just read from address 0x001, in order to do that, a simple
     bitwise AND is enough, using address 0x1FFF (previous value of 0x2000
      */
-    private final CPUMemory cpuMemory = new CPUMemory();
+    private final CPUMemory cpuMemory;
 
-    private final APUMemory apuMemory = new APUMemory();
+    private final APUMemory apuMemory;
     private final PPUMemory ppuMemory;
     private final PPURegisters ppuRegisters = new PPURegisters();
+    private final Controller controller1 = new Controller();
+    private final Controller controller2 = new Controller();
     private final List<String>  operationsHistory = new ArrayList<>(); // Stores a list of READ/WRITE ops
+    private boolean recordOperations = false; // Only checking against nestest.log needs the history
 
     private Cartridge cartridge;
 
     public Memory(Cartridge cartridge) {
         this.cartridge = cartridge;
-        this.ppuMemory = new PPUMemory(this.cartridge.getChrROM(), this.ppuRegisters);
+        this.cpuMemory = new CPUMemory();
+        this.ppuMemory = new PPUMemory(this.cartridge.getChrROM(), this.cartridge.getCartrigdeHeader().isFourScreen(),
+                this.ppuRegisters);
+        APU apu = new APU(this.cartridge.getCartrigdeHeader().isPal());
+        apu.setMemoryReader(this::readPRGROM); // The DMC only ever reads samples from $8000-$FFFF
+        this.apuMemory = new APUMemory(apu);
+    }
+
+    /**
+     * See {@link #fork(ByteBuffer)}
+     */
+    private Memory(Memory parent, ByteBuffer scratch) {
+        this.cartridge = parent.cartridge;
+        this.cpuMemory = new CPUMemory(parent.cpuMemory);
+        this.ppuMemory = new PPUMemory(parent.ppuMemory, this.ppuRegisters);
+        APU apu = new APU(this.cartridge.getCartrigdeHeader().isPal(), parent.getApu().getSampleRate());
+        apu.setMemoryReader(this::readPRGROM);
+        this.apuMemory = new APUMemory(apu);
+        parent.copyRegistersInto(this, scratch);
+    }
+
+    /**
+     * A copy of this memory that goes its own way from now on. The cartridge is shared, the RAM and VRAM are copied
+     * and the rest (registers, APU, controllers, a few hundred bytes) goes through scratch, the same way it would go
+     * through a save state. Watch out, the input sources of the controllers are not copied, nobody is holding the
+     * controllers of the copy.
+     * @param scratch Any buffer big enough for the registers, APU and controllers
+     * @return
+     */
+    public Memory fork(ByteBuffer scratch) {
+        return new Memory(this, scratch);
+    }
+
+    /**
+     * Same as {@link #fork(ByteBuffer)}, but into a memory that exists already, so nothing is allocated. The input
+     * sources of target stay as they are.
+     * @param target Has to be for the very same cartridge
+     * @param scratch Any buffer big enough for the registers, APU and controllers
+     */
+    public void copyInto(Memory target, ByteBuffer scratch) {
+        if (target.cartridge != this.cartridge) {
+            throw new IllegalArgumentException("Watch out, can only copy a memory into one for the same cartridge");
+        }
+        this.cpuMemory.copyInto(target.cpuMemory);
+        this.ppuMemory.copyInto(target.ppuMemory);
+        this.copyRegistersInto(target, scratch);
+    }
+
+    private void copyRegistersInto(Memory target, ByteBuffer scratch) {
+        scratch.clear();
+        this.ppuRegisters.save(scratch);
+        this.apuMemory.save(scratch);
+        this.getApu().save(scratch);
+        this.controller1.save(scratch);
+        this.controller2.save(scratch);
+        scratch.flip();
+        target.ppuRegisters.load(scratch);
+        target.apuMemory.load(scratch);
+        target.getApu().load(scratch);
+        target.controller1.load(scratch);
+        target.controller2.load(scratch);
     }
 
     public int read(int address) {
-        operationsHistory.add("      READ      $"+toHex(address));
+        if (this.recordOperations) {
+            operationsHistory.add("      READ      $"+toHex(address));
+        }
         if(address <= 0x1FFF) { //Ram memory (or any of its three mirrors)
             return this.cpuMemory.getFromAddress(address);
         } else if(address <= 0x3FFF) { //PPU register (mirrored every 8 bytes)
@@ -80,6 +149,10 @@ public class Memory {
              */
             return this.ppuRegisters.getFromAddress(address);
 
+        } else if(address == 0x4016) { //First controller
+            return this.controller1.read();
+        } else if(address == 0x4017) { //Second controller
+            return this.controller2.read();
         } else if(address <= 0x401F) { //Input/Output registers
             return this.apuMemory.getFromAddress(address);
             //throw new UnsupportedOperationException("Reads to address " + address + " not implemented yet");
@@ -89,15 +162,8 @@ public class Memory {
             throw new UnsupportedOperationException("Reads to address " + address + " not implemented yet");
         } else if(address <= 0x7FFF) { //SRAM - Save Ram used to save data between game plays.
             throw new UnsupportedOperationException("Reads to address " + address + " not implemented yet");
-        } else if(address <= 0xBFFF ) { //PRG-ROM lower bank - executable code
-            int finalAddres = address & 0x7FFF;
-            int value = this.cartridge.readPRG(finalAddres);
-            return value;
-        } else if(address <= 0xFFFF) { //PRG-ROM upper bank - executable code
-            int realAddress = address - 0xC000; // TODO Moriano, you really need to understand this (right now you DON'T). Understand how/if mappers impact here
-            int value = this.cartridge.readPRG(realAddress);
-
-            return value;
+        } else if(address <= 0xFFFF) {
+            return this.readPRGROM(address);
         } else if(address <= 0x10000) {
             return this.cartridge.readPRG(address & 0x3FFF);
         } else {
@@ -106,7 +172,9 @@ public class Memory {
     }
 
     public void write(int address, int value) {
-        operationsHistory.add("      WRITE     $"+toHex(address));
+        if (this.recordOperations) {
+            operationsHistory.add("      WRITE     $"+toHex(address));
+        }
         if(value < 0) {
             value += 128;
         }
@@ -118,6 +186,10 @@ public class Memory {
              */
             this.ppuRegisters.set(address, value);
         } else if (address <= 0X4017) {
+            if (address == 0x4016) { // The strobe goes to both controllers, $4017 writes are for the APU
+                this.controller1.write(value);
+                this.controller2.write(value);
+            }
             this.apuMemory.set(address, value);
         } else if (address <= 0xFFFF) {
             throw new IllegalArgumentException("You need to cartridge space to write to " + Integer.toHexString(address) + "[" + address + "]");
@@ -127,6 +199,109 @@ public class Memory {
         }
     }
 
+    /**
+     * Reads from the PRG-ROM without leaving a trace in the operations history, these are not CPU reads.
+     * @param address $8000-$FFFF
+     * @return
+     */
+    private int readPRGROM(int address) {
+        if(address <= 0xBFFF ) { //PRG-ROM lower bank - executable code
+            int finalAddres = address & 0x7FFF;
+            return this.cartridge.readPRG(finalAddres);
+        } else { //PRG-ROM upper bank - executable code
+            int realAddress = address - 0xC000; // TODO Moriano, you really need to understand this (right now you DON'T). Understand how/if mappers impact here
+            return this.cartridge.readPRG(realAddress);
+        }
+    }
+
+    /**
+     * Writes everything behind the CPU bus: RAM, PPU registers and memory, APU and controllers, see
+     * {@link org.moriano.locones.state.SaveState}. Mapper 0 (the only one so far) has no state of its own.
+     * @param state
+     */
+    public void save(ByteBuffer state) {
+        this.cpuMemory.save(state);
+        this.ppuRegisters.save(state);
+        this.ppuMemory.save(state);
+        this.apuMemory.save(state);
+        this.apuMemory.getApu().save(state);
+        this.controller1.save(state);
+        this.controller2.save(state);
+    }
+
+    public void load(ByteBuffer state) {
+        this.cpuMemory.load(state);
+        this.ppuRegisters.load(state);
+        this.ppuMemory.load(state);
+        this.apuMemory.load(state);
+        this.apuMemory.getApu().load(state);
+        this.controller1.load(state);
+        this.controller2.load(state);
+    }
+
+    /**
+     * Mixes everything behind the CPU bus into hash, the same things {@link #save(ByteBuffer)} writes, see
+     * {@link org.moriano.locones.state.StateHash}
+     * @param hash So far
+     * @param scratch Any buffer big enough for the registers, APU and controllers
+     * @return
+     */
+    public long hash(long hash, ByteBuffer scratch) {
+        hash = this.cpuMemory.hash(hash);
+        hash = this.ppuMemory.hash(hash);
+        scratch.clear();
+        this.ppuRegisters.save(scratch);
+        this.apuMemory.save(scratch);
+        this.apuMemory.getApu().save(scratch);
+        this.controller1.save(scratch);
+        this.controller2.save(scratch);
+        return StateHash.add(hash, scratch.flip());
+    }
+
+    /**
+     * @return The 2KB of RAM as they are, no copies involved, see {@link CPUMemory#getReadOnlyView()}
+     */
+    public ByteBuffer getRamView() {
+        return this.cpuMemory.getReadOnlyView();
+    }
+
+    /**
+     * @param target Gets the 2KB of RAM ($0000-$07FF)
+     */
+    public void copyRam(byte[] target) {
+        this.cpuMemory.copyTo(target);
+    }
+
+    /**
+     * @param port 1 or 2
+     * @return
+     */
+    public Controller getController(int port) {
+        if (port == 1) {
+            return this.controller1;
+        } else if (port == 2) {
+            return this.controller2;
+        }
+        throw new IllegalArgumentException("There are only 2 controller ports, " + port + " is not one of them");
+    }
+
+    public APU getApu() {
+        return this.apuMemory.getApu();
+    }
+
+    /**
+     * Every read and write the CPU does can be recorded (as text, the way nestestCPUCycles.log has them), which is
+     * what checking against that log needs. It is off by default: it costs a string per access, and nobody clears the
+     * history unless checking, so it would just grow until we run out of memory.
+     * @param recordOperations
+     */
+    public void setRecordOperations(boolean recordOperations) {
+        this.recordOperations = recordOperations;
+        if (!recordOperations) {
+            this.operationsHistory.clear();
+        }
+    }
+
     public void clearOpHistory() {
         this.operationsHistory.clear();
     }
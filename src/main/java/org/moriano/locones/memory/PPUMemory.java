@@ -1,5 +1,9 @@
 package org.moriano.locones.memory;
 
+import org.moriano.locones.state.StateHash;
+
+import java.nio.ByteBuffer;
+
 /**
  * The PPU exposes eight memory-mapped registers to the CPU.
  *
@@ -12,25 +16,74 @@ package org.moriano.locones.memory;
  * 0x2000 to 0x2FFF name table this is dynamically changed
  * 0x3F00 to 0x3FFF palettes
  *
+ * The VRAM is what the console has: 2KB for the name tables (two of them, the other two are mirrors, following the
+ * mirroring of the cartridge), or 4KB when the cartridge brings the other 2KB itself (four screen), and 32 bytes of
+ * palettes. That is what save states and the state hash take, whatever the PPU does with it later on.
+ *
+ * Watch out, the PPU does not read or write VRAM through here yet (there is no $2006 / $2007 data path, and
+ * set/getFromAddress are still the stubs they always were), so the name tables and palettes stay all zeroes, and
+ * only save states (load) ever write them. Whoever wires the data path in has to get the mirroring right: $3000-$3EFF
+ * mirrors $2000-$2EFF, the four name tables map to the 2KB following the mirroring of the cartridge, and the
+ * palettes are mirrored up to $3FFF, with $3F10/$14/$18/$1C being $3F00/$04/$08/$0C.
+ *
  */
 class PPUMemory {
 
+    private static final int NAME_TABLE_RAM_SIZE = 2 * 1024;
+    private static final int FOUR_SCREEN_RAM_SIZE = 4 * 1024;
+    private static final int PALETTE_SIZE = 32;
+
     private int[] patternMemory = new int[8*1024];
-    private int[] nameTableMemory = new int[8*1024];
-    private int[] paletteMemory = new int[256];
+    private final int[] nameTableMemory;
+    private final int[] paletteMemory;
+    private long vramHash = 0;
+    private boolean dirty = true; // Written since vramHash was computed
     private PPURegisters ppuRegisters;
 
 
 
 
 
-    public PPUMemory(int[] chrROM, PPURegisters ppuRegisters) {
+    /**
+     * @param chrROM
+     * @param fourScreen See {@link org.moriano.locones.cartridge.CartrigdeHeader#isFourScreen()}
+     * @param ppuRegisters
+     */
+    public PPUMemory(int[] chrROM, boolean fourScreen, PPURegisters ppuRegisters) {
         this.ppuRegisters = ppuRegisters;
         if (chrROM.length != 8*1024) {
             throw new RuntimeException("Watch out, passed a CHR ROM to the PPU of size " + chrROM.length +
                     " we expected 8192");
         }
         this.patternMemory = chrROM;
+        this.nameTableMemory = new int[fourScreen ? FOUR_SCREEN_RAM_SIZE : NAME_TABLE_RAM_SIZE];
+        this.paletteMemory = new int[PALETTE_SIZE];
+    }
+
+    /**
+     * A copy of parent. Just like the RAM (see {@link CPUMemory#CPUMemory(CPUMemory)}), 2KB are cheaper to copy right
+     * away than to keep track of what is shared. The pattern memory is never written, it is always shared.
+     * @param parent
+     * @param ppuRegisters The registers of the copy, those are not shared
+     */
+    PPUMemory(PPUMemory parent, PPURegisters ppuRegisters) {
+        this.ppuRegisters = ppuRegisters;
+        this.patternMemory = parent.patternMemory;
+        this.nameTableMemory = parent.nameTableMemory.clone();
+        this.paletteMemory = parent.paletteMemory.clone();
+        this.vramHash = parent.vramHash;
+        this.dirty = parent.dirty;
+    }
+
+    /**
+     * Makes target the same as this one, it has to be for the same cartridge (same VRAM size)
+     * @param target
+     */
+    void copyInto(PPUMemory target) {
+        System.arraycopy(this.nameTableMemory, 0, target.nameTableMemory, 0, this.nameTableMemory.length);
+        System.arraycopy(this.paletteMemory, 0, target.paletteMemory, 0, this.paletteMemory.length);
+        target.vramHash = this.vramHash;
+        target.dirty = this.dirty;
     }
 
     public void set(int address, int value) {
@@ -41,6 +94,42 @@ class PPUMemory {
         }
     }
 
+    /**
+     * Only the name tables and the palettes, the pattern memory is the CHR ROM of the cartridge
+     * @param state
+     */
+    public void save(ByteBuffer state) {
+        for (int value : this.nameTableMemory) {
+            state.put((byte) value);
+        }
+        for (int value : this.paletteMemory) {
+            state.put((byte) value);
+        }
+    }
+
+    public void load(ByteBuffer state) {
+        for (int i = 0; i < this.nameTableMemory.length; i++) {
+            this.nameTableMemory[i] = state.get() & 0xFF;
+        }
+        for (int i = 0; i < this.paletteMemory.length; i++) {
+            this.paletteMemory[i] = state.get() & 0xFF;
+        }
+        this.dirty = true;
+    }
+
+    /**
+     * @param hash So far
+     * @return hash with the name tables and palettes mixed in, only hashed again if they were written since the last
+     * call, see {@link StateHash}
+     */
+    public long hash(long hash) {
+        if (this.dirty) {
+            this.vramHash = StateHash.add(StateHash.hash(this.nameTableMemory), StateHash.hash(this.paletteMemory));
+            this.dirty = false;
+        }
+        return StateHash.add(hash, this.vramHash);
+    }
+
     public int getFromAddress(int address) {
         if (address <= 0x1FFF) { // Reading the PatternMemory
             return this.patternMemory[address];
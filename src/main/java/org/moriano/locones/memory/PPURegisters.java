@@ -3,6 +3,8 @@ package org.moriano.locones.memory;
 import org.moriano.locones.Run;
 import org.moriano.locones.memory.ppuregister.*;
 
+import java.nio.ByteBuffer;
+
 /**
  * The PPU registers are a part of memory where CPU and PPU intersect. As such we cannot say that this memory
  * belongs neither to the CPU nor the PPU. It belongs to both.
@@ -95,6 +97,28 @@ class PPURegisters {
         }
     }
 
+    public void save(ByteBuffer state) {
+        this.ppuRegisterCTRL.save(state);
+        this.ppuRegisterMASK.save(state);
+        this.ppuRegisterSTATUS.save(state);
+        this.ppuRegisterOamADDR.save(state);
+        this.ppuRegisterOamDATA.save(state);
+        this.ppuRegisterScroll.save(state);
+        this.ppuRegisterADDR.save(state);
+        this.ppuRegisterDATA.save(state);
+    }
+
+    public void load(ByteBuffer state) {
+        this.ppuRegisterCTRL.load(state);
+        this.ppuRegisterMASK.load(state);
+        this.ppuRegisterSTATUS.load(state);
+        this.ppuRegisterOamADDR.load(state);
+        this.ppuRegisterOamDATA.load(state);
+        this.ppuRegisterScroll.load(state);
+        this.ppuRegisterADDR.load(state);
+        this.ppuRegisterDATA.load(state);
+    }
+
     public PPURegisterCTRL getPPURegisterCTRL() {
         return new PPURegisterCTRL(0);
     }
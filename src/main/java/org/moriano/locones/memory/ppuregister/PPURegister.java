@@ -1,5 +1,7 @@
 package org.moriano.locones.memory.ppuregister;
 
+import java.nio.ByteBuffer;
+
 public abstract class PPURegister {
     int rawValue;
 
@@ -10,4 +12,12 @@ public abstract class PPURegister {
     public void write(int value) {
         this.rawValue = value;
     }
+
+    public void save(ByteBuffer state) {
+        state.put((byte) this.rawValue);
+    }
+
+    public void load(ByteBuffer state) {
+        this.rawValue = state.get() & 0xFF;
+    }
 }
@@ -4,6 +4,7 @@ import org.moriano.locones.screen.SpriteSize;
 import org.moriano.locones.util.ByteUtil;
 
 import javax.print.DocFlavor;
+import java.nio.ByteBuffer;
 
 /**
  * The CTRL PPU register. See https://www.nesdev.org/wiki/PPU_registers
@@ -60,6 +61,23 @@ public class PPURegisterCTRL  extends PPURegister {
         return rawValue;
     }
 
+    /**
+     * Watch out, this class has its own rawValue on top of the one in PPURegister (writes go to that one), both
+     * are saved.
+     * @param state
+     */
+    @Override
+    public void save(ByteBuffer state) {
+        super.save(state);
+        state.put((byte) this.rawValue);
+    }
+
+    @Override
+    public void load(ByteBuffer state) {
+        super.load(state);
+        this.rawValue = state.get() & 0xFF;
+    }
+
     public int getVramAddress() {
         throw new RuntimeException("Not supported!");
     }
@@ -0,0 +1,150 @@
+package org.moriano.locones.movie;
+
+import org.moriano.locones.input.InputSource;
+import org.moriano.locones.input.RecordedInputSource;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.function.LongSupplier;
+
+/**
+ * The buttons pressed on each frame of a run, plus what is needed to start that very same run again. Since the
+ * emulator is deterministic, that is all it takes to replay it exactly.
+ *
+ * File format, big endian
+ *
+ * <pre>
+ *   0   4   Magic, "LNMV"
+ *   4   2   Version
+ *   6   1   Number of controller ports recorded, 1 or 2
+ *   7   1   Flags, bit 0 = PAL
+ *   8   4   CRC32 of the .nes file, see {@link org.moriano.locones.cartridge.Cartridge#getRomChecksum()}
+ *   12  2   Initial PC
+ *   14  2   Unused
+ *   16  8   Frame number the movie starts at
+ *   24  4   Number of frames
+ *   28  ... One byte per port per frame, frame after frame (see the BUTTON_ constants in {@link InputSource})
+ * </pre>
+ */
+public class Movie {
+
+    private static final int MAGIC = 0x4C4E4D56; // LNMV
+    private static final int VERSION = 1;
+
+    private final long romChecksum;
+    private final boolean pal;
+    private final int initialPC;
+    private final long startFrame;
+    private final byte[][] buttons; // [port - 1][frame]
+
+    /**
+     * @param romChecksum
+     * @param pal
+     * @param initialPC
+     * @param startFrame
+     * @param buttons One array per port, all of them of the same length
+     */
+    public Movie(long romChecksum, boolean pal, int initialPC, long startFrame, byte[]... buttons) {
+        if (buttons.length < 1 || buttons.length > 2) {
+            throw new IllegalArgumentException("A movie has 1 or 2 ports, not " + buttons.length);
+        }
+        if (buttons.length == 2 && buttons[0].length != buttons[1].length) {
+            throw new IllegalArgumentException("Watch out, both ports must have the same number of frames");
+        }
+        this.romChecksum = romChecksum;
+        this.pal = pal;
+        this.initialPC = initialPC;
+        this.startFrame = startFrame;
+        this.buttons = buttons;
+    }
+
+    public static Movie load(String path) {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+            if (input.readInt() != MAGIC) {
+                throw new IllegalArgumentException(path + " is not a movie");
+            }
+            int version = input.readUnsignedShort();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Movie version " + version + " is not supported, only " + VERSION);
+            }
+            int ports = input.readUnsignedByte();
+            boolean pal = (input.readUnsignedByte() & 0x01) != 0;
+            long romChecksum = input.readInt() & 0xFFFFFFFFL;
+            int initialPC = input.readUnsignedShort();
+            input.readUnsignedShort();
+            long startFrame = input.readLong();
+            int frames = input.readInt();
+            byte[][] buttons = new byte[ports][frames];
+            for (int frame = 0; frame < frames; frame++) {
+                for (int port = 0; port < ports; port++) {
+                    buttons[port][frame] = input.readByte();
+                }
+            }
+            return new Movie(romChecksum, pal, initialPC, startFrame, buttons);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot read the movie " + path, e);
+        }
+    }
+
+    public void save(String path) {
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+            output.writeInt(MAGIC);
+            output.writeShort(VERSION);
+            output.writeByte(this.buttons.length);
+            output.writeByte(this.pal ? 0x01 : 0x00);
+            output.writeInt((int) this.romChecksum);
+            output.writeShort(this.initialPC);
+            output.writeShort(0);
+            output.writeLong(this.startFrame);
+            output.writeInt(this.getTotalFrames());
+            for (int frame = 0; frame < this.getTotalFrames(); frame++) {
+                for (byte[] port : this.buttons) {
+                    output.writeByte(port[frame]);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot write the movie " + path, e);
+        }
+    }
+
+    /**
+     * @param port 1 or 2
+     * @param frameNumber Tells the current frame of the NES playing the movie
+     * @return Presses the buttons of the movie, or nothing at all if the port was not recorded
+     */
+    public InputSource createPlayer(int port, LongSupplier frameNumber) {
+        if (port > this.buttons.length) {
+            return InputSource.NONE;
+        }
+        return new RecordedInputSource(() -> frameNumber.getAsLong() - this.startFrame, this.buttons[port - 1]);
+    }
+
+    public long getRomChecksum() {
+        return romChecksum;
+    }
+
+    public boolean isPal() {
+        return pal;
+    }
+
+    public int getInitialPC() {
+        return initialPC;
+    }
+
+    public long getStartFrame() {
+        return startFrame;
+    }
+
+    public int getPorts() {
+        return this.buttons.length;
+    }
+
+    public int getTotalFrames() {
+        return this.buttons[0].length;
+    }
+}
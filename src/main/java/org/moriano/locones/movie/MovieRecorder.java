@@ -0,0 +1,87 @@
+package org.moriano.locones.movie;
+
+import org.moriano.locones.cartridge.Cartridge;
+import org.moriano.locones.input.InputSource;
+
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+/**
+ * Sits between a controller and whoever is actually holding it, and writes down what the game gets to see on each
+ * frame.
+ *
+ * The buttons are sampled on the first latch of each frame, later latches within the same frame get that very
+ * same value. Otherwise a button pressed between two latches of a frame would give the game something the movie
+ * cannot reproduce (it only has one value per frame).
+ *
+ * Whenever the NES loads a state (a rewind, or the frames run ahead being undone) the recording is cut right there:
+ * the frames after it did not happen, and when they are played again the buttons are read again.
+ */
+public class MovieRecorder implements InputSource {
+
+    private final LongSupplier frameNumber;
+    private final InputSource source;
+    private final long startFrame;
+    private byte[] buttons = new byte[60 * 60]; // A minute, grows as needed
+    private int recordedFrames = 0;
+
+    /**
+     * @param frameNumber Tells the current frame, recording starts at the current one
+     * @param source Who is actually holding the controller
+     */
+    public MovieRecorder(LongSupplier frameNumber, InputSource source) {
+        this.frameNumber = frameNumber;
+        this.source = source;
+        this.startFrame = frameNumber.getAsLong();
+    }
+
+    @Override
+    public int readButtons() {
+        int frame = (int) (this.frameNumber.getAsLong() - this.startFrame);
+        if (frame < this.recordedFrames) {
+            return this.buttons[frame] & 0xFF;
+        }
+        int value = this.source.readButtons();
+        if (frame >= this.buttons.length) {
+            this.buttons = Arrays.copyOf(this.buttons, Math.max(this.buttons.length * 2, frame + 1));
+        }
+        /*
+        The frames the game did not latch at all do not matter, they just keep the previous value
+         */
+        byte previous = this.recordedFrames == 0 ? 0 : this.buttons[this.recordedFrames - 1];
+        Arrays.fill(this.buttons, this.recordedFrames, frame, previous);
+        this.buttons[frame] = (byte) value;
+        this.recordedFrames = frame + 1;
+        return value;
+    }
+
+    @Override
+    public void stateLoaded(long frameNumber) {
+        int frame = (int) Math.max(0, frameNumber - this.startFrame);
+        if (frame < this.recordedFrames) {
+            this.recordedFrames = frame;
+        }
+    }
+
+    /**
+     * @return What was recorded up to the current frame
+     */
+    public byte[] getButtons() {
+        int frames = (int) (this.frameNumber.getAsLong() - this.startFrame);
+        byte[] result = Arrays.copyOf(this.buttons, Math.max(frames, this.recordedFrames));
+        if (frames > this.recordedFrames && this.recordedFrames > 0) {
+            Arrays.fill(result, this.recordedFrames, frames, this.buttons[this.recordedFrames - 1]);
+        }
+        return result;
+    }
+
+    /**
+     * @param cartridge What is being played
+     * @param initialPC Where the NES was started at
+     * @return A single port movie with everything recorded so far
+     */
+    public Movie toMovie(Cartridge cartridge, int initialPC) {
+        return new Movie(cartridge.getRomChecksum(), cartridge.getCartrigdeHeader().isPal(), initialPC,
+                this.startFrame, this.getButtons());
+    }
+}
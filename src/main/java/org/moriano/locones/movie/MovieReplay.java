@@ -0,0 +1,102 @@
+package org.moriano.locones.movie;
+
+import org.moriano.locones.NES;
+import org.moriano.locones.cartridge.Cartridge;
+import org.moriano.locones.screen.ChecksumFrameSink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plays a movie back with no display, as fast as the core can go, and takes the hash of the whole state (see
+ * {@link NES#getStateHash()}) and the CRC32 of the frame every so many frames. That gives us two things
+ *
+ * - A real game workload, always the same, to measure the throughput of the core with.
+ * - A way to tell whether a change to the core made it behave differently: the first time, the checksums are written
+ *   to a file, from then on they are compared against it and the first frame that diverges is reported.
+ *
+ * Usage: MovieReplay romPath moviePath [checkpoint every N frames, 60 by default] [checksums file]
+ *
+ * The NES is powered on at the start and runs until the end of the movie, or until it runs into something the core
+ * does not support yet.
+ */
+public class MovieReplay {
+
+    private static final Logger log = LoggerFactory.getLogger(MovieReplay.class);
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("Usage: MovieReplay romPath moviePath [checkpointEvery] [checksumsPath]");
+        }
+        Cartridge cartridge = Cartridge.loadFromFile(args[0]);
+        Movie movie = Movie.load(args[1]);
+        int checkpointEvery = args.length > 2 ? Integer.parseInt(args[2]) : 60;
+        Path checksumsPath = args.length > 3 ? Paths.get(args[3]) : null;
+
+        if (movie.getRomChecksum() != cartridge.getRomChecksum()) {
+            log.warn("The movie was recorded with a different ROM (" + Long.toHexString(movie.getRomChecksum()) +
+                    " vs " + Long.toHexString(cartridge.getRomChecksum()) + "), it will most likely go off the rails");
+        }
+
+        List<String> checksums = replay(cartridge, movie, checkpointEvery);
+
+        if (checksumsPath == null) {
+            checksums.forEach(System.out::println);
+        } else if (!Files.exists(checksumsPath)) {
+            Files.write(checksumsPath, checksums);
+            log.info("Wrote " + checksums.size() + " checksums to " + checksumsPath);
+        } else {
+            List<String> expected = Files.readAllLines(checksumsPath);
+            for (int i = 0; i < Math.max(expected.size(), checksums.size()); i++) {
+                String expectedLine = i < expected.size() ? expected.get(i) : "nothing";
+                String actualLine = i < checksums.size() ? checksums.get(i) : "nothing";
+                if (!expectedLine.equals(actualLine)) {
+                    log.error("Divergence! expected " + expectedLine + " but got " + actualLine);
+                    System.exit(1);
+                }
+            }
+            log.info("All " + checksums.size() + " checksums match " + checksumsPath);
+        }
+    }
+
+    /**
+     * @param cartridge
+     * @param movie
+     * @param checkpointEvery
+     * @return One line per checkpoint: frame, state hash and frame CRC32
+     */
+    public static List<String> replay(Cartridge cartridge, Movie movie, int checkpointEvery) {
+        ChecksumFrameSink frameSink = new ChecksumFrameSink();
+        NES nes = new NES(cartridge, movie.getInitialPC(), false, frameSink);
+        nes.setPrintTrace(false);
+        for (int port = 1; port <= 2; port++) {
+            nes.setInputSource(port, movie.createPlayer(port, nes::getFrameNumber));
+        }
+
+        List<String> checksums = new ArrayList<>();
+        long lastFrame = movie.getStartFrame() + movie.getTotalFrames();
+        long start = System.nanoTime();
+        try {
+            while (nes.getFrameNumber() < lastFrame) {
+                nes.runFrame();
+                if (nes.getFrameNumber() % checkpointEvery == 0) {
+                    checksums.add(String.format("frame=%d state=%016x video=%08x", nes.getFrameNumber(),
+                            nes.getStateHash(), frameSink.getLastFrameChecksum()));
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("Emulation stopped at frame " + nes.getFrameNumber() + ": " + e.getMessage());
+            checksums.add("frame=" + nes.getFrameNumber() + " stopped: " + e.getMessage());
+        }
+        double seconds = (System.nanoTime() - start) / 1_000_000_000d;
+        log.info("Replayed " + frameSink.getTotalFrames() + " frames in " + seconds + " seconds, which is " +
+                frameSink.getTotalFrames() / seconds + " frames per second");
+        return checksums;
+    }
+}
@@ -0,0 +1,32 @@
+package org.moriano.locones.screen;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Like {@link HeadlessFrameSink}, but it keeps the CRC32 of the last frame, so that two runs can be compared
+ * without keeping any frame around.
+ */
+public class ChecksumFrameSink implements FrameSink {
+
+    private final CRC32 crc = new CRC32();
+    private long totalFrames = 0;
+    private long lastFrameChecksum = 0;
+
+    @Override
+    public ByteBuffer frameCompleted(ByteBuffer frame) {
+        this.crc.reset();
+        this.crc.update(frame.duplicate().clear());
+        this.lastFrameChecksum = this.crc.getValue();
+        this.totalFrames++;
+        return frame;
+    }
+
+    public long getLastFrameChecksum() {
+        return lastFrameChecksum;
+    }
+
+    public long getTotalFrames() {
+        return totalFrames;
+    }
+}
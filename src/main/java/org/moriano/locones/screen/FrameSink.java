@@ -0,0 +1,40 @@
+package org.moriano.locones.screen;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the frames produced by the PPU.
+ *
+ * A frame is 256x240 pixels, stored row by row, one byte per pixel. Each byte is NOT a color but an index
+ * into the {@link SystemPalette} (so 0x00 to 0x3F), this is exactly what the real PPU outputs, converting
+ * it to RGB is the job of whoever wants to display it.
+ *
+ * This interface (and the PPU) must not depend on Swing/AWT at all, so that the core can run on machines with
+ * no display.
+ */
+public interface FrameSink {
+
+    int FRAME_WIDTH = 256;
+    int FRAME_HEIGHT = 240;
+    int FRAME_SIZE = FRAME_WIDTH * FRAME_HEIGHT;
+
+    /**
+     * Called by the PPU every time a frame is completed.
+     *
+     * The sink can either keep using the buffer it receives (and return a different one for the PPU to draw into)
+     * or be done with it by the time this method returns (and return the very same buffer). Most sinks do the
+     * latter.
+     *
+     * @param frame The completed frame, position 0, limit {@link #FRAME_SIZE}
+     * @return The buffer the PPU has to draw the next frame into
+     */
+    ByteBuffer frameCompleted(ByteBuffer frame);
+
+    /**
+     * Allocates a buffer suitable to hold a frame
+     * @return
+     */
+    static ByteBuffer allocateFrame() {
+        return ByteBuffer.allocateDirect(FRAME_SIZE);
+    }
+}
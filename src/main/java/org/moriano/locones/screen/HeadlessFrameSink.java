@@ -0,0 +1,22 @@
+package org.moriano.locones.screen;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Throws every frame away, all it does is to count them. This is what we use when there is no display at all
+ * (batch servers, benchmarks...).
+ */
+public class HeadlessFrameSink implements FrameSink {
+
+    private long totalFrames = 0;
+
+    @Override
+    public ByteBuffer frameCompleted(ByteBuffer frame) {
+        this.totalFrames++;
+        return frame;
+    }
+
+    public long getTotalFrames() {
+        return totalFrames;
+    }
+}
@@ -0,0 +1,52 @@
+package org.moriano.locones.screen;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps a copy of the frames it receives, so that they can be inspected later on. Mostly useful for tests.
+ *
+ * Only the last maxFrames frames are kept, otherwise a long run would eat the whole heap (each frame is 60KB).
+ */
+public class InMemoryFrameSink implements FrameSink {
+
+    private final int maxFrames;
+    private final List<byte[]> frames = new ArrayList<>();
+    private long totalFrames = 0;
+
+    public InMemoryFrameSink(int maxFrames) {
+        if (maxFrames <= 0) {
+            throw new IllegalArgumentException("Watch out, we need to keep at least one frame, got " + maxFrames);
+        }
+        this.maxFrames = maxFrames;
+    }
+
+    @Override
+    public ByteBuffer frameCompleted(ByteBuffer frame) {
+        byte[] copy = new byte[FRAME_SIZE];
+        frame.get(0, copy);
+        if (this.frames.size() == this.maxFrames) {
+            this.frames.remove(0);
+        }
+        this.frames.add(copy);
+        this.totalFrames++;
+        return frame;
+    }
+
+    /**
+     * The frames we still hold, oldest first
+     * @return
+     */
+    public List<byte[]> getFrames() {
+        return frames;
+    }
+
+    public byte[] getLastFrame() {
+        return this.frames.isEmpty() ? null : this.frames.get(this.frames.size() - 1);
+    }
+
+    public long getTotalFrames() {
+        return totalFrames;
+    }
+}
@@ -6,16 +6,28 @@ import org.slf4j.LoggerFactory;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.nio.ByteBuffer;
 import java.util.Random;
 
 public class Screen extends JFrame {
 
     private static final Logger log = LoggerFactory.getLogger(Screen.class);
-    private final BufferedImage frame = new BufferedImage(256, 224, BufferedImage.TYPE_INT_RGB);
-    private final JLabel label = new JLabel(new ImageIcon(frame));
+    private final BufferedImage frame;
+    private final JLabel label;
     private final Random random = new Random();
 
     public Screen() {
+        this(1);
+    }
+
+    /**
+     * @param scale How many times bigger than the NES picture (256x224) the screen is, see
+     *              {@link org.moriano.locones.screen.filter.FilterStage}
+     */
+    public Screen(int scale) {
+        this.frame = new BufferedImage(256 * scale, 224 * scale, BufferedImage.TYPE_INT_RGB);
+        this.label = new JLabel(new ImageIcon(frame));
         this.setTitle("LocoNes");
         this.setSize(frame.getWidth() + 10, frame.getHeight() + 10);
         this.add(label);
@@ -27,6 +39,39 @@ public class Screen extends JFrame {
         this.frame.setRGB(x, y, value);
     }
 
+    /**
+     * Draws a frame coming from the PPU, see {@link FrameSink} for the format.
+     *
+     * NTSC TVs do not show the top and bottom 8 rows of the picture, so neither do we, that is why our image is
+     * 224 pixels high rather than 240.
+     *
+     * This is for screens with a scale of 1, bigger ones are drawn through a
+     * {@link org.moriano.locones.screen.filter.FilterStage}
+     * @param ppuFrame
+     */
+    public void drawFrame(ByteBuffer ppuFrame) {
+        int[] pixels = this.getPixels();
+        int[] palette = SystemPalette.INSTANCE.getColorsAsRGBInts();
+        int firstRow = (FrameSink.FRAME_HEIGHT - this.frame.getHeight()) / 2;
+        int source = firstRow * FrameSink.FRAME_WIDTH;
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = palette[ppuFrame.get(source + i) & 0x3F];
+        }
+        this.label.repaint();
+    }
+
+    /**
+     * The pixels of the image being displayed, RGB, row by row. Write to them and then call {@link #refresh()}
+     * @return
+     */
+    public int[] getPixels() {
+        return ((DataBufferInt) this.frame.getRaster().getDataBuffer()).getData();
+    }
+
+    public void refresh() {
+        this.label.repaint();
+    }
+
     public void resetFrame() {
         this.frame.flush();
     }
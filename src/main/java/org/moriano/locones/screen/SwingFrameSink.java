@@ -0,0 +1,108 @@
+package org.moriano.locones.screen;
+
+import org.moriano.locones.screen.filter.FilterStage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import java.awt.event.KeyListener;
+import java.nio.ByteBuffer;
+
+/**
+ * Shows the frames on a {@link Screen}.
+ *
+ * Frames are produced on the emulation thread but displayed on the Swing thread, they are handed over through a
+ * {@link TripleBuffer}, so a slow repaint can never stall the emulation: the emulation thread just publishes the
+ * frame and carries on drawing the next one, while the Swing thread, on every refresh, picks up whatever the
+ * newest completed frame is.
+ *
+ * Optionally frames go through a {@link FilterStage} on their way to the screen, so that they can be upscaled.
+ *
+ * The Screen (and with it the whole of Swing) is only created when the first frame arrives, or when somebody
+ * asks for it.
+ */
+public class SwingFrameSink implements FrameSink {
+
+    private static final Logger log = LoggerFactory.getLogger(SwingFrameSink.class);
+    private static final int REFRESH_MILLIS = 16; // ~60 refreshes per second
+    private static final int STATS_EVERY_REFRESHES = 600;
+
+    private final TripleBuffer tripleBuffer = new TripleBuffer();
+    private final FilterStage filterStage;
+    private Screen screen;
+    private KeyListener keyListener;
+    private boolean displayStarted = false; // Only touched by the emulation thread
+    private int refreshes = 0; // Only touched by the Swing thread
+
+    public SwingFrameSink() {
+        this(null);
+    }
+
+    /**
+     * @param filterStage Upscales the frames before they are displayed, null to display them as they are
+     */
+    public SwingFrameSink(FilterStage filterStage) {
+        this.filterStage = filterStage;
+    }
+
+    @Override
+    public ByteBuffer frameCompleted(ByteBuffer frame) {
+        if (!this.displayStarted) {
+            this.displayStarted = true;
+            SwingUtilities.invokeLater(this::startDisplay);
+        }
+        return this.tripleBuffer.publish(frame);
+    }
+
+    public synchronized Screen getScreen() {
+        if (this.screen == null) {
+            this.screen = this.filterStage == null ? new Screen() : new Screen(this.filterStage.getScale());
+            if (this.keyListener != null) {
+                this.screen.addKeyListener(this.keyListener);
+            }
+        }
+        return this.screen;
+    }
+
+    /**
+     * @param keyListener Gets the key events of the screen, see {@link org.moriano.locones.input.KeyboardInputSource}.
+     *                    It is attached whenever the screen gets created, so this does not drag Swing in.
+     */
+    public synchronized void setKeyListener(KeyListener keyListener) {
+        this.keyListener = keyListener;
+        if (this.screen != null) {
+            this.screen.addKeyListener(keyListener);
+        }
+    }
+
+    public TripleBuffer getTripleBuffer() {
+        return tripleBuffer;
+    }
+
+    /**
+     * Runs on the Swing thread
+     */
+    private void startDisplay() {
+        Screen displayScreen = this.getScreen();
+        Timer timer = new Timer(REFRESH_MILLIS, e -> this.refresh(displayScreen));
+        timer.setCoalesce(true);
+        timer.start();
+    }
+
+    /**
+     * Runs on the Swing thread
+     */
+    private void refresh(Screen displayScreen) {
+        if (this.filterStage == null) {
+            displayScreen.drawFrame(this.tripleBuffer.acquire());
+        } else {
+            this.filterStage.apply(this.tripleBuffer.acquire(), displayScreen.getPixels());
+            displayScreen.refresh();
+        }
+        this.refreshes++;
+        if (this.refreshes % STATS_EVERY_REFRESHES == 0) {
+            log.debug("Frames published " + this.tripleBuffer.getPublishedFrames() + ", dropped " +
+                    this.tripleBuffer.getDroppedFrames() + ", duplicated " + this.tripleBuffer.getDuplicatedFrames());
+        }
+    }
+}
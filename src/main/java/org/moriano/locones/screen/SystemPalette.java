@@ -1,7 +1,5 @@
 package org.moriano.locones.screen;
 
-import java.awt.*;
-
 /**
  * So, the NES has a SystemPalette that consists of colors going from byte 0x00 to to 0x3F.
  *
@@ -58,7 +56,11 @@ public enum SystemPalette {
         int idx = 0;
         for(int i = 0; i< colors.length; i++) {
             int[] colorRaw = this.colors[i];
-            int color = new Color(colorRaw[0], colorRaw[1], colorRaw[2]).getRGB();
+            /*
+            Same as new java.awt.Color(r, g, b).getRGB(), but without pulling AWT in, so that the palette can
+            be used on machines with no display
+             */
+            int color = 0xFF000000 | (colorRaw[0] << 16) | (colorRaw[1] << 8) | colorRaw[2];
             this.colorsAsRGBInts[idx] = color;
             idx ++;
         }
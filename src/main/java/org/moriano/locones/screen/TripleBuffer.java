@@ -0,0 +1,92 @@
+package org.moriano.locones.screen;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands frames over from the emulation thread (the producer) to the display thread (the consumer) without
+ * locks and without copying a single pixel.
+ *
+ * There are three buffers:
+ *
+ *   back   - Owned by the producer, the PPU draws into it
+ *   middle - Owned by nobody, it holds the newest completed frame
+ *   front  - Owned by the consumer, it is the one being displayed
+ *
+ * Publishing a frame swaps back and middle, acquiring a frame swaps middle and front. Both swaps are a single
+ * atomic getAndSet on the index of the middle buffer, so neither side ever waits for the other. On top of the
+ * index (bits 0-1) the middle also carries a FRESH bit telling whether it holds a frame the consumer has not seen.
+ *
+ * If the producer publishes twice before the consumer acquires, the older frame is dropped. If the consumer
+ * acquires twice before the producer publishes, it gets the same frame again (duplicated). Both are counted.
+ */
+public class TripleBuffer {
+
+    private static final int INDEX_MASK = 0b011;
+    private static final int FRESH = 0b100;
+
+    private final ByteBuffer[] buffers = new ByteBuffer[3];
+    private final AtomicInteger middle = new AtomicInteger(2);
+    private int back = 0; // Only touched by the producer
+    private int front = 1; // Only touched by the consumer
+
+    private volatile long publishedFrames = 0; // Only written by the producer
+    private volatile long droppedFrames = 0; // Only written by the producer
+    private volatile long duplicatedFrames = 0; // Only written by the consumer
+
+    public TripleBuffer() {
+        /*
+        The back buffer is whatever the producer publishes first, so there is no need to allocate it
+         */
+        this.buffers[1] = FrameSink.allocateFrame();
+        this.buffers[2] = FrameSink.allocateFrame();
+    }
+
+    /**
+     * Producer side. Makes a completed frame available to the consumer.
+     * @param frame The frame that was just completed, from now on it belongs to the TripleBuffer
+     * @return The buffer the producer has to draw the next frame into
+     */
+    public ByteBuffer publish(ByteBuffer frame) {
+        this.buffers[this.back] = frame; // Visible to the consumer thanks to the getAndSet below
+        int oldMiddle = this.middle.getAndSet(this.back | FRESH);
+        if ((oldMiddle & FRESH) != 0) {
+            this.droppedFrames++;
+        }
+        this.back = oldMiddle & INDEX_MASK;
+        this.publishedFrames++;
+        return this.buffers[this.back];
+    }
+
+    /**
+     * Consumer side. Returns the newest completed frame, the buffer belongs to the consumer until the next call.
+     * @return The newest frame, or the same one as last time if nothing new was published
+     */
+    public ByteBuffer acquire() {
+        if ((this.middle.get() & FRESH) == 0) {
+            this.duplicatedFrames++;
+            return this.buffers[this.front];
+        }
+        int oldMiddle = this.middle.getAndSet(this.front);
+        this.front = oldMiddle & INDEX_MASK;
+        return this.buffers[this.front];
+    }
+
+    public long getPublishedFrames() {
+        return publishedFrames;
+    }
+
+    /**
+     * @return Frames that were published but replaced by a newer one before the consumer got to see them
+     */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * @return Times the consumer asked for a frame and got the same one it already had
+     */
+    public long getDuplicatedFrames() {
+        return duplicatedFrames;
+    }
+}
@@ -0,0 +1,86 @@
+package org.moriano.locones.screen.filter;
+
+import org.moriano.locones.screen.FrameSink;
+import org.moriano.locones.screen.SystemPalette;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Sits between the PPU frame and the {@link org.moriano.locones.screen.Screen}: turns the palette indices into
+ * RGB and then upscales them with a {@link ScaleFilter}.
+ *
+ * Upscaling a whole frame with the smarter filters takes a noticeable slice of the 16ms we have per frame, so the
+ * frame is split into horizontal stripes of STRIPE_ROWS rows and the stripes are filtered in parallel on a
+ * {@link ForkJoinPool}. Every stripe writes to its own rows of the target, so no synchronization is needed.
+ *
+ * As with the Screen, only the visible 224 rows (8 to 231) of the frame are processed.
+ */
+public class FilterStage {
+
+    public static final int VISIBLE_FIRST_ROW = 8;
+    public static final int VISIBLE_HEIGHT = 224;
+    private static final int STRIPE_ROWS = 16;
+
+    private final ScaleFilter filter;
+    private final ForkJoinPool pool;
+    private final int[] rgbFrame = new int[FrameSink.FRAME_WIDTH * VISIBLE_HEIGHT];
+
+    /**
+     * @param filter
+     * @param pool Where stripes run, null means everything runs on the calling thread
+     */
+    public FilterStage(ScaleFilter filter, ForkJoinPool pool) {
+        this.filter = filter;
+        this.pool = pool;
+    }
+
+    public int getScale() {
+        return this.filter.getScale();
+    }
+
+    /**
+     * @param frame The frame as it comes from the PPU
+     * @param target Where the upscaled RGB image goes, (256 * scale) x (224 * scale)
+     */
+    public void apply(ByteBuffer frame, int[] target) {
+        int[] palette = SystemPalette.INSTANCE.getColorsAsRGBInts();
+        int source = VISIBLE_FIRST_ROW * FrameSink.FRAME_WIDTH;
+        for (int i = 0; i < this.rgbFrame.length; i++) {
+            this.rgbFrame[i] = palette[frame.get(source + i) & 0x3F];
+        }
+
+        if (this.pool == null) {
+            this.filter.apply(this.rgbFrame, FrameSink.FRAME_WIDTH, VISIBLE_HEIGHT, target, 0, VISIBLE_HEIGHT);
+        } else {
+            this.pool.invoke(new Stripe(target, 0, VISIBLE_HEIGHT));
+        }
+    }
+
+    /**
+     * Keeps splitting the rows in halves until they are small enough to be filtered in one go
+     */
+    private class Stripe extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int[] target;
+        private final int fromRow;
+        private final int toRow;
+
+        Stripe(int[] target, int fromRow, int toRow) {
+            this.target = target;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.toRow - this.fromRow <= STRIPE_ROWS) {
+                filter.apply(rgbFrame, FrameSink.FRAME_WIDTH, VISIBLE_HEIGHT, this.target, this.fromRow, this.toRow);
+            } else {
+                int middle = (this.fromRow + this.toRow) >>> 1;
+                invokeAll(new Stripe(this.target, this.fromRow, middle), new Stripe(this.target, middle, this.toRow));
+            }
+        }
+    }
+}
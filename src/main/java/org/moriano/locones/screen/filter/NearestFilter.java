@@ -0,0 +1,42 @@
+package org.moriano.locones.screen.filter;
+
+/**
+ * The simplest of them all, every pixel becomes a square of scale x scale pixels of the same color.
+ *
+ * Only the first target row of each source row is actually computed, the rest are copies of it.
+ */
+public class NearestFilter implements ScaleFilter {
+
+    private final int scale;
+
+    public NearestFilter(int scale) {
+        if (scale < 1) {
+            throw new IllegalArgumentException("Watch out, scale has to be at least 1, got " + scale);
+        }
+        this.scale = scale;
+    }
+
+    @Override
+    public int getScale() {
+        return this.scale;
+    }
+
+    @Override
+    public void apply(int[] source, int width, int height, int[] target, int fromRow, int toRow) {
+        int targetWidth = width * this.scale;
+        for (int row = fromRow; row < toRow; row++) {
+            int sourceStart = row * width;
+            int targetStart = row * this.scale * targetWidth;
+            int targetIdx = targetStart;
+            for (int col = 0; col < width; col++) {
+                int pixel = source[sourceStart + col];
+                for (int i = 0; i < this.scale; i++) {
+                    target[targetIdx++] = pixel;
+                }
+            }
+            for (int i = 1; i < this.scale; i++) {
+                System.arraycopy(target, targetStart, target, targetStart + i * targetWidth, targetWidth);
+            }
+        }
+    }
+}
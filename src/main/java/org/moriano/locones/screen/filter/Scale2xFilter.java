@@ -0,0 +1,62 @@
+package org.moriano.locones.screen.filter;
+
+/**
+ * Scale2x (also known as AdvMAME2x or EPX), see https://www.scale2x.it/algorithm
+ *
+ * Each pixel E becomes 4 pixels, looking at its neighbours
+ *
+ * <pre>
+ *     B         E0 E1
+ *   D E F  ==>  E2 E3
+ *     H
+ *
+ *   E0 = D == B && B != F && D != H ? D : E
+ *   E1 = B == F && B != D && F != H ? F : E
+ *   E2 = D == H && D != B && H != F ? D : E
+ *   E3 = H == F && D != H && B != F ? F : E
+ * </pre>
+ *
+ * Pixels on the border use themselves as the missing neighbours. This keeps pixel art edges sharp instead of
+ * blocky, which is why it is so popular for 8 bit games.
+ */
+public class Scale2xFilter implements ScaleFilter {
+
+    @Override
+    public int getScale() {
+        return 2;
+    }
+
+    @Override
+    public void apply(int[] source, int width, int height, int[] target, int fromRow, int toRow) {
+        int targetWidth = width * 2;
+        for (int row = fromRow; row < toRow; row++) {
+            int rowStart = row * width;
+            int aboveStart = row > 0 ? rowStart - width : rowStart;
+            int belowStart = row < height - 1 ? rowStart + width : rowStart;
+            int target0 = row * 2 * targetWidth;
+            int target1 = target0 + targetWidth;
+            for (int col = 0; col < width; col++) {
+                int left = col > 0 ? col - 1 : col;
+                int right = col < width - 1 ? col + 1 : col;
+
+                int b = source[aboveStart + col];
+                int d = source[rowStart + left];
+                int e = source[rowStart + col];
+                int f = source[rowStart + right];
+                int h = source[belowStart + col];
+
+                if (b != h && d != f) {
+                    target[target0 + col * 2] = d == b ? d : e;
+                    target[target0 + col * 2 + 1] = b == f ? f : e;
+                    target[target1 + col * 2] = d == h ? d : e;
+                    target[target1 + col * 2 + 1] = h == f ? f : e;
+                } else {
+                    target[target0 + col * 2] = e;
+                    target[target0 + col * 2 + 1] = e;
+                    target[target1 + col * 2] = e;
+                    target[target1 + col * 2 + 1] = e;
+                }
+            }
+        }
+    }
+}
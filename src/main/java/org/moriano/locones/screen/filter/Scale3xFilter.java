@@ -0,0 +1,71 @@
+package org.moriano.locones.screen.filter;
+
+/**
+ * Scale3x (also known as AdvMAME3x), see https://www.scale2x.it/algorithm
+ *
+ * Same idea as {@link Scale2xFilter}, but each pixel E becomes 9 pixels and the corners (A, C, G, I) are looked
+ * at too
+ *
+ * <pre>
+ *   A B C         E0 E1 E2
+ *   D E F  ==>    E3 E4 E5
+ *   G H I         E6 E7 E8
+ * </pre>
+ */
+public class Scale3xFilter implements ScaleFilter {
+
+    @Override
+    public int getScale() {
+        return 3;
+    }
+
+    @Override
+    public void apply(int[] source, int width, int height, int[] target, int fromRow, int toRow) {
+        int targetWidth = width * 3;
+        for (int row = fromRow; row < toRow; row++) {
+            int rowStart = row * width;
+            int aboveStart = row > 0 ? rowStart - width : rowStart;
+            int belowStart = row < height - 1 ? rowStart + width : rowStart;
+            int target0 = row * 3 * targetWidth;
+            int target1 = target0 + targetWidth;
+            int target2 = target1 + targetWidth;
+            for (int col = 0; col < width; col++) {
+                int left = col > 0 ? col - 1 : col;
+                int right = col < width - 1 ? col + 1 : col;
+
+                int a = source[aboveStart + left];
+                int b = source[aboveStart + col];
+                int c = source[aboveStart + right];
+                int d = source[rowStart + left];
+                int e = source[rowStart + col];
+                int f = source[rowStart + right];
+                int g = source[belowStart + left];
+                int h = source[belowStart + col];
+                int i = source[belowStart + right];
+
+                int x = col * 3;
+                if (b != h && d != f) {
+                    target[target0 + x] = d == b ? d : e;
+                    target[target0 + x + 1] = (d == b && e != c) || (b == f && e != a) ? b : e;
+                    target[target0 + x + 2] = b == f ? f : e;
+                    target[target1 + x] = (d == b && e != g) || (d == h && e != a) ? d : e;
+                    target[target1 + x + 1] = e;
+                    target[target1 + x + 2] = (b == f && e != i) || (h == f && e != c) ? f : e;
+                    target[target2 + x] = d == h ? d : e;
+                    target[target2 + x + 1] = (d == h && e != i) || (h == f && e != g) ? h : e;
+                    target[target2 + x + 2] = h == f ? f : e;
+                } else {
+                    target[target0 + x] = e;
+                    target[target0 + x + 1] = e;
+                    target[target0 + x + 2] = e;
+                    target[target1 + x] = e;
+                    target[target1 + x + 1] = e;
+                    target[target1 + x + 2] = e;
+                    target[target2 + x] = e;
+                    target[target2 + x + 1] = e;
+                    target[target2 + x + 2] = e;
+                }
+            }
+        }
+    }
+}
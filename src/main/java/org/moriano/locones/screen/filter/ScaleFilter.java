@@ -0,0 +1,48 @@
+package org.moriano.locones.screen.filter;
+
+/**
+ * Upscales an RGB image by an integer factor.
+ *
+ * Filters work row by row, so that a frame can be split into horizontal stripes and each stripe filtered on a
+ * different thread, see {@link FilterStage}. A filter may read the rows around the ones it was asked for, but it
+ * only ever writes the target rows that belong to the source rows it was given.
+ */
+public interface ScaleFilter {
+
+    /**
+     * @return How many times bigger (in each direction) the output is
+     */
+    int getScale();
+
+    /**
+     * @param source The whole source image, RGB, row by row
+     * @param width Width of the source image
+     * @param height Height of the source image
+     * @param target The whole target image, (width * scale) x (height * scale)
+     * @param fromRow First source row to filter
+     * @param toRow Last source row to filter, exclusive
+     */
+    void apply(int[] source, int width, int height, int[] target, int fromRow, int toRow);
+
+    /**
+     * Builds a filter from its name, as used in the command line: nearest2, nearest3, nearest4, scale2x or scale3x
+     * @param name
+     * @return
+     */
+    static ScaleFilter fromName(String name) {
+        switch (name) {
+            case "nearest2":
+                return new NearestFilter(2);
+            case "nearest3":
+                return new NearestFilter(3);
+            case "nearest4":
+                return new NearestFilter(4);
+            case "scale2x":
+                return new Scale2xFilter();
+            case "scale3x":
+                return new Scale3xFilter();
+            default:
+                throw new IllegalArgumentException("Unknown filter " + name);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.moriano.locones.singlestep;
+
+import org.moriano.locones.memory.Bus;
+
+import java.util.Arrays;
+
+/**
+ * 64KB of plain RAM, no mirrors, no registers, no cartridge: what the single step tests expect the CPU to be wired
+ * to. Every read and write the CPU does is recorded (address, value and which one it was), to be compared with the
+ * bus cycles of the test.
+ *
+ * peek/poke go around the recording, they are for setting up and checking the RAM of a test.
+ */
+public class FlatBus implements Bus {
+
+    private final byte[] ram = new byte[0x10000];
+
+    private int accesses = 0;
+    private int[] addresses = new int[16];
+    private int[] values = new int[16];
+    private boolean[] writes = new boolean[16];
+
+    @Override
+    public int read(int address) {
+        address &= 0xFFFF;
+        int value = this.ram[address] & 0xFF;
+        this.record(address, value, false);
+        return value;
+    }
+
+    @Override
+    public void write(int address, int value) {
+        address &= 0xFFFF;
+        this.ram[address] = (byte) value;
+        this.record(address, value & 0xFF, true);
+    }
+
+    public int peek(int address) {
+        return this.ram[address & 0xFFFF] & 0xFF;
+    }
+
+    public void poke(int address, int value) {
+        this.ram[address & 0xFFFF] = (byte) value;
+    }
+
+    /**
+     * Forgets the accesses recorded so far
+     */
+    public void clearAccesses() {
+        this.accesses = 0;
+    }
+
+    public int getAccesses() {
+        return this.accesses;
+    }
+
+    public int getAccessAddress(int index) {
+        return this.addresses[index];
+    }
+
+    public int getAccessValue(int index) {
+        return this.values[index];
+    }
+
+    public boolean isAccessWrite(int index) {
+        return this.writes[index];
+    }
+
+    private void record(int address, int value, boolean write) {
+        if (this.accesses == this.addresses.length) {
+            this.addresses = Arrays.copyOf(this.addresses, this.accesses * 2);
+            this.values = Arrays.copyOf(this.values, this.accesses * 2);
+            this.writes = Arrays.copyOf(this.writes, this.accesses * 2);
+        }
+        this.addresses[this.accesses] = address;
+        this.values[this.accesses] = value;
+        this.writes[this.accesses] = write;
+        this.accesses++;
+    }
+}
@@ -0,0 +1,201 @@
+package org.moriano.locones.singlestep;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A minimal pull parser for JSON, just enough for the single step test files: a few MB each, so they are read a
+ * token at a time through a small buffer instead of being loaded whole into a tree.
+ *
+ * The caller walks the document, the same way it is laid out:
+ *
+ * <pre>
+ * reader.beginArray();
+ * while (reader.hasNext()) {
+ *     reader.beginObject();
+ *     while (reader.hasNext()) {
+ *         String name = reader.nextName();
+ *         ...
+ *     }
+ *     reader.endObject();
+ * }
+ * reader.endArray();
+ * </pre>
+ *
+ * Watch out, it is lenient: commas are treated as whitespace, so broken JSON may go through. Numbers can only be
+ * integers, nothing in the tests needs anything else.
+ */
+public class JsonReader {
+
+    private final Reader input;
+    private final char[] buffer = new char[1 << 16];
+    private int position = 0;
+    private int limit = 0;
+    private final StringBuilder string = new StringBuilder();
+
+    public JsonReader(Reader input) {
+        this.input = input;
+    }
+
+    public void beginObject() throws IOException {
+        this.expect('{');
+    }
+
+    public void endObject() throws IOException {
+        this.expect('}');
+    }
+
+    public void beginArray() throws IOException {
+        this.expect('[');
+    }
+
+    public void endArray() throws IOException {
+        this.expect(']');
+    }
+
+    /**
+     * @return true if the current object or array has another value (or name) before its end
+     */
+    public boolean hasNext() throws IOException {
+        int next = this.peek();
+        return next != '}' && next != ']' && next != -1;
+    }
+
+    public String nextName() throws IOException {
+        String name = this.nextString();
+        this.expect(':');
+        return name;
+    }
+
+    public String nextString() throws IOException {
+        this.expect('"');
+        this.string.setLength(0);
+        while (true) {
+            int value = this.read();
+            if (value == '"') {
+                return this.string.toString();
+            }
+            if (value == '\\') {
+                value = this.read();
+                switch (value) {
+                    case 'b': value = '\b'; break;
+                    case 'f': value = '\f'; break;
+                    case 'n': value = '\n'; break;
+                    case 'r': value = '\r'; break;
+                    case 't': value = '\t'; break;
+                    case 'u':
+                        value = 0;
+                        for (int i = 0; i < 4; i++) {
+                            value = value << 4 | Character.digit(this.read(), 16);
+                        }
+                        break;
+                    default: break; // \" \\ \/
+                }
+            }
+            if (value == -1) {
+                throw new IllegalStateException("Watch out, the JSON ends in the middle of a string");
+            }
+            this.string.append((char) value);
+        }
+    }
+
+    public int nextInt() throws IOException {
+        long value = this.nextLong();
+        if (value != (int) value) {
+            throw new IllegalStateException("Watch out, " + value + " does not fit in an int");
+        }
+        return (int) value;
+    }
+
+    public long nextLong() throws IOException {
+        boolean negative = this.peek() == '-';
+        if (negative) {
+            this.position++;
+        }
+        long value = 0;
+        int digits = 0;
+        while (this.fill() && this.buffer[this.position] >= '0' && this.buffer[this.position] <= '9') {
+            value = value * 10 + this.buffer[this.position++] - '0';
+            digits++;
+        }
+        if (digits == 0 || (this.fill() && ".eE".indexOf(this.buffer[this.position]) >= 0)) {
+            throw new IllegalStateException("Watch out, expected an integer, found " + this.describeNext());
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Skips the next value, whatever it is (objects and arrays included, with everything inside them)
+     */
+    public void skipValue() throws IOException {
+        int next = this.peek();
+        if (next == '{' || next == '[') {
+            this.position++;
+            while (this.hasNext()) {
+                if (next == '{') {
+                    this.nextName();
+                }
+                this.skipValue();
+            }
+            this.expect(next == '{' ? '}' : ']');
+        } else if (next == '"') {
+            this.nextString();
+        } else if (next == '-' || (next >= '0' && next <= '9')) {
+            while (this.fill() && "+-.eE0123456789".indexOf(this.buffer[this.position]) >= 0) {
+                this.position++;
+            }
+        } else if (next == 't' || next == 'f' || next == 'n') {
+            while (this.fill() && Character.isLetter(this.buffer[this.position])) {
+                this.position++;
+            }
+        } else {
+            throw new IllegalStateException("Watch out, expected a value, found " + this.describeNext());
+        }
+    }
+
+    /**
+     * @return The next character that is not whitespace (or a comma), without consuming it. -1 at the end
+     */
+    private int peek() throws IOException {
+        while (this.fill()) {
+            char value = this.buffer[this.position];
+            if (value != ' ' && value != '\n' && value != '\r' && value != '\t' && value != ',') {
+                return value;
+            }
+            this.position++;
+        }
+        return -1;
+    }
+
+    private void expect(char expected) throws IOException {
+        if (this.peek() != expected) {
+            throw new IllegalStateException("Watch out, expected " + expected + ", found " + this.describeNext());
+        }
+        this.position++;
+    }
+
+    private int read() throws IOException {
+        return this.fill() ? this.buffer[this.position++] : -1;
+    }
+
+    /**
+     * @return true if there is at least one character left in the buffer, reading more if needed
+     */
+    private boolean fill() throws IOException {
+        if (this.position < this.limit) {
+            return true;
+        }
+        this.limit = this.input.read(this.buffer);
+        this.position = 0;
+        if (this.limit <= 0) {
+            this.limit = 0;
+            return false;
+        }
+        return true;
+    }
+
+    private String describeNext() throws IOException {
+        int next = this.peek();
+        return next == -1 ? "the end" : "'" + (char) next + "'";
+    }
+}
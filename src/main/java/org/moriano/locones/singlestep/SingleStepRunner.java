@@ -0,0 +1,419 @@
+package org.moriano.locones.singlestep;
+
+import org.moriano.locones.CPU;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Runs the CPU against single step test vectors, one file per opcode (00.json to ff.json, gzipped or not), in the
+ * format of the nes6502 ProcessorTests. Each file is an array of tests like
+ *
+ * <pre>
+ * { "name": "b1 28 b5",
+ *   "initial": { "pc": 59082, "s": 39, "a": 57, "x": 33, "y": 174, "p": 96, "ram": [ [59082, 177], ... ] },
+ *   "final":   { "pc": 59084, "s": 39, "a": 0, ... "ram": [ ... ] },
+ *   "cycles":  [ [59082, 177, "read"], [59083, 40, "read"], ... ] }
+ * </pre>
+ *
+ * The CPU is set to the initial state, on a {@link FlatBus}, runs a single instruction, and then it has to match the
+ * final state (registers and every RAM address listed) and take as many cycles as the test has bus cycles. Bits 4
+ * and 5 of P are left out, they are not really in the register (see {@link CPU#calculateRegisterP()}).
+ *
+ * On top of that, a test is counted as "bus exact" if the reads and writes the CPU did are exactly the bus cycles
+ * of the test, in the same order. The CPU does not do the dummy reads of the real thing, so do not expect many of
+ * those, it is there for when the CPU gets closer to the hardware.
+ *
+ * Files are read as streams (they are a few MB each) and run in parallel, one task per opcode, each with its own
+ * CPU and bus. Opcodes the CPU does not know are reported as such after their first test.
+ *
+ * Usage: SingleStepRunner testDirectory [threads]
+ */
+public class SingleStepRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(SingleStepRunner.class);
+    private static final Pattern FILE_NAME = Pattern.compile("([0-9a-fA-F]{2})\\.json(\\.gz)?");
+    private static final int P_MASK = 0xCF;
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Usage: SingleStepRunner testDirectory [threads]");
+            System.exit(1);
+        }
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        File[] files = new File(args[0]).listFiles((directory, name) -> FILE_NAME.matcher(name).matches());
+        if (files == null || files.length == 0) {
+            throw new IllegalArgumentException("Watch out, there are no test files (like a9.json) in " + args[0]);
+        }
+        Arrays.sort(files);
+
+        long start = System.nanoTime();
+        List<OpcodeResult> results = runAll(files, threads);
+        long nanos = System.nanoTime() - start;
+
+        long total = 0;
+        long passed = 0;
+        long busExact = 0;
+        long runNanos = 0;
+        List<String> unsupported = new ArrayList<>();
+        for (OpcodeResult result : results) {
+            if (result.getUnsupported() != null) {
+                unsupported.add(String.format("%02X", result.getOpcode()));
+                continue;
+            }
+            log.info(String.format("%02X %s %6d/%6d %7.2f%%  bus exact %6d  %8.0f tests/s%s", result.getOpcode(),
+                    result.getInstruction(), result.getPassed(), result.getTotal(), result.getPassRate(),
+                    result.getBusExact(), result.getTestsPerSecond(),
+                    result.getFirstFailure() == null ? "" : "  first failure: " + result.getFirstFailure()));
+            total += result.getTotal();
+            passed += result.getPassed();
+            busExact += result.getBusExact();
+            runNanos += result.getRunNanos();
+        }
+        if (!unsupported.isEmpty()) {
+            log.info("Not implemented by the CPU (" + unsupported.size() + " opcodes): " + String.join(" ", unsupported));
+        }
+        log.info(String.format("Passed %d of %d tests (%.2f%%), %d bus exact, %d of %d opcodes fully passed",
+                passed, total, total == 0 ? 0 : passed * 100.0 / total, busExact,
+                results.stream().filter(OpcodeResult::isFullyPassed).count(), results.size()));
+        log.info(String.format("%d files in %dms with %d threads, %.0f tests/s (parsing included), the CPU alone "
+                        + "ran %.0f instructions/s per thread", results.size(), nanos / 1_000_000, threads,
+                total / (nanos / 1e9), runNanos == 0 ? 0 : total / (runNanos / 1e9)));
+        if (passed != total) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @param files One per opcode
+     * @param threads
+     * @return One result per file, in the same order
+     */
+    public static List<OpcodeResult> runAll(File[] files, int threads) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<Future<OpcodeResult>> futures = new ArrayList<>();
+            for (File file : files) {
+                futures.add(pool.submit(() -> runFile(file)));
+            }
+            List<OpcodeResult> results = new ArrayList<>();
+            for (Future<OpcodeResult> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while running the tests", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Problems while running the tests", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Runs every test of a file, on a CPU and bus of its own
+     * @param file Named after its opcode, like a9.json or a9.json.gz
+     * @return
+     */
+    public static OpcodeResult runFile(File file) {
+        Matcher matcher = FILE_NAME.matcher(file.getName());
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Watch out, " + file + " is not named after an opcode");
+        }
+        OpcodeResult result = new OpcodeResult(Integer.parseInt(matcher.group(1), 16));
+        CPU cpu = new CPU(0);
+        FlatBus bus = new FlatBus();
+        cpu.setMemory(bus);
+        TestCase test = new TestCase();
+        try (Reader input = open(file)) {
+            JsonReader reader = new JsonReader(input);
+            reader.beginArray();
+            while (reader.hasNext()) {
+                test.read(reader);
+                String failure;
+                long start = System.nanoTime();
+                try {
+                    failure = run(test, cpu, bus);
+                } catch (UnsupportedOperationException e) {
+                    result.unsupported = e.getMessage();
+                    break;
+                } catch (RuntimeException e) {
+                    failure = e.toString();
+                }
+                result.runNanos += System.nanoTime() - start;
+                result.total++;
+                if (failure == null) {
+                    result.passed++;
+                } else if (result.firstFailure == null) {
+                    result.firstFailure = test.name + ": " + failure;
+                }
+                if (failure == null && isBusExact(test, bus)) {
+                    result.busExact++;
+                }
+                if (result.instruction == null) {
+                    result.instruction = cpu.getInstruction();
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Problems while reading " + file, e);
+        }
+        return result;
+    }
+
+    private static Reader open(File file) throws IOException {
+        InputStream input = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+        if (file.getName().endsWith(".gz")) {
+            input = new GZIPInputStream(input, 1 << 16);
+        }
+        return new InputStreamReader(input, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return null if the CPU ended up in the final state of the test, what did not match otherwise
+     */
+    private static String run(TestCase test, CPU cpu, FlatBus bus) {
+        State initial = test.initial;
+        State expected = test.expected;
+        try {
+            for (int i = 0; i < initial.ramCount; i++) {
+                bus.poke(initial.ramAddresses[i], initial.ramValues[i]);
+            }
+            cpu.setRegisters(initial.pc, initial.a, initial.x, initial.y, initial.s, initial.p);
+            bus.clearAccesses();
+            int cyclesBefore = cpu.getCycles();
+            cpu.cycle();
+            int cycles = cpu.getCycles() - cyclesBefore;
+
+            String failure = compare("PC", expected.pc, cpu.getProgramCounter(), 4);
+            failure = failure != null ? failure : compare("A", expected.a, cpu.getRegisterA(), 2);
+            failure = failure != null ? failure : compare("X", expected.x, cpu.getRegisterX(), 2);
+            failure = failure != null ? failure : compare("Y", expected.y, cpu.getRegisterY(), 2);
+            failure = failure != null ? failure : compare("S", expected.s, cpu.getRegisterS(), 2);
+            failure = failure != null ? failure : compare("P", expected.p & P_MASK, cpu.calculateRegisterP() & P_MASK, 2);
+            for (int i = 0; i < expected.ramCount && failure == null; i++) {
+                failure = compare(String.format("RAM $%04X", expected.ramAddresses[i]), expected.ramValues[i],
+                        bus.peek(expected.ramAddresses[i]), 2);
+            }
+            if (failure == null && cycles != test.cycleCount) {
+                failure = "cycles expected " + test.cycleCount + " got " + cycles;
+            }
+            return failure;
+        } finally {
+            // Back to all zeroes for the next test, only what this one touched (clearing all 64KB costs more than the instruction)
+            for (int i = 0; i < initial.ramCount; i++) {
+                bus.poke(initial.ramAddresses[i], 0);
+            }
+            for (int i = 0; i < bus.getAccesses(); i++) {
+                bus.poke(bus.getAccessAddress(i), 0);
+            }
+        }
+    }
+
+    private static String compare(String what, int expected, int current, int digits) {
+        if (expected == current) {
+            return null;
+        }
+        String format = "%0" + digits + "X";
+        return what + " expected " + String.format(format, expected) + " got " + String.format(format, current);
+    }
+
+    private static boolean isBusExact(TestCase test, FlatBus bus) {
+        if (bus.getAccesses() != test.cycleCount) {
+            return false;
+        }
+        for (int i = 0; i < test.cycleCount; i++) {
+            if (bus.getAccessAddress(i) != test.cycleAddresses[i] || bus.getAccessValue(i) != test.cycleValues[i]
+                    || bus.isAccessWrite(i) != test.cycleWrites[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * How the tests of one opcode went
+     */
+    public static class OpcodeResult {
+
+        private final int opcode;
+        private String instruction;
+        private int total = 0;
+        private int passed = 0;
+        private int busExact = 0;
+        private long runNanos = 0; // Running the CPU and checking, no parsing
+        private String firstFailure;
+        private String unsupported;
+
+        OpcodeResult(int opcode) {
+            this.opcode = opcode;
+        }
+
+        public int getOpcode() {
+            return opcode;
+        }
+
+        public String getInstruction() {
+            return instruction;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public int getPassed() {
+            return passed;
+        }
+
+        public int getBusExact() {
+            return busExact;
+        }
+
+        public long getRunNanos() {
+            return runNanos;
+        }
+
+        /**
+         * @return The name of the first test that failed, and why, null if none did
+         */
+        public String getFirstFailure() {
+            return firstFailure;
+        }
+
+        /**
+         * @return What the CPU said when it got the opcode, null if it knows it
+         */
+        public String getUnsupported() {
+            return unsupported;
+        }
+
+        public double getPassRate() {
+            return this.total == 0 ? 0 : this.passed * 100.0 / this.total;
+        }
+
+        public double getTestsPerSecond() {
+            return this.runNanos == 0 ? 0 : this.total / (this.runNanos / 1e9);
+        }
+
+        public boolean isFullyPassed() {
+            return this.unsupported == null && this.total > 0 && this.passed == this.total;
+        }
+    }
+
+    /**
+     * One test, reused for every test of a file
+     */
+    private static class TestCase {
+
+        private String name;
+        private final State initial = new State();
+        private final State expected = new State();
+        private int cycleCount = 0;
+        private int[] cycleAddresses = new int[16];
+        private int[] cycleValues = new int[16];
+        private boolean[] cycleWrites = new boolean[16];
+
+        void read(JsonReader reader) throws IOException {
+            this.name = null;
+            this.initial.ramCount = 0;
+            this.expected.ramCount = 0;
+            this.cycleCount = 0;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "name": this.name = reader.nextString(); break;
+                    case "initial": this.initial.read(reader); break;
+                    case "final": this.expected.read(reader); break;
+                    case "cycles": this.readCycles(reader); break;
+                    default: reader.skipValue(); break;
+                }
+            }
+            reader.endObject();
+        }
+
+        private void readCycles(JsonReader reader) throws IOException {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                if (this.cycleCount == this.cycleAddresses.length) {
+                    this.cycleAddresses = Arrays.copyOf(this.cycleAddresses, this.cycleCount * 2);
+                    this.cycleValues = Arrays.copyOf(this.cycleValues, this.cycleCount * 2);
+                    this.cycleWrites = Arrays.copyOf(this.cycleWrites, this.cycleCount * 2);
+                }
+                reader.beginArray();
+                this.cycleAddresses[this.cycleCount] = reader.nextInt();
+                this.cycleValues[this.cycleCount] = reader.nextInt();
+                this.cycleWrites[this.cycleCount] = reader.nextString().equals("write");
+                reader.endArray();
+                this.cycleCount++;
+            }
+            reader.endArray();
+        }
+    }
+
+    /**
+     * Registers plus the RAM addresses the test cares about
+     */
+    private static class State {
+
+        private int pc;
+        private int s;
+        private int a;
+        private int x;
+        private int y;
+        private int p;
+        private int ramCount = 0;
+        private int[] ramAddresses = new int[16];
+        private int[] ramValues = new int[16];
+
+        void read(JsonReader reader) throws IOException {
+            this.ramCount = 0;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "pc": this.pc = reader.nextInt(); break;
+                    case "s": this.s = reader.nextInt(); break;
+                    case "a": this.a = reader.nextInt(); break;
+                    case "x": this.x = reader.nextInt(); break;
+                    case "y": this.y = reader.nextInt(); break;
+                    case "p": this.p = reader.nextInt(); break;
+                    case "ram": this.readRam(reader); break;
+                    default: reader.skipValue(); break;
+                }
+            }
+            reader.endObject();
+        }
+
+        private void readRam(JsonReader reader) throws IOException {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                if (this.ramCount == this.ramAddresses.length) {
+                    this.ramAddresses = Arrays.copyOf(this.ramAddresses, this.ramCount * 2);
+                    this.ramValues = Arrays.copyOf(this.ramValues, this.ramCount * 2);
+                }
+                reader.beginArray();
+                this.ramAddresses[this.ramCount] = reader.nextInt();
+                this.ramValues[this.ramCount] = reader.nextInt();
+                reader.endArray();
+                this.ramCount++;
+            }
+            reader.endArray();
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package org.moriano.locones.state;
+
+import org.moriano.locones.NES;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Keeps a save state of every frame, so that the game can be played backwards, for as long as the memory budget
+ * allows (minutes, at the sizes we get).
+ *
+ * A state is 4372 bytes, a minute of them would be 15MB as they are. But from one frame to the next almost nothing
+ * changes, so
+ *
+ * - Every keyframeInterval frames the whole state is kept (a keyframe).
+ * - The frames in between only keep the XOR of their state against that keyframe, which is nearly all zeroes.
+ * - Everything is compressed with deflate at its fastest setting (LZ77, which is what makes those runs of zeroes
+ *   vanish), straight from the JDK, so that it does not cost us a dependency.
+ *
+ * The compressed states live off heap, in a single direct ByteBuffer of the size of the budget, used as a ring:
+ * when there is no room for a new state, the oldest ones are thrown away. A keyframe and its deltas go away
+ * together, as the deltas are useless without it.
+ *
+ * Going back one frame costs inflating that frame (plus its keyframe, once per group) and loading it, so it can be
+ * done once per displayed frame, see {@link NES#setRewindBuffer(RewindBuffer, java.util.function.BooleanSupplier)}.
+ *
+ * Not thread safe, it lives on the emulation thread.
+ */
+public class RewindBuffer {
+
+    private static final Logger log = LoggerFactory.getLogger(RewindBuffer.class);
+    private static final int STATS_EVERY_FRAMES = 3600;
+
+    private final ByteBuffer arena;
+    private final int keyframeInterval;
+    private final int maxEntries;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final boolean[] keyframes;
+    private int oldest = 0;
+    private int count = 0;
+    private int newestKeyframe = -1; // Index of the keyframe of the newest group, -1 if there is none
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    private final byte[] state = new byte[SaveState.MAX_SIZE];
+    private final ByteBuffer stateBuffer = ByteBuffer.wrap(this.state);
+    private final byte[] compressed = new byte[SaveState.MAX_SIZE + 1024]; // Deflate can grow incompressible data a bit
+    private final byte[] keyframeState = new byte[SaveState.MAX_SIZE];
+    private int keyframeStateSize = 0;
+    private int keyframeStateIndex = -1; // Which keyframe keyframeState holds, -1 for none
+
+    private long pushes = 0;
+    private long pushNanos = 0;
+    private long keyframesPushed = 0;
+    private long keyframeBytes = 0;
+    private long deltaBytes = 0;
+    private long stepBacks = 0;
+    private long stepBackNanos = 0;
+
+    /**
+     * @param budgetBytes Off heap memory to use
+     * @param keyframeInterval A full state every so many frames
+     * @param maxFrames Most frames to keep, no matter how much room there is left
+     */
+    public RewindBuffer(int budgetBytes, int keyframeInterval, int maxFrames) {
+        if (keyframeInterval < 1) {
+            throw new IllegalArgumentException("Watch out, the keyframe interval has to be at least 1, not " + keyframeInterval);
+        }
+        this.arena = ByteBuffer.allocateDirect(budgetBytes);
+        this.keyframeInterval = keyframeInterval;
+        this.maxEntries = maxFrames;
+        this.offsets = new int[maxFrames];
+        this.lengths = new int[maxFrames];
+        this.keyframes = new boolean[maxFrames];
+    }
+
+    /**
+     * Saves the current state of the NES as the newest frame
+     * @param nes
+     */
+    public void push(NES nes) {
+        long start = System.nanoTime();
+        this.stateBuffer.clear();
+        nes.save(this.stateBuffer);
+        int size = this.stateBuffer.position();
+
+        boolean keyframe = this.newestKeyframe < 0 || this.framesInNewestGroup() >= this.keyframeInterval
+                || !this.loadKeyframeState(this.newestKeyframe) || this.keyframeStateSize != size;
+        if (!keyframe) {
+            this.xorWithKeyframe(size);
+        }
+        this.store(size, keyframe);
+
+        this.pushes++;
+        this.pushNanos += System.nanoTime() - start;
+        if (this.pushes % STATS_EVERY_FRAMES == 0) {
+            log.debug(this.toString());
+        }
+    }
+
+    /**
+     * Puts the NES back to the newest frame kept, and forgets it
+     * @param nes
+     * @return false if there is nothing left to go back to
+     */
+    public boolean stepBack(NES nes) {
+        if (this.count == 0) {
+            return false;
+        }
+        long start = System.nanoTime();
+        int index = this.indexOf(this.count - 1);
+        int size;
+        if (this.keyframes[index]) {
+            this.loadKeyframeState(index);
+            size = this.keyframeStateSize;
+            System.arraycopy(this.keyframeState, 0, this.state, 0, size);
+        } else {
+            if (!this.loadKeyframeState(this.newestKeyframe)) {
+                throw new IllegalStateException("Watch out, the keyframe of a delta is gone");
+            }
+            size = this.inflate(index, this.state);
+            this.xorWithKeyframe(size);
+        }
+        this.removeNewest();
+
+        this.stateBuffer.clear().limit(size);
+        nes.load(this.stateBuffer);
+        this.stepBacks++;
+        this.stepBackNanos += System.nanoTime() - start;
+        return true;
+    }
+
+    public void clear() {
+        this.count = 0;
+        this.newestKeyframe = -1;
+        this.keyframeStateIndex = -1;
+    }
+
+    /**
+     * @return How many frames we can go back
+     */
+    public int getFrames() {
+        return count;
+    }
+
+    public int getBytesUsed() {
+        int used = 0;
+        for (int i = 0; i < this.count; i++) {
+            used += this.lengths[this.indexOf(i)];
+        }
+        return used;
+    }
+
+    /**
+     * @param frame 0 is the oldest frame kept
+     * @return Where its compressed state starts in the arena
+     */
+    int getEntryOffset(int frame) {
+        return this.offsets[this.indexOf(frame)];
+    }
+
+    /**
+     * @param frame 0 is the oldest frame kept
+     * @return Size of its compressed state in the arena
+     */
+    int getEntryLength(int frame) {
+        return this.lengths[this.indexOf(frame)];
+    }
+
+    public int getBudgetBytes() {
+        return this.arena.capacity();
+    }
+
+    /**
+     * @return Average nanoseconds spent saving, diffing and compressing each frame
+     */
+    public long getAveragePushNanos() {
+        return this.pushes == 0 ? 0 : this.pushNanos / this.pushes;
+    }
+
+    /**
+     * @return Average nanoseconds spent inflating and loading each frame when going back
+     */
+    public long getAverageStepBackNanos() {
+        return this.stepBacks == 0 ? 0 : this.stepBackNanos / this.stepBacks;
+    }
+
+    /**
+     * @param framesPerSecond
+     * @return How much memory a minute of frames takes, on average so far
+     */
+    public long getBytesPerMinute(double framesPerSecond) {
+        if (this.pushes == 0) {
+            return 0;
+        }
+        return (long) ((this.keyframeBytes + this.deltaBytes) / (double) this.pushes * framesPerSecond * 60);
+    }
+
+    @Override
+    public String toString() {
+        long deltas = this.pushes - this.keyframesPushed;
+        return "RewindBuffer{" +
+                "frames=" + this.count +
+                ", used=" + this.getBytesUsed() / 1024 + "KB of " + this.arena.capacity() / 1024 + "KB" +
+                ", keyframe=" + (this.keyframesPushed == 0 ? 0 : this.keyframeBytes / this.keyframesPushed) + "B" +
+                ", delta=" + (deltas == 0 ? 0 : this.deltaBytes / deltas) + "B" +
+                ", push=" + this.getAveragePushNanos() / 1000 + "us" +
+                ", stepBack=" + this.getAverageStepBackNanos() / 1000 + "us" +
+                ", perMinute=" + this.getBytesPerMinute(60) / 1024 + "KB" +
+                '}';
+    }
+
+    private void store(int size, boolean keyframe) {
+        this.deflater.reset();
+        this.deflater.setInput(this.state, 0, size);
+        this.deflater.finish();
+        int length = this.deflater.deflate(this.compressed);
+
+        int index = this.makeRoom(length);
+        if (!keyframe && this.newestKeyframe < 0) {
+            /*
+            Making room threw away the keyframe of this very delta (the budget is tiny), it has to be a keyframe
+            itself then. keyframeState still holds the old keyframe, good enough to undo the XOR.
+             */
+            this.count--;
+            this.xorWithKeyframe(size);
+            this.store(size, true);
+            return;
+        }
+        this.arena.put(this.offsets[index], this.compressed, 0, length);
+        this.lengths[index] = length;
+        this.keyframes[index] = keyframe;
+        if (keyframe) {
+            this.newestKeyframe = index;
+            /*
+            We still have the state as it is, no need to inflate it back for the deltas to come
+             */
+            System.arraycopy(this.state, 0, this.keyframeState, 0, size);
+            this.keyframeStateSize = size;
+            this.keyframeStateIndex = index;
+            this.keyframesPushed++;
+            this.keyframeBytes += length;
+        } else {
+            this.deltaBytes += length;
+        }
+    }
+
+    private void xorWithKeyframe(int size) {
+        for (int i = 0; i < size; i++) {
+            this.state[i] ^= this.keyframeState[i];
+        }
+    }
+
+    private int framesInNewestGroup() {
+        return (this.indexOf(this.count - 1) - this.newestKeyframe + this.maxEntries) % this.maxEntries + 1;
+    }
+
+    /**
+     * Makes sure keyframeState holds the given keyframe
+     * @param index
+     * @return false if there is no such keyframe
+     */
+    private boolean loadKeyframeState(int index) {
+        if (index < 0) {
+            return false;
+        }
+        if (this.keyframeStateIndex != index) {
+            this.keyframeStateSize = this.inflate(index, this.keyframeState);
+            this.keyframeStateIndex = index;
+        }
+        return true;
+    }
+
+    private int inflate(int index, byte[] target) {
+        this.inflater.reset();
+        this.inflater.setInput(this.arena.slice(this.offsets[index], this.lengths[index]));
+        try {
+            return this.inflater.inflate(target);
+        } catch (DataFormatException e) {
+            throw new RuntimeException("Watch out, the rewind buffer is corrupted", e);
+        }
+    }
+
+    /**
+     * Finds a place in the arena for a new entry, throwing away the oldest groups in the way
+     * @param length
+     * @return The index of the new (newest) entry, with its offset set
+     */
+    private int makeRoom(int length) {
+        if (length > this.arena.capacity()) {
+            throw new IllegalStateException("Watch out, a single state (" + length + " bytes) does not fit in the budget");
+        }
+        int position = 0;
+        if (this.count > 0) {
+            int newest = this.indexOf(this.count - 1);
+            position = this.offsets[newest] + this.lengths[newest];
+        }
+        if (position + length > this.arena.capacity()) {
+            /*
+            Whatever is left of the previous lap sits past the end of this one, and it is older than anything in this
+            lap. It has to go first, even if it is not in the way of the new entry: checking only the oldest entry for
+            overlaps below would otherwise stop at it, and the new entry would be written over the start of this lap.
+             */
+            while (this.count > 0 && this.offsets[this.oldest] >= position) {
+                this.evictOldestGroup();
+            }
+            position = 0; // The tail of the arena is wasted until the next lap
+        }
+        while (this.count > 0 && this.overlaps(this.oldest, position, length)) {
+            this.evictOldestGroup();
+        }
+        while (this.count >= this.maxEntries) {
+            this.evictOldestGroup();
+        }
+        int index = this.indexOf(this.count);
+        this.offsets[index] = position;
+        this.count++;
+        return index;
+    }
+
+    private boolean overlaps(int index, int position, int length) {
+        int start = this.offsets[index];
+        return start < position + length && position < start + this.lengths[index];
+    }
+
+    private void evictOldestGroup() {
+        do {
+            if (this.oldest == this.keyframeStateIndex) {
+                this.keyframeStateIndex = -1;
+            }
+            if (this.oldest == this.newestKeyframe) {
+                this.newestKeyframe = -1;
+            }
+            this.oldest = (this.oldest + 1) % this.maxEntries;
+            this.count--;
+        } while (this.count > 0 && !this.keyframes[this.oldest]);
+    }
+
+    private void removeNewest() {
+        int index = this.indexOf(this.count - 1);
+        this.count--;
+        if (index == this.keyframeStateIndex) {
+            this.keyframeStateIndex = -1;
+        }
+        if (index == this.newestKeyframe) {
+            /*
+            That was the whole group, the newest group is now the previous one (if any)
+             */
+            this.newestKeyframe = -1;
+            for (int i = this.count - 1; i >= 0; i--) {
+                if (this.keyframes[this.indexOf(i)]) {
+                    this.newestKeyframe = this.indexOf(i);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param position 0 is the oldest entry
+     * @return Index in the entry arrays
+     */
+    private int indexOf(int position) {
+        return (this.oldest + position) % this.maxEntries;
+    }
+}
@@ -0,0 +1,57 @@
+package org.moriano.locones.state;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The save state format. Each component writes its own state with a save(ByteBuffer) method and reads it back
+ * with load(ByteBuffer), field by field, in a fixed order, no reflection and no allocation, so that we can afford
+ * to snapshot every single frame (rewind, run ahead, search...).
+ *
+ * <pre>
+ *   Magic, "LNST"          4 bytes
+ *   Version                2 bytes
+ *   CPU                    registers, flags, cycle counters
+ *   PPU                    timing
+ *   Memory                 RAM, PPU registers, name tables and palettes, APU registers, APU, controllers
+ * </pre>
+ *
+ * Everything is big endian (the ByteBuffer default). Whenever anything is added to (or removed from) any of the
+ * save methods, VERSION has to go up, old states are refused rather than loaded wrong.
+ */
+public final class SaveState {
+
+    public static final int MAGIC = 0x4C4E5354; // LNST
+    public static final int VERSION = 2; // 2: the VRAM as big as the console has it, rather than 8KB + 256 bytes
+
+    /**
+     * Comfortably more than what a state takes right now (a bit over 4KB, half of it the RAM, 6KB with four screen
+     * VRAM)
+     */
+    public static final int MAX_SIZE = 16 * 1024;
+
+    private SaveState() {
+    }
+
+    /**
+     * @return A buffer big enough for a whole state. Direct, so that it can go to a file or a channel as it is.
+     */
+    public static ByteBuffer allocate() {
+        return ByteBuffer.allocateDirect(MAX_SIZE);
+    }
+
+    public static void writeHeader(ByteBuffer state) {
+        state.putInt(MAGIC);
+        state.putShort((short) VERSION);
+    }
+
+    public static void readHeader(ByteBuffer state) {
+        int magic = state.getInt();
+        if (magic != MAGIC) {
+            throw new IllegalArgumentException("Watch out, this is not a save state, magic is " + Integer.toHexString(magic));
+        }
+        int version = state.getShort();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Save state version " + version + " is not supported, only " + VERSION);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package org.moriano.locones.state;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The 64 bit hash of the state of a machine, see {@link org.moriano.locones.NES#getStateHash()}. Two machines with
+ * the same hash are (for all practical purposes) in the same state, which is what we need to
+ *
+ * - Find the first frame at which two runs of the same movie diverge.
+ * - Throw away the states that search already went through.
+ * - Check that a replay is deterministic.
+ *
+ * Hashing the whole state (4KB) every frame would be wasteful when a frame only touches a few pages of it, so the
+ * RAM keeps a hash per page, and only the pages written since the last time (dirty pages) are hashed again, the
+ * VRAM keeps a single one. The rest of the state (registers, a few hundred bytes) is hashed every time. The PPU does
+ * not write its name tables and palettes yet (see {@link org.moriano.locones.memory.PPUMemory}), so for now only
+ * loading a state dirties those.
+ *
+ * The mixing is the round of xxHash64, and the final avalanche the one of MurmurHash3. Not cryptographic at all,
+ * just well spread and cheap.
+ */
+public final class StateHash {
+
+    public static final long SEED = 0x27D4EB2F165667C5L;
+    private static final long PRIME_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+
+    private StateHash() {
+    }
+
+    /**
+     * @param hash So far
+     * @param value What to mix into it
+     * @return
+     */
+    public static long add(long hash, long value) {
+        return Long.rotateLeft(hash ^ (value * PRIME_2), 31) * PRIME_1;
+    }
+
+    /**
+     * @param hash So far
+     * @param buffer Everything from its position to its limit is mixed in, the position is left as it is
+     * @return
+     */
+    public static long add(long hash, ByteBuffer buffer) {
+        int i = buffer.position();
+        for (; i + 8 <= buffer.limit(); i += 8) {
+            hash = add(hash, buffer.getLong(i));
+        }
+        for (; i < buffer.limit(); i++) {
+            hash = add(hash, buffer.get(i));
+        }
+        return hash;
+    }
+
+    /**
+     * @param values Mixed in one after the other, all of them
+     * @return A hash of just values
+     */
+    public static long hash(int[] values) {
+        long hash = SEED;
+        for (int value : values) {
+            hash = add(hash, value);
+        }
+        return hash;
+    }
+
+    /**
+     * Spreads every bit of hash over all the others, meant to be done once, at the very end
+     * @param hash
+     * @return
+     */
+    public static long finish(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,125 @@
+package org.moriano.locones.timing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Keeps the emulation running at the speed of the real console: 60.0988 frames per second on NTSC and 50.007 on
+ * PAL.
+ *
+ * After every frame we wait until the moment the next one is due. Sleeping alone is not precise enough (the OS can
+ * wake us up a millisecond or more late) and spinning alone burns a whole core, so we do both: park the thread
+ * until SPIN_THRESHOLD_NANOS before the deadline, then spin for the remaining bit.
+ *
+ * Deadlines are absolute (first deadline + n * frame length), so small errors do not accumulate over time.
+ *
+ * When the emulation falls behind (the frame took longer than it should) there is no waiting at all, and if it
+ * is behind by more than half a frame the pacer asks for the rendering of the next frame to be skipped. CPU and PPU
+ * timing still run as usual, the frame is just not drawn. If we fall behind by a lot (the machine was suspended, a debugger stopped us...) we do not try to
+ * catch up, we just start pacing again from now.
+ */
+public class FramePacer {
+
+    private static final Logger log = LoggerFactory.getLogger(FramePacer.class);
+
+    public static final double NTSC_FRAMES_PER_SECOND = 60.0988;
+    public static final double PAL_FRAMES_PER_SECOND = 50.007;
+    private static final long SPIN_THRESHOLD_NANOS = 1_000_000;
+    private static final int MAX_CONSECUTIVE_SKIPS = 4; // So that the screen still updates when we are way too slow
+    private static final int RESYNC_AFTER_FRAMES = 15; // ~250ms behind, we give up catching up
+    private static final int REPORT_EVERY_FRAMES = 600;
+
+    private final long frameNanos;
+    private final PacingHistogram histogram = new PacingHistogram();
+    private long nextDeadline = 0;
+    private int consecutiveSkips = 0;
+    private long skippedFrames = 0;
+    private long totalFrames = 0;
+
+    /**
+     * @param pal See {@link org.moriano.locones.cartridge.CartrigdeHeader#isPal()}
+     */
+    public FramePacer(boolean pal) {
+        this(pal ? PAL_FRAMES_PER_SECOND : NTSC_FRAMES_PER_SECOND);
+    }
+
+    public FramePacer(double framesPerSecond) {
+        this.frameNanos = Math.round(1_000_000_000d / framesPerSecond);
+    }
+
+    /**
+     * To be called once the emulation of a frame is done. Waits until it is time to start the next frame.
+     * @return true if the next frame has to be rendered, false if we are behind and its rendering should be skipped
+     */
+    public boolean waitForNextFrame() {
+        long now = System.nanoTime();
+        if (this.nextDeadline == 0) {
+            this.nextDeadline = now + this.frameNanos;
+            return true;
+        }
+
+        this.totalFrames++;
+        boolean renderNext = true;
+        long lateness = now - this.nextDeadline;
+        if (lateness < 0) {
+            waitUntil(this.nextDeadline);
+            this.histogram.record(System.nanoTime() - this.nextDeadline);
+            this.consecutiveSkips = 0;
+            this.nextDeadline += this.frameNanos;
+        } else {
+            this.histogram.record(lateness);
+            if (lateness > this.frameNanos * RESYNC_AFTER_FRAMES) {
+                this.nextDeadline = now + this.frameNanos;
+                this.consecutiveSkips = 0;
+            } else {
+                this.nextDeadline += this.frameNanos;
+                /*
+                Being a little late is fine, the next frames will make up for it, only skip if we are late by
+                more than half a frame
+                 */
+                if (lateness > this.frameNanos / 2 && this.consecutiveSkips < MAX_CONSECUTIVE_SKIPS) {
+                    this.consecutiveSkips++;
+                    this.skippedFrames++;
+                    renderNext = false;
+                } else {
+                    this.consecutiveSkips = 0;
+                }
+            }
+        }
+
+        if (this.totalFrames % REPORT_EVERY_FRAMES == 0) {
+            log.info("Frame pacing " + this.histogram + ", skipped " + this.skippedFrames + " of " + this.totalFrames);
+            log.debug("Pacing error histogram\n" + this.histogram.toHistogramString());
+            this.histogram.reset();
+        }
+        return renderNext;
+    }
+
+    /**
+     * Parks until SPIN_THRESHOLD_NANOS before the deadline, then spins
+     * @param deadline
+     */
+    private static void waitUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > SPIN_THRESHOLD_NANOS) {
+            LockSupport.parkNanos(remaining - SPIN_THRESHOLD_NANOS);
+        }
+        while (System.nanoTime() - deadline < 0) {
+            Thread.onSpinWait();
+        }
+    }
+
+    public PacingHistogram getHistogram() {
+        return histogram;
+    }
+
+    public long getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    public long getFrameNanos() {
+        return frameNanos;
+    }
+}
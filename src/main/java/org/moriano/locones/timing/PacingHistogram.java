@@ -0,0 +1,110 @@
+package org.moriano.locones.timing;
+
+import java.util.Arrays;
+
+/**
+ * Collects how far off (in nanoseconds) each frame was from the moment it should have been presented.
+ *
+ * Errors are stored in buckets of BUCKET_NANOS (0.1ms), anything above the last bucket goes into an overflow
+ * bucket. That is plenty of resolution to tell whether we are within the 0.5ms jitter we are aiming for.
+ */
+public class PacingHistogram {
+
+    public static final long BUCKET_NANOS = 100_000;
+    private static final int TOTAL_BUCKETS = 100; // Up to 10ms, plus overflow
+
+    private final long[] buckets = new long[TOTAL_BUCKETS + 1];
+    private long totalSamples = 0;
+    private long totalErrorNanos = 0;
+    private long maxErrorNanos = 0;
+
+    public void record(long errorNanos) {
+        long error = Math.abs(errorNanos);
+        int bucket = (int) Math.min(error / BUCKET_NANOS, TOTAL_BUCKETS);
+        this.buckets[bucket]++;
+        this.totalSamples++;
+        this.totalErrorNanos += error;
+        this.maxErrorNanos = Math.max(this.maxErrorNanos, error);
+    }
+
+    public long getTotalSamples() {
+        return totalSamples;
+    }
+
+    public long getMaxErrorNanos() {
+        return maxErrorNanos;
+    }
+
+    public double getMeanErrorNanos() {
+        return this.totalSamples == 0 ? 0 : this.totalErrorNanos / (double) this.totalSamples;
+    }
+
+    /**
+     * @param percentile From 0 to 100
+     * @return Upper bound (in nanoseconds) of the bucket in which the percentile falls, Long.MAX_VALUE if it falls
+     * in the overflow bucket
+     */
+    public long getPercentileNanos(double percentile) {
+        long target = (long) Math.ceil(this.totalSamples * percentile / 100d);
+        long seen = 0;
+        for (int i = 0; i < TOTAL_BUCKETS; i++) {
+            seen += this.buckets[i];
+            if (seen >= target) {
+                return (i + 1) * BUCKET_NANOS;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * @return How many samples were within the given error
+     */
+    public long countWithin(long errorNanos) {
+        long count = 0;
+        int lastBucket = (int) Math.min(errorNanos / BUCKET_NANOS, TOTAL_BUCKETS);
+        for (int i = 0; i < lastBucket; i++) {
+            count += this.buckets[i];
+        }
+        return count;
+    }
+
+    public void reset() {
+        Arrays.fill(this.buckets, 0);
+        this.totalSamples = 0;
+        this.totalErrorNanos = 0;
+        this.maxErrorNanos = 0;
+    }
+
+    /**
+     * One line per non empty bucket, like
+     *
+     *   0.0-0.1ms    532 ##########################
+     *   0.1-0.2ms     61 ###
+     * @return
+     */
+    public String toHistogramString() {
+        long maxCount = 1;
+        for (long count : this.buckets) {
+            maxCount = Math.max(maxCount, count);
+        }
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i <= TOTAL_BUCKETS; i++) {
+            if (this.buckets[i] == 0) {
+                continue;
+            }
+            String range = i == TOTAL_BUCKETS ? String.format(">%.1fms", i * BUCKET_NANOS / 1e6)
+                    : String.format("%.1f-%.1fms", i * BUCKET_NANOS / 1e6, (i + 1) * BUCKET_NANOS / 1e6);
+            result.append(String.format("  %-12s %6d %s%n", range, this.buckets[i],
+                    "#".repeat((int) (this.buckets[i] * 40 / maxCount))));
+        }
+        return result.toString();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PacingHistogram{frames=%d, mean=%.3fms, p50<=%.1fms, p99<=%.1fms, max=%.3fms, within0.5ms=%.1f%%}",
+                this.totalSamples, this.getMeanErrorNanos() / 1e6, this.getPercentileNanos(50) / 1e6,
+                this.getPercentileNanos(99) / 1e6, this.maxErrorNanos / 1e6,
+                this.totalSamples == 0 ? 0 : this.countWithin(500_000) * 100d / this.totalSamples);
+    }
+}
@@ -0,0 +1,204 @@
+package org.moriano.locones.trace;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finds the first instruction at which two binary traces (of two builds of the emulator, say) diverge, and shows how
+ * the two versions of that instruction differ. Made for traces far too long to compare line by line, the way
+ * {@link org.moriano.locones.util.LogStatus#printDiff(org.moriano.locones.util.LogStatus)} does.
+ *
+ * - When both traces have an index, their checkpoints (the chained hash of all the records before each entry, see
+ *   {@link TraceFormat}) are compared with a binary search: a few dozen longs, no records read, to find the single
+ *   interval in which they diverge.
+ * - The records of that interval (or of the whole traces, when there is no index) are then compared byte by byte,
+ *   straight from the memory mappings, in chunks of CHUNK_RECORDS spread over a ForkJoinPool. Chunks after a
+ *   difference already found are skipped.
+ *
+ * Usage: TraceDiff firstTracePath secondTracePath [threads]
+ */
+public class TraceDiff {
+
+    private static final Logger log = LoggerFactory.getLogger(TraceDiff.class);
+    static final int CHUNK_RECORDS = 1 << 20;
+    private static final int CONTEXT_RECORDS = 5;
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: TraceDiff firstTracePath secondTracePath [threads]");
+            System.exit(1);
+        }
+        ForkJoinPool pool = args.length > 2 ? new ForkJoinPool(Integer.parseInt(args[2])) : ForkJoinPool.commonPool();
+        try (TraceFile first = new TraceFile(args[0]); TraceFile second = new TraceFile(args[1])) {
+            long start = System.nanoTime();
+            long difference = findFirstDifference(first, second, pool, true);
+            log.info("Compared in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+            printDifference(first, second, difference);
+        }
+    }
+
+    /**
+     * @param first
+     * @param second
+     * @param pool Where the records are compared
+     * @param useCheckpoints false to compare every record, even if there is an index (to measure it)
+     * @return The first record (0 based) that is different, or that only one of the traces has. -1 if they are the
+     * same.
+     */
+    public static long findFirstDifference(TraceFile first, TraceFile second, ForkJoinPool pool, boolean useCheckpoints) {
+        long common = Math.min(first.getTotalRecords(), second.getTotalRecords());
+        long from = 0;
+        long to = common;
+        int entries = Math.min(first.getIndexEntries(), second.getIndexEntries());
+        if (useCheckpoints && entries > 0 && first.getIndexInterval() == second.getIndexInterval()) {
+            if (first.getTotalRecords() == second.getTotalRecords() && first.getHash() == second.getHash()) {
+                return -1;
+            }
+            /*
+            Checkpoints are chained, once they differ they differ all the way to the end. We want the last entry
+            that is still the same, entry 0 always is (nothing before it).
+             */
+            int low = 0;
+            int high = entries - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (first.getCheckpoint(middle) == second.getCheckpoint(middle)) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            from = (long) low * first.getIndexInterval();
+            if (low + 1 < entries) {
+                to = Math.min(common, from + first.getIndexInterval());
+            }
+        }
+        long difference = compare(first, second, from, to, pool);
+        if (difference < 0 && to < common) {
+            difference = compare(first, second, to, common, pool); // Only if two checkpoints collided, in theory
+        }
+        if (difference < 0 && first.getTotalRecords() != second.getTotalRecords()) {
+            difference = common;
+        }
+        return difference;
+    }
+
+    /**
+     * Prints both versions of the first instruction that is different, with a few of the instructions before it
+     * @param first
+     * @param second
+     * @param difference As found by {@link #findFirstDifference(TraceFile, TraceFile, ForkJoinPool, boolean)}
+     */
+    public static void printDifference(TraceFile first, TraceFile second, long difference) {
+        if (difference < 0) {
+            System.out.println("Both traces are the same, " + first.getTotalRecords() + " instructions");
+            return;
+        }
+        TraceRecord record = new TraceRecord();
+        for (long index = Math.max(0, difference - CONTEXT_RECORDS); index < difference; index++) {
+            first.read(index, record);
+            System.out.println("  " + record.toNesTestFormat(index + 1));
+        }
+        if (difference >= first.getTotalRecords() || difference >= second.getTotalRecords()) {
+            TraceFile longer = difference < first.getTotalRecords() ? first : second;
+            System.out.println("The first " + difference + " instructions are the same, only " + longer.getPath()
+                    + " goes on, for " + (longer.getTotalRecords() - difference) + " more");
+            return;
+        }
+        TraceRecord other = new TraceRecord();
+        first.read(difference, record);
+        second.read(difference, other);
+        System.out.println("- " + record.toNesTestFormat(difference + 1));
+        System.out.println("+ " + other.toNesTestFormat(difference + 1));
+        System.out.println("Instruction " + (difference + 1) + " is the first one that does not match");
+        for (String line : describeDifferences(record, other)) {
+            System.out.println(line);
+        }
+    }
+
+    /**
+     * @return One line per field that is different, first vs second
+     */
+    static List<String> describeDifferences(TraceRecord first, TraceRecord second) {
+        List<String> lines = new ArrayList<>();
+        addDifference(lines, "Cycles", first.getCycles(), second.getCycles());
+        addDifference(lines, "PC", first.getPc(), second.getPc());
+        addDifference(lines, "Opcode", first.getOpcode(), second.getOpcode());
+        addDifference(lines, "Operand length", first.getOperandLength(), second.getOperandLength());
+        for (int i = 0; i < Math.max(first.getOperandLength(), second.getOperandLength()); i++) {
+            String address = Integer.toHexString((first.getPc() + 1 + i) & 0xFFFF).toUpperCase();
+            addDifference(lines, "Operand byte read from " + address, first.getOperand(i), second.getOperand(i));
+        }
+        addDifference(lines, "Register A", first.getA(), second.getA());
+        addDifference(lines, "Register X", first.getX(), second.getX());
+        addDifference(lines, "Register Y", first.getY(), second.getY());
+        addDifference(lines, "Register P", first.getP(), second.getP());
+        addDifference(lines, "SP", first.getSp(), second.getSp());
+        String flags = "NV--DIZC";
+        for (int bit = 7; bit >= 0; bit--) {
+            boolean set = (first.getP() & (1 << bit)) != 0;
+            char flag = flags.charAt(7 - bit);
+            if (flag != '-' && set != ((second.getP() & (1 << bit)) != 0)) {
+                lines.add("  Flag " + flag + " is " + (set ? "set" : "clear") + " in the first one only");
+            }
+        }
+        return lines;
+    }
+
+    private static void addDifference(List<String> lines, String what, long first, long second) {
+        if (first != second) {
+            lines.add(what + " does not match, first vs second " + Long.toHexString(first).toUpperCase() + " -- "
+                    + Long.toHexString(second).toUpperCase());
+        }
+    }
+
+    private static long compare(TraceFile first, TraceFile second, long from, long to, ForkJoinPool pool) {
+        AtomicLong found = new AtomicLong(Long.MAX_VALUE);
+        pool.invoke(new Compare(first, second, from, to, found));
+        return found.get() == Long.MAX_VALUE ? -1 : found.get();
+    }
+
+    /**
+     * Compares a range of records, split in halves until they are CHUNK_RECORDS at most
+     */
+    private static class Compare extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final TraceFile first;
+        private final TraceFile second;
+        private final long from;
+        private final long to;
+        private final AtomicLong found; // The earliest difference so far
+
+        Compare(TraceFile first, TraceFile second, long from, long to, AtomicLong found) {
+            this.first = first;
+            this.second = second;
+            this.from = from;
+            this.to = to;
+            this.found = found;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.from >= this.found.get()) {
+                return; // There is a difference before this range already
+            }
+            if (this.to - this.from <= CHUNK_RECORDS) {
+                long difference = this.first.mismatch(this.second, this.from, this.to);
+                if (difference >= 0) {
+                    this.found.accumulateAndGet(difference, Math::min);
+                }
+                return;
+            }
+            long middle = (this.from + this.to) >>> 1;
+            invokeAll(new Compare(this.first, this.second, this.from, middle, this.found),
+                    new Compare(this.first, this.second, middle, this.to, this.found));
+        }
+    }
+}
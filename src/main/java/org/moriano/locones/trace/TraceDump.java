@@ -0,0 +1,46 @@
+package org.moriano.locones.trace;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Renders a binary trace (see {@link TraceWriter}) as text, in the same nestest.log like format NES prints when
+ * tracing as text, so that it can be diffed against nestest.log or against the text traces of older versions.
+ *
+ * Usage: TraceDump tracePath [first record, 0 based] [number of records]
+ */
+public class TraceDump {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: TraceDump tracePath [first record] [number of records]");
+            System.exit(1);
+        }
+        try (TraceFile trace = new TraceFile(args[0])) {
+            long first = args.length > 1 ? Long.parseLong(args[1]) : 0;
+            long count = args.length > 2 ? Long.parseLong(args[2]) : trace.getTotalRecords() - first;
+            Writer output = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.US_ASCII), 1 << 16);
+            dump(trace, first, count, output);
+            output.flush();
+        }
+    }
+
+    /**
+     * @param trace
+     * @param first 0 based
+     * @param count
+     * @param output One line per record
+     */
+    public static void dump(TraceFile trace, long first, long count, Writer output) throws IOException {
+        TraceRecord record = new TraceRecord();
+        long end = Math.min(first + count, trace.getTotalRecords());
+        for (long index = first; index < end; index++) {
+            trace.read(index, record);
+            output.write(record.toNesTestFormat(index + 1));
+            output.write('\n');
+        }
+    }
+}
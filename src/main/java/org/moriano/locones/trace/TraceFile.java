@@ -0,0 +1,279 @@
+package org.moriano.locones.trace;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A binary trace (see {@link TraceFormat}) opened for random access. Nothing is loaded, the records are memory
+ * mapped, so only the pages actually looked at are ever read from disk, however big the trace is (billions of
+ * instructions are tens of GBs).
+ *
+ * - Record N is read straight from where it is, records have a fixed size.
+ * - The record running at cycle C is found with a binary search over the index (an entry every INDEX_INTERVAL
+ *   records) and then another one over the records of that single interval, ~16 records looked at.
+ * - The save state kept with each entry of the index is there to run the emulator again from that point.
+ * - The checkpoints of the index tell whether two traces are the same up to that entry without reading them, see
+ *   {@link TraceDiff}.
+ *
+ * A single mapping can not go over 2GB, so the records are mapped in chunks of RECORDS_PER_MAPPING.
+ *
+ * Thread safe once open: it is all absolute reads on read only buffers, several threads can read the same file.
+ */
+public class TraceFile implements AutoCloseable {
+
+    private static final int RECORDS_PER_MAPPING = 1 << 26; // 1.5GB
+
+    private final String path;
+    private final FileChannel channel;
+    private final long totalRecords;
+    private final MappedByteBuffer[] mappings;
+    private final int indexInterval;
+    private final long hash; // 0 when there is no index
+    private final long[] entryCycles;
+    private final long[] checkpoints;
+    private final long[] entryStateOffsets;
+    private final int[] entryStateSizes;
+
+    public TraceFile(String path) {
+        this.path = path;
+        try {
+            this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+            ByteBuffer header = ByteBuffer.allocate(TraceFormat.HEADER_SIZE);
+            if (this.channel.read(header, 0) < TraceFormat.HEADER_SIZE) {
+                throw new IllegalArgumentException("Watch out, " + path + " is too short to be a trace");
+            }
+            long indexOffset = TraceFormat.readHeader(header.flip());
+            long recordsEnd = indexOffset > 0 ? indexOffset : this.channel.size();
+            this.totalRecords = (recordsEnd - TraceFormat.HEADER_SIZE) / TraceFormat.RECORD_SIZE;
+
+            int chunks = (int) ((this.totalRecords + RECORDS_PER_MAPPING - 1) / RECORDS_PER_MAPPING);
+            this.mappings = new MappedByteBuffer[chunks];
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                long first = (long) chunk * RECORDS_PER_MAPPING;
+                long records = Math.min(RECORDS_PER_MAPPING, this.totalRecords - first);
+                this.mappings[chunk] = this.channel.map(FileChannel.MapMode.READ_ONLY,
+                        TraceFormat.HEADER_SIZE + first * TraceFormat.RECORD_SIZE, records * TraceFormat.RECORD_SIZE);
+            }
+
+            if (indexOffset > 0) {
+                ByteBuffer indexHeader = ByteBuffer.allocate(TraceFormat.INDEX_HEADER_SIZE);
+                this.channel.read(indexHeader, indexOffset);
+                indexHeader.flip();
+                this.indexInterval = indexHeader.getInt();
+                int entries = indexHeader.getInt();
+                this.hash = indexHeader.getLong();
+                ByteBuffer index = this.channel.map(FileChannel.MapMode.READ_ONLY,
+                        indexOffset + TraceFormat.INDEX_HEADER_SIZE, (long) entries * TraceFormat.INDEX_ENTRY_SIZE);
+                this.entryCycles = new long[entries];
+                this.checkpoints = new long[entries];
+                this.entryStateOffsets = new long[entries];
+                this.entryStateSizes = new int[entries];
+                for (int i = 0; i < entries; i++) {
+                    index.getLong(); // Offset of the record, we know it already
+                    this.entryCycles[i] = index.getLong();
+                    this.checkpoints[i] = index.getLong();
+                    this.entryStateOffsets[i] = index.getLong();
+                    this.entryStateSizes[i] = index.getInt();
+                }
+            } else {
+                /*
+                The writer was not closed, there are records but no index. Searching by cycle still works, over
+                all the records.
+                 */
+                this.indexInterval = TraceFormat.INDEX_INTERVAL;
+                this.hash = 0;
+                this.entryCycles = new long[0];
+                this.checkpoints = new long[0];
+                this.entryStateOffsets = new long[0];
+                this.entryStateSizes = new int[0];
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot read " + path, e);
+        }
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return How many records (instructions) the trace has
+     */
+    public long getTotalRecords() {
+        return totalRecords;
+    }
+
+    /**
+     * @param index 0 based
+     * @param record Where the record goes
+     */
+    public void read(long index, TraceRecord record) {
+        if (index < 0 || index >= this.totalRecords) {
+            throw new IllegalArgumentException("Watch out, there is no record " + index + " in " + this.path
+                    + ", it has " + this.totalRecords);
+        }
+        record.read(this.mappings[(int) (index / RECORDS_PER_MAPPING)],
+                (int) (index % RECORDS_PER_MAPPING) * TraceFormat.RECORD_SIZE);
+    }
+
+    /**
+     * @param index 0 based
+     * @return The CPU cycles of the record, without reading the rest of it
+     */
+    public long getCycles(long index) {
+        return this.mappings[(int) (index / RECORDS_PER_MAPPING)]
+                .getLong((int) (index % RECORDS_PER_MAPPING) * TraceFormat.RECORD_SIZE + TraceFormat.CYCLES);
+    }
+
+    /**
+     * Finds the instruction that was running at a given cycle. Cycles only go up in a trace, unless a state was
+     * loaded while tracing (rewinding, for instance), in which case the answer is one of the instructions that ran
+     * at that cycle.
+     * @param cycles
+     * @return The index of the last record that started at or before cycles, -1 if they all start later
+     */
+    public long findByCycles(long cycles) {
+        long low = 0;
+        long high = this.totalRecords - 1;
+        /*
+        Narrow it down to a single interval with the index first, so that the search over the records only touches
+        the pages of that interval
+         */
+        int entries = this.entryCycles.length;
+        if (entries > 0) {
+            int entry = lastAtOrBefore(this.entryCycles, entries, cycles);
+            if (entry < 0) {
+                return -1;
+            }
+            low = (long) entry * this.indexInterval;
+            high = Math.min(high, low + this.indexInterval - 1);
+            if (entry == entries - 1) {
+                high = this.totalRecords - 1;
+            }
+        }
+        long found = -1;
+        while (low <= high) {
+            long middle = (low + high) >>> 1;
+            if (this.getCycles(middle) <= cycles) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return How many records there are between two entries of the index
+     */
+    public int getIndexInterval() {
+        return indexInterval;
+    }
+
+    /**
+     * @return Number of entries in the index, 0 if there is no index
+     */
+    public int getIndexEntries() {
+        return this.entryCycles.length;
+    }
+
+    /**
+     * @param entry
+     * @return The chained hash of all the records before the one of that entry
+     */
+    public long getCheckpoint(int entry) {
+        return this.checkpoints[entry];
+    }
+
+    /**
+     * @return The chained hash of all the records, only if {@link #getIndexEntries()} is not 0
+     */
+    public long getHash() {
+        return hash;
+    }
+
+    /**
+     * Compares the records of two traces, byte by byte, straight from the mappings
+     * @param other
+     * @param from First record to compare
+     * @param to Last record to compare, exclusive. Both traces must have that many records.
+     * @return The first record that is different, -1 if they are all the same
+     */
+    public long mismatch(TraceFile other, long from, long to) {
+        long index = from;
+        while (index < to) {
+            int chunk = (int) (index / RECORDS_PER_MAPPING);
+            int first = (int) (index % RECORDS_PER_MAPPING);
+            int count = (int) Math.min(to - index, RECORDS_PER_MAPPING - first);
+            ByteBuffer mine = this.mappings[chunk].slice(first * TraceFormat.RECORD_SIZE, count * TraceFormat.RECORD_SIZE);
+            ByteBuffer theirs = other.mappings[chunk].slice(first * TraceFormat.RECORD_SIZE, count * TraceFormat.RECORD_SIZE);
+            int mismatch = mine.mismatch(theirs);
+            if (mismatch >= 0) {
+                return index + mismatch / TraceFormat.RECORD_SIZE;
+            }
+            index += count;
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the closest save state at or before a record, to get the emulator there: load the state, then run
+     * (index - returned value) instructions.
+     * @param index 0 based
+     * @param state Where the state goes, see {@link org.moriano.locones.state.SaveState#allocate()}. Its limit is
+     *              set to the end of the state.
+     * @return The index of the record the state is for, -1 if there is none at or before index
+     */
+    public long readSnapshot(long index, ByteBuffer state) {
+        for (int entry = (int) Math.min(index / this.indexInterval, this.entryCycles.length - 1); entry >= 0; entry--) {
+            if (this.entryStateSizes[entry] > 0) {
+                state.clear().limit(this.entryStateSizes[entry]);
+                try {
+                    while (state.hasRemaining()) {
+                        if (this.channel.read(state, this.entryStateOffsets[entry] + state.position()) < 0) {
+                            throw new IllegalStateException("Watch out, " + this.path + " is truncated");
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException("Cannot read " + this.path, e);
+                }
+                state.flip();
+                return (long) entry * this.indexInterval;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.channel.close(); // The mappings go away when they are garbage collected
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot close " + this.path, e);
+        }
+    }
+
+    /**
+     * @return The index of the last value at or before target, -1 if there is none
+     */
+    private static int lastAtOrBefore(long[] values, int count, long target) {
+        int low = 0;
+        int high = count - 1;
+        int found = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (values[middle] <= target) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,115 @@
+package org.moriano.locones.trace;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The binary trace format: one fixed size record per instruction the CPU runs, so that tracing costs a handful of
+ * puts into a buffer instead of building (and printing) a line of text, see {@link TraceWriter}. The text is only
+ * built when someone wants to read it, see {@link TraceDump}.
+ *
+ * Header
+ *
+ * <pre>
+ *   0   4   Magic, "LNTR"
+ *   4   2   Version
+ *   6   2   Record size
+ *   8   8   Offset of the index, 0 if there is none (the writer was not closed)
+ * </pre>
+ *
+ * Then the records, one after the other, each one the state of the CPU right BEFORE the instruction ran (just like
+ * nestest.log)
+ *
+ * <pre>
+ *   0   8   CPU cycles, never wrapping (the CPU counts them in an int)
+ *   8   2   PC
+ *   10  1   Opcode
+ *   11  1   Operand length, 0 to 2
+ *   12  1   First operand byte (the one right after the opcode)
+ *   13  1   Second operand byte
+ *   14  1   A
+ *   15  1   X
+ *   16  1   Y
+ *   17  1   P
+ *   18  1   SP
+ *   19  3   Mnemonic, ASCII
+ *   22  2   Unused
+ * </pre>
+ *
+ * After the last record comes the index, a sparse one: an entry every INDEX_INTERVAL records, which is enough to
+ * find any record by cycle with a couple of binary searches (finding it by number needs no index at all, record N
+ * (0 based) is always at HEADER_SIZE + N * RECORD_SIZE). Each entry also points to a save state of the NES right
+ * before that record ran, so that a session can be picked up again from (near) any instruction.
+ *
+ * Each entry also carries a checkpoint: the hash of all the records before it, chained (see
+ * {@link org.moriano.locones.state.StateHash}). Two traces with the same checkpoint at entry i have the very same
+ * first i * interval records, so finding where two long traces diverge is a binary search over their checkpoints,
+ * see {@link TraceDiff}.
+ *
+ * <pre>
+ *   0   4   Index interval, in records
+ *   4   4   Number of entries
+ *   8   8   Hash of all the records
+ *   16  ... Entries, INDEX_ENTRY_SIZE bytes each
+ *             0   8   Offset of the record (entry i is for record i * interval)
+ *             8   8   Its CPU cycles
+ *             16  8   Checkpoint, hash of all the records before this one
+ *             24  8   Offset of the save state, see {@link org.moriano.locones.state.SaveState}
+ *             32  4   Size of the save state, 0 if there is none
+ *   ... ... The save states, one after the other
+ * </pre>
+ *
+ * Everything is big endian (the ByteBuffer default).
+ */
+public final class TraceFormat {
+
+    public static final int MAGIC = 0x4C4E5452; // LNTR
+    public static final int VERSION = 3;
+    public static final int HEADER_SIZE = 16;
+    public static final int RECORD_SIZE = 24;
+    public static final int INDEX_INTERVAL = 1 << 16;
+    public static final int INDEX_HEADER_SIZE = 16;
+    public static final int INDEX_ENTRY_SIZE = 36;
+    static final int INDEX_OFFSET = 8; // Where the offset of the index is, in the header
+
+    static final int CYCLES = 0;
+    static final int PC = 8;
+    static final int OPCODE = 10;
+    static final int OPERAND_LENGTH = 11;
+    static final int OPERANDS = 12;
+    static final int A = 14;
+    static final int X = 15;
+    static final int Y = 16;
+    static final int P = 17;
+    static final int SP = 18;
+    static final int MNEMONIC = 19;
+
+    private TraceFormat() {
+    }
+
+    public static void writeHeader(ByteBuffer header) {
+        header.putInt(MAGIC);
+        header.putShort((short) VERSION);
+        header.putShort((short) RECORD_SIZE);
+        header.putLong(0);
+    }
+
+    /**
+     * @param header Read from its current position onwards
+     * @return The offset of the index, 0 if there is none
+     */
+    public static long readHeader(ByteBuffer header) {
+        int magic = header.getInt();
+        if (magic != MAGIC) {
+            throw new IllegalArgumentException("Watch out, this is not a trace, magic is " + Integer.toHexString(magic));
+        }
+        int version = header.getShort();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Trace version " + version + " is not supported, only " + VERSION);
+        }
+        int recordSize = header.getShort();
+        if (recordSize != RECORD_SIZE) {
+            throw new IllegalArgumentException("Watch out, records of " + recordSize + " bytes, expected " + RECORD_SIZE);
+        }
+        return header.getLong();
+    }
+}
@@ -0,0 +1,119 @@
+package org.moriano.locones.trace;
+
+import org.moriano.locones.util.LogStatus;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A single record of a trace, see {@link TraceFormat}. Mutable, so that a whole trace can be read through a single
+ * instance without creating garbage for each instruction.
+ */
+public class TraceRecord {
+
+    private long cycles;
+    private int pc;
+    private int opcode;
+    private int operandLength;
+    private int operand0;
+    private int operand1;
+    private int a;
+    private int x;
+    private int y;
+    private int p;
+    private int sp;
+    private final char[] mnemonic = new char[3];
+
+    /**
+     * @param records
+     * @param offset Absolute position of the record in records, which is left untouched
+     */
+    public void read(ByteBuffer records, int offset) {
+        this.cycles = records.getLong(offset + TraceFormat.CYCLES);
+        this.pc = records.getShort(offset + TraceFormat.PC) & 0xFFFF;
+        this.opcode = records.get(offset + TraceFormat.OPCODE) & 0xFF;
+        this.operandLength = records.get(offset + TraceFormat.OPERAND_LENGTH);
+        this.operand0 = records.get(offset + TraceFormat.OPERANDS) & 0xFF;
+        this.operand1 = records.get(offset + TraceFormat.OPERANDS + 1) & 0xFF;
+        this.a = records.get(offset + TraceFormat.A) & 0xFF;
+        this.x = records.get(offset + TraceFormat.X) & 0xFF;
+        this.y = records.get(offset + TraceFormat.Y) & 0xFF;
+        this.p = records.get(offset + TraceFormat.P) & 0xFF;
+        this.sp = records.get(offset + TraceFormat.SP) & 0xFF;
+        for (int i = 0; i < this.mnemonic.length; i++) {
+            this.mnemonic[i] = (char) records.get(offset + TraceFormat.MNEMONIC + i);
+        }
+    }
+
+    /**
+     * The very same line {@link org.moriano.locones.NES} prints when tracing as text
+     * @param iteration 1 for the first instruction
+     * @return
+     */
+    public String toNesTestFormat(long iteration) {
+        String mnemonic = new String(this.mnemonic);
+        String firstArg = "";
+        String secondArg = "";
+        if (this.operandLength == 1) {
+            firstArg = toHex(this.operand0);
+            secondArg = "  ";
+        } else if (this.operandLength == 2) {
+            firstArg = toHex(this.operand1); // The CPU shows the high byte first
+            secondArg = toHex(this.operand0);
+        }
+        return LogStatus.toNesTestFormat(iteration, this.pc, this.opcode, mnemonic, firstArg, secondArg, this.a, this.x,
+                this.y, this.p, this.sp, this.cycles);
+    }
+
+    public long getCycles() {
+        return cycles;
+    }
+
+    public int getPc() {
+        return pc;
+    }
+
+    public int getOpcode() {
+        return opcode;
+    }
+
+    public int getOperandLength() {
+        return operandLength;
+    }
+
+    /**
+     * @param index 0 for the byte right after the opcode, 1 for the next one
+     * @return
+     */
+    public int getOperand(int index) {
+        return index == 0 ? this.operand0 : this.operand1;
+    }
+
+    public int getA() {
+        return a;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public int getP() {
+        return p;
+    }
+
+    public int getSp() {
+        return sp;
+    }
+
+    public String getMnemonic() {
+        return new String(this.mnemonic);
+    }
+
+    private static String toHex(int value) {
+        String hex = Integer.toHexString(value).toUpperCase();
+        return hex.length() == 1 ? "0" + hex : hex;
+    }
+}
@@ -0,0 +1,73 @@
+package org.moriano.locones.trace;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+/**
+ * Pages through a binary trace in the terminal, jumping straight to any instruction or cycle, no matter how big the
+ * trace is, see {@link TraceFile}. Commands
+ *
+ * <pre>
+ *   n 1234      Go to instruction 1234 (1 based, like the text traces)
+ *   c 56789     Go to the instruction that was running at cycle 56789
+ *   (enter)     Next page
+ *   b           Previous page
+ *   q           Quit
+ * </pre>
+ *
+ * Usage: TraceViewer tracePath [lines per page]
+ */
+public class TraceViewer {
+
+    private static final int DEFAULT_PAGE_SIZE = 20;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: TraceViewer tracePath [lines per page]");
+            System.exit(1);
+        }
+        int pageSize = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PAGE_SIZE;
+        BufferedReader input = new BufferedReader(new InputStreamReader(System.in));
+        try (TraceFile trace = new TraceFile(args[0])) {
+            System.out.println(trace.getTotalRecords() + " instructions, " + trace.getIndexEntries()
+                    + " index entries");
+            TraceRecord record = new TraceRecord();
+            long first = 0;
+            while (true) {
+                long end = Math.min(first + pageSize, trace.getTotalRecords());
+                for (long index = first; index < end; index++) {
+                    trace.read(index, record);
+                    System.out.println(record.toNesTestFormat(index + 1));
+                }
+                System.out.print("> ");
+                String command = input.readLine();
+                if (command == null || command.trim().equals("q")) {
+                    return;
+                }
+                command = command.trim();
+                try {
+                    if (command.isEmpty()) {
+                        first = end;
+                    } else if (command.equals("b")) {
+                        first -= pageSize;
+                    } else if (command.startsWith("n ")) {
+                        first = Long.parseLong(command.substring(2).trim()) - 1;
+                    } else if (command.startsWith("c ")) {
+                        long found = trace.findByCycles(Long.parseLong(command.substring(2).trim()));
+                        if (found < 0) {
+                            System.out.println("Nothing ran that early");
+                        } else {
+                            first = found;
+                        }
+                    } else {
+                        System.out.println("Unknown command " + command);
+                    }
+                } catch (NumberFormatException e) {
+                    System.out.println("Not a number, " + e.getMessage());
+                }
+                first = Math.max(0, Math.min(first, trace.getTotalRecords() - 1));
+            }
+        }
+    }
+}
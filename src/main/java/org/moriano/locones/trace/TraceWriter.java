@@ -0,0 +1,355 @@
+package org.moriano.locones.trace;
+
+import org.moriano.locones.state.StateHash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes a binary trace (see {@link TraceFormat}) without slowing the emulation down to the speed of the disk.
+ *
+ * Printing a line of text per instruction (String.format plus System.out.println) limits us to a few hundred
+ * thousand instructions per second. Here, the emulation thread only puts the fields of each instruction into a
+ * direct ByteBuffer. There are two of them (double buffering): once one is full it is handed over to a background
+ * thread that writes it to a FileChannel in one go, while the emulation thread carries on filling the other one.
+ * The emulation thread only ever waits if the disk cannot keep up at all.
+ *
+ * Every INDEX_INTERVAL records an entry of the index is kept, along with a save state when the NES gives one (see
+ * {@link #wantsSnapshot()}). The chained hash of the records (the checkpoints of the index) is worked out by the
+ * background thread, right before writing each buffer. The states go to a temporary file next to the trace until
+ * {@link #close()} appends the index and the states after the records.
+ *
+ * {@link #append} is meant to be called from a single thread, the emulation thread. {@link #close()} has to be
+ * called to get the last records (up to a whole buffer) and the index into the file, from that same thread and once
+ * it is done appending: the last buffer and the count of records are not safe to touch from anywhere else. Watch
+ * out, that rules out closing from a shutdown hook while the emulation carries on, see {@link
+ * org.moriano.locones.NES#stop(long)}. A trace that is never closed has no index (its header says so), and only
+ * the whole buffers written so far.
+ */
+public class TraceWriter implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(TraceWriter.class);
+    public static final int DEFAULT_BUFFER_RECORDS = 1 << 15; // 768KB per buffer
+    private static final ByteBuffer END = ByteBuffer.allocate(0); // Tells the writer thread there is nothing else
+
+    private final String path;
+    private final FileChannel channel;
+    private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<>(2);
+    private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(2);
+    private final Thread writerThread;
+    private ByteBuffer current;
+    private volatile IOException failure;
+    private boolean closed = false;
+
+    private final Path statesPath;
+    private FileChannel states; // Only opened when the first snapshot comes
+    private long statesSize = 0;
+    private long[] entryCycles = new long[64];
+    private long[] entryStateOffsets = new long[64]; // Relative to the start of the states
+    private int[] entryStateSizes = new int[64];
+    private int entries = 0;
+    private long lastCycles = 0;
+
+    /*
+    Only touched by the background thread until it is done
+     */
+    private long hash = StateHash.SEED;
+    private long hashedRecords = 0;
+    private long[] checkpoints = new long[64];
+
+    private int pendingStateSize = 0;
+
+    private long records = 0;
+    private long stallNanos = 0; // Time the emulation thread spent waiting for a buffer
+
+    public TraceWriter(String path) {
+        this(path, DEFAULT_BUFFER_RECORDS);
+    }
+
+    /**
+     * @param path The file to write, replaced if it exists
+     * @param bufferRecords How many records each of the two buffers holds
+     */
+    public TraceWriter(String path, int bufferRecords) {
+        this.path = path;
+        this.statesPath = Paths.get(path + ".states");
+        try {
+            this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            ByteBuffer header = ByteBuffer.allocate(TraceFormat.HEADER_SIZE);
+            TraceFormat.writeHeader(header);
+            header.flip();
+            while (header.hasRemaining()) {
+                this.channel.write(header);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot create " + path, e);
+        }
+        this.current = ByteBuffer.allocateDirect(bufferRecords * TraceFormat.RECORD_SIZE);
+        this.free.add(ByteBuffer.allocateDirect(bufferRecords * TraceFormat.RECORD_SIZE));
+        this.writerThread = new Thread(this::writeBuffers, "trace-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Adds the record of an instruction, with the state of the CPU right before it ran
+     * @param cycles
+     * @param pc
+     * @param opcode
+     * @param operandLength 0 to 2
+     * @param operand0 The byte right after the opcode
+     * @param operand1 The next one
+     * @param a
+     * @param x
+     * @param y
+     * @param p
+     * @param sp
+     * @param mnemonic 3 letters
+     */
+    public void append(long cycles, int pc, int opcode, int operandLength, int operand0, int operand1,
+                       int a, int x, int y, int p, int sp, String mnemonic) {
+        if (!this.current.hasRemaining()) {
+            this.swapBuffers();
+        }
+        cycles = this.unwrap(cycles);
+        if (this.records % TraceFormat.INDEX_INTERVAL == 0) {
+            this.addEntry(cycles);
+        }
+        ByteBuffer buffer = this.current;
+        buffer.putLong(cycles);
+        buffer.putShort((short) pc);
+        buffer.put((byte) opcode);
+        buffer.put((byte) operandLength);
+        buffer.put((byte) operand0);
+        buffer.put((byte) operand1);
+        buffer.put((byte) a);
+        buffer.put((byte) x);
+        buffer.put((byte) y);
+        buffer.put((byte) p);
+        buffer.put((byte) sp);
+        buffer.put((byte) mnemonic.charAt(0));
+        buffer.put((byte) mnemonic.charAt(1));
+        buffer.put((byte) mnemonic.charAt(2));
+        buffer.putShort((short) 0);
+        this.records++;
+    }
+
+    /**
+     * @return true if the next record appended gets an entry in the index, a save state for it would be welcome
+     * then, see {@link #addSnapshot(ByteBuffer)}
+     */
+    public boolean wantsSnapshot() {
+        return this.records % TraceFormat.INDEX_INTERVAL == 0;
+    }
+
+    /**
+     * Keeps the state of the machine right before the next record, only when {@link #wantsSnapshot()}
+     * @param state A save state, from its position to its limit
+     */
+    public void addSnapshot(ByteBuffer state) {
+        if (!this.wantsSnapshot() || this.pendingStateSize > 0) {
+            throw new IllegalStateException("Watch out, a single snapshot goes with each record of the index");
+        }
+        int size = state.remaining();
+        try {
+            if (this.states == null) {
+                this.states = FileChannel.open(this.statesPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            }
+            while (state.hasRemaining()) {
+                this.states.write(state);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot write to " + this.statesPath, e);
+        }
+        /*
+        The entry itself is only added with the record, this state belongs to it
+         */
+        this.pendingStateSize = size;
+    }
+
+    /**
+     * @return Records appended so far
+     */
+    public long getRecords() {
+        return records;
+    }
+
+    /**
+     * @return Nanoseconds the emulation thread spent waiting for the disk, ideally 0
+     */
+    public long getStallNanos() {
+        return stallNanos;
+    }
+
+    /**
+     * Writes whatever is left and closes the file
+     */
+    @Override
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            this.full.put(this.current);
+            this.full.put(END);
+            this.writerThread.join();
+            this.checkFailure();
+            this.writeIndex();
+            this.channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while closing " + this.path, e);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot close " + this.path, e);
+        }
+        log.info("Wrote " + this.records + " records to " + this.path + ", stalled for "
+                + this.stallNanos / 1_000_000 + "ms");
+    }
+
+    /**
+     * The CPU counts cycles in an int, which wraps after about 40 minutes (taken as unsigned). Going back a bit
+     * (loading a state) is fine, going from the top quarter of the range to the bottom one is a wrap.
+     */
+    private long unwrap(long cycles) {
+        long low = cycles & 0xFFFFFFFFL;
+        long lastLow = this.lastCycles & 0xFFFFFFFFL;
+        long high = this.lastCycles & ~0xFFFFFFFFL;
+        if (lastLow >= 0xC0000000L && low < 0x40000000L) {
+            high += 1L << 32;
+        }
+        this.lastCycles = high | low;
+        return this.lastCycles;
+    }
+
+    private void addEntry(long cycles) {
+        if (this.entries == this.entryCycles.length) {
+            this.entryCycles = Arrays.copyOf(this.entryCycles, this.entries * 2);
+            this.entryStateOffsets = Arrays.copyOf(this.entryStateOffsets, this.entries * 2);
+            this.entryStateSizes = Arrays.copyOf(this.entryStateSizes, this.entries * 2);
+        }
+        this.entryCycles[this.entries] = cycles;
+        this.entryStateOffsets[this.entries] = this.statesSize;
+        this.entryStateSizes[this.entries] = this.pendingStateSize;
+        this.statesSize += this.pendingStateSize;
+        this.pendingStateSize = 0;
+        this.entries++;
+    }
+
+    /**
+     * Appends the index and the states right after the records, and points the header to them
+     */
+    private void writeIndex() throws IOException {
+        long indexOffset = TraceFormat.HEADER_SIZE + this.records * TraceFormat.RECORD_SIZE;
+        long statesOffset = indexOffset + TraceFormat.INDEX_HEADER_SIZE
+                + (long) this.entries * TraceFormat.INDEX_ENTRY_SIZE;
+        ByteBuffer index = ByteBuffer.allocate((int) (statesOffset - indexOffset));
+        index.putInt(TraceFormat.INDEX_INTERVAL);
+        index.putInt(this.entries);
+        index.putLong(this.hash);
+        for (int i = 0; i < this.entries; i++) {
+            index.putLong(TraceFormat.HEADER_SIZE + (long) i * TraceFormat.INDEX_INTERVAL * TraceFormat.RECORD_SIZE);
+            index.putLong(this.entryCycles[i]);
+            index.putLong(this.checkpoints[i]);
+            index.putLong(statesOffset + this.entryStateOffsets[i]);
+            index.putInt(this.entryStateSizes[i]);
+        }
+        index.flip();
+        this.channel.position(indexOffset);
+        while (index.hasRemaining()) {
+            this.channel.write(index);
+        }
+        if (this.states != null) {
+            long copied = 0;
+            while (copied < this.statesSize) {
+                copied += this.states.transferTo(copied, this.statesSize - copied, this.channel);
+            }
+            this.states.close();
+            Files.delete(this.statesPath);
+        }
+        ByteBuffer offset = ByteBuffer.allocate(8).putLong(indexOffset).flip();
+        while (offset.hasRemaining()) {
+            this.channel.write(offset, TraceFormat.INDEX_OFFSET + offset.position());
+        }
+    }
+
+    private void swapBuffers() {
+        this.checkFailure();
+        long start = System.nanoTime();
+        try {
+            this.full.put(this.current);
+            this.current = this.free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while tracing to " + this.path, e);
+        }
+        this.stallNanos += System.nanoTime() - start;
+    }
+
+    private void checkFailure() {
+        if (this.failure != null) {
+            throw new RuntimeException("Cannot write to " + this.path, this.failure);
+        }
+    }
+
+    /**
+     * Chains the records of a buffer into the hash, keeping the hash as it is right before each record that has an
+     * entry in the index
+     */
+    private void hashRecords(ByteBuffer buffer) {
+        long hash = this.hash;
+        for (int offset = 0; offset < buffer.limit(); offset += TraceFormat.RECORD_SIZE) {
+            if (this.hashedRecords % TraceFormat.INDEX_INTERVAL == 0) {
+                int checkpoint = (int) (this.hashedRecords / TraceFormat.INDEX_INTERVAL);
+                if (checkpoint == this.checkpoints.length) {
+                    this.checkpoints = Arrays.copyOf(this.checkpoints, checkpoint * 2);
+                }
+                this.checkpoints[checkpoint] = hash;
+            }
+            hash = StateHash.add(hash, buffer.getLong(offset));
+            hash = StateHash.add(hash, buffer.getLong(offset + 8));
+            hash = StateHash.add(hash, buffer.getLong(offset + 16));
+            this.hashedRecords++;
+        }
+        this.hash = hash;
+    }
+
+    /**
+     * The background thread, it writes full buffers and gives them back until it gets END
+     */
+    private void writeBuffers() {
+        try {
+            while (true) {
+                ByteBuffer buffer = this.full.take();
+                if (buffer == END) {
+                    return;
+                }
+                buffer.flip();
+                this.hashRecords(buffer);
+                try {
+                    while (buffer.hasRemaining() && this.failure == null) {
+                        this.channel.write(buffer);
+                    }
+                } catch (IOException e) {
+                    this.failure = e; // Reported on the emulation thread, buffers keep going round so it never blocks
+                }
+                buffer.clear();
+                this.free.put(buffer);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package org.moriano.locones.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The expected trace of nestest (nestestCPUCycles.log, in the resources), to check the CPU against it instruction
+ * by instruction. It looks like
+ *
+ * <pre>
+ * C000  4C F5 C5  JMP $C5F5                       A:00 X:00 Y:00 P:24 SP:FD CPUC:0
+ *       READ      $C000
+ *       READ      $C001
+ *       READ      $C002
+ * C5F5  A2 00     LDX #$00                        A:00 X:00 Y:00 P:24 SP:FD CPUC:3
+ * </pre>
+ *
+ * Each instruction line is the state BEFORE it ran (CPUC being the CPU cycles so far), followed by the memory
+ * operations it did.
+ *
+ * The log is ~35K lines, so rather than a LogStatus (plus its strings) per instruction, it is parsed straight from
+ * the bytes of the stream, in a single pass, into one primitive array per column. Only the writes are kept out of
+ * the memory operations (that is all we compare), as the addresses written by each instruction, without repeats.
+ *
+ * It comes from the classpath, and it is loaded once, the first time {@link #nestest()} is called, and shared from
+ * then on: nothing is loaded unless we are actually checking against it.
+ */
+public final class GoldenLog {
+
+    public static final String NESTEST_RESOURCE = "/nestestCPUCycles.log";
+
+    private int size = 0;
+    private int[] addresses = new int[1024];
+    private int[] instructions = new int[1024]; // The 3 letters of the mnemonic, one per byte
+    private byte[] registersA = new byte[1024];
+    private byte[] registersX = new byte[1024];
+    private byte[] registersY = new byte[1024];
+    private byte[] registersP = new byte[1024];
+    private byte[] registersSP = new byte[1024];
+    private int[] cycles = new int[1024];
+    private int[] writesStart = new int[1025]; // Writes of line i are writes[writesStart[i]] to writes[writesStart[i + 1]]
+    private int[] writes = new int[1024];
+    private int totalWrites = 0;
+
+    private GoldenLog() {
+    }
+
+    /**
+     * Initialization on demand holder, the log is only read the first time it is asked for (and only once, even
+     * with several threads asking)
+     */
+    private static class Nestest {
+        private static final GoldenLog LOG = loadResource(NESTEST_RESOURCE);
+    }
+
+    /**
+     * @return The nestest log, shared
+     */
+    public static GoldenLog nestest() {
+        return Nestest.LOG;
+    }
+
+    /**
+     * @param resource Path of the log in the classpath
+     * @return
+     */
+    public static GoldenLog loadResource(String resource) {
+        InputStream input = GoldenLog.class.getResourceAsStream(resource);
+        if (input == null) {
+            throw new IllegalArgumentException("Watch out, there is no " + resource + " in the classpath");
+        }
+        try (InputStream stream = input) {
+            return load(stream);
+        } catch (IOException e) {
+            throw new RuntimeException("Problems while reading " + resource, e);
+        }
+    }
+
+    /**
+     * @param input Read up to its end, left open
+     * @return
+     */
+    public static GoldenLog load(InputStream input) throws IOException {
+        GoldenLog log = new GoldenLog();
+        LineReader reader = new LineReader(input);
+        byte[] line = new byte[256];
+        int length;
+        while ((length = reader.readLine(line)) >= 0) {
+            if (length == 0) {
+                continue;
+            }
+            if (line[0] != ' ') {
+                log.addInstruction(line, length);
+            } else if (log.size > 0 && startsWith(line, length, "      WRITE     $")) {
+                log.addWrite(parseHex(line, 17, length));
+            }
+        }
+        log.writesStart[log.size] = log.totalWrites;
+        return log;
+    }
+
+    /**
+     * @return Number of instructions
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param line 1 based, as the iterations of the NES
+     * @return The expected state before that instruction ran, with its writes, null past the end of the log
+     */
+    public LogStatus getLogStatus(int line) {
+        if (line < 1 || line > this.size) {
+            return null;
+        }
+        int i = line - 1;
+        LogStatus status = new LogStatus(this.addresses[i], this.getInstruction(line), this.getRegisterA(line),
+                this.getRegisterX(line), this.getRegisterY(line), this.getRegisterP(line), this.getRegisterSP(line),
+                this.cycles[i]);
+        List<String> operations = new ArrayList<>();
+        for (int w = this.writesStart[i]; w < this.writesStart[i + 1]; w++) {
+            operations.add(String.format("      WRITE     $%04X", this.writes[w]));
+        }
+        status.setMemoryOperations(operations);
+        return status;
+    }
+
+    /*
+    All of these take the line, 1 based
+     */
+
+    public int getAddress(int line) {
+        return this.addresses[line - 1];
+    }
+
+    public String getInstruction(int line) {
+        int packed = this.instructions[line - 1];
+        return new String(new char[]{(char) (packed >> 16), (char) ((packed >> 8) & 0xFF), (char) (packed & 0xFF)});
+    }
+
+    public int getRegisterA(int line) {
+        return this.registersA[line - 1] & 0xFF;
+    }
+
+    public int getRegisterX(int line) {
+        return this.registersX[line - 1] & 0xFF;
+    }
+
+    public int getRegisterY(int line) {
+        return this.registersY[line - 1] & 0xFF;
+    }
+
+    public int getRegisterP(int line) {
+        return this.registersP[line - 1] & 0xFF;
+    }
+
+    public int getRegisterSP(int line) {
+        return this.registersSP[line - 1] & 0xFF;
+    }
+
+    public int getCycles(int line) {
+        return this.cycles[line - 1];
+    }
+
+    /**
+     * @return How many different addresses the instruction wrote to
+     */
+    public int getWriteCount(int line) {
+        return this.writesStart[line] - this.writesStart[line - 1];
+    }
+
+    /**
+     * @param line
+     * @param index 0 to {@link #getWriteCount(int)}, in the order of the log
+     * @return
+     */
+    public int getWrite(int line, int index) {
+        return this.writes[this.writesStart[line - 1] + index];
+    }
+
+    /**
+     * Fixed columns, see the example at the top
+     */
+    private void addInstruction(byte[] line, int length) {
+        if (this.size == this.addresses.length) {
+            this.grow();
+        }
+        int i = this.size;
+        this.writesStart[i] = this.totalWrites;
+        this.addresses[i] = parseHex(line, 0, 4);
+        this.instructions[i] = (line[16] & 0xFF) << 16 | (line[17] & 0xFF) << 8 | (line[18] & 0xFF);
+        this.registersA[i] = (byte) parseHex(line, 50, 52);
+        this.registersX[i] = (byte) parseHex(line, 55, 57);
+        this.registersY[i] = (byte) parseHex(line, 60, 62);
+        this.registersP[i] = (byte) parseHex(line, 65, 67);
+        this.registersSP[i] = (byte) parseHex(line, 71, 73);
+        this.cycles[i] = parseDecimal(line, 79, length);
+        this.size++;
+    }
+
+    /**
+     * Writes belong to the last instruction, repeats are dropped
+     */
+    private void addWrite(int address) {
+        for (int w = this.writesStart[this.size - 1]; w < this.totalWrites; w++) {
+            if (this.writes[w] == address) {
+                return;
+            }
+        }
+        if (this.totalWrites == this.writes.length) {
+            this.writes = Arrays.copyOf(this.writes, this.totalWrites * 2);
+        }
+        this.writes[this.totalWrites++] = address;
+    }
+
+    private void grow() {
+        int capacity = this.size * 2;
+        this.addresses = Arrays.copyOf(this.addresses, capacity);
+        this.instructions = Arrays.copyOf(this.instructions, capacity);
+        this.registersA = Arrays.copyOf(this.registersA, capacity);
+        this.registersX = Arrays.copyOf(this.registersX, capacity);
+        this.registersY = Arrays.copyOf(this.registersY, capacity);
+        this.registersP = Arrays.copyOf(this.registersP, capacity);
+        this.registersSP = Arrays.copyOf(this.registersSP, capacity);
+        this.cycles = Arrays.copyOf(this.cycles, capacity);
+        this.writesStart = Arrays.copyOf(this.writesStart, capacity + 1);
+    }
+
+    /**
+     * Splits a stream in lines of bytes, going through it a chunk at a time
+     */
+    private static class LineReader {
+
+        private final InputStream input;
+        private final byte[] buffer = new byte[1 << 16];
+        private int position = 0;
+        private int limit = 0;
+
+        LineReader(InputStream input) {
+            this.input = input;
+        }
+
+        /**
+         * @return Length of the line read into line (without the line break, cut if longer than line), -1 at the end
+         */
+        int readLine(byte[] line) throws IOException {
+            int length = 0;
+            while (true) {
+                if (this.position == this.limit) {
+                    this.limit = this.input.read(this.buffer);
+                    this.position = 0;
+                    if (this.limit <= 0) {
+                        this.limit = 0;
+                        return length == 0 ? -1 : length;
+                    }
+                }
+                byte value = this.buffer[this.position++];
+                if (value == '\n') {
+                    return length > 0 && line[length - 1] == '\r' ? length - 1 : length;
+                }
+                if (length < line.length) {
+                    line[length++] = value;
+                }
+            }
+        }
+    }
+
+    private static boolean startsWith(byte[] line, int length, String prefix) {
+        if (length < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (line[i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int parseHex(byte[] line, int from, int to) {
+        int value = 0;
+        for (int i = from; i < to && line[i] != ' '; i++) {
+            value = value << 4 | Character.digit(line[i], 16);
+        }
+        return value;
+    }
+
+    private static int parseDecimal(byte[] line, int from, int to) {
+        int value = 0;
+        for (int i = from; i < to && line[i] >= '0' && line[i] <= '9'; i++) {
+            value = value * 10 + line[i] - '0';
+        }
+        return value;
+    }
+}
@@ -79,6 +79,18 @@ public class LogStatus {
     }
 
     public String toNesTestFormat(int iteration, int cpuCode, String cpuInstruction, String firstInstructionArg, String secondInstructionArg) {
+        return toNesTestFormat(iteration, this.getAddress(), cpuCode, cpuInstruction, firstInstructionArg,
+                secondInstructionArg, this.getRegisterA(), this.getRegisterX(), this.getRegisterY(),
+                this.getRegisterP(), this.getRegisterSP(), this.getCycles());
+    }
+
+    /**
+     * Same as {@link #toNesTestFormat(int, int, String, String, String)}, for when there is no LogStatus at hand, or
+     * when the cycles or the iteration do not fit in an int anymore (binary traces of long sessions)
+     */
+    public static String toNesTestFormat(long iteration, int address, int cpuCode, String cpuInstruction,
+                                         String firstInstructionArg, String secondInstructionArg, int registerA,
+                                         int registerX, int registerY, int registerP, int registerSP, long cycles) {
         // Print
         String iterationStr = "";
         if(iteration < 10) {
@@ -87,17 +99,17 @@ public class LogStatus {
             iterationStr = "  "+iteration;
         } else if(iteration < 1000) {
             iterationStr = " "+iteration;
-        } else if(iteration < 10000) {
+        } else {
             iterationStr = " "+iteration;
         }
 
-        String hexPC = this.registerToHexLeadingZero(this.getAddress());
-        String hex = this.registerToHexLeadingZero(cpuCode);
-        String oldAHex = this.registerToHexLeadingZero(this.getRegisterA());
-        String hexRegisterP = this.registerToHexLeadingZero(this.getRegisterP());
-        String oldXHex = this.registerToHexLeadingZero(this.getRegisterX());
-        String oldYHex = this.registerToHexLeadingZero(this.getRegisterY());
-        String oldSPHex = this.registerToHexLeadingZero(this.getRegisterSP());
+        String hexPC = registerToHexLeadingZero(address);
+        String hex = registerToHexLeadingZero(cpuCode);
+        String oldAHex = registerToHexLeadingZero(registerA);
+        String hexRegisterP = registerToHexLeadingZero(registerP);
+        String oldXHex = registerToHexLeadingZero(registerX);
+        String oldYHex = registerToHexLeadingZero(registerY);
+        String oldSPHex = registerToHexLeadingZero(registerSP);
 
 
         String firstAndSecondInstructions = firstInstructionArg + "-" + secondInstructionArg;
@@ -120,11 +132,11 @@ public class LogStatus {
             instructionArgument += " ";
         }
 
-        int ppuX = Math.floorDiv((this.getCycles() * 3),  341);
-        int ppuY = (this.getCycles() * 3) - (ppuX * 341);
+        long ppuX = Math.floorDiv((cycles * 3),  341);
+        long ppuY = (cycles * 3) - (ppuX * 341);
 
         return String.format("%s %s  %s %s  %s %s\t\t\tA:%s X:%s Y:%s P:%s SP:%s PPU: %d, %d CPUC:%d",
-                iterationStr, hexPC, hex, firstAndSecondInstructions, instruction, instructionArgument, oldAHex, oldXHex, oldYHex, hexRegisterP, oldSPHex, ppuX, ppuY, this.getCycles());
+                iterationStr, hexPC, hex, firstAndSecondInstructions, instruction, instructionArgument, oldAHex, oldXHex, oldYHex, hexRegisterP, oldSPHex, ppuX, ppuY, cycles);
 
     }
 
@@ -158,7 +170,7 @@ public class LogStatus {
 
     }
 
-    private String registerToHexLeadingZero(int regValue) {
+    private static String registerToHexLeadingZero(int regValue) {
         if (regValue <= 0xF) {
             return "0"+Integer.toHexString(regValue).toUpperCase();
         } else {
@@ -0,0 +1,92 @@
+package org.moriano.locones;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.moriano.locones.cartridge.Cartridge;
+import org.moriano.locones.memory.Memory;
+import org.moriano.locones.screen.HeadlessFrameSink;
+import org.moriano.locones.util.GoldenLog;
+import org.moriano.locones.util.LogStatus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Runs nestest from $C000 (the automated mode, no PPU output needed) and checks every instruction against the golden
+ * log, see {@link GoldenLog}: PC, instruction, registers and cycles before it ran, and the addresses it wrote to.
+ *
+ * This is what NES does when created with checkNestTestLog, but without printing every instruction and without the
+ * System.exit at the end, so that it can gate changes to the CPU and Memory. The machine is a regular NES with no
+ * display, stepped one instruction at a time, so the test runs the very same wiring the emulator does.
+ *
+ * Watch out, the timeout is there on purpose: the whole log should run in well under a second, if it does not
+ * anymore something made the CPU way slower.
+ */
+public class NestestTest {
+
+    private static final int NESTEST_START = 0xC000;
+
+    private static Cartridge cartridge;
+    private static GoldenLog goldenLog;
+
+    @BeforeAll
+    static void load() {
+        cartridge = Cartridge.nestest();
+        goldenLog = GoldenLog.nestest();
+    }
+
+    @Test
+    @Timeout(value = 1, unit = TimeUnit.SECONDS)
+    void matchesGoldenLog() {
+        NES nes = new NES(cartridge, NESTEST_START, false, new HeadlessFrameSink());
+        CPU cpu = nes.getCpu();
+        Memory memory = nes.getMemory();
+        memory.setRecordOperations(true);
+
+        for (int line = 1; line <= goldenLog.size(); line++) {
+            LogStatus current = nes.runInstruction();
+            LogStatus expected = goldenLog.getLogStatus(line);
+            if (!current.equals(expected)) {
+                fail("Instruction " + line + " does not match\nexpected "
+                        + this.describe(expected, line, cpu) + "\ncurrent  " + this.describe(current, line, cpu));
+            }
+            assertEquals(expectedWrites(line), writes(memory.getOperationsHistory()),
+                    "Addresses written by instruction " + line + " do not match, "
+                            + this.describe(current, line, cpu));
+            memory.clearOpHistory();
+        }
+    }
+
+    private String describe(LogStatus status, int line, CPU cpu) {
+        return status.toNesTestFormat(line, cpu.getLastCode(), status.getInstruction(),
+                cpu.getFirstInstructionArg(), cpu.getSecondInstructionArg());
+    }
+
+    private static List<Integer> expectedWrites(int line) {
+        TreeSet<Integer> writes = new TreeSet<>();
+        for (int i = 0; i < goldenLog.getWriteCount(line); i++) {
+            writes.add(goldenLog.getWrite(line, i));
+        }
+        return new ArrayList<>(writes);
+    }
+
+    /**
+     * @param operations As recorded by Memory, "      WRITE     $ADDR" and "      READ      $ADDR"
+     * @return The different addresses written to, sorted
+     */
+    private static List<Integer> writes(List<String> operations) {
+        TreeSet<Integer> writes = new TreeSet<>();
+        for (String operation : operations) {
+            if (operation.contains("WRITE")) {
+                writes.add(Integer.parseInt(operation.substring(operation.indexOf('$') + 1), 16));
+            }
+        }
+        return new ArrayList<>(writes);
+    }
+}
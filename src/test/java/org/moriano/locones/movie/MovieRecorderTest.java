@@ -0,0 +1,126 @@
+package org.moriano.locones.movie;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.moriano.locones.NES;
+import org.moriano.locones.cartridge.Cartridge;
+import org.moriano.locones.input.InputSource;
+import org.moriano.locones.screen.HeadlessFrameSink;
+import org.moriano.locones.state.RewindBuffer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Records a ROM that does nothing but latch the first controller over and over, while the "player" changes the
+ * buttons before every frame, and checks that the movie has what each real frame got, no matter what was read on
+ * frames that a load (run ahead, rewind) undid afterwards.
+ */
+public class MovieRecorderTest {
+
+    private static final int START = 0xC000;
+    private static final int FRAMES = 30;
+
+    /*
+    C000  LDA #$01
+    C002  STA $4016
+    C005  LDA #$00
+    C007  STA $4016  <== latch
+    C00A  LDA $4016
+    C00D  JMP $C000
+     */
+    private static final int[] LATCH_LOOP = {0xA9, 0x01, 0x8D, 0x16, 0x40, 0xA9, 0x00, 0x8D, 0x16, 0x40,
+            0xAD, 0x16, 0x40, 0x4C, 0x00, 0xC0};
+
+    private static Cartridge cartridge;
+
+    @BeforeAll
+    static void load(@TempDir Path folder) throws IOException {
+        byte[] rom = new byte[16 + 16 * 1024 + 8 * 1024];
+        rom[0] = 'N';
+        rom[1] = 'E';
+        rom[2] = 'S';
+        rom[3] = 0x1A;
+        rom[4] = 1; // 16KB of PRG ROM, at $C000
+        rom[5] = 1; // 8KB of CHR ROM
+        for (int i = 0; i < LATCH_LOOP.length; i++) {
+            rom[16 + i] = (byte) LATCH_LOOP[i];
+        }
+        Path path = folder.resolve("latch.nes");
+        Files.write(path, rom);
+        cartridge = Cartridge.loadFromFile(path.toString());
+    }
+
+    /**
+     * The frames run ahead read the buttons as they are then, the real frame after them has to read them again
+     */
+    @Test
+    void runAheadOnlyRecordsTheRealFrames() {
+        NES nes = new NES(cartridge, START, false, new HeadlessFrameSink());
+        nes.setPrintTrace(false);
+        nes.setRunAheadFrames(2);
+        Player player = new Player();
+        MovieRecorder recorder = new MovieRecorder(nes::getFrameNumber, player);
+        nes.setInputSource(1, recorder);
+
+        byte[] fed = new byte[FRAMES];
+        for (int frame = 0; frame < FRAMES; frame++) {
+            player.buttons = (frame * 37 + 11) & 0xFF;
+            fed[frame] = (byte) player.buttons;
+            nes.runFrameAhead();
+        }
+
+        assertArrayEquals(fed, recorder.getButtons());
+    }
+
+    /**
+     * Going back and then pressing something else has to end up in the movie, not what was pressed the first time
+     */
+    @Test
+    void rewindCutsTheRecording() {
+        NES nes = new NES(cartridge, START, false, new HeadlessFrameSink());
+        nes.setPrintTrace(false);
+        Player player = new Player();
+        MovieRecorder recorder = new MovieRecorder(nes::getFrameNumber, player);
+        nes.setInputSource(1, recorder);
+        RewindBuffer rewindBuffer = new RewindBuffer(1024 * 1024, 10, FRAMES);
+
+        byte[] fed = new byte[FRAMES];
+        for (int frame = 0; frame < FRAMES; frame++) {
+            rewindBuffer.push(nes);
+            player.buttons = InputSource.BUTTON_A;
+            fed[frame] = (byte) player.buttons;
+            nes.runFrame();
+        }
+
+        int rewindTo = FRAMES / 2;
+        for (int frame = FRAMES - 1; frame >= rewindTo; frame--) {
+            assertTrue(rewindBuffer.stepBack(nes));
+        }
+        for (int frame = rewindTo; frame < FRAMES; frame++) {
+            player.buttons = InputSource.BUTTON_B | (frame << 2);
+            fed[frame] = (byte) player.buttons;
+            nes.runFrame();
+        }
+
+        assertArrayEquals(fed, recorder.getButtons());
+    }
+
+    /**
+     * Whatever the test says is being held right now
+     */
+    private static class Player implements InputSource {
+
+        private int buttons = 0;
+
+        @Override
+        public int readButtons() {
+            return this.buttons;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.moriano.locones.screen;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.moriano.locones.NES;
+import org.moriano.locones.cartridge.Cartridge;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Runs a ROM that does nothing but jump to itself (so it never runs into anything the core does not support) and
+ * checks what the PPU hands over to the FrameSink: one frame per frame run, and when running ahead only the last
+ * frame ahead, never the real one nor the ones in between.
+ */
+public class InMemoryFrameSinkTest {
+
+    private static final int START = 0xC000;
+    private static final int KEPT_FRAMES = 2;
+
+    /*
+    C000  JMP $C000
+     */
+    private static final int[] SPIN = {0x4C, 0x00, 0xC0};
+
+    private static Cartridge cartridge;
+
+    @BeforeAll
+    static void load(@TempDir Path folder) throws IOException {
+        byte[] rom = new byte[16 + 16 * 1024 + 8 * 1024];
+        rom[0] = 'N';
+        rom[1] = 'E';
+        rom[2] = 'S';
+        rom[3] = 0x1A;
+        rom[4] = 1; // 16KB of PRG ROM, at $C000
+        rom[5] = 1; // 8KB of CHR ROM
+        for (int i = 0; i < SPIN.length; i++) {
+            rom[16 + i] = (byte) SPIN[i];
+        }
+        Path path = folder.resolve("spin.nes");
+        Files.write(path, rom);
+        cartridge = Cartridge.loadFromFile(path.toString());
+    }
+
+    @Test
+    void oneFramePerRunFrame() {
+        InMemoryFrameSink frameSink = new InMemoryFrameSink(KEPT_FRAMES);
+        NES nes = new NES(cartridge, START, false, frameSink);
+
+        for (int frame = 1; frame <= 5; frame++) {
+            nes.runFrame();
+            assertEquals(frame, frameSink.getTotalFrames());
+            assertEquals(frame, nes.getFrameNumber());
+        }
+
+        assertEquals(KEPT_FRAMES, frameSink.getFrames().size());
+        assertNotNull(frameSink.getLastFrame());
+        assertSame(frameSink.getFrames().get(KEPT_FRAMES - 1), frameSink.getLastFrame());
+    }
+
+    @Test
+    void runningAheadShowsOneFramePerCall() {
+        InMemoryFrameSink frameSink = new InMemoryFrameSink(KEPT_FRAMES);
+        NES nes = new NES(cartridge, START, false, frameSink);
+        nes.setRunAheadFrames(2);
+
+        for (int frame = 1; frame <= 5; frame++) {
+            nes.runFrameAhead();
+            assertEquals(frame, frameSink.getTotalFrames());
+            assertEquals(frame, nes.getFrameNumber()); // The frames ahead are undone
+        }
+    }
+}
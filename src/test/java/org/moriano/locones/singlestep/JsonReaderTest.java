@@ -0,0 +1,100 @@
+package org.moriano.locones.singlestep;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * What the single step files need from {@link JsonReader}, plus what they may have one day: escapes, nesting, values
+ * of every kind to skip, and documents (and strings) longer than its buffer.
+ */
+public class JsonReaderTest {
+
+    @Test
+    void readsEscapes() throws IOException {
+        JsonReader reader = new JsonReader(new StringReader(
+                "[\"a\\\"b\\\\c\\/d\", \"\\b\\f\\n\\r\\t\", \"\\u0041\\u00e9\\u20AC\", \"\"]"));
+        reader.beginArray();
+        assertEquals("a\"b\\c/d", reader.nextString());
+        assertEquals("\b\f\n\r\t", reader.nextString());
+        assertEquals("A\u00e9\u20ac", reader.nextString());
+        assertEquals("", reader.nextString());
+        assertFalse(reader.hasNext());
+        reader.endArray();
+    }
+
+    @Test
+    void walksNestedObjectsAndArrays() throws IOException {
+        JsonReader reader = new JsonReader(new StringReader(
+                "{\n \"pc\": 65535,\n \"ram\": [[0, 255], [-1, 2147483647]],\n \"inner\": {\"s\": -4294967296}\n}"));
+        reader.beginObject();
+        assertEquals("pc", reader.nextName());
+        assertEquals(0xFFFF, reader.nextInt());
+        assertEquals("ram", reader.nextName());
+        reader.beginArray();
+        reader.beginArray();
+        assertEquals(0, reader.nextInt());
+        assertEquals(255, reader.nextInt());
+        assertFalse(reader.hasNext());
+        reader.endArray();
+        reader.beginArray();
+        assertEquals(-1, reader.nextInt());
+        assertEquals(Integer.MAX_VALUE, reader.nextInt());
+        reader.endArray();
+        assertFalse(reader.hasNext());
+        reader.endArray();
+        assertEquals("inner", reader.nextName());
+        reader.beginObject();
+        assertEquals("s", reader.nextName());
+        assertEquals(-4294967296L, reader.nextLong());
+        reader.endObject();
+        reader.endObject();
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    void skipsValuesOfEveryKind() throws IOException {
+        JsonReader reader = new JsonReader(new StringReader("{\"a\": {\"b\": [1, {\"c\": \"]}\\\"\"}, []], \"d\": {}},"
+                + " \"e\": -1.5e+3, \"f\": true, \"g\": false, \"h\": null, \"i\": \"x\", \"last\": 7}"));
+        reader.beginObject();
+        for (String name : new String[]{"a", "e", "f", "g", "h", "i"}) {
+            assertEquals(name, reader.nextName());
+            reader.skipValue();
+        }
+        assertEquals("last", reader.nextName());
+        assertEquals(7, reader.nextInt());
+        reader.endObject();
+    }
+
+    @Test
+    void readsPastTheBuffer() throws IOException {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 30000; i++) {
+            json.append(i).append(", ");
+        }
+        json.append("\"").append("x".repeat(100000)).append("\"]");
+        JsonReader reader = new JsonReader(new StringReader(json.toString()));
+        reader.beginArray();
+        for (int i = 0; i < 30000; i++) {
+            assertTrue(reader.hasNext());
+            assertEquals(i, reader.nextInt());
+        }
+        assertEquals(100000, reader.nextString().length());
+        reader.endArray();
+    }
+
+    @Test
+    void refusesWhatItCannotRead() {
+        assertThrows(IllegalStateException.class, () -> new JsonReader(new StringReader("1.5")).nextInt());
+        assertThrows(IllegalStateException.class, () -> new JsonReader(new StringReader("2147483648")).nextInt());
+        assertThrows(IllegalStateException.class, () -> new JsonReader(new StringReader("\"abc")).nextString());
+        assertThrows(IllegalStateException.class, () -> new JsonReader(new StringReader("[1]")).beginObject());
+        assertThrows(IllegalStateException.class, () -> new JsonReader(new StringReader("}")).skipValue());
+    }
+}
@@ -0,0 +1,90 @@
+package org.moriano.locones.singlestep;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the hand made vectors in src/test/resources/singlestep, 20 tests each, same layout as the real suite:
+ *
+ * - a9.json: LDA #imm, pretty printed, test 7 has a wrong final A on purpose and test 3 has a field the runner does
+ *   not know about (with objects, arrays, a float, true and null inside), which has to be skipped.
+ * - e8.json: INX, the vectors expect the dummy read of the byte after the opcode, which the CPU does not do.
+ * - 85.json.gz: STA zp, gzipped, every bus cycle has to match.
+ * - 02.json: a KIL opcode, the CPU does not implement it.
+ */
+public class SingleStepRunnerTest {
+
+    @Test
+    void countsTheFailingTest() throws URISyntaxException {
+        SingleStepRunner.OpcodeResult result = SingleStepRunner.runFile(vector("a9.json"));
+        assertEquals(0xA9, result.getOpcode());
+        assertEquals("LDA", result.getInstruction());
+        assertEquals(20, result.getTotal());
+        assertEquals(19, result.getPassed());
+        assertEquals(19, result.getBusExact());
+        assertEquals("a9 6b: A expected 6A got 6B", result.getFirstFailure());
+        assertNull(result.getUnsupported());
+        assertFalse(result.isFullyPassed());
+    }
+
+    @Test
+    void passesWithoutTheDummyRead() throws URISyntaxException {
+        SingleStepRunner.OpcodeResult result = SingleStepRunner.runFile(vector("e8.json"));
+        assertEquals("INX", result.getInstruction());
+        assertEquals(20, result.getTotal());
+        assertEquals(20, result.getPassed());
+        assertEquals(0, result.getBusExact(), "INX does not read the byte after the opcode");
+        assertNull(result.getFirstFailure());
+        assertTrue(result.isFullyPassed());
+    }
+
+    @Test
+    void readsGzippedFiles() throws URISyntaxException {
+        SingleStepRunner.OpcodeResult result = SingleStepRunner.runFile(vector("85.json.gz"));
+        assertEquals(0x85, result.getOpcode());
+        assertEquals("STA", result.getInstruction());
+        assertEquals(20, result.getTotal());
+        assertEquals(20, result.getPassed());
+        assertEquals(20, result.getBusExact());
+        assertTrue(result.isFullyPassed());
+    }
+
+    @Test
+    void stopsAtUnsupportedOpcodes() throws URISyntaxException {
+        SingleStepRunner.OpcodeResult result = SingleStepRunner.runFile(vector("02.json"));
+        assertEquals(0x02, result.getOpcode());
+        assertEquals(0, result.getTotal());
+        assertEquals("Unknown opCode 0x2", result.getUnsupported());
+        assertFalse(result.isFullyPassed());
+    }
+
+    @Test
+    void runsAllInOrder() throws URISyntaxException {
+        File[] files = {vector("02.json"), vector("85.json.gz"), vector("a9.json"), vector("e8.json")};
+        List<SingleStepRunner.OpcodeResult> results = SingleStepRunner.runAll(files, 2);
+        assertEquals(4, results.size());
+        assertEquals(0x02, results.get(0).getOpcode());
+        assertEquals(0x85, results.get(1).getOpcode());
+        assertEquals(0xA9, results.get(2).getOpcode());
+        assertEquals(19, results.get(2).getPassed());
+        assertEquals(0xE8, results.get(3).getOpcode());
+    }
+
+    @Test
+    void refusesFilesNotNamedAfterAnOpcode() {
+        assertThrows(IllegalArgumentException.class, () -> SingleStepRunner.runFile(new File("nestest.json")));
+    }
+
+    private static File vector(String name) throws URISyntaxException {
+        return new File(SingleStepRunnerTest.class.getResource("/singlestep/" + name).toURI());
+    }
+}
@@ -0,0 +1,135 @@
+package org.moriano.locones.state;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.moriano.locones.NES;
+import org.moriano.locones.cartridge.Cartridge;
+import org.moriano.locones.memory.Memory;
+import org.moriano.locones.screen.HeadlessFrameSink;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Pushes many laps worth of states through small arenas, with a mix of keyframes and deltas of very different sizes
+ * (from a few bytes of RAM changed per frame to most of it), and checks that no two frames kept ever share bytes of
+ * the arena, and that going back gives every one of them as it was pushed.
+ */
+public class RewindBufferTest {
+
+    private static final int SEEDS = 160;
+    private static final int FRAMES = 300;
+
+    private static Cartridge cartridge;
+
+    @BeforeAll
+    static void load() {
+        cartridge = Cartridge.nestest();
+    }
+
+    /**
+     * The arena wraps while the tail of the previous lap is still live, past where the current lap ends: those
+     * entries do not overlap the new one, but the ones at the start of the current lap do.
+     *
+     * Every push is a keyframe, sized by how many bytes of RAM are random (~135 bytes plus one per random byte).
+     * With a 4000 bytes arena, roughly: [0, 2200) [2200, 2500), then [0, 1700) wraps and throws the first one away,
+     * [1700, 2100) fits, and then ~2150 bytes wrap again, with [2200, 2500) (the oldest) not in their way.
+     */
+    @Test
+    void wrapsPastTheLeftoversOfThePreviousLap() {
+        NES nes = new NES(cartridge, 0xC000, false, new HeadlessFrameSink());
+        RewindBuffer buffer = new RewindBuffer(4000, 1, 100);
+        Random random = new Random(1);
+        List<byte[]> pushed = new ArrayList<>();
+        ByteBuffer state = ByteBuffer.allocate(SaveState.MAX_SIZE);
+        for (int randomBytes : new int[]{2060, 165, 1510, 265, 1940, 100, 100}) {
+            for (int address = 0; address < 0x800; address++) {
+                nes.getMemory().write(address, address < randomBytes ? random.nextInt(256) : 0);
+            }
+            buffer.push(nes);
+            pushed.add(save(nes, state));
+            assertNoOverlaps(buffer, "after " + pushed.size() + " pushes");
+        }
+        assertStepsBack(buffer, nes, pushed, state, "wrap");
+    }
+
+    /**
+     * Random arenas, random keyframe intervals, random amounts of RAM changed per frame (mostly a few bytes, now and
+     * then most of it, so keyframes and deltas of all sizes)
+     */
+    @Test
+    void liveEntriesNeverOverlap() {
+        for (int seed = 0; seed < SEEDS; seed++) {
+            Random random = new Random(seed);
+            int budget = 3000 + random.nextInt(15000);
+            int keyframeInterval = 1 + random.nextInt(6);
+            int maxFrames = 8 + random.nextInt(100);
+            String name = "seed " + seed + ", budget " + budget + ", interval " + keyframeInterval + ", max " + maxFrames;
+
+            NES nes = new NES(cartridge, 0xC000, false, new HeadlessFrameSink());
+            Memory memory = nes.getMemory();
+            RewindBuffer buffer = new RewindBuffer(budget, keyframeInterval, maxFrames);
+            List<byte[]> pushed = new ArrayList<>();
+            ByteBuffer state = ByteBuffer.allocate(SaveState.MAX_SIZE);
+            for (int frame = 0; frame < FRAMES; frame++) {
+                int changes = random.nextInt(4) == 0 ? random.nextInt(0x800) : random.nextInt(16);
+                for (int i = 0; i < changes; i++) {
+                    memory.write(random.nextInt(0x800), random.nextInt(256));
+                }
+                buffer.push(nes);
+                pushed.add(save(nes, state));
+                assertNoOverlaps(buffer, name + ", frame " + frame);
+            }
+            assertStepsBack(buffer, nes, pushed, state, name);
+        }
+    }
+
+    /**
+     * Goes back through every frame kept, each has to be exactly what was pushed
+     */
+    private static void assertStepsBack(RewindBuffer buffer, NES nes, List<byte[]> pushed, ByteBuffer state,
+                                        String name) {
+        int frames = buffer.getFrames();
+        for (int i = 0; i < frames; i++) {
+            if (!buffer.stepBack(nes)) {
+                fail(name + ": only went back " + i + " of " + frames + " frames");
+            }
+            assertArrayEquals(pushed.get(pushed.size() - 1 - i), save(nes, state), name + ", step back " + i);
+        }
+        assertFalse(buffer.stepBack(nes), name);
+        assertEquals(0, buffer.getFrames(), name);
+    }
+
+    private static void assertNoOverlaps(RewindBuffer buffer, String where) {
+        for (int i = 0; i < buffer.getFrames(); i++) {
+            int start = buffer.getEntryOffset(i);
+            int end = start + buffer.getEntryLength(i);
+            if (end > buffer.getBudgetBytes()) {
+                fail(where + ": frame " + i + " goes past the end of the arena, [" + start + ", " + end + ")");
+            }
+            for (int j = i + 1; j < buffer.getFrames(); j++) {
+                int otherStart = buffer.getEntryOffset(j);
+                int otherEnd = otherStart + buffer.getEntryLength(j);
+                if (start < otherEnd && otherStart < end) {
+                    fail(where + ": frames " + i + " [" + start + ", " + end + ") and " + j + " [" + otherStart
+                            + ", " + otherEnd + ") overlap");
+                }
+            }
+        }
+    }
+
+    private static byte[] save(NES nes, ByteBuffer state) {
+        state.clear();
+        nes.save(state);
+        byte[] bytes = new byte[state.position()];
+        state.flip().get(bytes);
+        return bytes;
+    }
+}